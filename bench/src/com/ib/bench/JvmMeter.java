@@ -0,0 +1,96 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+
+/**
+ * Garbage collections and allocated bytes between start() and stop(). Allocations are summed
+ * over the threads alive at both points whose name does not start with the excluded prefix,
+ * so that an in-process server does not count against the client; GCs are process wide.
+ */
+class JvmMeter {
+	private final String m_excludedPrefix;
+	private final com.sun.management.ThreadMXBean m_threads;
+	private final HashMap<Long,Long> m_startBytes = new HashMap<Long,Long>();
+	private long m_startGcCount;
+	private long m_startGcMillis;
+
+	private long m_gcCount;
+	private long m_gcMillis;
+	private long m_allocatedBytes = -1;
+
+	JvmMeter(String excludedPrefix) {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		m_excludedPrefix = excludedPrefix;
+		m_threads = threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported()
+				? (com.sun.management.ThreadMXBean)threads : null;
+		if (m_threads != null && !m_threads.isThreadAllocatedMemoryEnabled() ) {
+			m_threads.setThreadAllocatedMemoryEnabled( true);
+		}
+	}
+
+	void start() {
+		m_startGcCount = totalGcCount();
+		m_startGcMillis = totalGcMillis();
+		m_startBytes.clear();
+		if (m_threads != null) {
+			allocatedBytes( m_startBytes);
+		}
+	}
+
+	void stop() {
+		m_gcCount = totalGcCount() - m_startGcCount;
+		m_gcMillis = totalGcMillis() - m_startGcMillis;
+		if (m_threads != null) {
+			HashMap<Long,Long> end = new HashMap<Long,Long>();
+			allocatedBytes( end);
+			long total = 0;
+			for (Long id : end.keySet() ) {
+				Long start = m_startBytes.get( id);
+				if (start != null) {
+					total += end.get( id) - start;
+				}
+			}
+			m_allocatedBytes = total;
+		}
+	}
+
+	long gcCount()			{ return m_gcCount; }
+	long gcMillis()			{ return m_gcMillis; }
+
+	/** @return bytes allocated by the measured threads, or -1 if the JVM cannot tell */
+	long allocatedBytes()	{ return m_allocatedBytes; }
+
+	private void allocatedBytes(HashMap<Long,Long> bytes) {
+		long[] ids = m_threads.getAllThreadIds();
+		ThreadInfo[] infos = m_threads.getThreadInfo( ids);
+		long[] allocated = m_threads.getThreadAllocatedBytes( ids);
+		for (int i = 0; i < ids.length; i++) {
+			if (infos[i] != null && allocated[i] >= 0 && !infos[i].getThreadName().startsWith( m_excludedPrefix) ) {
+				bytes.put( ids[i], allocated[i]);
+			}
+		}
+	}
+
+	private static long totalGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() ) {
+			count += Math.max( 0, gc.getCollectionCount() );
+		}
+		return count;
+	}
+
+	private static long totalGcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() ) {
+			millis += Math.max( 0, gc.getCollectionTime() );
+		}
+		return millis;
+	}
+}
@@ -0,0 +1,287 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ib.client.LatencyHistogram;
+import com.ib.controller.ApiConnection.ILogger;
+import com.ib.controller.ApiController;
+import com.ib.controller.ApiController.IConnectionHandler;
+import com.ib.server.TwsSimulator;
+
+/**
+ * End-to-end benchmark of ApiController against an in-process TwsSimulator over loopback.
+ * Every scenario runs at every target rate on a fresh connection: after a warm-up the sent and
+ * received message rates, a latency histogram, garbage collections and the allocation rate of
+ * the client side threads are measured. One line per run is printed, and all runs are written
+ * to loopback-&lt;label&gt;.csv and .json in the output directory for comparing releases.
+ * <p>
+ * The sent rate counts frames; a historical data response is one frame for all its bars.
+ * The received rate counts messages as the scenario's handlers see them.
+ * <p>
+ * Usage: java com.ib.bench.LoopbackBenchmark [-scenarios top-of-book,deep-book,order-storm,bulk-historical]
+ * [-rates 1000,10000,50000,100000,200000] [-warmup 5] [-duration 10] [-out bench-results] [-label yyyyMMdd-HHmmss]
+ */
+public class LoopbackBenchmark {
+	private static final String SIMULATOR_THREADS = "TwsSimulator";
+	private static final long DRIVE_INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos( 100);
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private final long m_warmupNanos;
+	private final long m_durationNanos;
+
+	LoopbackBenchmark(long warmupSeconds, long durationSeconds) {
+		m_warmupNanos = TimeUnit.SECONDS.toNanos( warmupSeconds);
+		m_durationNanos = TimeUnit.SECONDS.toNanos( durationSeconds);
+	}
+
+	/** The outcome of one scenario at one target rate. */
+	static class Result {
+		final String m_scenario;
+		final String m_latencyMetric;
+		final double m_targetRate;
+		final double m_seconds;
+		final long m_sent;
+		final long m_received;
+		final LatencyHistogram.Snapshot m_latency;
+		final long m_gcCount;
+		final long m_gcMillis;
+		final long m_allocatedBytes;
+
+		Result(Scenario scenario, double targetRate, double seconds, long sent, long received, JvmMeter meter) {
+			m_scenario = scenario.name();
+			m_latencyMetric = scenario.latencyMetric();
+			m_targetRate = targetRate;
+			m_seconds = seconds;
+			m_sent = sent;
+			m_received = received;
+			m_latency = scenario.m_latency.snapshotAndReset();
+			m_gcCount = meter.gcCount();
+			m_gcMillis = meter.gcMillis();
+			m_allocatedBytes = meter.allocatedBytes();
+		}
+
+		double sentRate()		{ return m_sent / m_seconds; }
+		double receivedRate()	{ return m_received / m_seconds; }
+		double allocRate()		{ return m_allocatedBytes < 0 ? -1 : m_allocatedBytes / m_seconds; }
+		double allocPerMsg()	{ return m_allocatedBytes < 0 || m_received == 0 ? -1 : (double)m_allocatedBytes / m_received; }
+
+		@Override public String toString() {
+			return String.format( Locale.US, "%-16s target %8.0f/s  sent %9.0f/s  received %9.0f/s  %s p50=%dus p99=%dus p99.9=%dus max=%dus  gc %d (%d ms)  alloc %.1f MB/s %.0f B/msg",
+					m_scenario, m_targetRate, sentRate(), receivedRate(), m_latencyMetric,
+					micros( m_latency.percentile( 50) ), micros( m_latency.percentile( 99) ), micros( m_latency.percentile( 99.9) ), micros( m_latency.max() ),
+					m_gcCount, m_gcMillis, allocRate() / 1e6, allocPerMsg() );
+		}
+	}
+
+	Result run(Scenario scenario, double rate) throws IOException, InterruptedException {
+		TwsSimulator simulator = new TwsSimulator( 0);
+		scenario.configure( simulator, rate);
+		simulator.start();
+
+		final CountDownLatch connected = new CountDownLatch( 1);
+		final AtomicBoolean closing = new AtomicBoolean();
+		ApiController controller = new ApiController( new IConnectionHandler() {
+			@Override public void connected() {
+				connected.countDown();
+			}
+
+			@Override public void disconnected() {
+			}
+
+			@Override public void accountList(ArrayList<String> list) {
+			}
+
+			@Override public void error(Exception e) {
+				if (!closing.get() ) {
+					e.printStackTrace();
+				}
+			}
+
+			@Override public void message(int id, int errorCode, String errorMsg) {
+			}
+
+			@Override public void show(String string) {
+			}
+		}, NO_LOG, NO_LOG);
+
+		try {
+			controller.connect( "127.0.0.1", simulator.port(), 0, "");
+			if (!connected.await( 10, TimeUnit.SECONDS) ) {
+				throw new IOException( "no connection to the simulator on port " + simulator.port() );
+			}
+			scenario.start( controller, rate);
+
+			drive( scenario, System.nanoTime() + m_warmupNanos);
+
+			JvmMeter meter = new JvmMeter( SIMULATOR_THREADS);
+			scenario.m_latency.snapshotAndReset();
+			long sent = simulator.messagesSent();
+			long received = scenario.m_received.get();
+			long start = System.nanoTime();
+			meter.start();
+
+			drive( scenario, start + m_durationNanos);
+
+			meter.stop();
+			double seconds = (System.nanoTime() - start) / 1e9;
+			return new Result( scenario, rate, seconds, simulator.messagesSent() - sent, scenario.m_received.get() - received, meter);
+		}
+		finally {
+			closing.set( true);
+			controller.disconnect();
+			simulator.close();
+		}
+	}
+
+	private static void drive(Scenario scenario, long endNanos) {
+		for (long now = System.nanoTime(); now < endNanos; now = System.nanoTime() ) {
+			scenario.drive( now);
+			LockSupport.parkNanos( DRIVE_INTERVAL_NANOS);
+		}
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros( nanos);
+	}
+
+	static void writeCsv(File file, ArrayList<Result> results) throws IOException {
+		PrintWriter out = new PrintWriter( new FileWriter( file) );
+		try {
+			StringBuilder header = new StringBuilder( "scenario,target_rate,seconds,sent_rate,received_rate,latency_metric,latency_count");
+			for (double p : PERCENTILES) {
+				header.append( ",latency_p").append( percentileName( p) ).append( "_ns");
+			}
+			header.append( ",latency_max_ns,gc_count,gc_ms,alloc_bytes,alloc_bytes_per_sec,alloc_bytes_per_msg");
+			out.println( header);
+
+			for (Result r : results) {
+				StringBuilder sb = new StringBuilder();
+				sb.append( String.format( Locale.US, "%s,%.0f,%.3f,%.1f,%.1f,%s,%d", r.m_scenario, r.m_targetRate, r.m_seconds, r.sentRate(), r.receivedRate(), r.m_latencyMetric, r.m_latency.count() ) );
+				for (double p : PERCENTILES) {
+					sb.append( ',').append( r.m_latency.percentile( p) );
+				}
+				sb.append( String.format( Locale.US, ",%d,%d,%d,%d,%.0f,%.1f", r.m_latency.max(), r.m_gcCount, r.m_gcMillis, r.m_allocatedBytes, r.allocRate(), r.allocPerMsg() ) );
+				out.println( sb);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	static void writeJson(File file, String label, long warmupSeconds, long durationSeconds, ArrayList<Result> results) throws IOException {
+		PrintWriter out = new PrintWriter( new FileWriter( file) );
+		try {
+			out.println( "{");
+			out.println( "  \"label\": " + quote( label) + ",");
+			out.println( "  \"date\": " + quote( new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ssZ").format( new Date() ) ) + ",");
+			out.println( "  \"java\": " + quote( System.getProperty( "java.version") ) + ",");
+			out.println( "  \"vm\": " + quote( System.getProperty( "java.vm.name") ) + ",");
+			out.println( "  \"os\": " + quote( System.getProperty( "os.name") + " " + System.getProperty( "os.arch") ) + ",");
+			out.println( "  \"processors\": " + Runtime.getRuntime().availableProcessors() + ",");
+			out.println( "  \"warmup_seconds\": " + warmupSeconds + ",");
+			out.println( "  \"duration_seconds\": " + durationSeconds + ",");
+			out.println( "  \"results\": [");
+			for (int i = 0; i < results.size(); i++) {
+				Result r = results.get( i);
+				StringBuilder sb = new StringBuilder( "    { ");
+				sb.append( "\"scenario\": ").append( quote( r.m_scenario) );
+				sb.append( String.format( Locale.US, ", \"target_rate\": %.0f, \"seconds\": %.3f, \"sent_rate\": %.1f, \"received_rate\": %.1f",
+						r.m_targetRate, r.m_seconds, r.sentRate(), r.receivedRate() ) );
+				sb.append( ", \"latency\": { \"metric\": ").append( quote( r.m_latencyMetric) ).append( ", \"count\": ").append( r.m_latency.count() );
+				for (double p : PERCENTILES) {
+					sb.append( ", \"p").append( percentileName( p) ).append( "_ns\": ").append( r.m_latency.percentile( p) );
+				}
+				sb.append( ", \"max_ns\": ").append( r.m_latency.max() ).append( " }");
+				sb.append( String.format( Locale.US, ", \"gc_count\": %d, \"gc_ms\": %d, \"alloc_bytes\": %d, \"alloc_bytes_per_sec\": %.0f, \"alloc_bytes_per_msg\": %.1f }",
+						r.m_gcCount, r.m_gcMillis, r.m_allocatedBytes, r.allocRate(), r.allocPerMsg() ) );
+				out.println( sb + (i < results.size() - 1 ? "," : "") );
+			}
+			out.println( "  ]");
+			out.println( "}");
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/** 99.9 becomes "99_9" */
+	private static String percentileName(double p) {
+		return p == Math.rint( p) ? String.valueOf( (long)p) : String.valueOf( p).replace( '.', '_');
+	}
+
+	private static String quote(String s) {
+		return "\"" + s.replace( "\\", "\\\\").replace( "\"", "\\\"") + "\"";
+	}
+
+	private static final ILogger NO_LOG = new ILogger() {
+		@Override public void log(String valueOf) {
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		String[] scenarios = Scenario.names();
+		String rates = "1000,10000,50000,100000,200000";
+		long warmup = 5;
+		long duration = 10;
+		File outDir = new File( "bench-results");
+		String label = new SimpleDateFormat( "yyyyMMdd-HHmmss").format( new Date() );
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "-scenarios":	scenarios = args[i + 1].split( ","); break;
+				case "-rates":		rates = args[i + 1]; break;
+				case "-warmup":		warmup = Long.parseLong( args[i + 1]); break;
+				case "-duration":	duration = Long.parseLong( args[i + 1]); break;
+				case "-out":		outDir = new File( args[i + 1]); break;
+				case "-label":		label = args[i + 1]; break;
+				default:
+					System.err.println( "unknown option " + args[i]);
+					System.exit( 1);
+			}
+		}
+		if (args.length % 2 != 0) {
+			System.err.println( "option " + args[args.length - 1] + " needs a value");
+			System.exit( 1);
+		}
+
+		LoopbackBenchmark benchmark = new LoopbackBenchmark( warmup, duration);
+		ArrayList<Result> results = new ArrayList<Result>();
+		for (String name : scenarios) {
+			for (String rate : rates.split( ",") ) {
+				Scenario scenario = Scenario.create( name.trim() );
+				if (scenario == null) {
+					System.err.println( "unknown scenario " + name);
+					System.exit( 1);
+				}
+				Result result = benchmark.run( scenario, Double.parseDouble( rate.trim() ) );
+				System.out.println( result);
+				results.add( result);
+			}
+		}
+
+		if (!outDir.isDirectory() && !outDir.mkdirs() ) {
+			throw new IOException( "cannot create " + outDir);
+		}
+		File csv = new File( outDir, "loopback-" + label + ".csv");
+		File json = new File( outDir, "loopback-" + label + ".json");
+		writeCsv( csv, results);
+		writeJson( json, label, warmup, duration, results);
+		System.out.println( "results written to " + csv + " and " + json);
+		System.exit( 0);	// the controller's reader threads are not daemons
+	}
+}
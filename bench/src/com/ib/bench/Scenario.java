@@ -0,0 +1,289 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.bench;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.ib.client.Contract;
+import com.ib.client.LatencyHistogram;
+import com.ib.client.Order;
+import com.ib.client.OrderState;
+import com.ib.client.OrderStatus;
+import com.ib.client.OrderType;
+import com.ib.client.TickType;
+import com.ib.client.Types.Action;
+import com.ib.client.Types.BarSize;
+import com.ib.client.Types.DeepSide;
+import com.ib.client.Types.DeepType;
+import com.ib.client.Types.DurationUnit;
+import com.ib.client.Types.MktDataType;
+import com.ib.client.Types.SecType;
+import com.ib.client.Types.WhatToShow;
+import com.ib.controller.ApiController;
+import com.ib.controller.ApiController.IDeepMktDataHandler;
+import com.ib.controller.ApiController.IHistoricalDataHandler;
+import com.ib.controller.ApiController.ILiveOrderHandler;
+import com.ib.controller.ApiController.ITopMktDataHandler;
+import com.ib.controller.Bar;
+import com.ib.server.TwsSimulator;
+
+/**
+ * A load pattern for LoopbackBenchmark: how the simulator is set up and which requests the
+ * client makes so that the simulator sends the target number of messages per second. Handlers
+ * count the messages they receive and record one latency per message or per request.
+ */
+abstract class Scenario {
+	static final String ARRIVAL_TO_HANDLER = "arrival-to-handler";
+	static final String REQUEST_TO_RESPONSE = "request-to-response";
+
+	private final String m_name;
+	private final String m_latencyMetric;
+	final AtomicLong m_received = new AtomicLong();
+	final LatencyHistogram m_latency = new LatencyHistogram();
+	ApiController m_controller;
+
+	Scenario(String name, String latencyMetric) {
+		m_name = name;
+		m_latencyMetric = latencyMetric;
+	}
+
+	String name()			{ return m_name; }
+	String latencyMetric()	{ return m_latencyMetric; }
+
+	/** @return the scenario with the given name, or null */
+	static Scenario create(String name) {
+		switch (name) {
+			case TopOfBook.NAME:		return new TopOfBook();
+			case DeepBook.NAME:			return new DeepBook();
+			case OrderStorm.NAME:		return new OrderStorm();
+			case BulkHistorical.NAME:	return new BulkHistorical();
+			default:					return null;
+		}
+	}
+
+	static String[] names() {
+		return new String[] { TopOfBook.NAME, DeepBook.NAME, OrderStorm.NAME, BulkHistorical.NAME };
+	}
+
+	/** Sets up the simulator for rate messages per second in total; called before the client connects. */
+	abstract void configure(TwsSimulator simulator, double rate);
+
+	/** Makes the initial requests once connected. */
+	void start(ApiController controller, double rate) {
+		m_controller = controller;
+	}
+
+	/** Called about every 100 us on the benchmark thread for scenarios that send requests at a rate. */
+	void drive(long nowNanos) {
+	}
+
+	/** Records the time since the frame being dispatched arrived; call from handler callbacks only. */
+	void received() {
+		m_received.incrementAndGet();
+		m_latency.record( System.nanoTime() - m_controller.arrivalNanos() );
+	}
+
+	static Contract stock(String symbol) {
+		Contract contract = new Contract();
+		contract.symbol( symbol);
+		contract.secType( SecType.STK);
+		contract.exchange( "SMART");
+		contract.currency( "USD");
+		return contract;
+	}
+
+	static String symbol(int i) {
+		return String.format( "SYM%03d", i);
+	}
+
+	/** Paces requests at a fixed rate from start(); a backlog of more than 10 ms worth is dropped rather than sent in one burst. */
+	static class Pacer {
+		private final double m_perSecond;
+		private final long m_maxBurst;
+		private final long m_startNanos = System.nanoTime();
+		private long m_issued;
+
+		Pacer(double perSecond) {
+			m_perSecond = perSecond;
+			m_maxBurst = Math.max( 1, (long)(perSecond / 100) );
+		}
+
+		/** @return the number of requests due now */
+		int due(long nowNanos) {
+			long due = (long)((nowNanos - m_startNanos) * m_perSecond / 1e9) + 1;
+			long n = Math.min( due - m_issued, m_maxBurst);
+			m_issued = due;
+			return (int)Math.max( 0, n);
+		}
+	}
+
+	/** Many symbols with a few ticks each, as for a watch list or a quote screen. */
+	static class TopOfBook extends Scenario {
+		static final String NAME = "top-of-book";
+		private static final int SYMBOLS = 100;
+
+		TopOfBook() {
+			super( NAME, ARRIVAL_TO_HANDLER);
+		}
+
+		@Override void configure(TwsSimulator simulator, double rate) {
+			simulator.tickRate( rate / SYMBOLS);
+		}
+
+		@Override void start(ApiController controller, double rate) {
+			super.start( controller, rate);
+			for (int i = 0; i < SYMBOLS; i++) {
+				controller.reqTopMktData( stock( symbol( i) ), "", false, new ITopMktDataHandler() {
+					@Override public void tickPrice(TickType tickType, double price, int canAutoExecute) {
+						received();
+					}
+
+					@Override public void tickSize(TickType tickType, int size) {
+						// EDecoder follows bid, ask and last prices with their size from the same frame
+						if (tickType == TickType.VOLUME) {
+							received();
+						}
+					}
+
+					@Override public void tickString(TickType tickType, String value) {
+					}
+
+					@Override public void tickSnapshotEnd() {
+					}
+
+					@Override public void marketDataType(MktDataType marketDataType) {
+					}
+				});
+			}
+		}
+	}
+
+	/** A few symbols with many depth updates each. */
+	static class DeepBook extends Scenario {
+		static final String NAME = "deep-book";
+		private static final int SYMBOLS = 10;
+		private static final int ROWS = 20;
+
+		DeepBook() {
+			super( NAME, ARRIVAL_TO_HANDLER);
+		}
+
+		@Override void configure(TwsSimulator simulator, double rate) {
+			simulator.depthRate( rate / SYMBOLS);
+		}
+
+		@Override void start(ApiController controller, double rate) {
+			super.start( controller, rate);
+			for (int i = 0; i < SYMBOLS; i++) {
+				controller.reqDeepMktData( stock( symbol( i) ), ROWS, new IDeepMktDataHandler() {
+					@Override public void updateMktDepth(int position, String marketMaker, DeepType operation, DeepSide side, double price, int size) {
+						received();
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Limit orders placed at half the target rate; the simulator answers each with Submitted and
+	 * fills it on its next pass, so two order statuses per order. Latency is from placing the
+	 * order to its Submitted status.
+	 */
+	static class OrderStorm extends Scenario {
+		static final String NAME = "order-storm";
+		private static final int RING = 1 << 20;	// placement times by order id, more than in flight at any rate
+
+		private final AtomicLongArray m_placedNanos = new AtomicLongArray( RING);
+		private final Contract m_contract = stock( symbol( 0) );
+		private Pacer m_pacer;
+		private int m_nextOrderId;
+
+		OrderStorm() {
+			super( NAME, REQUEST_TO_RESPONSE);
+		}
+
+		@Override void configure(TwsSimulator simulator, double rate) {
+			simulator.fillDelayMillis( 0);
+			m_nextOrderId = simulator.nextValidId();
+		}
+
+		@Override void start(ApiController controller, double rate) {
+			super.start( controller, rate);
+			controller.reqLiveOrders( new ILiveOrderHandler() {
+				@Override public void openOrder(Contract contract, Order order, OrderState orderState) {
+				}
+
+				@Override public void openOrderEnd() {
+				}
+
+				@Override public void orderStatus(int orderId, OrderStatus status, double filled, double remaining, double avgFillPrice, long permId, int parentId, double lastFillPrice, int clientId, String whyHeld) {
+					m_received.incrementAndGet();
+					if (status == OrderStatus.Submitted) {
+						m_latency.record( System.nanoTime() - m_placedNanos.get( orderId & (RING - 1) ) );
+					}
+				}
+
+				@Override public void handle(int orderId, int errorCode, String errorMsg) {
+				}
+			});
+			m_pacer = new Pacer( rate / 2);
+		}
+
+		@Override void drive(long nowNanos) {
+			for (int n = m_pacer.due( nowNanos); n > 0; n--) {
+				Order order = new Order();
+				order.action( Action.BUY);
+				order.totalQuantity( 100);
+				order.orderType( OrderType.LMT);
+				order.lmtPrice( 100);
+				order.transmit( true);
+				order.orderId( m_nextOrderId++);	// the only client placing orders, so it can pick the ids
+
+				m_placedNanos.set( order.orderId() & (RING - 1), System.nanoTime() );
+				m_controller.placeOrModifyOrder( m_contract, order, null);
+			}
+		}
+	}
+
+	/**
+	 * Historical data requests of BARS bars each at rate / BARS per second. Every bar counts as
+	 * a message; latency is from the request to its historicalDataEnd().
+	 */
+	static class BulkHistorical extends Scenario {
+		static final String NAME = "bulk-historical";
+		private static final int BARS = 1000;
+
+		private final Contract m_contract = stock( symbol( 0) );
+		private Pacer m_pacer;
+
+		BulkHistorical() {
+			super( NAME, REQUEST_TO_RESPONSE);
+		}
+
+		@Override void configure(TwsSimulator simulator, double rate) {
+			simulator.historicalBars( BARS);
+		}
+
+		@Override void start(ApiController controller, double rate) {
+			super.start( controller, rate);
+			m_pacer = new Pacer( rate / BARS);
+		}
+
+		@Override void drive(long nowNanos) {
+			for (int n = m_pacer.due( nowNanos); n > 0; n--) {
+				final long requestNanos = System.nanoTime();
+				m_controller.reqHistoricalData( m_contract, "", BARS, DurationUnit.SECOND, BarSize._1_min, WhatToShow.TRADES, false, new IHistoricalDataHandler() {
+					@Override public void historicalData(Bar bar, boolean hasGaps) {
+						m_received.incrementAndGet();
+					}
+
+					@Override public void historicalDataEnd() {
+						m_latency.record( System.nanoTime() - requestNanos);
+					}
+				});
+			}
+		}
+	}
+}
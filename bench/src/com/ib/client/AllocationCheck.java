@@ -0,0 +1,345 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+package com.ib.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ib.client.Types.DeepSide;
+import com.ib.client.Types.DeepType;
+import com.ib.client.Types.MktDataType;
+import com.ib.controller.ApiConnection.ILogger;
+import com.ib.controller.ApiController;
+import com.ib.controller.ApiController.IConnectionHandler;
+import com.ib.controller.ApiController.IDeepMktDataHandler;
+import com.ib.controller.ApiController.IOrderHandler;
+import com.ib.controller.ApiController.ITopMktDataHandler;
+import com.ib.server.TwsSimulator;
+
+/**
+ * Allocation regression check for the inbound hot paths. Tick, depth and order status frames are
+ * dispatched through EDecoder, through EReader framing and decoding, and through EDecoder into
+ * ApiController's handlers, each on the calling thread; after a warm-up the bytes the thread
+ * allocates per message are compared with the budgets below. The decoder and reader paths use
+ * the CodecFixtures frames, i.e. a recording if -Dib.bench.journal is set.
+ * <p>
+ * The budgets are regression ceilings, not goals: each is what its path costs with the decoder as
+ * it is, so the check fails when a change adds garbage to a path but not while the decoder still
+ * allocates per field. What a path should allocate is the copy of its frame, a few dozen bytes,
+ * and nothing per field; lower a budget when a change makes its path leaner, so that the garbage
+ * cannot creep back.
+ * <p>
+ * Usage: java com.ib.client.AllocationCheck; exits with status 1 if a path exceeds its budget.
+ */
+public class AllocationCheck {
+    private static final int WARMUP = 200000;
+    private static final int MEASURE = 100000;
+
+    /**
+     * Bytes per message, by path and message type, on a 64 bit HotSpot JVM with compressed oops.
+     * Each is made up of what EDecoder allocates by design: about 105 B per field for the
+     * StringBuffer, its array and the String that readStr() builds; about 70 B for the EMessage,
+     * the copy getStream() makes and the streams around it; up to 100 B more per price, for
+     * Double.parseDouble(). EReader adds its framing, 60-100 B; ApiController decodes the same
+     * fields and its dispatch adds nothing measurable. Each budget is that sum plus about 10% for
+     * differences between JVM versions, not a target.
+     */
+    private static final Map<String, Long> BUDGETS = new LinkedHashMap<String, Long>();
+
+    static {
+        budget("EDecoder", CodecFixtures.TICK_PRICE, 1000);       // 7 fields, 1 price
+        budget("EDecoder", CodecFixtures.TICK_SIZE, 650);         // 5 fields
+        budget("EDecoder", CodecFixtures.MARKET_DEPTH, 1100);     // 8 fields, 1 price
+        budget("EDecoder", CodecFixtures.ORDER_STATUS, 1600);     // 12 fields, 4 quantities and prices
+        budget("EReader", CodecFixtures.TICK_PRICE, 1050);        // EDecoder's plus framing
+        budget("EReader", CodecFixtures.TICK_SIZE, 720);
+        budget("EReader", CodecFixtures.MARKET_DEPTH, 1150);
+        budget("EReader", CodecFixtures.ORDER_STATUS, 1700);
+        budget("ApiController", CodecFixtures.TICK_PRICE, 920);   // EDecoder's fields through the handlers
+        budget("ApiController", CodecFixtures.TICK_SIZE, 660);
+        budget("ApiController", CodecFixtures.MARKET_DEPTH, 1000);
+        budget("ApiController", CodecFixtures.ORDER_STATUS, 1550);
+    }
+
+    private static void budget(String path, String msgType, long bytesPerMsg) {
+        BUDGETS.put(path + " " + msgType, bytesPerMsg);
+    }
+
+    /** Dispatches message i of a path. */
+    private interface Dispatch {
+        void run(int i) throws IOException;
+    }
+
+    private final com.sun.management.ThreadMXBean m_threads;
+    private final ArrayList<String> m_failures = new ArrayList<String>();
+
+    AllocationCheck() {
+        m_threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        m_threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /** @return bytes allocated per message once warmed up */
+    private double measure(Dispatch dispatch) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            dispatch.run(i);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = m_threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURE; i++) {
+            dispatch.run(i);
+        }
+        return (double) (m_threads.getThreadAllocatedBytes(threadId) - before) / MEASURE;
+    }
+
+    private void check(String path, String msgType, Dispatch dispatch) throws IOException {
+        String key = path + " " + msgType;
+        long budget = BUDGETS.get(key);
+        double bytes = measure(dispatch);
+        boolean ok = bytes <= budget;
+        System.out.println(String.format("%-40s %8.1f B/msg  budget %5d  %s", key, bytes, budget, ok ? "ok" : "FAIL"));
+        if (!ok) {
+            m_failures.add(key);
+        }
+    }
+
+    /** Fails the check if dispatching did not reach the handlers. */
+    private void expect(String what, long count, long expected) {
+        if (count < expected) {
+            System.out.println(what + ": " + count + " callbacks, expected " + expected);
+            m_failures.add(what);
+        }
+    }
+
+    void decoder(CodecFixtures fixtures, String msgType) throws IOException {
+        final byte[][] frames = fixtures.frames(msgType);
+        final EDecoder decoder = new EDecoder(fixtures.serverVersion(), new DefaultEWrapper());
+        check("EDecoder", msgType, new Dispatch() {
+            @Override public void run(int i) throws IOException {
+                byte[] frame = frames[i & (frames.length - 1)];
+                decoder.processMsg(new EMessage(frame, frame.length));
+            }
+        });
+    }
+
+    void reader(CodecFixtures fixtures, String msgType) throws IOException {
+        final EReader reader = new BenchClient(new DefaultEWrapper(), fixtures.serverVersion(), fixtures.stream(msgType)).newReader();
+        check("EReader", msgType, new Dispatch() {
+            @Override public void run(int i) throws IOException {
+                reader.putMessageToQueue();
+                reader.processMsgs();
+            }
+        });
+    }
+
+    /**
+     * Connects an ApiController to a TwsSimulator sending nothing by itself, subscribes and places
+     * an order, then decodes frames for those requests into the controller on this thread.
+     */
+    void controller() throws IOException, InterruptedException {
+        TwsSimulator simulator = new TwsSimulator(0);
+        simulator.tickRate(0);
+        simulator.depthRate(0);
+        simulator.fillDelayMillis(-1);
+        simulator.start();
+
+        final CountDownLatch connected = new CountDownLatch(1);
+        ApiController controller = new ApiController(new IConnectionHandler() {
+            @Override public void connected() {
+                connected.countDown();
+            }
+
+            @Override public void disconnected() {
+            }
+
+            @Override public void accountList(ArrayList<String> list) {
+            }
+
+            @Override public void error(Exception e) {
+            }
+
+            @Override public void message(int id, int errorCode, String errorMsg) {
+            }
+
+            @Override public void show(String string) {
+            }
+        }, NO_LOG, NO_LOG);
+
+        final AtomicLong ticks = new AtomicLong();
+        final AtomicLong depth = new AtomicLong();
+        final AtomicLong statuses = new AtomicLong();
+        final int rows = 10;
+
+        try {
+            controller.connect("127.0.0.1", simulator.port(), 0, "");
+            if (!connected.await(10, TimeUnit.SECONDS)) {
+                throw new IOException("no connection to the simulator");
+            }
+
+            // ApiController numbers requests from nextValidId + 10000000 and orders from nextValidId
+            int mktDataId = simulator.nextValidId() + 10000000;
+            int depthId = mktDataId + 1;
+            int orderId = simulator.nextValidId();
+
+            Contract contract = CodecFixtures.contract(0);
+            controller.reqTopMktData(contract, "", false, new ITopMktDataHandler() {
+                @Override public void tickPrice(TickType tickType, double price, int canAutoExecute) {
+                    ticks.incrementAndGet();
+                }
+
+                @Override public void tickSize(TickType tickType, int size) {
+                    ticks.incrementAndGet();
+                }
+
+                @Override public void tickString(TickType tickType, String value) {
+                }
+
+                @Override public void tickSnapshotEnd() {
+                }
+
+                @Override public void marketDataType(MktDataType marketDataType) {
+                }
+            });
+            controller.reqDeepMktData(contract, rows, new IDeepMktDataHandler() {
+                @Override public void updateMktDepth(int position, String marketMaker, DeepType operation, DeepSide side, double price, int size) {
+                    depth.incrementAndGet();
+                }
+            });
+            controller.placeOrModifyOrder(contract, CodecFixtures.order(0, 100, 100), new IOrderHandler() {
+                @Override public void orderState(OrderState orderState) {
+                }
+
+                @Override public void orderStatus(OrderStatus status, double filled, double remaining, double avgFillPrice, long permId, int parentId, double lastFillPrice, int clientId, String whyHeld) {
+                    statuses.incrementAndGet();
+                }
+
+                @Override public void handle(int errorCode, String errorMsg) {
+                }
+            });
+
+            // let the simulator's answers, the initial book and Submitted, pass on the controller's own thread
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while ((depth.get() < 2 * rows || statuses.get() < 1) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            if (depth.get() < 2 * rows || statuses.get() < 1) {
+                throw new IOException("no answer from the simulator");
+            }
+
+            Frames frames = new Frames(simulator.serverVersion());
+            for (int i = 0; i < 256; i++) {
+                double price = 100 + (i & 15) * 0.01;
+                frames.m_encoder.tickPrice(mktDataId, (i & 1) == 0 ? TickType.BID.index() : TickType.ASK.index(), price, 100 + i, 1);
+                frames.m_encoder.tickSize(mktDataId, TickType.VOLUME.index(), 1000 + i);
+                frames.m_encoder.updateMktDepth(depthId, i % rows, 1, i & 1, price, 100 + i);
+                frames.m_encoder.orderStatus(orderId, "Submitted", 0, 100, 0, 1000000, 0, 0, 0, "");
+            }
+            frames.split();
+
+            EDecoder decoder = new EDecoder(simulator.serverVersion(), controller);
+            long before = ticks.get();
+            check("ApiController", CodecFixtures.TICK_PRICE, decode(decoder, frames.get(EDecoder.TICK_PRICE)));
+            // a v6 tick price is followed by its size from the same frame
+            expect("ApiController " + CodecFixtures.TICK_PRICE, ticks.get() - before, 2L * (WARMUP + MEASURE));
+
+            before = ticks.get();
+            check("ApiController", CodecFixtures.TICK_SIZE, decode(decoder, frames.get(EDecoder.TICK_SIZE)));
+            expect("ApiController " + CodecFixtures.TICK_SIZE, ticks.get() - before, WARMUP + MEASURE);
+
+            before = depth.get();
+            check("ApiController", CodecFixtures.MARKET_DEPTH, decode(decoder, frames.get(EDecoder.MARKET_DEPTH)));
+            expect("ApiController " + CodecFixtures.MARKET_DEPTH, depth.get() - before, WARMUP + MEASURE);
+
+            before = statuses.get();
+            check("ApiController", CodecFixtures.ORDER_STATUS, decode(decoder, frames.get(EDecoder.ORDER_STATUS)));
+            expect("ApiController " + CodecFixtures.ORDER_STATUS, statuses.get() - before, WARMUP + MEASURE);
+        }
+        finally {
+            controller.disconnect();
+            simulator.close();
+        }
+    }
+
+    private static Dispatch decode(final EDecoder decoder, final byte[][] frames) {
+        return new Dispatch() {
+            @Override public void run(int i) throws IOException {
+                byte[] frame = frames[i & (frames.length - 1)];
+                decoder.processMsg(new EMessage(frame, frame.length));
+            }
+        };
+    }
+
+    /** Frames written with EServerEncoder, by message id. */
+    private static class Frames {
+        final ByteArrayOutputStream m_out = new ByteArrayOutputStream();
+        final EServerEncoder m_encoder;
+        final Map<Integer, ArrayList<byte[]>> m_frames = new LinkedHashMap<Integer, ArrayList<byte[]>>();
+
+        Frames(int serverVersion) {
+            m_encoder = new EServerEncoder(m_out, serverVersion);
+        }
+
+        void split() throws IOException {
+            m_encoder.flush();
+            ByteBuffer buf = ByteBuffer.wrap(m_out.toByteArray());
+            while (buf.hasRemaining()) {
+                byte[] frame = new byte[buf.getInt()];
+                buf.get(frame);
+                int msgId = Integer.parseInt(new String(frame, 0, indexOf0(frame)));
+                ArrayList<byte[]> frames = m_frames.get(msgId);
+                if (frames == null) {
+                    frames = new ArrayList<byte[]>();
+                    m_frames.put(msgId, frames);
+                }
+                frames.add(frame);
+            }
+        }
+
+        byte[][] get(int msgId) {
+            ArrayList<byte[]> frames = m_frames.get(msgId);
+            return frames.toArray(new byte[frames.size()][]);
+        }
+
+        private static int indexOf0(byte[] frame) {
+            int i = 0;
+            while (frame[i] != 0) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+    private static final ILogger NO_LOG = new ILogger() {
+        @Override public void log(String valueOf) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        AllocationCheck check = new AllocationCheck();
+        CodecFixtures fixtures = CodecFixtures.get();
+        String[] msgTypes = { CodecFixtures.TICK_PRICE, CodecFixtures.TICK_SIZE, CodecFixtures.MARKET_DEPTH, CodecFixtures.ORDER_STATUS };
+
+        System.out.println("frames: " + fixtures.source());
+        for (String msgType : msgTypes) {
+            check.decoder(fixtures, msgType);
+        }
+        for (String msgType : msgTypes) {
+            check.reader(fixtures, msgType);
+        }
+        check.controller();
+
+        if (!check.m_failures.isEmpty()) {
+            System.out.println("over budget: " + check.m_failures);
+            System.exit(1);
+        }
+        System.out.println("all paths within budget");
+        System.exit(0); // the controller's reader threads are not daemons
+    }
+}
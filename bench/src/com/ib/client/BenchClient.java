@@ -0,0 +1,77 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+package com.ib.client;
+
+import java.io.DataInputStream;
+import java.io.InputStream;
+
+/**
+ * An EClientSocket without socket for the codec benchmarks: requests are encoded as for a
+ * connected client and their bytes counted and dropped, and an EReader created for it reads
+ * length prefixed frames from the given bytes over and over.
+ */
+class BenchClient extends EClientSocket {
+    private static final EReaderSignal NO_SIGNAL = new EReaderSignal() {
+        @Override public void issueSignal() {
+        }
+
+        @Override public void waitForSignal() {
+        }
+    };
+
+    private long m_bytesSent;
+
+    BenchClient(EWrapper wrapper, int serverVersion, byte[] inbound) {
+        super(wrapper, NO_SIGNAL);
+        m_serverVersion = serverVersion;
+        m_dis = new DataInputStream(new LoopInputStream(inbound));
+        m_socketTransport = new ETransport() {
+            @Override public void send(EMessage msg) {
+                m_bytesSent += msg.size();
+            }
+        };
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    long bytesSent() {
+        return m_bytesSent;
+    }
+
+    EReader newReader() {
+        return new EReader(this, NO_SIGNAL);
+    }
+
+    /** Reads buf, starting over at its end. buf must hold whole frames to stay in step. */
+    private static class LoopInputStream extends InputStream {
+        private final byte[] m_buf;
+        private int m_pos;
+
+        LoopInputStream(byte[] buf) {
+            m_buf = buf;
+        }
+
+        @Override
+        public int read() {
+            int b = m_buf[m_pos++] & 0xff;
+            if (m_pos == m_buf.length) {
+                m_pos = 0;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, m_buf.length - m_pos);
+            System.arraycopy(m_buf, m_pos, b, off, n);
+            m_pos += n;
+            if (m_pos == m_buf.length) {
+                m_pos = 0;
+            }
+            return n;
+        }
+    }
+}
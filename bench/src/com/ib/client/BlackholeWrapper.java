@@ -0,0 +1,69 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+package com.ib.client;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Hands what the decoder produced for the benchmarked messages to a Blackhole so that the JIT cannot drop it. */
+class BlackholeWrapper extends DefaultEWrapper {
+    private final Blackhole m_bh;
+
+    BlackholeWrapper(Blackhole bh) {
+        m_bh = bh;
+    }
+
+    @Override
+    public void tickPrice(int tickerId, int field, double price, int canAutoExecute) {
+        m_bh.consume(tickerId);
+        m_bh.consume(price);
+    }
+
+    @Override
+    public void tickSize(int tickerId, int field, int size) {
+        m_bh.consume(tickerId);
+        m_bh.consume(size);
+    }
+
+    @Override
+    public void tickOptionComputation(int tickerId, int field, double impliedVol, double delta, double optPrice,
+                                      double pvDividend, double gamma, double vega, double theta, double undPrice) {
+        m_bh.consume(impliedVol);
+        m_bh.consume(undPrice);
+    }
+
+    @Override
+    public void updateMktDepth(int tickerId, int position, int operation, int side, double price, int size) {
+        m_bh.consume(price);
+        m_bh.consume(size);
+    }
+
+    @Override
+    public void openOrder(int orderId, Contract contract, Order order, OrderState orderState) {
+        m_bh.consume(contract);
+        m_bh.consume(order);
+        m_bh.consume(orderState);
+    }
+
+    @Override
+    public void execDetails(int reqId, Contract contract, Execution execution) {
+        m_bh.consume(contract);
+        m_bh.consume(execution);
+    }
+
+    @Override
+    public void historicalData(int reqId, String date, double open, double high, double low, double close,
+                               int volume, int count, double WAP, boolean hasGaps) {
+        m_bh.consume(date);
+        m_bh.consume(close);
+    }
+
+    @Override
+    public void error(Exception e) {
+        throw new IllegalStateException(e); // a benchmark must not measure a broken fixture
+    }
+
+    @Override
+    public void error(String str) {
+        throw new IllegalStateException(str);
+    }
+}
@@ -0,0 +1,282 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+package com.ib.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Inbound frames for the codec benchmarks, grouped by message id. Frames are taken from the
+ * FrameJournal directory named by the ib.bench.journal system property, e.g. one recorded with
+ * EClientSocket.setFrameJournal(); message types the journal does not hold, or all of them if
+ * the property is not set, are synthesized with EServerEncoder.
+ */
+public class CodecFixtures {
+    public static final String JOURNAL_PROPERTY = "ib.bench.journal";
+
+    /** Message types the benchmarks take as parameter, as named in EDecoder. */
+    public static final String TICK_PRICE = "TICK_PRICE";
+    public static final String TICK_SIZE = "TICK_SIZE";
+    public static final String TICK_OPTION_COMPUTATION = "TICK_OPTION_COMPUTATION";
+    public static final String MARKET_DEPTH = "MARKET_DEPTH";
+    public static final String ORDER_STATUS = "ORDER_STATUS";
+    public static final String OPEN_ORDER = "OPEN_ORDER";
+    public static final String EXECUTION_DATA = "EXECUTION_DATA";
+    public static final String HISTORICAL_DATA = "HISTORICAL_DATA";
+    /** All of the above, interleaved. */
+    public static final String MIXED = "MIXED";
+
+    private static final int FRAMES_PER_TYPE = 256;   // a power of 2, see frames()
+    private static final String[] SYMBOLS = { "IBM", "AAPL", "MSFT", "SPY", "ES", "EUR" };
+
+    private static CodecFixtures s_instance;
+
+    private final int m_serverVersion;
+    private final HashMap<Integer, List<byte[]>> m_frames = new HashMap<Integer, List<byte[]>>();
+    private final String m_source;
+
+    /** Loaded once per JVM; benchmarks share the same frames. */
+    public static synchronized CodecFixtures get() throws IOException {
+        if (s_instance == null) {
+            String dir = System.getProperty(JOURNAL_PROPERTY);
+            s_instance = new CodecFixtures(dir == null || dir.isEmpty() ? null : new File(dir));
+        }
+        return s_instance;
+    }
+
+    private CodecFixtures(File journalDir) throws IOException {
+        int serverVersion = EClient.MAX_VERSION;
+        if (journalDir != null) {
+            serverVersion = load(journalDir);
+        }
+        m_serverVersion = serverVersion;
+        m_source = journalDir != null ? journalDir.getPath() : "synthesized";
+        synthesize();
+    }
+
+    public int serverVersion() {
+        return m_serverVersion;
+    }
+
+    /** The journal directory the frames came from, or "synthesized". */
+    public String source() {
+        return m_source;
+    }
+
+    public static int msgId(String type) {
+        switch (type) {
+            case TICK_PRICE: return EDecoder.TICK_PRICE;
+            case TICK_SIZE: return EDecoder.TICK_SIZE;
+            case TICK_OPTION_COMPUTATION: return EDecoder.TICK_OPTION_COMPUTATION;
+            case MARKET_DEPTH: return EDecoder.MARKET_DEPTH;
+            case ORDER_STATUS: return EDecoder.ORDER_STATUS;
+            case OPEN_ORDER: return EDecoder.OPEN_ORDER;
+            case EXECUTION_DATA: return EDecoder.EXECUTION_DATA;
+            case HISTORICAL_DATA: return EDecoder.HISTORICAL_DATA;
+            default: throw new IllegalArgumentException("unknown message type " + type);
+        }
+    }
+
+    /**
+     * @return the payloads of type, without length prefix; the array length is a power of 2 so
+     * that benchmarks can cycle through them with a mask
+     */
+    public byte[][] frames(String type) {
+        List<byte[]> all = new ArrayList<byte[]>();
+        if (MIXED.equals(type)) {
+            int[] ids = { EDecoder.TICK_PRICE, EDecoder.TICK_SIZE, EDecoder.TICK_OPTION_COMPUTATION, EDecoder.MARKET_DEPTH,
+                    EDecoder.OPEN_ORDER, EDecoder.EXECUTION_DATA, EDecoder.HISTORICAL_DATA };
+            for (int i = 0; all.size() < FRAMES_PER_TYPE; i++) {
+                List<byte[]> frames = m_frames.get(ids[i % ids.length]);
+                all.add(frames.get(i / ids.length % frames.size()));
+            }
+        } else {
+            List<byte[]> frames = m_frames.get(msgId(type));
+            for (int i = 0; i < FRAMES_PER_TYPE; i++) {
+                all.add(frames.get(i % frames.size()));
+            }
+        }
+        return all.toArray(new byte[all.size()][]);
+    }
+
+    /** @return frames with their 4 byte length prefix, back to back, as EReader reads them */
+    public byte[] stream(String type) {
+        byte[][] frames = frames(type);
+        int size = 0;
+        for (byte[] frame : frames) {
+            size += 4 + frame.length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        for (byte[] frame : frames) {
+            buf.putInt(frame.length);
+            buf.put(frame);
+        }
+        return buf.array();
+    }
+
+    /** @return the server version of the recorded session */
+    private int load(File journalDir) throws IOException {
+        FrameJournalReader reader = FrameJournalReader.open(journalDir);
+        int serverVersion = 0;
+        byte[] buf = new byte[8192];
+
+        while (reader.next()) {
+            if (reader.direction() != FrameJournal.IN) {
+                continue;
+            }
+            int len = reader.length();
+            if (len > buf.length) {
+                buf = new byte[len];
+            }
+            reader.read(buf);
+
+            int msgId = parseInt(buf, len);
+            if (serverVersion == 0) {
+                serverVersion = msgId; // the handshake reply starts with the server version
+                continue;
+            }
+            List<byte[]> frames = m_frames.get(msgId);
+            if (frames == null) {
+                frames = new ArrayList<byte[]>();
+                m_frames.put(msgId, frames);
+            }
+            if (frames.size() < FRAMES_PER_TYPE) {
+                byte[] frame = new byte[len];
+                System.arraycopy(buf, 0, frame, 0, len);
+                frames.add(frame);
+            }
+        }
+        if (serverVersion <= 0) {
+            throw new IOException("journal " + journalDir + " holds no connection handshake");
+        }
+        return serverVersion;
+    }
+
+    private static int parseInt(byte[] buf, int len) {
+        int val = 0;
+        for (int i = 0; i < len && buf[i] != 0; i++) {
+            if (buf[i] < '0' || buf[i] > '9') {
+                return -1;
+            }
+            val = val * 10 + buf[i] - '0';
+        }
+        return val;
+    }
+
+    /** Fills in the message types the journal did not provide. */
+    private void synthesize() throws IOException {
+        Random random = new Random(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EServerEncoder encoder = new EServerEncoder(out, m_serverVersion);
+
+        for (int i = 0; i < FRAMES_PER_TYPE; i++) {
+            double price = 100 + random.nextInt(10000) / 100.0;
+            int size = 1 + random.nextInt(1000);
+
+            if (!m_frames.containsKey(EDecoder.TICK_PRICE)) {
+                encoder.tickPrice(i, TickType.BID.index() + random.nextInt(2) * 3, price, size, 1);
+            }
+            if (!m_frames.containsKey(EDecoder.TICK_SIZE)) {
+                encoder.tickSize(i, TickType.BID_SIZE.index(), size);
+            }
+            if (!m_frames.containsKey(EDecoder.TICK_OPTION_COMPUTATION)) {
+                encoder.tickOptionComputation(i, TickType.MODEL_OPTION.index(), 0.1 + random.nextDouble() / 2, random.nextDouble(),
+                        price / 20, 0.2, random.nextDouble() / 10, random.nextDouble(), -random.nextDouble() / 10, price);
+            }
+            if (!m_frames.containsKey(EDecoder.MARKET_DEPTH)) {
+                encoder.updateMktDepth(i, random.nextInt(10), random.nextInt(3), random.nextInt(2), price, size);
+            }
+            if (!m_frames.containsKey(EDecoder.ORDER_STATUS)) {
+                boolean filled = random.nextBoolean();
+                encoder.orderStatus(i, filled ? "Filled" : "Submitted", filled ? size : 0, filled ? 0 : size, filled ? price : 0,
+                        1000000 + i, 0, filled ? price : 0, 1, "");
+            }
+            if (!m_frames.containsKey(EDecoder.OPEN_ORDER)) {
+                encoder.openOrder(contract(i), order(i, price, size), orderState());
+            }
+            if (!m_frames.containsKey(EDecoder.EXECUTION_DATA)) {
+                encoder.execDetails(i, contract(i), execution(i, price, size));
+            }
+            if (!m_frames.containsKey(EDecoder.HISTORICAL_DATA) && i % 16 == 0) {
+                encoder.historicalData(i, "20261019  09:30:00", "20261019  16:00:00", 50);
+                for (int bar = 0; bar < 50; bar++) {
+                    encoder.historicalDataBar(String.valueOf(1792157400L + bar * 60), price, price + 0.5, price - 0.5, price + 0.1,
+                            size, price + 0.05, false, 1 + random.nextInt(100));
+                }
+            }
+        }
+        encoder.flush();
+
+        HashMap<Integer, List<byte[]>> synthesized = new HashMap<Integer, List<byte[]>>();
+        ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+        while (buf.hasRemaining()) {
+            byte[] frame = new byte[buf.getInt()];
+            buf.get(frame);
+            int msgId = parseInt(frame, frame.length);
+            List<byte[]> frames = synthesized.get(msgId);
+            if (frames == null) {
+                frames = new ArrayList<byte[]>();
+                synthesized.put(msgId, frames);
+            }
+            frames.add(frame);
+        }
+        m_frames.putAll(synthesized);
+    }
+
+    static Contract contract(int i) {
+        Contract contract = new Contract();
+        contract.conid(8314 + i % SYMBOLS.length);
+        contract.symbol(SYMBOLS[i % SYMBOLS.length]);
+        contract.secType(Types.SecType.STK);
+        contract.exchange("SMART");
+        contract.primaryExch("NYSE");
+        contract.currency("USD");
+        contract.localSymbol(contract.symbol());
+        contract.tradingClass(contract.symbol());
+        return contract;
+    }
+
+    static Order order(int orderId, double price, double quantity) {
+        Order order = new Order();
+        order.orderId(orderId);
+        order.action(Types.Action.BUY);
+        order.totalQuantity(quantity);
+        order.orderType(OrderType.LMT);
+        order.lmtPrice(price);
+        order.tif(Types.TimeInForce.DAY);
+        order.account("DU123456");
+        order.clientId(1);
+        order.permId(1000000 + orderId);
+        order.transmit(true);
+        return order;
+    }
+
+    private static OrderState orderState() {
+        OrderState orderState = new OrderState();
+        orderState.status(OrderStatus.Submitted);
+        return orderState;
+    }
+
+    private static Execution execution(int i, double price, double shares) {
+        Execution execution = new Execution();
+        execution.orderId(i);
+        execution.execId(String.format("0000e0d5.%08x.01.01", i));
+        execution.time("20261019  10:00:00");
+        execution.acctNumber("DU123456");
+        execution.exchange("ISLAND");
+        execution.side("BOT");
+        execution.shares(shares);
+        execution.price(price);
+        execution.permId(1000000 + i);
+        execution.clientId(1);
+        execution.cumQty((int) shares);
+        execution.avgPrice(price);
+        return execution;
+    }
+}
@@ -0,0 +1,52 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+package com.ib.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * EDecoder.processMsg() per message type, from a complete frame to the EWrapper callback.
+ * Each invocation decodes the next of the fixture frames so that the values vary.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-XX:+UseParallelGC")
+public class DecoderBenchmark {
+    @Param({ CodecFixtures.TICK_PRICE, CodecFixtures.TICK_SIZE, CodecFixtures.TICK_OPTION_COMPUTATION, CodecFixtures.MARKET_DEPTH,
+            CodecFixtures.OPEN_ORDER, CodecFixtures.EXECUTION_DATA, CodecFixtures.HISTORICAL_DATA })
+    public String msgType;
+
+    private byte[][] m_frames;
+    private int m_next;
+    private EDecoder m_decoder;
+
+    @Setup
+    public void setup(Blackhole bh) throws IOException {
+        CodecFixtures fixtures = CodecFixtures.get();
+        m_frames = fixtures.frames(msgType);
+        m_decoder = new EDecoder(fixtures.serverVersion(), new BlackholeWrapper(bh));
+    }
+
+    @Benchmark
+    public int processMsg() throws IOException {
+        byte[] frame = m_frames[m_next++ & (m_frames.length - 1)];
+        return m_decoder.processMsg(new EMessage(frame, frame.length));
+    }
+}
@@ -0,0 +1,58 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+package com.ib.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Request encoding: EClient.placeOrder() and reqMktData() through the Builder and closeAndSend()
+ * up to the transport, which only counts the bytes, at the highest supported server version.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-XX:+UseParallelGC")
+public class EncoderBenchmark {
+    private BenchClient m_client;
+    private Contract m_contract;
+    private Order m_order;
+    private int m_id;
+
+    @Setup
+    public void setup() throws IOException {
+        m_client = new BenchClient(new DefaultEWrapper() {
+            @Override
+            public void error(int id, int errorCode, String errorMsg) {
+                throw new IllegalStateException(errorCode + " " + errorMsg); // a rejected request would not be encoded
+            }
+        }, EClient.MAX_VERSION, new byte[0]);
+        m_contract = CodecFixtures.contract(0);
+        m_order = CodecFixtures.order(0, 150.25, 100);
+    }
+
+    @Benchmark
+    public long placeOrder() {
+        m_client.placeOrder(++m_id, m_contract, m_order);
+        return m_client.bytesSent();
+    }
+
+    @Benchmark
+    public long reqMktData() {
+        m_client.reqMktData(++m_id, m_contract, "", false, null);
+        return m_client.bytesSent();
+    }
+}
@@ -0,0 +1,149 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+package com.ib.client;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bytecode size check for the codec hot paths. HotSpot never compiles a method larger than
+ * HugeMethodLimit (8000 bytes) and only inlines hot methods up to FreqInlineSize (325 bytes),
+ * so one long method such as a whole message encoder or decoder runs interpreted or stays
+ * a call; the limit below keeps every method of these classes well clear of that, and
+ * makes a growing one show up as a failure rather than as a slowdown.
+ * <p>
+ * Usage: java com.ib.client.MethodSizeCheck; run it after compiling, it exits with status 1
+ * if a method is over the limit. The class files are read from the classpath.
+ */
+public class MethodSizeCheck {
+    public static final int LIMIT = 1000;
+
+    private static final Class<?>[] HOT_CLASSES = {
+        EClient.class, EClientSocket.class, EDecoder.class, EReader.class, EMessage.class,
+        Builder.class, ESocket.class, EServerEncoder.class
+    };
+
+    public static void main(String[] args) throws IOException {
+        int over = 0;
+        for (Class<?> cls : HOT_CLASSES) {
+            for (MethodSize method : methodSizes(cls)) {
+                if (method.m_size > LIMIT) {
+                    System.out.println(String.format("%s.%s%s: %d bytes, limit %d",
+                            cls.getSimpleName(), method.m_name, method.m_descriptor, method.m_size, LIMIT));
+                    over++;
+                }
+            }
+        }
+        System.out.println(over == 0 ? "all methods within " + LIMIT + " bytes" : over + " method(s) over the limit");
+        System.exit(over == 0 ? 0 : 1);
+    }
+
+    /** @return the code length of each method with a body, read from the class file. */
+    static List<MethodSize> methodSizes(Class<?> cls) throws IOException {
+        InputStream in = cls.getResourceAsStream(cls.getSimpleName() + ".class");
+        if (in == null) {
+            throw new IOException("class file of " + cls.getName() + " not found");
+        }
+        try {
+            DataInputStream dis = new DataInputStream(in);
+            if (dis.readInt() != 0xCAFEBABE) {
+                throw new IOException("not a class file: " + cls.getName());
+            }
+            dis.readUnsignedShort(); // minor version
+            dis.readUnsignedShort(); // major version
+            String[] utf8 = readConstantPool(dis);
+
+            dis.readUnsignedShort(); // access flags
+            dis.readUnsignedShort(); // this class
+            dis.readUnsignedShort(); // super class
+            skip(dis, 2 * dis.readUnsignedShort()); // interfaces
+
+            int fieldCount = dis.readUnsignedShort();
+            for (int i = 0; i < fieldCount; i++) {
+                skip(dis, 6);
+                skipAttributes(dis);
+            }
+
+            List<MethodSize> sizes = new ArrayList<MethodSize>();
+            int methodCount = dis.readUnsignedShort();
+            for (int i = 0; i < methodCount; i++) {
+                dis.readUnsignedShort(); // access flags
+                String name = utf8[dis.readUnsignedShort()];
+                String descriptor = utf8[dis.readUnsignedShort()];
+                int attributeCount = dis.readUnsignedShort();
+                for (int j = 0; j < attributeCount; j++) {
+                    String attribute = utf8[dis.readUnsignedShort()];
+                    int length = dis.readInt();
+                    if ("Code".equals(attribute)) {
+                        dis.readUnsignedShort(); // max stack
+                        dis.readUnsignedShort(); // max locals
+                        int codeLength = dis.readInt();
+                        sizes.add(new MethodSize(name, descriptor, codeLength));
+                        skip(dis, length - 8);
+                    } else {
+                        skip(dis, length);
+                    }
+                }
+            }
+            return sizes;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** @return the Utf8 constants by index; the other entries are skipped. */
+    private static String[] readConstantPool(DataInputStream dis) throws IOException {
+        String[] utf8 = new String[dis.readUnsignedShort()];
+        for (int i = 1; i < utf8.length; i++) {
+            int tag = dis.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = dis.readUTF();
+                    break;
+                case 7: case 8: case 16: case 19: case 20: // Class, String, MethodType, Module, Package
+                    skip(dis, 2);
+                    break;
+                case 15: // MethodHandle
+                    skip(dis, 3);
+                    break;
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: // Integer, Float, refs, NameAndType, dynamic
+                    skip(dis, 4);
+                    break;
+                case 5: case 6: // Long, Double take two entries
+                    skip(dis, 8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("unknown constant pool tag " + tag);
+            }
+        }
+        return utf8;
+    }
+
+    private static void skipAttributes(DataInputStream dis) throws IOException {
+        int count = dis.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            dis.readUnsignedShort();
+            skip(dis, dis.readInt());
+        }
+    }
+
+    private static void skip(DataInputStream dis, int n) throws IOException {
+        dis.readFully(new byte[n]);
+    }
+
+    static class MethodSize {
+        final String m_name;
+        final String m_descriptor;
+        final int m_size;
+
+        MethodSize(String name, String descriptor, int size) {
+            m_name = name;
+            m_descriptor = descriptor;
+            m_size = size;
+        }
+    }
+}
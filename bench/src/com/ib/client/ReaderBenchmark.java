@@ -0,0 +1,55 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+package com.ib.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * EReader framing: reading a length prefixed frame from the stream into an EMessage and through
+ * the message queue, alone and followed by processMsgs(), i.e. the whole inbound path minus the socket.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-XX:+UseParallelGC")
+public class ReaderBenchmark {
+    @Param({ CodecFixtures.TICK_PRICE, CodecFixtures.OPEN_ORDER, CodecFixtures.MIXED })
+    public String msgType;
+
+    private EReader m_reader;
+
+    @Setup
+    public void setup(Blackhole bh) throws IOException {
+        CodecFixtures fixtures = CodecFixtures.get();
+        BenchClient client = new BenchClient(new BlackholeWrapper(bh), fixtures.serverVersion(), fixtures.stream(msgType));
+        m_reader = client.newReader();
+    }
+
+    @Benchmark
+    public EMessage frame() throws IOException {
+        m_reader.putMessageToQueue();
+        return m_reader.getMsg();
+    }
+
+    @Benchmark
+    public void frameAndDecode() throws IOException {
+        m_reader.putMessageToQueue();
+        m_reader.processMsgs();
+    }
+}
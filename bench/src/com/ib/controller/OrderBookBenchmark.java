@@ -0,0 +1,132 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+package com.ib.controller;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ib.client.Types.DeepSide;
+import com.ib.client.Types.DeepType;
+import com.ib.controller.OrderBook.Frame;
+import com.ib.controller.OrderBook.IBookListener;
+
+/**
+ * OrderBook.updateMktDepth() in operations per second, over a recorded-like stream for a book of
+ * `rows` rows per side: mostly size updates near the top, and inserts and deletes that move the
+ * rows below. With `marketMakers` above 1 the rows are L2 rows of that many market makers, several
+ * at each price, so that the levels consolidate them. `snapshot` also copies the book every 64
+ * operations, as a reading thread would. Setup fills the book; the measured stream only updates,
+ * and deletes and inserts in pairs, so the book keeps `rows` rows however often the stream wraps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-XX:+UseParallelGC")
+public class OrderBookBenchmark {
+	private static final int OPERATIONS = 1 << 16;
+	private static final DeepType[] TYPES = DeepType.values();
+	private static final DeepSide[] SIDES = DeepSide.values();
+
+	@Param({ "10", "40" })
+	public int rows;
+
+	@Param({ "1", "5" })
+	public int marketMakers;
+
+	@Param({ "false", "true" })
+	public boolean snapshot;
+
+	private int[] m_position;
+	private byte[] m_type;
+	private byte[] m_side;
+	private double[] m_price;
+	private int[] m_size;
+	private String[] m_marketMaker;
+	private int m_next;
+	private OrderBook m_book;
+	private final OrderBook.Snapshot m_snapshot = new OrderBook.Snapshot();
+
+	@Setup
+	public void setup(final Blackhole bh) {
+		m_position = new int[OPERATIONS];
+		m_type = new byte[OPERATIONS];
+		m_side = new byte[OPERATIONS];
+		m_price = new double[OPERATIONS];
+		m_size = new int[OPERATIONS];
+		m_marketMaker = new String[OPERATIONS];
+		String[] makers = new String[marketMakers];
+		for (int i = 0; i < makers.length; i++) {
+			makers[i] = marketMakers == 1 ? null : "MM" + i;
+		}
+
+		m_book = new OrderBook( new IBookListener() {
+			@Override public void bookFrame(OrderBook book, Frame frame) {
+				bh.consume( frame.levelSize() );
+			}
+		});
+		Random random = new Random( 17);
+		for (int side = 0; side < 2; side++) {
+			for (int row = 0; row < rows; row++) {
+				m_book.updateMktDepth( row, makers[row % marketMakers], DeepType.INSERT, SIDES[side], price( side, row / marketMakers), 100 * (1 + random.nextInt( 10) ) );
+			}
+		}
+
+		// a stream that keeps each side at `rows` rows: updates and delete/insert pairs, none split by the wrap
+		int n = 0;
+		while (n < OPERATIONS - 1) {
+			int side = random.nextInt( 2);
+			int row = Math.min( rows - 1, (int)Math.abs( random.nextGaussian() * rows / 4) );
+			double price = price( side, row / marketMakers);
+			String maker = makers[random.nextInt( marketMakers)];
+			if (random.nextInt( 4) != 0) {
+				n = add( n, row, DeepType.UPDATE, side, price, 100 * (1 + random.nextInt( 10) ), maker);
+			}
+			else {
+				n = add( n, row, DeepType.DELETE, side, price, 0, maker);
+				n = add( n, row, DeepType.INSERT, side, price, 100 * (1 + random.nextInt( 10) ), maker);
+			}
+		}
+		while (n < OPERATIONS) {
+			n = add( n, 0, DeepType.UPDATE, 0, price( 0, 0), 100, makers[0]);
+		}
+	}
+
+	private static double price(int side, int level) {
+		return side == DeepSide.BUY.ordinal() ? 100.0 - level * 0.01 : 100.01 + level * 0.01;
+	}
+
+	private int add(int n, int position, DeepType type, int side, double price, int size, String marketMaker) {
+		m_position[n] = position;
+		m_type[n] = (byte)type.ordinal();
+		m_side[n] = (byte)side;
+		m_price[n] = price;
+		m_size[n] = size;
+		m_marketMaker[n] = marketMaker;
+		return n + 1;
+	}
+
+	@Benchmark
+	public long updateMktDepth() {
+		int i = m_next++ & (OPERATIONS - 1);
+		m_book.updateMktDepth( m_position[i], m_marketMaker[i], TYPES[m_type[i]], SIDES[m_side[i]], m_price[i], m_size[i]);
+		if (snapshot && (i & 63) == 0) {
+			m_book.snapshot( m_snapshot);
+		}
+		return m_book.seq();
+	}
+}
@@ -0,0 +1,92 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** The JFR events of JfrEvents; loaded by name when -Dcom.ib.client.jfr=true. */
+final class JfrRecorder extends JfrEvents.Recorder {
+
+    @Name("com.ib.client.Decode")
+    @Label("Decode Message")
+    @Category({"IB API"})
+    @StackTrace(false)
+    static class DecodeEvent extends Event {
+        @Label("Message Id") int msgId;
+        @Label("Message") String msgName;
+        @Label("Size") @DataAmount int size;
+    }
+
+    @Name("com.ib.client.Dispatch")
+    @Label("EWrapper Callback")
+    @Category({"IB API"})
+    @StackTrace(false)
+    static class DispatchEvent extends Event {
+        @Label("Callback") String callback;
+        @Label("Request Id") int reqId;
+    }
+
+    @Name("com.ib.client.Send")
+    @Label("Send Message")
+    @Category({"IB API"})
+    @StackTrace(false)
+    static class SendEvent extends Event {
+        @Label("Message Id") int msgId;
+        @Label("Size") @DataAmount int size;
+    }
+
+    @Override Object beginDecode() {
+        DecodeEvent event = new DecodeEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override void commitDecode(Object handle, int msgId, int size) {
+        DecodeEvent event = (DecodeEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.msgId = msgId;
+            event.msgName = EDecoder.msgName(msgId);
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    @Override Object beginDispatch() {
+        DispatchEvent event = new DispatchEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override void commitDispatch(Object handle, String callback, int reqId) {
+        DispatchEvent event = (DispatchEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.callback = callback;
+            event.reqId = reqId;
+            event.commit();
+        }
+    }
+
+    @Override Object beginSend() {
+        SendEvent event = new SendEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override void commitSend(Object handle, int msgId, int size) {
+        SendEvent event = (SendEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.msgId = msgId;
+            event.size = size;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,585 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.backtest;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.TimeZone;
+
+import com.ib.client.CommissionReport;
+import com.ib.client.Contract;
+import com.ib.client.Execution;
+import com.ib.client.Order;
+import com.ib.client.OrderState;
+import com.ib.client.OrderStatus;
+import com.ib.client.OrderType;
+import com.ib.client.TickType;
+import com.ib.client.Types.Action;
+import com.ib.controller.ApiConnection;
+import com.ib.controller.ApiConnection.ILogger;
+import com.ib.controller.ApiController;
+import com.ib.controller.ApiController.IConnectionHandler;
+
+/**
+ * Runs strategy code written against ApiController over MarketData, in-process and without TWS.
+ * The controller's connection is simulated: market data requests subscribe to the replayed
+ * ticks (reqTopMktData) and bars (reqRealTimeBars) of the contract's symbol, and orders go to a
+ * matching engine that answers with openOrder, orderStatus, execDetails and commissionReport
+ * like TWS. Open orders, executions, positions and the current time can be requested as well;
+ * other requests are dropped.
+ * <p>
+ * Everything happens on the thread calling run(), one record at a time: working orders of the
+ * record's symbol are matched first, then the record is passed to the subscribers, then the
+ * responses to what they requested are delivered. Orders are thus filled by the next record
+ * of their symbol at the earliest. arrivalMillis() of the controller is the record's time.
+ * The fills of a record are reported once all its working orders are matched, so an order
+ * placed or cancelled from a fill callback takes effect from the next record on.
+ * <p>
+ * Matching: MKT, LMT, STP and STP LMT orders, filled in full. A buy trades at the ask or the
+ * last price, a sell at the bid or the last price, and a bar trades at its open; a limit fills
+ * at that price if it is good enough, or at the limit if a bar reaches it. A stop triggers when
+ * that price, or a bar's high for a buy and low for a sell, reaches the stop price. Bars also
+ * reach market data subscribers as a LAST tick of the close.
+ */
+public class Backtest {
+	public static final String ACCOUNT = "BACKTEST";
+	public static final int ORDER_REJECTED = 201;
+	public static final int ORDER_NOT_FOUND = 10147;
+	public static final int NO_SECURITY_DEFINITION = 200;
+
+	private static final ILogger NO_LOG = new ILogger() {
+		@Override public void log(String valueOf) {
+		}
+	};
+
+	private final MarketData m_data;
+	private final ApiController m_controller;
+	private final ArrayDeque<Runnable> m_responses = new ArrayDeque<Runnable>();
+	private final ArrayDeque<Runnable> m_fillReports = new ArrayDeque<Runnable>();	// of the fills of one match()
+	private final SimpleDateFormat m_timeFormat = new SimpleDateFormat( "yyyyMMdd  HH:mm:ss");
+	private double m_commissionPerShare = 0.005;
+	private double m_minCommission = 1;
+	private long m_now;
+	private long m_records;
+
+	// by symbol index
+	private final Subscriptions[] m_tickSubscriptions;
+	private final Subscriptions[] m_barSubscriptions;
+	private final ArrayList<SimOrder>[] m_working;
+	private final Contract[] m_contracts;
+	private final double[] m_position;
+	private final double[] m_avgCost;
+	private final double[] m_last;
+
+	private final HashMap<Integer,Integer> m_subscriptions = new HashMap<Integer,Integer>();	// req id to symbol index
+	private final HashMap<Integer,SimOrder> m_orders = new HashMap<Integer,SimOrder>();
+	private final ArrayList<Fill> m_fills = new ArrayList<Fill>();
+	private int m_clientId;
+	private int m_nextOrderId = 1;
+	private int m_nextPermId = 1;
+	private double m_realizedPnl;
+	private double m_commissions;
+
+	@SuppressWarnings("unchecked")
+	public Backtest(MarketData data, IConnectionHandler handler) {
+		m_data = data;
+		m_timeFormat.setTimeZone( TimeZone.getTimeZone( "UTC") );
+
+		int symbols = data.symbolCount();
+		m_tickSubscriptions = new Subscriptions[symbols];
+		m_barSubscriptions = new Subscriptions[symbols];
+		m_working = (ArrayList<SimOrder>[])new ArrayList<?>[symbols];
+		m_contracts = new Contract[symbols];
+		m_position = new double[symbols];
+		m_avgCost = new double[symbols];
+		m_last = new double[symbols];
+		for (int i = 0; i < symbols; i++) {
+			m_tickSubscriptions[i] = new Subscriptions();
+			m_barSubscriptions[i] = new Subscriptions();
+			m_working[i] = new ArrayList<SimOrder>();
+		}
+
+		m_controller = new ApiController( handler, NO_LOG, NO_LOG, new ApiController.IConnectionFactory() {
+			@Override public ApiConnection create(ApiController controller, ILogger inLogger, ILogger outLogger) {
+				return new BacktestConnection( Backtest.this, controller, inLogger, outLogger);
+			}
+		});
+	}
+
+	/** The controller to run the strategy with. */
+	public ApiController controller()	{ return m_controller; }
+	public MarketData data()			{ return m_data; }
+
+	/** Time of the record being replayed, in ms. */
+	public long now()					{ return m_now; }
+
+	/** Number of records replayed so far. */
+	public long records()				{ return m_records; }
+	public int fillCount()				{ return m_fills.size(); }
+	/** Profit of the closed trades less all commissions. */
+	public double realizedPnl()			{ return m_realizedPnl; }
+	public double commissions()			{ return m_commissions; }
+
+	/** Commission of a fill: perShare times the quantity, at least minimum; defaults are 0.005 and 1. */
+	public void commission(double perShare, double minimum) {
+		m_commissionPerShare = perShare;
+		m_minCommission = minimum;
+	}
+
+	public double position(String symbol) {
+		int index = m_data.indexOf( symbol);
+		return index < 0 ? 0 : m_position[index];
+	}
+
+	/** @return the profit of the open positions at the last prices replayed */
+	public double unrealizedPnl() {
+		double pnl = 0;
+		for (int i = 0; i < m_position.length; i++) {
+			pnl += m_position[i] * (m_last[i] - m_avgCost[i]);
+		}
+		return pnl;
+	}
+
+	/**
+	 * Connects the controller unless the strategy did, and replays all records.
+	 * @return the number of records replayed
+	 */
+	public long run() {
+		if (!m_controller.client().isConnected() ) {
+			m_controller.connect( "backtest", 0, 0, "");
+		}
+		respond();
+
+		MarketData data = m_data;
+		int size = data.size();
+		for (int record = 0; record < size; record++) {
+			replay( record);
+			respond();
+		}
+		m_records += size;
+		return size;
+	}
+
+	private void replay(int record) {
+		MarketData data = m_data;
+		long now = data.time( record);
+		int symbol = data.symbolIndex( record);
+		int field = data.field( record);
+		double value = data.value( record, 0);
+		m_now = now;
+
+		if (field == MarketData.BAR) {
+			double high = data.value( record, 1);
+			double low = data.value( record, 2);
+			double close = data.value( record, 3);
+			m_last[symbol] = close;
+			match( symbol, value, value, value, high, low, true);
+
+			m_controller.msgArrival( now * 1000000, now);
+			Subscriptions bars = m_barSubscriptions[symbol];
+			for (int i = 0; i < bars.m_count; i++) {
+				m_controller.realtimeBar( bars.m_ids[i], now / 1000, value, high, low, close, (long)data.value( record, 4), data.value( record, 5), 0);
+			}
+			Subscriptions ticks = m_tickSubscriptions[symbol];
+			for (int i = 0; i < ticks.m_count; i++) {
+				m_controller.tickPrice( ticks.m_ids[i], TickType.LAST.index(), close, 0);
+			}
+			return;
+		}
+
+		if (field < MarketData.SIZE) {
+			if (field == TickType.LAST.index() ) {
+				m_last[symbol] = value;
+				match( symbol, value, value, value, value, value, false);
+			}
+			else if (field == TickType.ASK.index() ) {
+				match( symbol, value, Double.NaN, value, value, value, false);
+			}
+			else if (field == TickType.BID.index() ) {
+				match( symbol, Double.NaN, value, value, value, value, false);
+			}
+		}
+
+		m_controller.msgArrival( now * 1000000, now);
+		Subscriptions ticks = m_tickSubscriptions[symbol];
+		for (int i = 0; i < ticks.m_count; i++) {
+			if (field < MarketData.SIZE) {
+				m_controller.tickPrice( ticks.m_ids[i], field, value, 0);
+			}
+			else {
+				m_controller.tickSize( ticks.m_ids[i], field - MarketData.SIZE, (int)value);
+			}
+		}
+	}
+
+	/**
+	 * Fills the working orders of symbol that can trade, then reports the fills.
+	 * @param buyPrice price a buy trades at, NaN if none
+	 * @param sellPrice price a sell trades at, NaN if none
+	 */
+	private void match(int symbol, double buyPrice, double sellPrice, double open, double high, double low, boolean bar) {
+		ArrayList<SimOrder> working = m_working[symbol];
+		for (int i = 0; i < working.size(); i++) {
+			SimOrder order = working.get( i);
+			double price = order.m_buy ? buyPrice : sellPrice;
+			if (Double.isNaN( price) ) {
+				continue;
+			}
+			double fillPrice = order.fillPrice( price, order.m_buy ? high : low, order.m_buy ? low : high, bar);
+			if (!Double.isNaN( fillPrice) ) {
+				working.remove( i--);
+				m_orders.remove( order.m_id);
+				fill( order, fillPrice);
+			}
+		}
+
+		Runnable report;
+		while ((report = m_fillReports.poll()) != null) {
+			report.run();
+		}
+	}
+
+	/** Books the fill; the callbacks are left in m_fillReports for match() to deliver. */
+	private void fill(final SimOrder order, final double price) {
+		int symbol = order.m_symbol;
+		double quantity = order.m_order.totalQuantity() - order.m_filled;
+		double signed = order.m_buy ? quantity : -quantity;
+		double commission = Math.max( m_minCommission, quantity * m_commissionPerShare);
+
+		// position and average cost
+		double position = m_position[symbol];
+		double realized = Double.MAX_VALUE;	// as TWS reports an opening trade
+		if (position != 0 && Math.signum( position) != Math.signum( signed) ) {
+			double closed = Math.min( quantity, Math.abs( position) );
+			double pnl = closed * (price - m_avgCost[symbol]) * Math.signum( position);
+			m_realizedPnl += pnl;
+			realized = pnl - commission;
+			if (Math.abs( signed) > Math.abs( position) ) {
+				m_avgCost[symbol] = price;	// reversed
+			}
+		}
+		else {
+			m_avgCost[symbol] = (position * m_avgCost[symbol] + signed * price) / (position + signed);
+		}
+		m_position[symbol] = position + signed;
+		if (m_position[symbol] == 0) {
+			m_avgCost[symbol] = 0;
+		}
+		m_commissions += commission;
+		m_realizedPnl -= commission;
+
+		order.m_filled += quantity;
+		order.m_avgFillPrice = price;
+
+		final Execution execution = new Execution();
+		execution.orderId( order.m_id);
+		execution.clientId( m_clientId );
+		execution.execId( String.format( "%08x.%08x.01.01", order.m_permId, m_fills.size() + 1) );
+		execution.time( m_timeFormat.format( new Date( m_now) ) );
+		execution.acctNumber( ACCOUNT);
+		execution.exchange( order.m_contract.exchange() );
+		execution.side( order.m_buy ? "BOT" : "SLD");
+		execution.shares( quantity);
+		execution.price( price);
+		execution.permId( order.m_permId);
+		execution.cumQty( (int)order.m_filled);
+		execution.avgPrice( price);
+		execution.orderRef( order.m_order.orderRef() );
+		execution.modelCode( order.m_order.modelCode() );
+
+		final CommissionReport report = new CommissionReport();
+		report.m_execId = execution.execId();
+		report.m_commission = commission;
+		report.m_currency = order.m_contract.currency();
+		report.m_realizedPNL = realized;
+		report.m_yield = Double.MAX_VALUE;
+
+		m_fills.add( new Fill( order.m_contract, execution, report) );
+
+		m_fillReports.add( new Runnable() {
+			@Override public void run() {
+				openOrder( order, OrderStatus.Filled);
+				orderStatus( order, OrderStatus.Filled, price);
+				m_controller.execDetails( -1, order.m_contract, execution);
+				m_controller.commissionReport( report);
+			}
+		});
+	}
+
+	// ---------------------------------------- Requests, called by BacktestConnection ----------------------------------------
+	void connected(int clientId) {
+		m_clientId = clientId;
+		m_responses.add( new Runnable() {
+			@Override public void run() {
+				m_controller.managedAccounts( ACCOUNT);
+				m_controller.nextValidId( m_nextOrderId);
+			}
+		});
+	}
+
+	void subscribe(final int reqId, Contract contract, boolean bars) {
+		final int symbol = m_data.indexOf( contract.symbol() );
+		if (symbol < 0) {
+			m_responses.add( new Runnable() {
+				@Override public void run() {
+					m_controller.error( reqId, NO_SECURITY_DEFINITION, "No security definition has been found for the request");
+				}
+			});
+			return;
+		}
+		m_contracts[symbol] = contract;
+		(bars ? m_barSubscriptions : m_tickSubscriptions)[symbol].add( reqId);
+		m_subscriptions.put( reqId, symbol);
+	}
+
+	void unsubscribe(int reqId) {
+		Integer symbol = m_subscriptions.remove( reqId);
+		if (symbol != null) {
+			m_tickSubscriptions[symbol].remove( reqId);
+			m_barSubscriptions[symbol].remove( reqId);
+		}
+	}
+
+	void placeOrder(final int id, final Contract contract, final Order order) {
+		final SimOrder existing = m_orders.get( id);
+		final int symbol = m_data.indexOf( contract.symbol() );
+		String rejected = symbol < 0 ? "no data for " + contract.symbol() : SimOrder.unsupported( order);
+		m_nextOrderId = Math.max( m_nextOrderId, id + 1);
+
+		if (rejected != null) {
+			m_responses.add( new Runnable() {
+				@Override public void run() {
+					m_controller.error( id, ORDER_REJECTED, "Order rejected - reason:" + rejected);
+				}
+			});
+			return;
+		}
+
+		final SimOrder simOrder;
+		if (existing != null) {
+			existing.modify( order);
+			simOrder = existing;
+		}
+		else {
+			simOrder = new SimOrder( id, m_nextPermId++, symbol, contract, order);
+			m_orders.put( id, simOrder);
+			m_working[symbol].add( simOrder);
+			if (m_contracts[symbol] == null) {
+				m_contracts[symbol] = contract;
+			}
+		}
+		m_responses.add( new Runnable() {
+			@Override public void run() {
+				openOrder( simOrder, OrderStatus.Submitted);
+				orderStatus( simOrder, OrderStatus.Submitted, 0);
+			}
+		});
+	}
+
+	void cancelOrder(final int id) {
+		final SimOrder order = m_orders.remove( id);
+		if (order != null) {
+			m_working[order.m_symbol].remove( order);
+		}
+		m_responses.add( new Runnable() {
+			@Override public void run() {
+				if (order != null) {
+					orderStatus( order, OrderStatus.Cancelled, 0);
+				}
+				else {
+					m_controller.error( id, ORDER_NOT_FOUND, "OrderId " + id + " that needs to be cancelled is not found.");
+				}
+			}
+		});
+	}
+
+	void cancelAllOrders() {
+		for (Integer id : new ArrayList<Integer>( m_orders.keySet() ) ) {
+			cancelOrder( id);
+		}
+	}
+
+	void reqIds() {
+		m_responses.add( new Runnable() {
+			@Override public void run() {
+				m_controller.nextValidId( m_nextOrderId);
+			}
+		});
+	}
+
+	void reqOpenOrders(final boolean end) {
+		m_responses.add( new Runnable() {
+			@Override public void run() {
+				for (SimOrder order : m_orders.values() ) {
+					openOrder( order, OrderStatus.Submitted);
+				}
+				if (end) {
+					m_controller.openOrderEnd();
+				}
+			}
+		});
+	}
+
+	void reqExecutions(final int reqId) {
+		m_responses.add( new Runnable() {
+			@Override public void run() {
+				for (Fill fill : m_fills) {
+					m_controller.execDetails( reqId, fill.m_contract, fill.m_execution);
+				}
+				m_controller.execDetailsEnd( reqId);
+				for (Fill fill : m_fills) {
+					m_controller.commissionReport( fill.m_commissionReport);
+				}
+			}
+		});
+	}
+
+	void reqPositions() {
+		m_responses.add( new Runnable() {
+			@Override public void run() {
+				for (int i = 0; i < m_contracts.length; i++) {
+					if (m_contracts[i] != null) {
+						m_controller.position( ACCOUNT, m_contracts[i], m_position[i], m_avgCost[i]);
+					}
+				}
+				m_controller.positionEnd();
+			}
+		});
+	}
+
+	void reqCurrentTime() {
+		m_responses.add( new Runnable() {
+			@Override public void run() {
+				m_controller.currentTime( m_now / 1000);
+			}
+		});
+	}
+
+	/** Delivers the responses to the requests made, including those made by the responses. */
+	private void respond() {
+		for (Runnable response = m_responses.poll(); response != null; response = m_responses.poll() ) {
+			response.run();
+		}
+	}
+
+	private void openOrder(SimOrder order, OrderStatus status) {
+		OrderState state = new OrderState();
+		state.status( status);
+		m_controller.openOrder( order.m_id, order.m_contract, order.m_order, state);
+	}
+
+	private void orderStatus(SimOrder order, OrderStatus status, double lastFillPrice) {
+		double quantity = order.m_order.totalQuantity();
+		m_controller.orderStatus( order.m_id, status.name(), order.m_filled, quantity - order.m_filled, order.m_avgFillPrice,
+				order.m_permId, order.m_order.parentId(), lastFillPrice, m_clientId, "");
+	}
+
+	/** Request ids of the subscribers to a symbol. */
+	private static class Subscriptions {
+		int[] m_ids = new int[2];
+		int m_count;
+
+		void add(int id) {
+			if (m_count == m_ids.length) {
+				int[] ids = new int[m_count * 2];
+				System.arraycopy( m_ids, 0, ids, 0, m_count);
+				m_ids = ids;
+			}
+			m_ids[m_count++] = id;
+		}
+
+		void remove(int id) {
+			for (int i = 0; i < m_count; i++) {
+				if (m_ids[i] == id) {
+					System.arraycopy( m_ids, i + 1, m_ids, i, --m_count - i);
+					return;
+				}
+			}
+		}
+	}
+
+	/** A working order and how it has been filled. */
+	private static class SimOrder {
+		final int m_id;
+		final int m_permId;
+		final int m_symbol;
+		final Contract m_contract;
+		Order m_order;
+		boolean m_buy;
+		boolean m_triggered;
+		double m_filled;
+		double m_avgFillPrice;
+
+		SimOrder(int id, int permId, int symbol, Contract contract, Order order) {
+			m_id = id;
+			m_permId = permId;
+			m_symbol = symbol;
+			m_contract = contract;
+			modify( order);
+		}
+
+		void modify(Order order) {
+			m_order = order;
+			m_buy = order.action() == Action.BUY;
+		}
+
+		/** @return why the order cannot be simulated, or null */
+		static String unsupported(Order order) {
+			OrderType type = order.orderType();
+			if (type != OrderType.MKT && type != OrderType.LMT && type != OrderType.STP && type != OrderType.STP_LMT) {
+				return order.getOrderType() + " orders are not simulated";
+			}
+			if (order.totalQuantity() <= 0) {
+				return "quantity must be positive";
+			}
+			return null;
+		}
+
+		/**
+		 * @param price the price the order can trade at
+		 * @param adverse the bar's extreme against the order, the high for a buy; for a tick its price
+		 * @param favorable the bar's extreme in favor of the order; for a tick its price
+		 * @return the fill price, or NaN if the order does not fill
+		 */
+		double fillPrice(double price, double adverse, double favorable, boolean bar) {
+			double sign = m_buy ? 1 : -1;
+			OrderType type = m_order.orderType();
+
+			if ((type == OrderType.STP || type == OrderType.STP_LMT) && !m_triggered) {
+				double stop = m_order.auxPrice();
+				if (sign * adverse < sign * stop) {
+					return Double.NaN;
+				}
+				m_triggered = true;
+				if (sign * price < sign * stop) {
+					price = stop;	// triggered during the bar
+				}
+			}
+			if (type == OrderType.MKT || type == OrderType.STP) {
+				return price;
+			}
+
+			double limit = m_order.lmtPrice();
+			if (sign * price <= sign * limit) {
+				return price;
+			}
+			return bar && sign * favorable <= sign * limit ? limit : Double.NaN;
+		}
+	}
+
+	private static class Fill {
+		final Contract m_contract;
+		final Execution m_execution;
+		final CommissionReport m_commissionReport;
+
+		Fill(Contract contract, Execution execution, CommissionReport commissionReport) {
+			m_contract = contract;
+			m_execution = execution;
+			m_commissionReport = commissionReport;
+		}
+	}
+}
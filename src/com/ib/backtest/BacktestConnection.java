@@ -0,0 +1,112 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.backtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ib.client.Contract;
+import com.ib.client.EClient;
+import com.ib.client.EMessage;
+import com.ib.client.EWrapper;
+import com.ib.client.ExecutionFilter;
+import com.ib.client.Order;
+import com.ib.client.TagValue;
+import com.ib.controller.ApiConnection;
+
+/**
+ * The connection of a backtested ApiController. The requests a Backtest simulates are passed
+ * to it instead of being encoded; all others are dropped.
+ */
+class BacktestConnection extends ApiConnection {
+	private final Backtest m_backtest;
+	private boolean m_connected;
+
+	BacktestConnection(Backtest backtest, EWrapper wrapper, ILogger inLogger, ILogger outLogger) {
+		super( wrapper, inLogger, outLogger);
+		m_backtest = backtest;
+		m_serverVersion = EClient.MAX_VERSION;
+	}
+
+	@Override public boolean usesReader() {
+		return false;
+	}
+
+	@Override public boolean isConnected() {
+		return m_connected;
+	}
+
+	@Override public synchronized void eConnect(String host, int port, int clientId) {
+		m_clientId = clientId;
+		m_connected = true;
+		m_backtest.connected( clientId);
+	}
+
+	@Override public synchronized void eDisconnect() {
+		m_connected = false;
+	}
+
+	@Override protected void sendMsg(EMessage msg) {
+		// not simulated
+	}
+
+	@Override public synchronized void reqMktData(int tickerId, Contract contract, String genericTickList, boolean snapshot, List<TagValue> mktDataOptions) {
+		m_backtest.subscribe( tickerId, contract, false);
+	}
+
+	@Override public synchronized void cancelMktData(int tickerId) {
+		m_backtest.unsubscribe( tickerId);
+	}
+
+	@Override public synchronized void reqRealTimeBars(int tickerId, Contract contract, int barSize, String whatToShow, boolean useRTH, ArrayList<TagValue> realTimeBarsOptions) {
+		m_backtest.subscribe( tickerId, contract, true);
+	}
+
+	@Override public void cancelRealTimeBars(int tickerId) {
+		m_backtest.unsubscribe( tickerId);
+	}
+
+	@Override public synchronized void placeOrder(int id, Contract contract, Order order) {
+		m_backtest.placeOrder( id, contract, order);
+	}
+
+	@Override public synchronized void cancelOrder(int id) {
+		m_backtest.cancelOrder( id);
+	}
+
+	@Override public synchronized void reqGlobalCancel() {
+		m_backtest.cancelAllOrders();
+	}
+
+	@Override public synchronized void reqIds(int numIds) {
+		m_backtest.reqIds();
+	}
+
+	@Override public synchronized void reqOpenOrders() {
+		m_backtest.reqOpenOrders( true);
+	}
+
+	@Override public synchronized void reqAllOpenOrders() {
+		m_backtest.reqOpenOrders( true);
+	}
+
+	@Override public synchronized void reqAutoOpenOrders(boolean bAutoBind) {
+		m_backtest.reqOpenOrders( false);
+	}
+
+	@Override public synchronized void reqExecutions(int reqId, ExecutionFilter filter) {
+		m_backtest.reqExecutions( reqId);
+	}
+
+	@Override public synchronized void reqPositions() {
+		m_backtest.reqPositions();
+	}
+
+	@Override public synchronized void cancelPositions() {
+	}
+
+	@Override public synchronized void reqCurrentTime() {
+		m_backtest.reqCurrentTime();
+	}
+}
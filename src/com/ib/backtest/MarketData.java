@@ -0,0 +1,390 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.backtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TimeZone;
+
+import com.ib.client.FrameJournal;
+import com.ib.client.FrameJournalReader;
+import com.ib.client.TickType;
+
+/**
+ * Ticks and bars of any number of symbols in time order, as fixed size records in one buffer.
+ * The data is read only once built, so one instance can be replayed by any number of
+ * backtests at a time.
+ * <p>
+ * A record holds the time in ms, the symbol index, the tick type index (plus SIZE for a size
+ * tick) or BAR, and up to six values: the price or size of a tick; open, high, low, close,
+ * volume and wap of a bar.
+ * <p>
+ * save() writes the records to a file that map() maps read only, so that a data set much
+ * larger than the heap is read once and shared through the page cache, by all backtests of
+ * a JVM as well as by other JVMs.
+ */
+public class MarketData {
+	public static final int RECORD_SIZE = 64;
+	public static final int BAR = -1;	// tick type of a bar record
+	public static final int SIZE = 1 << 16;	// added to the tick type of a size tick
+
+	static final int TIME = 0;
+	static final int SYMBOL = 8;
+	static final int FIELD = 12;
+	static final int VALUES = 16;
+
+	private static final int MAGIC = 0x49424d44; // "IBMD"
+	private static final int VERSION = 1;
+	private static final int CHUNK_SHIFT = 24;	// 1 GB of records per buffer
+	private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+
+	private final String[] m_symbols;
+	private final ByteBuffer[] m_chunks;
+	private final int m_count;
+
+	MarketData(String[] symbols, ByteBuffer[] chunks, int count) {
+		m_symbols = symbols;
+		m_chunks = chunks;
+		m_count = count;
+	}
+
+	public int size()						{ return m_count; }
+	public int symbolCount()				{ return m_symbols.length; }
+	public String symbol(int index)			{ return m_symbols[index]; }
+	public long time(int record)			{ return chunk( record).getLong( offset( record) + TIME); }
+	public int symbolIndex(int record)		{ return chunk( record).getInt( offset( record) + SYMBOL); }
+	public int field(int record)			{ return chunk( record).getInt( offset( record) + FIELD); }
+
+	/** @param i 0 for the price or size of a tick; 0 to 5 for open, high, low, close, volume and wap of a bar */
+	public double value(int record, int i)	{ return chunk( record).getDouble( offset( record) + VALUES + i * 8); }
+
+	private ByteBuffer chunk(int record) {
+		return m_chunks[record >>> CHUNK_SHIFT];
+	}
+
+	private static int offset(int record) {
+		return (record & CHUNK_MASK) * RECORD_SIZE;
+	}
+
+	/** Writes the data to file for map(). */
+	public void save(File path) throws IOException {
+		ByteArrayOutputStream symbols = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream( symbols);
+		for (String symbol : m_symbols) {
+			out.writeUTF( symbol);
+		}
+		int headerSize = (20 + symbols.size() + RECORD_SIZE - 1) / RECORD_SIZE * RECORD_SIZE;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream( headerSize);
+		DataOutputStream header = new DataOutputStream( bytes);
+		header.writeInt( MAGIC);
+		header.writeInt( VERSION);
+		header.writeInt( headerSize);
+		header.writeInt( m_count);
+		header.writeInt( m_symbols.length);
+		symbols.writeTo( header);
+		header.write( new byte[headerSize - bytes.size()]);
+
+		FileOutputStream file = new FileOutputStream( path);
+		try {
+			FileChannel channel = file.getChannel();
+			channel.write( ByteBuffer.wrap( bytes.toByteArray() ) );
+			for (ByteBuffer chunk : m_chunks) {
+				ByteBuffer src = chunk.duplicate();
+				src.clear();
+				while (src.hasRemaining() ) {
+					channel.write( src);
+				}
+			}
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	/** Maps a file written by save() read only; the mapping does not use the heap and is safe to share between threads. */
+	public static MarketData map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile( file, "r");
+		try {
+			DataInputStream header = new DataInputStream( new BufferedInputStream( new FileInputStream( raf.getFD() ) ) );
+			if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+				throw new IOException( file + " is not a market data file");
+			}
+			int headerSize = header.readInt();
+			int count = header.readInt();
+			String[] symbols = new String[header.readInt()];
+			for (int i = 0; i < symbols.length; i++) {
+				symbols[i] = header.readUTF();
+			}
+
+			FileChannel channel = raf.getChannel();
+			ByteBuffer[] chunks = new ByteBuffer[(count + CHUNK_RECORDS - 1) >>> CHUNK_SHIFT];
+			for (int i = 0; i < chunks.length; i++) {
+				long first = (long)i << CHUNK_SHIFT;
+				long records = Math.min( CHUNK_RECORDS, count - first);
+				chunks[i] = channel.map( FileChannel.MapMode.READ_ONLY, headerSize + first * RECORD_SIZE, records * RECORD_SIZE);
+			}
+			return new MarketData( symbols, chunks, count);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/** @return the index of symbol, or -1 if there is no data for it */
+	public int indexOf(String symbol) {
+		for (int i = 0; i < m_symbols.length; i++) {
+			if (m_symbols[i].equals( symbol) ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** Collects records in any order; build() sorts them by time, keeping the order of equal times. */
+	public static class Builder {
+		private final ArrayList<String> m_symbols = new ArrayList<String>();
+		private final HashMap<String,Integer> m_symbolIndex = new HashMap<String,Integer>();
+		private ByteBuffer m_records = ByteBuffer.allocate( 1024 * RECORD_SIZE);
+
+		public Builder tickPrice(long time, String symbol, TickType tickType, double price) {
+			record( time, symbol, tickType.index(), price, 0, 0, 0, 0, 0);
+			return this;
+		}
+
+		public Builder tickSize(long time, String symbol, TickType tickType, int size) {
+			record( time, symbol, tickType.index() + SIZE, size, 0, 0, 0, 0, 0);
+			return this;
+		}
+
+		/** @param time when the bar is replayed, normally its end */
+		public Builder bar(long time, String symbol, double open, double high, double low, double close, long volume, double wap) {
+			record( time, symbol, BAR, open, high, low, close, volume, wap);
+			return this;
+		}
+
+		/**
+		 * Adds the bars of a CSV file with lines symbol,time,open,high,low,close,volume[,wap]; time is
+		 * in seconds since the epoch or yyyyMMdd HH:mm:ss in UTC. A first line that is not a bar is
+		 * taken for a header.
+		 */
+		public Builder readBars(File csv) throws IOException {
+			SimpleDateFormat format = new SimpleDateFormat( "yyyyMMdd HH:mm:ss");
+			format.setTimeZone( TimeZone.getTimeZone( "UTC") );
+
+			BufferedReader reader = new BufferedReader( new FileReader( csv) );
+			try {
+				int lineNo = 0;
+				for (String line = reader.readLine(); line != null; line = reader.readLine() ) {
+					lineNo++;
+					String[] f = line.trim().split( ",");
+					if (f.length < 7 || lineNo == 1 && !Character.isDigit( f[2].trim().charAt( 0) ) ) {
+						continue;
+					}
+					try {
+						String time = f[1].trim();
+						long millis = time.length() > 8 && time.indexOf( ' ') > 0 ? format.parse( time).getTime() : Long.parseLong( time) * 1000;
+						double close = Double.parseDouble( f[5]);
+						bar( millis, f[0].trim(), Double.parseDouble( f[2]), Double.parseDouble( f[3]), Double.parseDouble( f[4]), close,
+								(long)Double.parseDouble( f[6]), f.length > 7 ? Double.parseDouble( f[7]) : close);
+					}
+					catch (NumberFormatException | ParseException e) {
+						throw new IOException( csv + ":" + lineNo + ": " + e.getMessage() );
+					}
+				}
+			}
+			finally {
+				reader.close();
+			}
+			return this;
+		}
+
+		/**
+		 * Adds the ticks and real time bars of a session recorded with EClientSocket.setFrameJournal().
+		 * Ticks are attributed to the symbol of the recorded request, so record the outbound frames
+		 * as well; without them the request id stands in for the symbol.
+		 */
+		public Builder readJournal(File dir) throws IOException {
+			FrameJournalReader reader = FrameJournalReader.open( dir);
+			HashMap<Integer,String> requests = new HashMap<Integer,String>();
+			byte[] buf = new byte[8192];
+			boolean handshake = true;
+			boolean v100 = false;
+
+			while (reader.next() ) {
+				int len = reader.length();
+				if (len > buf.length) {
+					buf = new byte[len];
+				}
+				reader.read( buf);
+
+				if (reader.direction() == FrameJournal.OUT) {
+					// outbound frames carry the length prefix, the first one is the API header
+					if (len >= 4 && buf[0] == 'A' && buf[1] == 'P' && buf[2] == 'I' && buf[3] == 0) {
+						v100 = true;
+						continue;
+					}
+					String[] f = fields( buf, v100 ? 4 : 0, len, 5);
+					int msgId = parseInt( f[0]);
+					if ((msgId == REQ_MKT_DATA || msgId == REQ_REAL_TIME_BARS) && f[4] != null) {
+						requests.put( parseInt( f[2]), f[4]);
+					}
+					continue;
+				}
+				if (handshake) {
+					handshake = false;	// server version and time
+					continue;
+				}
+
+				String[] f = fields( buf, 0, len, 11);
+				long time = reader.millis();
+				switch (parseInt( f[0]) ) {
+					case TICK_PRICE: {
+						String symbol = symbol( requests, f[2]);
+						int field = parseInt( f[3]);
+						record( time, symbol, field, Double.parseDouble( f[4]), 0, 0, 0, 0, 0);
+						TickType sizeType = sizeTickType( field);
+						if (sizeType != null && f[5] != null) {
+							tickSize( time, symbol, sizeType, parseInt( f[5]) );
+						}
+						break;
+					}
+					case TICK_SIZE:
+						record( time, symbol( requests, f[2]), parseInt( f[3]) + SIZE, parseInt( f[4]), 0, 0, 0, 0, 0);
+						break;
+					case REAL_TIME_BARS:
+						bar( time, symbol( requests, f[2]), Double.parseDouble( f[4]), Double.parseDouble( f[5]), Double.parseDouble( f[6]),
+								Double.parseDouble( f[7]), Long.parseLong( f[8]), Double.parseDouble( f[9]) );
+						break;
+					default:
+						break;
+				}
+			}
+			return this;
+		}
+
+		public MarketData build() {
+			int count = m_records.position() / RECORD_SIZE;
+			final ByteBuffer records = m_records;
+
+			boolean sorted = true;
+			for (int i = 1; i < count && sorted; i++) {
+				sorted = records.getLong( (i - 1) * RECORD_SIZE) <= records.getLong( i * RECORD_SIZE);
+			}
+
+			ByteBuffer out = ByteBuffer.allocate( count * RECORD_SIZE);
+			if (sorted) {
+				out.put( (ByteBuffer)records.duplicate().flip() );
+			}
+			else {
+				Integer[] order = new Integer[count];
+				for (int i = 0; i < count; i++) {
+					order[i] = i;
+				}
+				Arrays.sort( order, new Comparator<Integer>() {	// stable
+					@Override public int compare(Integer a, Integer b) {
+						return Long.compare( records.getLong( a * RECORD_SIZE), records.getLong( b * RECORD_SIZE) );
+					}
+				});
+				for (int i : order) {
+					ByteBuffer record = records.duplicate();
+					record.limit( (i + 1) * RECORD_SIZE).position( i * RECORD_SIZE);
+					out.put( record);
+				}
+			}
+			out.flip();
+
+			ByteBuffer[] chunks = new ByteBuffer[(count + CHUNK_RECORDS - 1) >>> CHUNK_SHIFT];
+			for (int i = 0; i < chunks.length; i++) {
+				out.limit( Math.min( count, (i + 1) * CHUNK_RECORDS) * RECORD_SIZE).position( i * CHUNK_RECORDS * RECORD_SIZE);
+				chunks[i] = out.slice();
+			}
+			return new MarketData( m_symbols.toArray( new String[m_symbols.size()]), chunks, count);
+		}
+
+		private void record(long time, String symbol, int field, double v0, double v1, double v2, double v3, double v4, double v5) {
+			Integer index = m_symbolIndex.get( symbol);
+			if (index == null) {
+				index = m_symbols.size();
+				m_symbols.add( symbol);
+				m_symbolIndex.put( symbol, index);
+			}
+			if (m_records.remaining() < RECORD_SIZE) {
+				if (m_records.capacity() > Integer.MAX_VALUE / 2) {
+					throw new IllegalStateException( "a MarketData.Builder holds at most " + m_records.capacity() / RECORD_SIZE + " records");
+				}
+				ByteBuffer records = ByteBuffer.allocate( m_records.capacity() * 2);
+				m_records.flip();
+				records.put( m_records);
+				m_records = records;
+			}
+			m_records.putLong( time).putInt( index).putInt( field);
+			m_records.putDouble( v0).putDouble( v1).putDouble( v2).putDouble( v3).putDouble( v4).putDouble( v5);
+		}
+
+		// message ids of the journal frames read
+		private static final int TICK_PRICE = 1;
+		private static final int TICK_SIZE = 2;
+		private static final int REAL_TIME_BARS = 50;
+		private static final int REQ_MKT_DATA = 1;
+		private static final int REQ_REAL_TIME_BARS = 50;
+
+		private static String symbol(HashMap<Integer,String> requests, String reqId) {
+			String symbol = requests.get( parseInt( reqId) );
+			return symbol != null ? symbol : reqId;
+		}
+
+		/** @return the size tick that comes with a price tick, as EDecoder derives it */
+		private static TickType sizeTickType(int priceTickType) {
+			switch (priceTickType) {
+				case 1: return TickType.BID_SIZE;
+				case 2: return TickType.ASK_SIZE;
+				case 4: return TickType.LAST_SIZE;
+				default: return null;
+			}
+		}
+
+		/** @return the first count fields of the frame in buf[off, len); missing ones are null */
+		private static String[] fields(byte[] buf, int off, int len, int count) {
+			String[] fields = new String[count];
+			int start = off;
+			for (int i = 0; i < count && start < len; i++) {
+				int end = start;
+				while (end < len && buf[end] != 0) {
+					end++;
+				}
+				fields[i] = new String( buf, start, end - start);
+				start = end + 1;
+			}
+			return fields;
+		}
+
+		private static int parseInt(String str) {
+			try {
+				return str == null ? 0 : Integer.parseInt( str);
+			}
+			catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+	}
+}
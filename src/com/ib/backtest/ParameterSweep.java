@@ -0,0 +1,196 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.backtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.ib.controller.ApiController.IConnectionHandler;
+
+/**
+ * Backtests a strategy with many parameter sets in parallel: each set gets its own Backtest and
+ * ApiController, run on a fork/join pool with one worker per core by default, and all of them
+ * replay the same read only MarketData. Map the data with MarketData.map() so that it is read
+ * once for all runs instead of once per JVM.
+ * <p>
+ * Runs only share the data; the strategy must not keep mutable state outside of what start()
+ * creates for its run.
+ */
+public class ParameterSweep<P> {
+	/** Starts the strategy for one run, e.g. subscribes to market data with backtest.controller(). */
+	public interface IStrategy<P> {
+		void start(Backtest backtest, P params);
+	}
+
+	private final MarketData m_data;
+	private final IStrategy<P> m_strategy;
+	private double m_commissionPerShare = 0.005;
+	private double m_minCommission = 1;
+	private long m_elapsedNanos;
+
+	public ParameterSweep(MarketData data, IStrategy<P> strategy) {
+		m_data = data;
+		m_strategy = strategy;
+	}
+
+	/** See Backtest.commission(). */
+	public void commission(double perShare, double minimum) {
+		m_commissionPerShare = perShare;
+		m_minCommission = minimum;
+	}
+
+	/** Wall-clock time of the last sweep. */
+	public long elapsedNanos() {
+		return m_elapsedNanos;
+	}
+
+	public List<Result<P>> run(List<P> params) {
+		return run( params, Runtime.getRuntime().availableProcessors() );
+	}
+
+	/** @return a result per parameter set, in the same order */
+	public List<Result<P>> run(List<P> params, int parallelism) {
+		@SuppressWarnings("unchecked")
+		Result<P>[] results = (Result<P>[])new Result<?>[params.size()];
+		long start = System.nanoTime();
+
+		ForkJoinPool pool = new ForkJoinPool( parallelism);
+		try {
+			pool.invoke( new Sweep( params, results, 0, params.size() ) );
+		}
+		finally {
+			pool.shutdown();
+		}
+		m_elapsedNanos = System.nanoTime() - start;
+		return Arrays.asList( results);
+	}
+
+	/** @return the results from the highest net profit down, failed runs last */
+	public static <P> List<Result<P>> ranked(List<Result<P>> results) {
+		ArrayList<Result<P>> ranked = new ArrayList<Result<P>>( results);
+		Collections.sort( ranked, new Comparator<Result<P>>() {
+			@Override public int compare(Result<P> a, Result<P> b) {
+				if ((a.m_error == null) != (b.m_error == null) ) {
+					return a.m_error == null ? -1 : 1;
+				}
+				return Double.compare( b.netPnl(), a.netPnl() );
+			}
+		});
+		return ranked;
+	}
+
+	/** @return the number of records replayed by all runs */
+	public static long records(List<? extends Result<?>> results) {
+		long records = 0;
+		for (Result<?> result : results) {
+			records += result.m_records;
+		}
+		return records;
+	}
+
+	private Result<P> backtest(final P params) {
+		Result<P> result = new Result<P>( params);
+		final Backtest[] backtest = new Backtest[1];
+		final Throwable[] error = new Throwable[1];
+
+		backtest[0] = new Backtest( m_data, new IConnectionHandler() {
+			@Override public void connected() {
+				m_strategy.start( backtest[0], params);
+			}
+			@Override public void disconnected() {
+			}
+			@Override public void accountList(ArrayList<String> list) {
+			}
+			@Override public void error(Exception e) {
+				error[0] = e;
+			}
+			@Override public void message(int id, int errorCode, String errorMsg) {
+			}
+			@Override public void show(String string) {
+			}
+		});
+		backtest[0].commission( m_commissionPerShare, m_minCommission);
+
+		long start = System.nanoTime();
+		try {
+			backtest[0].run();
+		}
+		catch (RuntimeException e) {
+			error[0] = e;
+		}
+		result.m_elapsedNanos = System.nanoTime() - start;
+		result.m_records = backtest[0].records();
+		result.m_fills = backtest[0].fillCount();
+		result.m_realizedPnl = backtest[0].realizedPnl();
+		result.m_unrealizedPnl = backtest[0].unrealizedPnl();
+		result.m_commissions = backtest[0].commissions();
+		result.m_error = error[0];
+		return result;
+	}
+
+	/** Runs params[from, to), splitting the range until it is a single run. */
+	private class Sweep extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<P> m_params;
+		private final Result<P>[] m_results;
+		private final int m_from;
+		private final int m_to;
+
+		Sweep(List<P> params, Result<P>[] results, int from, int to) {
+			m_params = params;
+			m_results = results;
+			m_from = from;
+			m_to = to;
+		}
+
+		@Override protected void compute() {
+			if (m_to - m_from == 1) {
+				m_results[m_from] = backtest( m_params.get( m_from) );
+			}
+			else if (m_to > m_from) {
+				int mid = (m_from + m_to) >>> 1;
+				invokeAll( new Sweep( m_params, m_results, m_from, mid), new Sweep( m_params, m_results, mid, m_to) );
+			}
+		}
+	}
+
+	/** Outcome of one run. */
+	public static class Result<P> {
+		private final P m_params;
+		private long m_records;
+		private long m_elapsedNanos;
+		private int m_fills;
+		private double m_realizedPnl;
+		private double m_unrealizedPnl;
+		private double m_commissions;
+		private Throwable m_error;
+
+		Result(P params) {
+			m_params = params;
+		}
+
+		public P params()				{ return m_params; }
+		public long records()			{ return m_records; }
+		public long elapsedNanos()		{ return m_elapsedNanos; }
+		public int fills()				{ return m_fills; }
+		public double realizedPnl()		{ return m_realizedPnl; }
+		public double unrealizedPnl()	{ return m_unrealizedPnl; }
+		public double commissions()		{ return m_commissions; }
+		public double netPnl()			{ return m_realizedPnl + m_unrealizedPnl; }
+
+		/** The exception the run failed with, or null. */
+		public Throwable error()		{ return m_error; }
+
+		@Override public String toString() {
+			return String.format( "%s: net %.2f realized %.2f unrealized %.2f commissions %.2f fills %d%s",
+					m_params, netPnl(), m_realizedPnl, m_unrealizedPnl, m_commissions, m_fills, m_error != null ? " failed: " + m_error : "");
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.bus;
+
+/**
+ * File layout of a market data bus, little endian:
+ * <pre>
+ * header       256 bytes: MAGIC, VERSION, capacity, maxSymbols, created millis;
+ *              the published count at 64 and the symbol count at 128, each on its own cache line
+ * symbols      maxSymbols entries of 64 bytes: short length and UTF-8 name
+ * records      capacity records of 64 bytes, record n in slot n % capacity:
+ *              long seq, long nanoTime, int symbol, int type, double price, double price2, int size, int size2
+ * </pre>
+ * A record's seq is -1 while the writer fills its slot and n once record n is complete, so that a
+ * reader can tell a complete record from one being overwritten.
+ */
+class BusLayout {
+	static final int MAGIC = 0x49424d42;	// "IBMB"
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 256;
+	static final int SYMBOL_SIZE = 64;
+	static final int MAX_NAME_LENGTH = SYMBOL_SIZE - 2;
+	static final int RECORD_SIZE = 64;
+	static final int MAX_CAPACITY = 1 << 24;
+
+	// header
+	static final int MAGIC_OFFSET = 0;
+	static final int VERSION_OFFSET = 4;
+	static final int CAPACITY_OFFSET = 8;
+	static final int MAX_SYMBOLS_OFFSET = 12;
+	static final int CREATED_OFFSET = 16;
+	static final int PUBLISHED_OFFSET = 64;
+	static final int SYMBOL_COUNT_OFFSET = 128;
+
+	// record
+	static final int SEQ = 0;
+	static final int TIME = 8;
+	static final int SYMBOL = 16;
+	static final int TYPE = 20;
+	static final int PRICE = 24;
+	static final int PRICE2 = 32;
+	static final int SIZE = 40;
+	static final int SIZE2 = 44;
+
+	static final long WRITING = -1;
+
+	static int symbolOffset(int index) {
+		return HEADER_SIZE + index * SYMBOL_SIZE;
+	}
+
+	static int recordsOffset(int maxSymbols) {
+		return HEADER_SIZE + maxSymbols * SYMBOL_SIZE;
+	}
+
+	static long fileSize(int capacity, int maxSymbols) {
+		return recordsOffset( maxSymbols) + (long)capacity * RECORD_SIZE;
+	}
+}
@@ -0,0 +1,115 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.bus;
+
+import java.util.HashMap;
+
+import com.ib.client.Contract;
+import com.ib.client.TickType;
+import com.ib.controller.ApiController;
+import com.ib.controller.ApiController.TopMktDataAdapter;
+
+/**
+ * Subscribes to top of book market data through an ApiController and publishes it to a
+ * BusWriter, so that other processes on the host read it from the bus instead of opening
+ * their own TWS connections.
+ * <p>
+ * A quote record, with both sides of the book, is written when a bid or ask size arrives: TWS
+ * follows every bid and ask price with its size, so a price change and its size make one record.
+ * Likewise a trade record is written for each last size, with the last price. Delayed data is
+ * published the same way. Values are 0 until they are received.
+ */
+public class BusPublisher {
+	private final ApiController m_controller;
+	private final BusWriter m_writer;
+	private final HashMap<String,TopHandler> m_handlers = new HashMap<String,TopHandler>();
+
+	public BusPublisher(ApiController controller, BusWriter writer) {
+		m_controller = controller;
+		m_writer = writer;
+	}
+
+	/** Publishes the contract under its symbol. */
+	public void subscribe(Contract contract) {
+		subscribe( contract.symbol(), contract);
+	}
+
+	/** Publishes the contract under name, which readers look up with BusReader.symbolIndex(); a name is subscribed once. */
+	public synchronized void subscribe(String name, Contract contract) {
+		if (m_handlers.containsKey( name) ) {
+			return;
+		}
+		TopHandler handler = new TopHandler( m_writer.symbol( name) );
+		m_handlers.put( name, handler);
+		m_controller.reqTopMktData( contract, "", false, handler);
+	}
+
+	public synchronized void unsubscribe(String name) {
+		TopHandler handler = m_handlers.remove( name);
+		if (handler != null) {
+			m_controller.cancelTopMktData( handler);
+		}
+	}
+
+	public synchronized void unsubscribeAll() {
+		for (TopHandler handler : m_handlers.values() ) {
+			m_controller.cancelTopMktData( handler);
+		}
+		m_handlers.clear();
+	}
+
+	/** Keeps the top of book of one symbol; called on the thread that dispatches the controller's messages. */
+	private class TopHandler extends TopMktDataAdapter {
+		private final int m_symbol;
+		private double m_bid;
+		private double m_ask;
+		private double m_last;
+		private int m_bidSize;
+		private int m_askSize;
+
+		TopHandler(int symbol) {
+			m_symbol = symbol;
+		}
+
+		@Override public void tickPrice(TickType tickType, double price, int canAutoExecute) {
+			switch (tickType) {
+				case BID:
+				case DELAYED_BID:
+					m_bid = price;
+					break;
+				case ASK:
+				case DELAYED_ASK:
+					m_ask = price;
+					break;
+				case LAST:
+				case DELAYED_LAST:
+					m_last = price;
+					break;
+				default:
+					break;
+			}
+		}
+
+		@Override public void tickSize(TickType tickType, int size) {
+			switch (tickType) {
+				case BID_SIZE:
+				case DELAYED_BID_SIZE:
+					m_bidSize = size;
+					m_writer.quote( m_symbol, m_bid, m_bidSize, m_ask, m_askSize);
+					break;
+				case ASK_SIZE:
+				case DELAYED_ASK_SIZE:
+					m_askSize = size;
+					m_writer.quote( m_symbol, m_bid, m_bidSize, m_ask, m_askSize);
+					break;
+				case LAST_SIZE:
+				case DELAYED_LAST_SIZE:
+					m_writer.trade( m_symbol, m_last, size);
+					break;
+				default:
+					break;
+			}
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.bus;
+
+import static com.ib.bus.BusLayout.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Reads the records of a BusWriter, typically in another process, from a read only mapping of
+ * its file. poll() never blocks or locks: it checks each record's sequence before and after
+ * reading it, and skips records the writer overwrote in the meantime. A reader that falls a
+ * whole ring behind continues with the newest record and counts the skipped ones in lost().
+ * <p>
+ * A reader is used by one thread. Poll in a loop on a dedicated core for the lowest latency,
+ * or with a short sleep or Thread.yield() between empty polls.
+ * <p>
+ * The reads of the mapping are ordered with volatile reads, which are acquires: the reads after
+ * one cannot move above it. One comes between the check of a record's sequence and its contents
+ * and another between the contents and the second check, pairing with the volatile writes of
+ * BusWriter, so that the check does not depend on how the hardware orders loads.
+ * <p>
+ * Usage: java com.ib.bus.BusReader &lt;file&gt;, prints the records as they are published.
+ */
+public class BusReader implements Closeable {
+	/** Receives the records; symbol is an index, see symbol(). */
+	public interface IListener {
+		void quote(int symbol, long nanoTime, double bid, int bidSize, double ask, int askSize);
+		void trade(int symbol, long nanoTime, double price, int size);
+	}
+
+	private final RandomAccessFile m_file;
+	private final MappedByteBuffer m_buf;
+	private final int m_capacity;
+	private final int m_mask;
+	private final int m_recordsOffset;
+	private final ArrayList<String> m_symbols = new ArrayList<String>();
+	private long m_next;	// seq of the next record to read
+	private long m_lost;
+	private volatile int m_fence;
+
+	/** Opens the file of a running writer; poll() returns the records published from now on. */
+	public BusReader(File file) throws IOException {
+		m_file = new RandomAccessFile( file, "r");
+		m_buf = m_file.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, m_file.length() );
+		m_buf.order( ByteOrder.LITTLE_ENDIAN);
+
+		if (m_file.length() < HEADER_SIZE || m_buf.getInt( MAGIC_OFFSET) != MAGIC) {
+			m_file.close();
+			throw new IOException( file + " is not a market data bus or is not initialized yet");
+		}
+		acquire();
+		if (m_buf.getInt( VERSION_OFFSET) != VERSION) {
+			m_file.close();
+			throw new IOException( "unsupported market data bus version " + m_buf.getInt( VERSION_OFFSET) );
+		}
+		m_capacity = m_buf.getInt( CAPACITY_OFFSET);
+		m_mask = m_capacity - 1;
+		m_recordsOffset = recordsOffset( m_buf.getInt( MAX_SYMBOLS_OFFSET) );
+		m_next = published();
+	}
+
+	public int capacity()		{ return m_capacity; }
+	public long position()		{ return m_next; }
+	public long lost()			{ return m_lost; }
+
+	/** @return the number of records published so far */
+	public long published() {
+		return m_buf.getLong( PUBLISHED_OFFSET);
+	}
+
+	/** @return the time the writer created the file, to tell a restarted writer from the one this reader opened */
+	public long createdMillis() {
+		return m_buf.getLong( CREATED_OFFSET);
+	}
+
+	/** Continues with the oldest record still in the ring. */
+	public void rewind() {
+		m_next = Math.max( 0, published() - m_capacity + 1);
+	}
+
+	/** @return the name of a symbol index passed to the listener */
+	public String symbol(int index) {
+		if (index >= m_symbols.size() ) {
+			loadSymbols();
+		}
+		return index < m_symbols.size() ? m_symbols.get( index) : null;
+	}
+
+	/** @return the index of a symbol or -1 if it was not published yet */
+	public int symbolIndex(String name) {
+		int index = m_symbols.indexOf( name);
+		if (index < 0) {
+			loadSymbols();
+			index = m_symbols.indexOf( name);
+		}
+		return index;
+	}
+
+	private void loadSymbols() {
+		int count = m_buf.getInt( SYMBOL_COUNT_OFFSET);
+		acquire();
+		for (int i = m_symbols.size(); i < count; i++) {
+			int off = symbolOffset( i);
+			byte[] bytes = new byte[m_buf.getShort( off)];
+			for (int k = 0; k < bytes.length; k++) {
+				bytes[k] = m_buf.get( off + 2 + k);
+			}
+			m_symbols.add( new String( bytes, StandardCharsets.UTF_8) );
+		}
+	}
+
+	/**
+	 * Passes up to limit new records to listener.
+	 * @return the number of records passed
+	 */
+	public int poll(IListener listener, int limit) {
+		int count = 0;
+		while (count < limit) {
+			long published = published();
+			if (m_next >= published) {
+				break;
+			}
+			if (published - m_next >= m_capacity) {
+				// the writer is overwriting the record, or already did
+				m_lost += published - m_next;
+				m_next = published;
+				continue;
+			}
+
+			int off = m_recordsOffset + (int)(m_next & m_mask) * RECORD_SIZE;
+			acquire();
+			if (m_buf.getLong( off + SEQ) != m_next) {
+				break;	// not visible yet, or being overwritten, which the check above catches next time
+			}
+			acquire();
+			long time = m_buf.getLong( off + TIME);
+			int symbol = m_buf.getInt( off + SYMBOL);
+			int type = m_buf.getInt( off + TYPE);
+			double price = m_buf.getDouble( off + PRICE);
+			double price2 = m_buf.getDouble( off + PRICE2);
+			int size = m_buf.getInt( off + SIZE);
+			int size2 = m_buf.getInt( off + SIZE2);
+			acquire();
+			if (m_buf.getLong( off + SEQ) != m_next) {
+				continue;	// overwritten while reading
+			}
+
+			m_next++;
+			count++;
+			if (type == BusWriter.QUOTE) {
+				listener.quote( symbol, time, price, size, price2, size2);
+			}
+			else if (type == BusWriter.TRADE) {
+				listener.trade( symbol, time, price, size);
+			}
+		}
+		return count;
+	}
+
+	/** A volatile read: the reads of the mapping after it cannot be reordered before it. */
+	private int acquire() {
+		return m_fence;
+	}
+
+	@Override public void close() throws IOException {
+		m_file.close();
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println( "usage: BusReader <file>");
+			System.exit( 1);
+		}
+		final BusReader reader = new BusReader( new File( args[0]) );
+		IListener printer = new IListener() {
+			@Override public void quote(int symbol, long nanoTime, double bid, int bidSize, double ask, int askSize) {
+				System.out.println( String.format( "%s quote %d x %s - %s x %d, %.1f us", reader.symbol( symbol), bidSize, bid, ask, askSize, (System.nanoTime() - nanoTime) / 1e3) );
+			}
+			@Override public void trade(int symbol, long nanoTime, double price, int size) {
+				System.out.println( String.format( "%s trade %d @ %s, %.1f us", reader.symbol( symbol), size, price, (System.nanoTime() - nanoTime) / 1e3) );
+			}
+		};
+		while (true) {
+			if (reader.poll( printer, 1024) == 0) {
+				Thread.sleep( 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.bus;
+
+import static com.ib.bus.BusLayout.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Writes quotes and trades to a memory-mapped ring file that BusReaders in other processes on the
+ * same host read without locks or system calls. There is one writer per file; the ring keeps the
+ * last capacity records and overwrites the oldest one.
+ * <p>
+ * Record times are System.nanoTime() of the writer, which on Linux is comparable with
+ * System.nanoTime() of the readers. Creating a writer replaces an existing file, so readers
+ * must reopen it when the writer restarts.
+ * <p>
+ * Java 8 has no memory fences for mapped memory outside sun.misc.Unsafe, so the accesses are
+ * ordered with volatile fields. A volatile write is a release: the writes before it cannot move
+ * after it, which publishes a record after its contents. Marking a slot as being written also
+ * needs the writes after the mark to stay after it, so begin() follows the write with a volatile
+ * read, an acquire. BusReader pairs these with volatile reads of its own.
+ */
+public class BusWriter implements Closeable {
+	public static final int DEFAULT_CAPACITY = 1 << 18;
+	public static final int DEFAULT_MAX_SYMBOLS = 4096;
+
+	static final int QUOTE = 1;
+	static final int TRADE = 2;
+
+	private final RandomAccessFile m_file;
+	private final MappedByteBuffer m_buf;
+	private final int m_mask;
+	private final int m_maxSymbols;
+	private final int m_recordsOffset;
+	private final HashMap<String,Integer> m_symbols = new HashMap<String,Integer>();
+	private long m_next;	// seq of the next record
+	private volatile int m_fence;
+
+	public BusWriter(File file) throws IOException {
+		this( file, DEFAULT_CAPACITY, DEFAULT_MAX_SYMBOLS);
+	}
+
+	/** @param capacity number of records kept, a power of two up to 16M */
+	public BusWriter(File file, int capacity, int maxSymbols) throws IOException {
+		if (capacity <= 0 || capacity > MAX_CAPACITY || (capacity & capacity - 1) != 0) {
+			throw new IllegalArgumentException( "capacity must be a power of two up to " + MAX_CAPACITY + ": " + capacity);
+		}
+		if (maxSymbols <= 0) {
+			throw new IllegalArgumentException( "maxSymbols must be positive: " + maxSymbols);
+		}
+		// a new file, so that readers still mapping the old one are not affected
+		if (file.exists() && !file.delete() ) {
+			throw new IOException( "cannot replace " + file);
+		}
+		m_file = new RandomAccessFile( file, "rw");
+		long size = fileSize( capacity, maxSymbols);
+		m_file.setLength( size);
+		m_buf = m_file.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, size);
+		m_buf.order( ByteOrder.LITTLE_ENDIAN);
+		m_mask = capacity - 1;
+		m_maxSymbols = maxSymbols;
+		m_recordsOffset = recordsOffset( maxSymbols);
+
+		m_buf.putInt( VERSION_OFFSET, VERSION);
+		m_buf.putInt( CAPACITY_OFFSET, capacity);
+		m_buf.putInt( MAX_SYMBOLS_OFFSET, maxSymbols);
+		m_buf.putLong( CREATED_OFFSET, System.currentTimeMillis() );
+		fence();
+		m_buf.putInt( MAGIC_OFFSET, MAGIC);
+	}
+
+	public int capacity()			{ return m_mask + 1; }
+	public synchronized long published()	{ return m_next; }
+
+	/** @return the index of the symbol, which is added to the file if it is new */
+	public synchronized int symbol(String name) {
+		Integer index = m_symbols.get( name);
+		if (index != null) {
+			return index;
+		}
+		byte[] bytes = name.getBytes( StandardCharsets.UTF_8);
+		if (bytes.length > MAX_NAME_LENGTH) {
+			throw new IllegalArgumentException( "symbol longer than " + MAX_NAME_LENGTH + " bytes: " + name);
+		}
+		if (m_symbols.size() == m_maxSymbols) {
+			throw new IllegalStateException( "more than " + m_maxSymbols + " symbols");
+		}
+		index = m_symbols.size();
+		int off = symbolOffset( index);
+		m_buf.putShort( off, (short)bytes.length);
+		for (int i = 0; i < bytes.length; i++) {
+			m_buf.put( off + 2 + i, bytes[i]);
+		}
+		fence();
+		m_buf.putInt( SYMBOL_COUNT_OFFSET, index + 1);
+		m_symbols.put( name, index);
+		return index;
+	}
+
+	/** Publishes the top of book of a symbol. */
+	public synchronized void quote(int symbol, double bid, int bidSize, double ask, int askSize) {
+		int off = begin( symbol, QUOTE);
+		m_buf.putDouble( off + PRICE, bid);
+		m_buf.putDouble( off + PRICE2, ask);
+		m_buf.putInt( off + SIZE, bidSize);
+		m_buf.putInt( off + SIZE2, askSize);
+		end( off);
+	}
+
+	/** Publishes a trade of a symbol. */
+	public synchronized void trade(int symbol, double price, int size) {
+		int off = begin( symbol, TRADE);
+		m_buf.putDouble( off + PRICE, price);
+		m_buf.putDouble( off + PRICE2, 0);
+		m_buf.putInt( off + SIZE, size);
+		m_buf.putInt( off + SIZE2, 0);
+		end( off);
+	}
+
+	/** Marks the slot of the next record as being written. */
+	private int begin(int symbol, int type) {
+		if (symbol < 0 || symbol >= m_symbols.size() ) {
+			throw new IllegalArgumentException( "unknown symbol index " + symbol);
+		}
+		int off = m_recordsOffset + (int)(m_next & m_mask) * RECORD_SIZE;
+		m_buf.putLong( off + SEQ, WRITING);
+		fence();
+		acquire();	// so that the writes of the record cannot move above the mark
+		m_buf.putLong( off + TIME, System.nanoTime() );
+		m_buf.putInt( off + SYMBOL, symbol);
+		m_buf.putInt( off + TYPE, type);
+		return off;
+	}
+
+	/** Completes the record, then makes it visible to readers. */
+	private void end(int off) {
+		fence();
+		m_buf.putLong( off + SEQ, m_next);
+		fence();
+		m_buf.putLong( PUBLISHED_OFFSET, ++m_next);
+	}
+
+	/** A volatile write: the writes to the mapping before it cannot be reordered after it. */
+	private void fence() {
+		m_fence = 0;
+	}
+
+	/** A volatile read: the writes to the mapping after it cannot be reordered before it. */
+	private int acquire() {
+		return m_fence;
+	}
+
+	/** The mapping stays valid until it is garbage collected; readers are not affected. */
+	@Override public synchronized void close() throws IOException {
+		m_file.close();
+	}
+}
@@ -73,6 +73,20 @@ public class Builder implements ObjectOutput {
        m_sb.writeTo( dos );
     }
 
+    int size() {
+        return m_sb.size();
+    }
+
+    /** Discards the contents so the builder can be reused for the next message. */
+    void reset() {
+        m_sb.reset();
+    }
+
+    /** Parses the int field starting at position, e.g. the msg id following the length header. */
+    int intAt( int position ) {
+        return m_sb.intAt( position );
+    }
+
     // b[] must be at least b[position+4]
     public static void intToBytes(int val, byte b[], int position) {
         b[position+0] = (byte)(0xff & (val >> 24));
@@ -103,6 +117,14 @@ public class Builder implements ObjectOutput {
         public void writeTo( DataOutputStream out ) throws IOException {
             out.write( this.buf, 0, this.count );
         }
+
+        int intAt( int position ) {
+            int val = 0;
+            for ( int i = position; i < this.count && this.buf[i] >= '0' && this.buf[i] <= '9'; i++ ) {
+                val = val * 10 + this.buf[i] - '0';
+            }
+            return val;
+        }
     }
 
 	@Override
@@ -0,0 +1,149 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Traffic counters of one EClientSocket. All updates are lock-free and allocation-free, so
+ * the counters are always on; call register() to publish them through JMX.
+ */
+public class ConnectionStats implements ConnectionStatsMXBean {
+    private static final int MAX_MSG_ID = 127;
+
+    private final LongAdder m_bytesIn = new LongAdder();
+    private final LongAdder m_bytesOut = new LongAdder();
+    private final AtomicLongArray m_messagesIn = new AtomicLongArray(MAX_MSG_ID + 1);
+    private final AtomicLongArray m_messagesOut = new AtomicLongArray(MAX_MSG_ID + 1);
+    private final AtomicLong m_queueDepth = new AtomicLong();
+    private final AtomicLong m_maxQueueDepth = new AtomicLong();
+    private final LongAdder m_decodeErrors = new LongAdder();
+    private final AtomicLong m_rateSecond = new AtomicLong();   // second the send rate counter belongs to
+    private final AtomicLong m_rateCount = new AtomicLong();    // messages sent in m_rateSecond
+    private final AtomicLong m_lastSecondCount = new AtomicLong();
+    private ObjectName m_name;
+
+    void bytesIn(int n) {
+        if (n > 0) {
+            m_bytesIn.add(n);
+        }
+    }
+
+    void messageReceived(int msgId) {
+        m_messagesIn.incrementAndGet(msgId < 0 || msgId > MAX_MSG_ID ? 0 : msgId);
+    }
+
+    void messageSent(int msgId, int bytes) {
+        m_bytesOut.add(bytes);
+        m_messagesOut.incrementAndGet(msgId < 0 || msgId > MAX_MSG_ID ? 0 : msgId);
+
+        long second = System.currentTimeMillis() / 1000;
+        long current = m_rateSecond.get();
+        if (second != current && m_rateSecond.compareAndSet(current, second)) {
+            long count = m_rateCount.getAndSet(0);
+            m_lastSecondCount.set(second == current + 1 ? count : 0);
+        }
+        m_rateCount.incrementAndGet();
+    }
+
+    void queued() {
+        long depth = m_queueDepth.incrementAndGet();
+        long max = m_maxQueueDepth.get();
+        while (depth > max && !m_maxQueueDepth.compareAndSet(max, depth)) {
+            max = m_maxQueueDepth.get();
+        }
+    }
+
+    void dequeued() {
+        m_queueDepth.decrementAndGet();
+    }
+
+    void decodeError() {
+        m_decodeErrors.increment();
+    }
+
+    @Override public long getBytesIn()              { return m_bytesIn.sum(); }
+    @Override public long getBytesOut()             { return m_bytesOut.sum(); }
+    @Override public long getMessagesIn()           { return sum(m_messagesIn); }
+    @Override public long getMessagesOut()          { return sum(m_messagesOut); }
+    @Override public long getInboundQueueDepth()    { return m_queueDepth.get(); }
+    @Override public long getMaxInboundQueueDepth() { return m_maxQueueDepth.get(); }
+    @Override public long getDecodeErrors()         { return m_decodeErrors.sum(); }
+
+    @Override public Map<String, Long> getMessagesInByType() {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (int i = 0; i <= MAX_MSG_ID; i++) {
+            long count = m_messagesIn.get(i);
+            if (count > 0) {
+                map.put(EDecoder.msgName(i), count);
+            }
+        }
+        return map;
+    }
+
+    @Override public Map<String, Long> getMessagesOutByType() {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (int i = 0; i <= MAX_MSG_ID; i++) {
+            long count = m_messagesOut.get(i);
+            if (count > 0) {
+                map.put(String.valueOf(i), count);
+            }
+        }
+        return map;
+    }
+
+    @Override public long getSendRate() {
+        long second = System.currentTimeMillis() / 1000;
+        long current = m_rateSecond.get();
+        if (second == current) {
+            return m_lastSecondCount.get();
+        }
+        return second == current + 1 ? m_rateCount.get() : 0;
+    }
+
+    /** Clears the counters; the queue depth is left alone since it reflects the current state. */
+    @Override public void reset() {
+        m_bytesIn.reset();
+        m_bytesOut.reset();
+        for (int i = 0; i <= MAX_MSG_ID; i++) {
+            m_messagesIn.set(i, 0);
+            m_messagesOut.set(i, 0);
+        }
+        m_maxQueueDepth.set(m_queueDepth.get());
+        m_decodeErrors.reset();
+    }
+
+    /** Registers with the platform MBean server as com.ib.client:type=Connection,name=&lt;name&gt;. */
+    public synchronized void register(String name) throws JMException {
+        unregister();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("com.ib.client:type=Connection,name=" + ObjectName.quote(name));
+        server.registerMBean(this, objectName);
+        m_name = objectName;
+    }
+
+    public synchronized void unregister() throws JMException {
+        if (m_name != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(m_name);
+            m_name = null;
+        }
+    }
+
+    private static long sum(AtomicLongArray array) {
+        long sum = 0;
+        for (int i = 0; i < array.length(); i++) {
+            sum += array.get(i);
+        }
+        return sum;
+    }
+}
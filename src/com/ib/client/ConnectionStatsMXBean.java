@@ -0,0 +1,22 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.util.Map;
+
+/** Management interface of ConnectionStats, see ConnectionStats.register(). */
+public interface ConnectionStatsMXBean {
+    long getBytesIn();
+    long getBytesOut();
+    long getMessagesIn();
+    long getMessagesOut();
+    Map<String, Long> getMessagesInByType();
+    Map<String, Long> getMessagesOutByType();
+    long getInboundQueueDepth();
+    long getMaxInboundQueueDepth();
+    long getDecodeErrors();
+    /** Number of messages sent during the last complete second; TWS paces at 50 per second. */
+    long getSendRate();
+    void reset();
+}
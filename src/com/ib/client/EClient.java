@@ -1158,12 +1158,45 @@ public abstract class EClient {
             return;
         }
 
+        if (!supportsOrderFields( id, contract, order) || !supportsNewerOrderFields( id, contract, order)) {
+            return;
+        }
+
+        int VERSION = (m_serverVersion < MIN_SERVER_VER_NOT_HELD) ? 27 : 45;
+
+        // send place order msg
+        try {
+            final Builder b = prepareBuffer(); 
+
+            b.send( PLACE_ORDER);
+            b.send( VERSION);
+            b.send( id);
+
+            sendOrderContract( b, contract);
+            sendOrderMainFields( b, order);
+            sendOrderComboLegs( b, contract, order);
+            sendOrderExtendedFields( b, order);
+            sendOrderVolatilityFields( b, order);
+            sendOrderScaleFields( b, order);
+            sendOrderAlgoFields( b, contract, order);
+            sendOrderConditions( b, order);
+
+            closeAndSend(b);
+        }
+        catch( Exception e) {
+            error( id, EClientErrors.FAIL_SEND_ORDER, e.toString());
+            close();
+        }
+    }
+
+    /** Reports an error and returns false if the server is too old for a field the order uses. */
+    private boolean supportsOrderFields( int id, Contract contract, Order order) {
         if (m_serverVersion < MIN_SERVER_VER_SCALE_ORDERS) {
         	if (order.scaleInitLevelSize() != Integer.MAX_VALUE ||
         		order.scalePriceIncrement() != Double.MAX_VALUE) {
         		error(id, EClientErrors.UPDATE_TWS,
             		"  It does not support Scale orders.");
-        		return;
+        		return false;
         	}
         }
 
@@ -1174,7 +1207,7 @@ public abstract class EClient {
                     	!IsEmpty(comboLeg.designatedLocation())) {
                 		error(id, EClientErrors.UPDATE_TWS,
                 			"  It does not support SSHORT flag for combo legs.");
-                		return;
+                		return false;
                     }
                 }
         	}
@@ -1184,7 +1217,7 @@ public abstract class EClient {
         	if (order.whatIf()) {
         		error(id, EClientErrors.UPDATE_TWS,
         			"  It does not support what-if orders.");
-        		return;
+        		return false;
         	}
         }
 
@@ -1192,7 +1225,7 @@ public abstract class EClient {
         	if (contract.underComp() != null) {
         		error(id, EClientErrors.UPDATE_TWS,
         			"  It does not support delta-neutral orders.");
-        		return;
+        		return false;
         	}
         }
 
@@ -1200,7 +1233,7 @@ public abstract class EClient {
         	if (order.scaleSubsLevelSize() != Integer.MAX_VALUE) {
         		error(id, EClientErrors.UPDATE_TWS,
             		"  It does not support Subsequent Level Size for Scale orders.");
-        		return;
+        		return false;
         	}
         }
 
@@ -1208,7 +1241,7 @@ public abstract class EClient {
         	if (!IsEmpty(order.getAlgoStrategy())) {
         		error(id, EClientErrors.UPDATE_TWS,
         			"  It does not support algo orders.");
-        		return;
+        		return false;
         	}
         }
 
@@ -1216,7 +1249,7 @@ public abstract class EClient {
         	if (order.notHeld()) {
         		error(id, EClientErrors.UPDATE_TWS,
         			"  It does not support notHeld parameter.");
-        		return;
+        		return false;
         	}
         }
 
@@ -1224,7 +1257,7 @@ public abstract class EClient {
         	if (!IsEmpty(contract.getSecIdType()) || !IsEmpty(contract.secId())) {
         		error(id, EClientErrors.UPDATE_TWS,
         			"  It does not support secIdType and secId parameters.");
-        		return;
+        		return false;
         	}
         }
 
@@ -1232,7 +1265,7 @@ public abstract class EClient {
         	if (contract.conid() > 0) {
         		error(id, EClientErrors.UPDATE_TWS,
         			"  It does not support conId parameter.");
-        		return;
+        		return false;
         	}
         }
 
@@ -1240,7 +1273,7 @@ public abstract class EClient {
         	if (order.exemptCode() != -1) {
         		error(id, EClientErrors.UPDATE_TWS,
         			"  It does not support exemptCode parameter.");
-        		return;
+        		return false;
         	}
         }
 
@@ -1250,7 +1283,7 @@ public abstract class EClient {
                     if (comboLeg.exemptCode() != -1) {
                 		error(id, EClientErrors.UPDATE_TWS,
                 			"  It does not support exemptCode parameter.");
-                		return;
+                		return false;
                     }
                 }
         	}
@@ -1260,7 +1293,7 @@ public abstract class EClient {
         	if (!IsEmpty(order.getHedgeType())) {
         		error(id, EClientErrors.UPDATE_TWS,
         			"  It does not support hedge orders.");
-        		return;
+        		return false;
         	}
         }
 
@@ -1268,10 +1301,15 @@ public abstract class EClient {
         	if (order.optOutSmartRouting()) {
         		error(id, EClientErrors.UPDATE_TWS,
         			"  It does not support optOutSmartRouting parameter.");
-        		return;
+        		return false;
         	}
         }
 
+        return true;
+    }
+
+    /** Same as supportsOrderFields() for fields added with later server versions. */
+    private boolean supportsNewerOrderFields( int id, Contract contract, Order order) {
         if (m_serverVersion < MIN_SERVER_VER_DELTA_NEUTRAL_CONID) {
         	if (order.deltaNeutralConId() > 0
         			|| !IsEmpty(order.deltaNeutralSettlingFirm())
@@ -1280,7 +1318,7 @@ public abstract class EClient {
         			) {
         		error(id, EClientErrors.UPDATE_TWS,
         			"  It does not support deltaNeutral parameters: ConId, SettlingFirm, ClearingAccount, ClearingIntent");
-        		return;
+        		return false;
         	}
         }
 
@@ -1292,7 +1330,7 @@ public abstract class EClient {
         			) {
         		error(id, EClientErrors.UPDATE_TWS,
         			"  It does not support deltaNeutral parameters: OpenClose, ShortSale, ShortSaleSlot, DesignatedLocation");
-        		return;
+        		return false;
         	}
         }
 
@@ -1308,7 +1346,7 @@ public abstract class EClient {
         			error(id, EClientErrors.UPDATE_TWS,
         				"  It does not support Scale order parameters: PriceAdjustValue, PriceAdjustInterval, " +
         				"ProfitOffset, AutoReset, InitPosition, InitFillQty and RandomPercent");
-        			return;
+        			return false;
         		}
         	}
         }
@@ -1319,7 +1357,7 @@ public abstract class EClient {
         			if (orderComboLeg.price() != Double.MAX_VALUE) {
         			error(id, EClientErrors.UPDATE_TWS,
         				"  It does not support per-leg prices for order combo legs.");
-        			return;
+        			return false;
         			}
         		}
         	}
@@ -1329,7 +1367,7 @@ public abstract class EClient {
         	if (order.trailingPercent() != Double.MAX_VALUE) {
         		error(id, EClientErrors.UPDATE_TWS,
         			"  It does not support trailing percent parameter");
-        		return;
+        		return false;
         	}
         }
 
@@ -1337,7 +1375,7 @@ public abstract class EClient {
             if (!IsEmpty(contract.tradingClass())) {
                   error(id, EClientErrors.UPDATE_TWS,
                       "  It does not support tradingClass parameters in placeOrder.");
-                  return;
+                  return false;
             }
         }
         
@@ -1349,7 +1387,7 @@ public abstract class EClient {
             if (!IsEmpty(order.scaleTable()) || !IsEmpty(order.activeStartTime()) || !IsEmpty(order.activeStopTime())) {
                   error(id, EClientErrors.UPDATE_TWS,
                       "  It does not support scaleTable, activeStartTime and activeStopTime parameters.");
-                  return;
+                  return false;
             }
         }
         
@@ -1357,7 +1395,7 @@ public abstract class EClient {
         	if (order.solicited()) {
         		error(id, EClientErrors.UPDATE_TWS,
                         "  It does not support order solicited parameter.");
-                return;
+                return false;
         	}
         }
 
@@ -1365,7 +1403,7 @@ public abstract class EClient {
             if (!IsEmpty(order.modelCode())) {
                 error(id, EClientErrors.UPDATE_TWS,
                         "  It does not support model code parameter.");
-                return;
+                return false;
             }
         }
         
@@ -1377,414 +1415,419 @@ public abstract class EClient {
         		(!IsEmpty(order.softDollarTier().name()) || !IsEmpty(order.softDollarTier().value()))) {
         	error(id, EClientErrors.UPDATE_TWS, " It does not support soft dollar tier");
         }
-        
 
-        int VERSION = (m_serverVersion < MIN_SERVER_VER_NOT_HELD) ? 27 : 45;
+        return true;
+    }
 
-        // send place order msg
-        try {
-            final Builder b = prepareBuffer(); 
+    /** placeOrder(): contract fields */
+    private void sendOrderContract( Builder b, Contract contract) {
+        if( m_serverVersion >= MIN_SERVER_VER_PLACE_ORDER_CONID) {
+            b.send(contract.conid());
+        }
+        b.send( contract.symbol());
+        b.send( contract.getSecType());
+        b.send( contract.lastTradeDateOrContractMonth());
+        b.send( contract.strike());
+        b.send( contract.getRight());
+        if (m_serverVersion >= 15) {
+            b.send(contract.multiplier());
+        }
+        b.send( contract.exchange());
+        if( m_serverVersion >= 14) {
+          b.send(contract.primaryExch());
+        }
+        b.send( contract.currency());
+        if( m_serverVersion >= 2) {
+            b.send (contract.localSymbol());
+        }
+        if (m_serverVersion >= MIN_SERVER_VER_TRADING_CLASS) {
+            b.send(contract.tradingClass());
+        }
+        if( m_serverVersion >= MIN_SERVER_VER_SEC_ID_TYPE){
+            b.send( contract.getSecIdType());
+            b.send( contract.secId());
+        }
+    }
 
-            b.send( PLACE_ORDER);
-            b.send( VERSION);
-            b.send( id);
+    /** placeOrder(): action, quantity, type, prices and the extended order fields up to hidden */
+    private void sendOrderMainFields( Builder b, Order order) {
+        b.send( order.getAction());
 
-            // send contract fields
-            if( m_serverVersion >= MIN_SERVER_VER_PLACE_ORDER_CONID) {
-                b.send(contract.conid());
-            }
-            b.send( contract.symbol());
-            b.send( contract.getSecType());
-            b.send( contract.lastTradeDateOrContractMonth());
-            b.send( contract.strike());
-            b.send( contract.getRight());
-            if (m_serverVersion >= 15) {
-                b.send(contract.multiplier());
-            }
-            b.send( contract.exchange());
-            if( m_serverVersion >= 14) {
-              b.send(contract.primaryExch());
-            }
-            b.send( contract.currency());
-            if( m_serverVersion >= 2) {
-                b.send (contract.localSymbol());
-            }
-            if (m_serverVersion >= MIN_SERVER_VER_TRADING_CLASS) {
-                b.send(contract.tradingClass());
+        if (m_serverVersion >= MIN_SERVER_VER_FRACTIONAL_POSITIONS)
+            b.send(order.totalQuantity());
+        else
+            b.send((int) order.totalQuantity());
+
+        b.send( order.getOrderType());
+        if (m_serverVersion < MIN_SERVER_VER_ORDER_COMBO_LEGS_PRICE) {
+            b.send( order.lmtPrice() == Double.MAX_VALUE ? 0 : order.lmtPrice());
+        }
+        else {
+            b.sendMax( order.lmtPrice());
+        }
+        if (m_serverVersion < MIN_SERVER_VER_TRAILING_PERCENT) {
+            b.send( order.auxPrice() == Double.MAX_VALUE ? 0 : order.auxPrice());
+        }
+        else {
+            b.sendMax( order.auxPrice());
+        }
+
+        // send extended order fields
+        b.send( order.getTif());
+        b.send( order.ocaGroup());
+        b.send( order.account());
+        b.send( order.openClose());
+        b.send( order.origin());
+        b.send( order.orderRef());
+        b.send( order.transmit());
+        if( m_serverVersion >= 4 ) {
+            b.send (order.parentId());
+        }
+
+        if( m_serverVersion >= 5 ) {
+            b.send (order.blockOrder());
+            b.send (order.sweepToFill());
+            b.send (order.displaySize());
+            b.send (order.getTriggerMethod());
+            if (m_serverVersion < 38) {
+                // will never happen
+                b.send(/* order.m_ignoreRth */ false);
             }
-            if( m_serverVersion >= MIN_SERVER_VER_SEC_ID_TYPE){
-            	b.send( contract.getSecIdType());
-            	b.send( contract.secId());
+            else {
+                b.send (order.outsideRth());
             }
+        }
 
-            // send main order fields
-            b.send( order.getAction());
-            
-			if (m_serverVersion >= MIN_SERVER_VER_FRACTIONAL_POSITIONS)
-				b.send(order.totalQuantity());
-			else
-				b.send((int) order.totalQuantity());
-            
-			b.send( order.getOrderType());
-            if (m_serverVersion < MIN_SERVER_VER_ORDER_COMBO_LEGS_PRICE) {
-                b.send( order.lmtPrice() == Double.MAX_VALUE ? 0 : order.lmtPrice());
+        if(m_serverVersion >= 7 ) {
+            b.send(order.hidden());
+        }
+    }
+
+    /** placeOrder(): combo legs, their prices and the smart combo routing params, for BAG orders */
+    private void sendOrderComboLegs( Builder b, Contract contract, Order order) {
+        if(m_serverVersion >= 8 && SecType.BAG.name().equalsIgnoreCase(contract.getSecType())) {
+            if ( contract.comboLegs() == null ) {
+                b.send( 0);
             }
             else {
-                b.sendMax( order.lmtPrice());
+                b.send( contract.comboLegs().size());
+
+                for( ComboLeg comboLeg : contract.comboLegs() ) {
+                    b.send( comboLeg.conid());
+                    b.send( comboLeg.ratio());
+                    b.send( comboLeg.getAction());
+                    b.send( comboLeg.exchange());
+                    b.send( comboLeg.getOpenClose());
+
+                    if (m_serverVersion >= MIN_SERVER_VER_SSHORT_COMBO_LEGS) {
+                        b.send( comboLeg.shortSaleSlot());
+                        b.send( comboLeg.designatedLocation());
+                    }
+                    if (m_serverVersion >= MIN_SERVER_VER_SSHORTX_OLD) {
+                        b.send( comboLeg.exemptCode());
+                    }
+                }
             }
-            if (m_serverVersion < MIN_SERVER_VER_TRAILING_PERCENT) {
-                b.send( order.auxPrice() == Double.MAX_VALUE ? 0 : order.auxPrice());
+        }
+
+        // Send order combo legs for BAG requests
+        if(m_serverVersion >= MIN_SERVER_VER_ORDER_COMBO_LEGS_PRICE && SecType.BAG.name().equalsIgnoreCase(contract.getSecType())) {
+            if ( order.orderComboLegs() == null ) {
+                b.send( 0);
             }
             else {
-                b.sendMax( order.auxPrice());
-            }
-
-            // send extended order fields
-            b.send( order.getTif());
-            b.send( order.ocaGroup());
-            b.send( order.account());
-            b.send( order.openClose());
-            b.send( order.origin());
-            b.send( order.orderRef());
-            b.send( order.transmit());
-            if( m_serverVersion >= 4 ) {
-                b.send (order.parentId());
-            }
-
-            if( m_serverVersion >= 5 ) {
-                b.send (order.blockOrder());
-                b.send (order.sweepToFill());
-                b.send (order.displaySize());
-                b.send (order.getTriggerMethod());
-                if (m_serverVersion < 38) {
-                	// will never happen
-                	b.send(/* order.m_ignoreRth */ false);
+                b.send( order.orderComboLegs().size());
+
+                for( OrderComboLeg orderComboLeg : order.orderComboLegs() ) {
+                    b.sendMax( orderComboLeg.price());
                 }
-                else {
-                	b.send (order.outsideRth());
+            }
+        }
+
+        if(m_serverVersion >= MIN_SERVER_VER_SMART_COMBO_ROUTING_PARAMS && SecType.BAG.name().equalsIgnoreCase(contract.getSecType())) {
+            ArrayList<TagValue> smartComboRoutingParams = order.smartComboRoutingParams();
+            int smartComboRoutingParamsCount = smartComboRoutingParams == null ? 0 : smartComboRoutingParams.size();
+            b.send( smartComboRoutingParamsCount);
+            if( smartComboRoutingParamsCount > 0) {
+                for( TagValue tagValue : smartComboRoutingParams ) {
+                    b.send( tagValue.m_tag);
+                    b.send( tagValue.m_value);
                 }
             }
+        }
+    }
 
-            if(m_serverVersion >= 7 ) {
-                b.send(order.hidden());
+    /** placeOrder(): shares allocation through the stock range and percentage constraints */
+    private void sendOrderExtendedFields( Builder b, Order order) {
+        if ( m_serverVersion >= 9 ) {
+            // send deprecated sharesAllocation field
+            b.send( "");
+        }
+
+        if ( m_serverVersion >= 10 ) {
+            b.send( order.discretionaryAmt());
+        }
+
+        if ( m_serverVersion >= 11 ) {
+            b.send( order.goodAfterTime());
+        }
+
+        if ( m_serverVersion >= 12 ) {
+            b.send( order.goodTillDate());
+        }
+
+        if ( m_serverVersion >= 13 ) {
+            b.send( order.faGroup());
+            b.send( order.getFaMethod());
+            b.send( order.faPercentage());
+            b.send( order.faProfile());
+        }
+
+        if ( m_serverVersion >= MIN_SERVER_VER_MODELS_SUPPORT ) {
+            b.send( order.modelCode());
+        }
+
+        if (m_serverVersion >= 18) { // institutional short sale slot fields.
+            b.send( order.shortSaleSlot());      // 0 only for retail, 1 or 2 only for institution.
+            b.send( order.designatedLocation()); // only populate when order.m_shortSaleSlot = 2.
+        }
+        if (m_serverVersion >= MIN_SERVER_VER_SSHORTX_OLD) {
+            b.send( order.exemptCode());
+        }
+        if (m_serverVersion >= 19) {
+            b.send( order.getOcaType());
+            if (m_serverVersion < 38) {
+                // will never happen
+                b.send( /* order.m_rthOnly */ false);
             }
+            b.send( order.getRule80A());
+            b.send( order.settlingFirm());
+            b.send( order.allOrNone());
+            b.sendMax( order.minQty());
+            b.sendMax( order.percentOffset());
+            b.send( order.eTradeOnly());
+            b.send( order.firmQuoteOnly());
+            b.sendMax( order.nbboPriceCap());
+            b.sendMax( order.auctionStrategy());
+            b.sendMax( order.startingPrice());
+            b.sendMax( order.stockRefPrice());
+            b.sendMax( order.delta());
+            // Volatility orders had specific watermark price attribs in server version 26
+            double lower = (m_serverVersion == 26 && order.getOrderType().equals("VOL"))
+                ? Double.MAX_VALUE
+                : order.stockRangeLower();
+            double upper = (m_serverVersion == 26 && order.getOrderType().equals("VOL"))
+                ? Double.MAX_VALUE
+                : order.stockRangeUpper();
+            b.sendMax( lower);
+            b.sendMax( upper);
+        }
 
-            // Send combo legs for BAG requests
-            if(m_serverVersion >= 8 && SecType.BAG.name().equalsIgnoreCase(contract.getSecType())) {
-                if ( contract.comboLegs() == null ) {
-                    b.send( 0);
+        if (m_serverVersion >= 22) {
+            b.send( order.overridePercentageConstraints());
+        }
+    }
+
+    /** placeOrder(): volatility and delta neutral fields */
+    private void sendOrderVolatilityFields( Builder b, Order order) {
+        if (m_serverVersion >= 26) { // Volatility orders
+            b.sendMax( order.volatility());
+            b.send(order.getVolatilityType());
+            if (m_serverVersion < 28) {
+                b.send( order.getDeltaNeutralOrderType().equalsIgnoreCase("MKT"));
+            } else {
+                b.send( order.getDeltaNeutralOrderType());
+                b.sendMax( order.deltaNeutralAuxPrice());
+
+                if (m_serverVersion >= MIN_SERVER_VER_DELTA_NEUTRAL_CONID && !IsEmpty(order.getDeltaNeutralOrderType())){
+                    b.send( order.deltaNeutralConId());
+                    b.send( order.deltaNeutralSettlingFirm());
+                    b.send( order.deltaNeutralClearingAccount());
+                    b.send( order.deltaNeutralClearingIntent());
                 }
-                else {
-                    b.send( contract.comboLegs().size());
 
-                    for( ComboLeg comboLeg : contract.comboLegs() ) {
-                        b.send( comboLeg.conid());
-                        b.send( comboLeg.ratio());
-                        b.send( comboLeg.getAction());
-                        b.send( comboLeg.exchange());
-                        b.send( comboLeg.getOpenClose());
-
-                        if (m_serverVersion >= MIN_SERVER_VER_SSHORT_COMBO_LEGS) {
-                        	b.send( comboLeg.shortSaleSlot());
-                        	b.send( comboLeg.designatedLocation());
-                        }
-                        if (m_serverVersion >= MIN_SERVER_VER_SSHORTX_OLD) {
-                            b.send( comboLeg.exemptCode());
-                        }
-                    }
+                if (m_serverVersion >= MIN_SERVER_VER_DELTA_NEUTRAL_OPEN_CLOSE && !IsEmpty(order.getDeltaNeutralOrderType())){
+                    b.send( order.deltaNeutralOpenClose());
+                    b.send( order.deltaNeutralShortSale());
+                    b.send( order.deltaNeutralShortSaleSlot());
+                    b.send( order.deltaNeutralDesignatedLocation());
                 }
             }
+            b.send( order.continuousUpdate());
+            if (m_serverVersion == 26) {
+                // Volatility orders had specific watermark price attribs in server version 26
+                double lower = order.getOrderType().equals("VOL") ? order.stockRangeLower() : Double.MAX_VALUE;
+                double upper = order.getOrderType().equals("VOL") ? order.stockRangeUpper() : Double.MAX_VALUE;
+                b.sendMax( lower);
+                b.sendMax( upper);
+            }
+            b.send(order.getReferencePriceType());
+        }
+    }
 
-            // Send order combo legs for BAG requests
-            if(m_serverVersion >= MIN_SERVER_VER_ORDER_COMBO_LEGS_PRICE && SecType.BAG.name().equalsIgnoreCase(contract.getSecType())) {
-                if ( order.orderComboLegs() == null ) {
-                    b.send( 0);
-                }
-                else {
-                    b.send( order.orderComboLegs().size());
+    /** placeOrder(): trailing stop, scale, hedge, clearing and not held fields */
+    private void sendOrderScaleFields( Builder b, Order order) {
+        if (m_serverVersion >= 30) { // TRAIL_STOP_LIMIT stop price
+            b.sendMax( order.trailStopPrice());
+        }
 
-                    for( OrderComboLeg orderComboLeg : order.orderComboLegs() ) {
-                        b.sendMax( orderComboLeg.price());
-                    }
-                }
+        if( m_serverVersion >= MIN_SERVER_VER_TRAILING_PERCENT){
+            b.sendMax( order.trailingPercent());
+        }
+
+        if (m_serverVersion >= MIN_SERVER_VER_SCALE_ORDERS) {
+            if (m_serverVersion >= MIN_SERVER_VER_SCALE_ORDERS2) {
+                b.sendMax (order.scaleInitLevelSize());
+                b.sendMax (order.scaleSubsLevelSize());
             }
+            else {
+                b.send ("");
+                b.sendMax (order.scaleInitLevelSize());
 
-            if(m_serverVersion >= MIN_SERVER_VER_SMART_COMBO_ROUTING_PARAMS && SecType.BAG.name().equalsIgnoreCase(contract.getSecType())) {
-                ArrayList<TagValue> smartComboRoutingParams = order.smartComboRoutingParams();
-                int smartComboRoutingParamsCount = smartComboRoutingParams == null ? 0 : smartComboRoutingParams.size();
-                b.send( smartComboRoutingParamsCount);
-                if( smartComboRoutingParamsCount > 0) {
-                    for( TagValue tagValue : smartComboRoutingParams ) {
-                        b.send( tagValue.m_tag);
-                        b.send( tagValue.m_value);
-                    }
-                }
             }
+            b.sendMax (order.scalePriceIncrement());
+        }
 
-            if ( m_serverVersion >= 9 ) {
-            	// send deprecated sharesAllocation field
-                b.send( "");
+        if (m_serverVersion >= MIN_SERVER_VER_SCALE_ORDERS3 && order.scalePriceIncrement() > 0.0 && order.scalePriceIncrement() != Double.MAX_VALUE) {
+            b.sendMax (order.scalePriceAdjustValue());
+            b.sendMax (order.scalePriceAdjustInterval());
+            b.sendMax (order.scaleProfitOffset());
+            b.send (order.scaleAutoReset());
+            b.sendMax (order.scaleInitPosition());
+            b.sendMax (order.scaleInitFillQty());
+            b.send (order.scaleRandomPercent());
+        }
+
+        if (m_serverVersion >= MIN_SERVER_VER_SCALE_TABLE) {
+            b.send (order.scaleTable());
+            b.send (order.activeStartTime());
+            b.send (order.activeStopTime());
+        }
+
+        if (m_serverVersion >= MIN_SERVER_VER_HEDGE_ORDERS) {
+            b.send (order.getHedgeType());
+            if (!IsEmpty(order.getHedgeType())) {
+                b.send (order.hedgeParam());
             }
+        }
+
+        if (m_serverVersion >= MIN_SERVER_VER_OPT_OUT_SMART_ROUTING) {
+            b.send (order.optOutSmartRouting());
+        }
+
+        if (m_serverVersion >= MIN_SERVER_VER_PTA_ORDERS) {
+            b.send (order.clearingAccount());
+            b.send (order.clearingIntent());
+        }
 
-            if ( m_serverVersion >= 10 ) {
-                b.send( order.discretionaryAmt());
+        if (m_serverVersion >= MIN_SERVER_VER_NOT_HELD) {
+            b.send (order.notHeld());
+        }
+    }
+
+    /** placeOrder(): delta neutral contract, algo, what-if, misc options, solicited and randomize fields */
+    private void sendOrderAlgoFields( Builder b, Contract contract, Order order) {
+        if (m_serverVersion >= MIN_SERVER_VER_UNDER_COMP) {
+            if (contract.underComp() != null) {
+                DeltaNeutralContract underComp = contract.underComp();
+                b.send( true);
+                b.send( underComp.conid());
+                b.send( underComp.delta());
+                b.send( underComp.price());
             }
+            else {
+                b.send( false);
+            }
+        }
 
-            if ( m_serverVersion >= 11 ) {
-                b.send( order.goodAfterTime());
+        if (m_serverVersion >= MIN_SERVER_VER_ALGO_ORDERS) {
+            b.send( order.getAlgoStrategy());
+            if( !IsEmpty(order.getAlgoStrategy())) {
+                ArrayList<TagValue> algoParams = order.algoParams();
+                int algoParamsCount = algoParams.size();
+                b.send( algoParamsCount);
+                for( TagValue tagValue : algoParams ) {
+                    b.send( tagValue.m_tag);
+                    b.send( tagValue.m_value);
+                }
             }
+        }
+
+        if (m_serverVersion >= MIN_SERVER_VER_ALGO_ID) {
+            b.send(order.algoId());
+        }
+
+        if (m_serverVersion >= MIN_SERVER_VER_WHAT_IF_ORDERS) {
+            b.send (order.whatIf());
+        }
 
-            if ( m_serverVersion >= 12 ) {
-                b.send( order.goodTillDate());
+        // send orderMiscOptions parameter
+        if(m_serverVersion >= MIN_SERVER_VER_LINKING) {
+            StringBuilder orderMiscOptionsStr = new StringBuilder();
+            ArrayList<TagValue> orderMiscOptions = order.orderMiscOptions();
+            int orderMiscOptionsCount = orderMiscOptions == null ? 0 : orderMiscOptions.size();
+            if( orderMiscOptionsCount > 0) {
+                for( TagValue tagValue : orderMiscOptions ) {
+                    orderMiscOptionsStr.append( tagValue.m_tag);
+                    orderMiscOptionsStr.append( "=");
+                    orderMiscOptionsStr.append( tagValue.m_value);
+                    orderMiscOptionsStr.append( ";");
+                }
             }
+            b.send( orderMiscOptionsStr.toString());
+        }
 
-            if ( m_serverVersion >= 13 ) {
-               b.send( order.faGroup());
-               b.send( order.getFaMethod());
-               b.send( order.faPercentage());
-               b.send( order.faProfile());
-           }
+        if (m_serverVersion >= MIN_SERVER_VER_ORDER_SOLICITED) {
+            b.send(order.solicited());
+        }
 
-           if ( m_serverVersion >= MIN_SERVER_VER_MODELS_SUPPORT ) {
-               b.send( order.modelCode());
-           }
+        if (m_serverVersion >= MIN_SERVER_VER_RANDOMIZE_SIZE_AND_PRICE) {
+            b.send(order.randomizeSize());
+            b.send(order.randomizePrice());
+        }
+    }
 
-           if (m_serverVersion >= 18) { // institutional short sale slot fields.
-               b.send( order.shortSaleSlot());      // 0 only for retail, 1 or 2 only for institution.
-               b.send( order.designatedLocation()); // only populate when order.m_shortSaleSlot = 2.
-           }
-           if (m_serverVersion >= MIN_SERVER_VER_SSHORTX_OLD) {
-               b.send( order.exemptCode());
-           }
-           if (m_serverVersion >= 19) {
-               b.send( order.getOcaType());
-               if (m_serverVersion < 38) {
-            	   // will never happen
-            	   b.send( /* order.m_rthOnly */ false);
-               }
-               b.send( order.getRule80A());
-               b.send( order.settlingFirm());
-               b.send( order.allOrNone());
-               b.sendMax( order.minQty());
-               b.sendMax( order.percentOffset());
-               b.send( order.eTradeOnly());
-               b.send( order.firmQuoteOnly());
-               b.sendMax( order.nbboPriceCap());
-               b.sendMax( order.auctionStrategy());
-               b.sendMax( order.startingPrice());
-               b.sendMax( order.stockRefPrice());
-               b.sendMax( order.delta());
-        	   // Volatility orders had specific watermark price attribs in server version 26
-        	   double lower = (m_serverVersion == 26 && order.getOrderType().equals("VOL"))
-        	   		? Double.MAX_VALUE
-        	   		: order.stockRangeLower();
-        	   double upper = (m_serverVersion == 26 && order.getOrderType().equals("VOL"))
-   	   				? Double.MAX_VALUE
-   	   				: order.stockRangeUpper();
-               b.sendMax( lower);
-               b.sendMax( upper);
-           }
-
-           if (m_serverVersion >= 22) {
-               b.send( order.overridePercentageConstraints());
-           }
-
-           if (m_serverVersion >= 26) { // Volatility orders
-               b.sendMax( order.volatility());
-               b.send(order.getVolatilityType());
-               if (m_serverVersion < 28) {
-            	   b.send( order.getDeltaNeutralOrderType().equalsIgnoreCase("MKT"));
-               } else {
-            	   b.send( order.getDeltaNeutralOrderType());
-            	   b.sendMax( order.deltaNeutralAuxPrice());
-
-                   if (m_serverVersion >= MIN_SERVER_VER_DELTA_NEUTRAL_CONID && !IsEmpty(order.getDeltaNeutralOrderType())){
-                       b.send( order.deltaNeutralConId());
-                       b.send( order.deltaNeutralSettlingFirm());
-                       b.send( order.deltaNeutralClearingAccount());
-                       b.send( order.deltaNeutralClearingIntent());
-                   }
-
-                   if (m_serverVersion >= MIN_SERVER_VER_DELTA_NEUTRAL_OPEN_CLOSE && !IsEmpty(order.getDeltaNeutralOrderType())){
-                       b.send( order.deltaNeutralOpenClose());
-                       b.send( order.deltaNeutralShortSale());
-                       b.send( order.deltaNeutralShortSaleSlot());
-                       b.send( order.deltaNeutralDesignatedLocation());
-                   }
-               }
-               b.send( order.continuousUpdate());
-               if (m_serverVersion == 26) {
-            	   // Volatility orders had specific watermark price attribs in server version 26
-            	   double lower = order.getOrderType().equals("VOL") ? order.stockRangeLower() : Double.MAX_VALUE;
-            	   double upper = order.getOrderType().equals("VOL") ? order.stockRangeUpper() : Double.MAX_VALUE;
-                   b.sendMax( lower);
-                   b.sendMax( upper);
-               }
-               b.send(order.getReferencePriceType());
-           }
-
-           if (m_serverVersion >= 30) { // TRAIL_STOP_LIMIT stop price
-               b.sendMax( order.trailStopPrice());
-           }
-
-           if( m_serverVersion >= MIN_SERVER_VER_TRAILING_PERCENT){
-               b.sendMax( order.trailingPercent());
-           }
-
-           if (m_serverVersion >= MIN_SERVER_VER_SCALE_ORDERS) {
-        	   if (m_serverVersion >= MIN_SERVER_VER_SCALE_ORDERS2) {
-        		   b.sendMax (order.scaleInitLevelSize());
-        		   b.sendMax (order.scaleSubsLevelSize());
-        	   }
-        	   else {
-        		   b.send ("");
-        		   b.sendMax (order.scaleInitLevelSize());
-
-        	   }
-        	   b.sendMax (order.scalePriceIncrement());
-           }
-
-           if (m_serverVersion >= MIN_SERVER_VER_SCALE_ORDERS3 && order.scalePriceIncrement() > 0.0 && order.scalePriceIncrement() != Double.MAX_VALUE) {
-               b.sendMax (order.scalePriceAdjustValue());
-               b.sendMax (order.scalePriceAdjustInterval());
-               b.sendMax (order.scaleProfitOffset());
-               b.send (order.scaleAutoReset());
-               b.sendMax (order.scaleInitPosition());
-               b.sendMax (order.scaleInitFillQty());
-               b.send (order.scaleRandomPercent());
-           }
-
-           if (m_serverVersion >= MIN_SERVER_VER_SCALE_TABLE) {
-               b.send (order.scaleTable());
-               b.send (order.activeStartTime());
-               b.send (order.activeStopTime());
-           }
-
-           if (m_serverVersion >= MIN_SERVER_VER_HEDGE_ORDERS) {
-        	   b.send (order.getHedgeType());
-               if (!IsEmpty(order.getHedgeType())) {
-        		   b.send (order.hedgeParam());
-        	   }
-           }
-
-           if (m_serverVersion >= MIN_SERVER_VER_OPT_OUT_SMART_ROUTING) {
-               b.send (order.optOutSmartRouting());
-           }
-
-           if (m_serverVersion >= MIN_SERVER_VER_PTA_ORDERS) {
-        	   b.send (order.clearingAccount());
-        	   b.send (order.clearingIntent());
-           }
-
-           if (m_serverVersion >= MIN_SERVER_VER_NOT_HELD) {
-        	   b.send (order.notHeld());
-           }
-
-           if (m_serverVersion >= MIN_SERVER_VER_UNDER_COMP) {
-        	   if (contract.underComp() != null) {
-        		   DeltaNeutralContract underComp = contract.underComp();
-        		   b.send( true);
-        		   b.send( underComp.conid());
-        		   b.send( underComp.delta());
-        		   b.send( underComp.price());
-        	   }
-        	   else {
-        		   b.send( false);
-        	   }
-           }
-
-           if (m_serverVersion >= MIN_SERVER_VER_ALGO_ORDERS) {
-        	   b.send( order.getAlgoStrategy());
-               if( !IsEmpty(order.getAlgoStrategy())) {
-        		   ArrayList<TagValue> algoParams = order.algoParams();
-        		   int algoParamsCount = algoParams.size();
-        		   b.send( algoParamsCount);
-        		   for( TagValue tagValue : algoParams ) {
-                       b.send( tagValue.m_tag);
-                       b.send( tagValue.m_value);
-        		   }
-        	   }
-           }
-           
-           if (m_serverVersion >= MIN_SERVER_VER_ALGO_ID) {
-        	   b.send(order.algoId());
-           }
-
-           if (m_serverVersion >= MIN_SERVER_VER_WHAT_IF_ORDERS) {
-        	   b.send (order.whatIf());
-           }
-           
-           // send orderMiscOptions parameter
-           if(m_serverVersion >= MIN_SERVER_VER_LINKING) {
-               StringBuilder orderMiscOptionsStr = new StringBuilder();
-               ArrayList<TagValue> orderMiscOptions = order.orderMiscOptions();
-               int orderMiscOptionsCount = orderMiscOptions == null ? 0 : orderMiscOptions.size();
-               if( orderMiscOptionsCount > 0) {
-                   for( TagValue tagValue : orderMiscOptions ) {
-                       orderMiscOptionsStr.append( tagValue.m_tag);
-                       orderMiscOptionsStr.append( "=");
-                       orderMiscOptionsStr.append( tagValue.m_value);
-                       orderMiscOptionsStr.append( ";");
-                   }
-               }
-               b.send( orderMiscOptionsStr.toString());
-           }
-           
-           if (m_serverVersion >= MIN_SERVER_VER_ORDER_SOLICITED) {
-        	   b.send(order.solicited());
-           }
-           
-           if (m_serverVersion >= MIN_SERVER_VER_RANDOMIZE_SIZE_AND_PRICE) {
-        	   b.send(order.randomizeSize());
-        	   b.send(order.randomizePrice());
-           }
-           
-           if (m_serverVersion >= MIN_SERVER_VER_PEGGED_TO_BENCHMARK) {
-        	   if (order.orderType() == OrderType.PEG_BENCH) {
-        		   b.send(order.referenceContractId());
-        		   b.send(order.isPeggedChangeAmountDecrease());
-        		   b.send(order.peggedChangeAmount());
-        		   b.send(order.referenceChangeAmount());
-        		   b.send(order.referenceExchangeId());
-        	   }
-        	   
-        	   b.send(order.conditions().size());
-        	           	   
-        	   if (order.conditions().size() > 0) {
-        		   for (OrderCondition item : order.conditions()) {
-        			   b.send(item.type().val());
-        			   item.writeExternal(b);
-        		   }
-        		   
-        		   b.send(order.conditionsIgnoreRth());
-        		   b.send(order.conditionsCancelOrder());
-        	   }
-        	   
-        	   b.send(order.adjustedOrderType());
-        	   b.send(order.triggerPrice());
-        	   b.send(order.lmtPriceOffset());
-        	   b.send(order.adjustedStopPrice());
-        	   b.send(order.adjustedStopLimitPrice());
-        	   b.send(order.adjustedTrailingAmount());
-        	   b.send(order.adjustableTrailingUnit());
-           }
-           
-           if (m_serverVersion >= MIN_SERVER_VER_EXT_OPERATOR) {
-        	   b.send(order.extOperator());
-           }
-           
-           if (m_serverVersion >= MIN_SERVER_VER_SOFT_DOLLAR_TIER) {
-        	   SoftDollarTier tier = order.softDollarTier();
-        	   
-        	   b.send(tier.name());
-        	   b.send(tier.value());
-           }           
-           
-           closeAndSend(b);
+    /** placeOrder(): pegged to benchmark, conditions, adjusted stop, ext operator and soft dollar tier fields */
+    private void sendOrderConditions( Builder b, Order order) throws IOException {
+        if (m_serverVersion >= MIN_SERVER_VER_PEGGED_TO_BENCHMARK) {
+            if (order.orderType() == OrderType.PEG_BENCH) {
+                b.send(order.referenceContractId());
+                b.send(order.isPeggedChangeAmountDecrease());
+                b.send(order.peggedChangeAmount());
+                b.send(order.referenceChangeAmount());
+                b.send(order.referenceExchangeId());
+            }
+
+            b.send(order.conditions().size());
+
+            if (order.conditions().size() > 0) {
+                for (OrderCondition item : order.conditions()) {
+                    b.send(item.type().val());
+                    item.writeExternal(b);
+                }
+
+                b.send(order.conditionsIgnoreRth());
+                b.send(order.conditionsCancelOrder());
+            }
+
+            b.send(order.adjustedOrderType());
+            b.send(order.triggerPrice());
+            b.send(order.lmtPriceOffset());
+            b.send(order.adjustedStopPrice());
+            b.send(order.adjustedStopLimitPrice());
+            b.send(order.adjustedTrailingAmount());
+            b.send(order.adjustableTrailingUnit());
         }
-        catch( Exception e) {
-            error( id, EClientErrors.FAIL_SEND_ORDER, e.toString());
-            close();
+
+        if (m_serverVersion >= MIN_SERVER_VER_EXT_OPERATOR) {
+            b.send(order.extOperator());
+        }
+
+        if (m_serverVersion >= MIN_SERVER_VER_SOFT_DOLLAR_TIER) {
+            SoftDollarTier tier = order.softDollarTier();
+
+            b.send(tier.name());
+            b.send(tier.value());
         }
     }
 
@@ -3085,6 +3128,9 @@ public abstract class EClient {
     }
 
     protected void notConnected() {
+        if (JitWarmup.isRunning()) {
+            return; // a callback reacting to the warm-up corpus
+        }
         error(EClientErrors.NO_VALID_ID, EClientErrors.NOT_CONNECTED, "");
     }
     
@@ -14,6 +14,11 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 	private boolean m_asyncEConnect = false;
 	private boolean m_connected = false;
 	private Socket m_socket;
+	private final ConnectionStats m_stats = new ConnectionStats();
+	private volatile FrameJournal m_journal;
+	private volatile boolean m_journalOutbound;
+	private JitWarmup m_jitWarmup;
+	private int m_jitWarmupRounds;
 		
 	public void setAsyncEConnect(boolean asyncEConnect) {
 		this.m_asyncEConnect = asyncEConnect;
@@ -27,6 +32,60 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 		super(eWrapper, signal);
 	}
 
+	/** Traffic counters of this connection; see ConnectionStats.register() for JMX. */
+	public ConnectionStats connectionStats() {
+		return m_stats;
+	}
+
+	/**
+	 * Appends every inbound frame, and optionally every outbound one, to journal.
+	 * Pass null to stop journaling; closing the journal is up to the caller.
+	 */
+	public void setFrameJournal(FrameJournal journal, boolean outbound) {
+		m_journal = journal;
+		m_journalOutbound = outbound;
+	}
+
+	public FrameJournal frameJournal() {
+		return m_journal;
+	}
+
+	/**
+	 * Makes eConnect() decode warmup rounds times into the EWrapper before it opens the
+	 * connection, see JitWarmup. Pass null to turn it off.
+	 */
+	public synchronized void setJitWarmup(JitWarmup warmup, int rounds) {
+		m_jitWarmup = warmup;
+		m_jitWarmupRounds = rounds;
+	}
+
+	private void jitWarmup() {
+		if (m_jitWarmup != null) {
+			try {
+				m_jitWarmup.run(m_eWrapper, m_jitWarmupRounds);
+			}
+			catch (IOException e) {
+				m_eWrapper.error(e); // a corpus the decoder rejects; connect anyway
+			}
+		}
+	}
+
+	@Override
+	protected void sendMsg(EMessage msg) throws IOException {
+		super.sendMsg(msg);
+
+		FrameJournal journal = m_journal;
+		if (journal != null && m_journalOutbound) {
+			try {
+				journal.append(FrameJournal.OUT, msg);
+			}
+			catch (IOException e) {
+				setFrameJournal(null, false); // a journal failure must not fail the request
+				m_eWrapper.error(e);
+			}
+		}
+	}
+
 	@Override
 	protected Builder prepareBuffer() {
         Builder buf = new Builder( 1024 );
@@ -43,8 +102,17 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
     	}
     	
     	EMessage msg = new EMessage(buf);
+    	int msgId = buf.intAt( m_useV100Plus ? 4 : 0 );
     	
-    	sendMsg(msg);
+    	if (JfrEvents.ENABLED) {
+    		Object event = JfrEvents.beginSend();
+    		sendMsg(msg);
+    		JfrEvents.commitSend(event, msgId, buf.size());
+    	}
+    	else {
+    		sendMsg(msg);
+    	}
+    	m_stats.messageSent(msgId, buf.size());
     }
 
 	protected synchronized void eConnect(Socket socket) throws IOException {
@@ -72,6 +140,7 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 	public synchronized void eConnect(Socket socket, int clientId) throws IOException {
 	    m_clientId = clientId;
 	    m_redirectCount = 0;
+	    jitWarmup();
 	    eConnect(socket);
 	}
 
@@ -90,6 +159,7 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 	    if(m_host == null){
 	        return;
 	    }
+	    jitWarmup();
 	    try{
 	        Socket socket = new Socket( m_host, port);
 	        eConnect(socket);
@@ -221,11 +291,19 @@ public class EClientSocket extends EClient implements EClientMsgSink  {
 	}
 
 	public int read(byte[] buf, int off, int len) throws IOException {
-		return m_dis.read(buf, off, len);
+		int n = m_dis.read(buf, off, len);
+		
+		m_stats.bytesIn(n);
+		
+		return n;
 	}
 
 	public int readInt() throws IOException {
-		return m_dis.readInt();
+		int val = m_dis.readInt();
+		
+		m_stats.bytesIn(4);
+		
+		return val;
 	}
 
 	@Override
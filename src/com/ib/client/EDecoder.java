@@ -5,6 +5,8 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
@@ -70,10 +72,14 @@ class EDecoder implements ObjectInput {
     static final int MAX_MSG_LENGTH = 0xffffff;
     static final int REDIRECT_MSG_ID = -1;
 
+    private static final String[] MSG_NAMES = msgNames();
+
     EClientMsgSink m_clientMsgSink;
     EWrapper m_EWrapper;
+    private final ETimestampedWrapper m_timestampedWrapper;
     int m_serverVersion;
     private IMessageReader m_messageReader;
+    private int m_msgId;
 
     public EDecoder(int serverVersion, EWrapper callback) {
         this(serverVersion, callback, null);
@@ -82,7 +88,8 @@ class EDecoder implements ObjectInput {
     public EDecoder(int serverVersion, EWrapper callback, EClientMsgSink sink) {
         m_clientMsgSink = sink;
         m_serverVersion = serverVersion;
-        m_EWrapper = callback;
+        m_EWrapper = JfrEvents.ENABLED ? new JfrEWrapper(callback) : callback;
+        m_timestampedWrapper = callback instanceof ETimestampedWrapper ? (ETimestampedWrapper) m_EWrapper : null;
     }
 
     protected void processFirstMsg() throws IOException {
@@ -122,7 +129,50 @@ class EDecoder implements ObjectInput {
         return m_messageReader != null;
     }
 
+    /** Incoming msg id names indexed by id, taken from the constants above. */
+    private static String[] msgNames() {
+        String[] names = new String[MsgLatencyStats.MAX_MSG_ID + 1];
+        for (Field field : EDecoder.class.getDeclaredFields()) {
+            if (field.getType() == int.class && Modifier.isStatic(field.getModifiers()) && Modifier.isFinal(field.getModifiers())) {
+                try {
+                    int id = field.getInt(null);
+                    if (id > 0 && id < names.length && names[id] == null) {
+                        names[id] = field.getName();
+                    }
+                } catch (IllegalAccessException e) {
+                    // cannot happen for our own fields
+                }
+            }
+        }
+        names[0] = "SERVER_VERSION";
+        return names;
+    }
+
+    static String msgName(int msgId) {
+        return msgId >= 0 && msgId < MSG_NAMES.length && MSG_NAMES[msgId] != null ? MSG_NAMES[msgId] : String.valueOf(msgId);
+    }
+
+    /** @return id of the message last passed to processMsg(), 0 for the connection handshake. */
+    int lastMsgId() {
+        return m_msgId;
+    }
+
     public int processMsg(EMessage msg) throws IOException {
+        if (!JfrEvents.ENABLED) {
+            return decodeMsg(msg);
+        }
+
+        Object event = JfrEvents.beginDecode();
+        int len = decodeMsg(msg);
+
+        JfrEvents.commitDecode(event, m_msgId, msg.m_buf.size());
+
+        return len;
+    }
+
+    private int decodeMsg(EMessage msg) throws IOException {
+        m_msgId = 0;
+
         if (!readMessageToInternalBuf(msg.getStream())) {
             return 0;
         }
@@ -134,7 +184,11 @@ class EDecoder implements ObjectInput {
         }
 
         int msgId = readInt();
-        System.out.println("TEST: msgId = " + msgId);
+        m_msgId = msgId;
+
+        if (m_timestampedWrapper != null) {
+            m_timestampedWrapper.msgArrival(msg.arrivalNanos(), msg.arrivalMillis());
+        }
 
         switch (msgId) {
             case END_CONN:
@@ -906,6 +960,31 @@ class EDecoder implements ObjectInput {
 
         // read contract fields
         Contract contract = new Contract();
+        readOpenOrderContract(version, contract);
+
+        // read order fields
+        readOpenOrderFields(version, order);
+        readOpenOrderExtendedFields(version, order);
+        readOpenOrderVolatilityFields(version, order);
+        readOpenOrderComboLegs(version, contract, order);
+        readOpenOrderScaleFields(version, order);
+        readOpenOrderAlgoFields(version, contract, order);
+
+        OrderState orderState = new OrderState();
+        readOpenOrderState(version, order, orderState);
+
+        if (version >= 34) {
+            order.randomizeSize(readBoolFromInt());
+            order.randomizePrice(readBoolFromInt());
+        }
+
+        readOpenOrderConditions(order);
+
+        m_EWrapper.openOrder(order.orderId(), contract, order, orderState);
+    }
+
+    /** processOpenOrderMsg(): contract fields */
+    private void readOpenOrderContract(int version, Contract contract) throws IOException {
         if (version >= 17) {
             contract.conid(readInt());
         }
@@ -925,8 +1004,10 @@ class EDecoder implements ObjectInput {
         if (version >= 32) {
             contract.tradingClass(readStr());
         }
+    }
 
-        // read order fields
+    /** processOpenOrderMsg(): action, quantity, type, prices and the fields up to good till date */
+    private void readOpenOrderFields(int version, Order order) throws IOException {
         order.action(readStr());
 
         if (m_serverVersion >= EClient.MIN_SERVER_VER_FRACTIONAL_POSITIONS)
@@ -992,7 +1073,10 @@ class EDecoder implements ObjectInput {
         if (version >= 8) {
             order.goodTillDate(readStr());
         }
+    }
 
+    /** processOpenOrderMsg(): rule 80A through NBBO price cap, parent id and trigger method */
+    private void readOpenOrderExtendedFields(int version, Order order) throws IOException {
         if (version >= 9) {
             order.rule80A(readStr());
             order.percentOffset(readDoubleMax());
@@ -1030,7 +1114,10 @@ class EDecoder implements ObjectInput {
             order.parentId(readInt());
             order.triggerMethod(readInt());
         }
+    }
 
+    /** processOpenOrderMsg(): volatility, delta neutral and trailing fields */
+    private void readOpenOrderVolatilityFields(int version, Order order) throws IOException {
         if (version >= 11) {
             order.volatility(readDoubleMax());
             order.volatilityType(readInt());
@@ -1070,7 +1157,10 @@ class EDecoder implements ObjectInput {
         if (version >= 30) {
             order.trailingPercent(readDoubleMax());
         }
+    }
 
+    /** processOpenOrderMsg(): basis points, combo legs and smart combo routing params */
+    private void readOpenOrderComboLegs(int version, Contract contract, Order order) throws IOException {
         if (version >= 14) {
             order.basisPoints(readDoubleMax());
             order.basisPointsType(readIntMax());
@@ -1121,7 +1211,10 @@ class EDecoder implements ObjectInput {
                 }
             }
         }
+    }
 
+    /** processOpenOrderMsg(): scale, hedge, clearing and not held fields */
+    private void readOpenOrderScaleFields(int version, Order order) throws IOException {
         if (version >= 15) {
             if (version >= 20) {
                 order.scaleInitLevelSize(readIntMax());
@@ -1163,7 +1256,10 @@ class EDecoder implements ObjectInput {
         if (version >= 22) {
             order.notHeld(readBoolFromInt());
         }
+    }
 
+    /** processOpenOrderMsg(): delta neutral contract, algo and solicited fields */
+    private void readOpenOrderAlgoFields(int version, Contract contract, Order order) throws IOException {
         if (version >= 20) {
             if (readBoolFromInt()) {
                 DeltaNeutralContract underComp = new DeltaNeutralContract();
@@ -1192,9 +1288,10 @@ class EDecoder implements ObjectInput {
         if (version >= 33) {
             order.solicited(readBoolFromInt());
         }
+    }
 
-        OrderState orderState = new OrderState();
-
+    /** processOpenOrderMsg(): what-if and the order state */
+    private void readOpenOrderState(int version, Order order, OrderState orderState) throws IOException {
         if (version >= 16) {
             order.whatIf(readBoolFromInt());
 
@@ -1208,12 +1305,10 @@ class EDecoder implements ObjectInput {
             orderState.commissionCurrency(readStr());
             orderState.warningText(readStr());
         }
+    }
 
-        if (version >= 34) {
-            order.randomizeSize(readBoolFromInt());
-            order.randomizePrice(readBoolFromInt());
-        }
-
+    /** processOpenOrderMsg(): pegged to benchmark, conditions, adjusted order and soft dollar tier fields */
+    private void readOpenOrderConditions(Order order) throws IOException {
         if (m_serverVersion >= EClient.MIN_SERVER_VER_PEGGED_TO_BENCHMARK) {
             if (order.orderType() == OrderType.PEG_BENCH) {
                 order.referenceContractId(readInt());
@@ -1255,8 +1350,6 @@ class EDecoder implements ObjectInput {
         if (m_serverVersion >= EClient.MIN_SERVER_VER_SOFT_DOLLAR_TIER) {
             order.softDollarTier(new SoftDollarTier(readStr(), readStr(), readStr()));
         }
-
-        m_EWrapper.openOrder(order.orderId(), contract, order, orderState);
     }
 
     private void processErrMsgMsg() throws IOException {
@@ -5,9 +5,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 public class EMessage {
 	ByteArrayOutputStream m_buf;
+	private long m_arrivalNanos;	// System.nanoTime() when the frame arrived on the socket
+	private long m_arrivalMillis;	// wall-clock time when the frame arrived on the socket
 	
 	public EMessage(byte[] buf, int len) throws IOException {
 		m_buf = new ByteArrayOutputStream();
@@ -28,4 +31,28 @@ public class EMessage {
 	public byte[] getRawData() {		
 		return m_buf.toByteArray();
 	}
+
+	public int size() {
+		return m_buf.size();
+	}
+
+	/** Writes the raw data to out without the copy made by getRawData(). */
+	public void writeTo(OutputStream out) throws IOException {
+		m_buf.writeTo(out);
+	}
+
+	/** @return System.nanoTime() taken when the frame arrived, or 0 if the message was not read from a socket. */
+	public long arrivalNanos() {
+		return m_arrivalNanos;
+	}
+
+	/** @return wall-clock time in ms taken when the frame arrived, or 0 if the message was not read from a socket. */
+	public long arrivalMillis() {
+		return m_arrivalMillis;
+	}
+
+	void arrivalTime(long nanos, long millis) {
+		m_arrivalNanos = nanos;
+		m_arrivalMillis = millis;
+	}
 }
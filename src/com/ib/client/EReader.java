@@ -22,12 +22,25 @@ public class EReader extends Thread {
     private static final int IN_BUF_SIZE_DEFAULT = 8192;
     private byte[] m_iBuf = new byte[IN_BUF_SIZE_DEFAULT];
     private int m_iBufLen = 0;
+    private long m_iBufNanos;   // arrival time of the last bytes appended to m_iBuf
+    private long m_iBufMillis;
     private Deque<EMessage> m_msgQueue = new LinkedList<EMessage>();
+    private volatile MsgLatencyStats m_latencyStats;
+    private final ConnectionStats m_stats;
 
     protected boolean isUseV100Plus() {
         return m_clientSocket.isUseV100Plus();
     }
 
+    /** @param stats receives per message type latencies from processMsgs(); null (the default) turns recording off. */
+    public void setLatencyStats(MsgLatencyStats stats) {
+        m_latencyStats = stats;
+    }
+
+    public MsgLatencyStats latencyStats() {
+        return m_latencyStats;
+    }
+
     protected EClient parent() {
         return m_clientSocket;
     }
@@ -45,6 +58,7 @@ public class EReader extends Thread {
     public EReader(EClientSocket parent, EReaderSignal signal) {
         m_clientSocket = parent;
         m_signal = signal;
+        m_stats = parent.connectionStats();
         m_processMsgsDecoder = new EDecoder(parent.serverVersion(), parent.wrapper(), parent);
     }
 
@@ -79,19 +93,39 @@ public class EReader extends Thread {
         if (msg == null)
             return false;
 
+        FrameJournal journal = m_clientSocket.frameJournal();
+        if (journal != null) {
+            try {
+                journal.append(FrameJournal.IN, msg);
+            } catch (IOException e) {
+                m_clientSocket.setFrameJournal(null, false); // keep the connection, stop journaling
+                eWrapper().error(e);
+            }
+        }
+
         synchronized (m_msgQueue) {
             m_msgQueue.addFirst(msg);
         }
 
+        m_stats.queued();
+
         m_signal.issueSignal();
 
         return true;
     }
 
     protected EMessage getMsg() {
+        EMessage msg;
+
         synchronized (m_msgQueue) {
-            return m_msgQueue.isEmpty() ? null : m_msgQueue.removeLast();
+            msg = m_msgQueue.isEmpty() ? null : m_msgQueue.removeLast();
+        }
+
+        if (msg != null) {
+            m_stats.dequeued();
         }
+
+        return msg;
     }
 
     static final int MAX_MSG_LENGTH = 0xffffff;
@@ -106,14 +140,43 @@ public class EReader extends Thread {
     public void processMsgs() throws IOException {
         EMessage msg = getMsg();
 
-        while (msg != null && m_processMsgsDecoder.processMsg(msg) > 0) {
+        while (msg != null && processMsg(msg) > 0) {
             msg = getMsg();
         }
     }
 
+    private int processMsg(EMessage msg) throws IOException {
+        MsgLatencyStats latencyStats = m_latencyStats;
+        long dequeueNanos = latencyStats != null ? System.nanoTime() : 0;
+        int len;
+
+        try {
+            len = m_processMsgsDecoder.processMsg(msg);
+        } catch (IOException | RuntimeException e) {
+            m_stats.decodeError();
+            throw e;
+        }
+
+        int msgId = m_processMsgsDecoder.lastMsgId();
+
+        m_stats.messageReceived(msgId);
+
+        if (len == 0 && msgId != EDecoder.END_CONN) { // unknown msg id
+            m_stats.decodeError();
+        }
+
+        if (latencyStats != null && msg.arrivalNanos() != 0) {
+            latencyStats.record(msgId, msg.arrivalNanos(), dequeueNanos, System.nanoTime());
+        }
+
+        return len;
+    }
+
     private EMessage readSingleMessage() throws IOException {
         if (isUseV100Plus()) {
             int msgSize = m_clientSocket.readInt();
+            long arrivalNanos = System.nanoTime();
+            long arrivalMillis = System.currentTimeMillis();
 
             if (msgSize > MAX_MSG_LENGTH) {
                 throw new InvalidMessageLengthException("message is too long: "
@@ -128,7 +191,11 @@ public class EReader extends Thread {
                 offset += m_clientSocket.read(buf, offset, msgSize - offset);
             }
 
-            return new EMessage(buf, buf.length);
+            EMessage msg = new EMessage(buf, buf.length);
+
+            msg.arrivalTime(arrivalNanos, arrivalMillis);
+
+            return msg;
         }
 
         if (m_iBufLen == 0) {
@@ -160,6 +227,8 @@ public class EReader extends Thread {
 
         EMessage msg = new EMessage(m_iBuf, msgSize);
 
+        msg.arrivalTime(m_iBufNanos, m_iBufMillis);
+
         System.arraycopy(Arrays.copyOfRange(m_iBuf, msgSize, m_iBuf.length), 0, m_iBuf, 0, m_iBuf.length - msgSize);
 
         m_iBufLen -= msgSize;
@@ -176,6 +245,11 @@ public class EReader extends Thread {
     }
 
     protected int appendIBuf() throws IOException {
-        return m_clientSocket.read(m_iBuf, m_iBufLen, m_iBuf.length - m_iBufLen);
+        int n = m_clientSocket.read(m_iBuf, m_iBufLen, m_iBuf.length - m_iBufLen);
+
+        m_iBufNanos = System.nanoTime();
+        m_iBufMillis = System.currentTimeMillis();
+
+        return n;
     }
 }
@@ -0,0 +1,499 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes the server side of the V100 protocol, i.e. the messages EDecoder reads, as
+ * length-prefixed frames. Used by stand-in servers for testing and benchmarking.
+ * <p>
+ * Not thread safe; each method writes one complete frame to the stream, except
+ * historicalData() which is followed by historicalDataBar() calls for each bar.
+ */
+public class EServerEncoder {
+    private final DataOutputStream m_out;
+    private final int m_serverVersion;
+    private final Builder m_b = new Builder(1024);
+    private int m_barsToGo;
+
+    public EServerEncoder(OutputStream out, int serverVersion) {
+        m_out = out instanceof DataOutputStream ? (DataOutputStream) out : new DataOutputStream(out);
+        m_serverVersion = serverVersion;
+    }
+
+    public int serverVersion() {
+        return m_serverVersion;
+    }
+
+    /** The first message of a connection, answering the client's API header. */
+    public void serverVersion(String twsTime) throws IOException {
+        begin();
+        m_b.send(m_serverVersion);
+        m_b.send(twsTime);
+        end();
+    }
+
+    public void nextValidId(int orderId) throws IOException {
+        begin(EDecoder.NEXT_VALID_ID, 1);
+        m_b.send(orderId);
+        end();
+    }
+
+    public void managedAccounts(String accountsList) throws IOException {
+        begin(EDecoder.MANAGED_ACCTS, 1);
+        m_b.send(accountsList);
+        end();
+    }
+
+    public void error(int id, int errorCode, String errorMsg) throws IOException {
+        begin(EDecoder.ERR_MSG, 2);
+        m_b.send(id);
+        m_b.send(errorCode);
+        m_b.send(errorMsg);
+        end();
+    }
+
+    public void currentTime(long time) throws IOException {
+        begin(EDecoder.CURRENT_TIME, 1);
+        send(time);
+        end();
+    }
+
+    /** A size is only passed on by EDecoder for BID, ASK and LAST. */
+    public void tickPrice(int tickerId, int field, double price, int size, int canAutoExecute) throws IOException {
+        begin(EDecoder.TICK_PRICE, 6);
+        m_b.send(tickerId);
+        m_b.send(field);
+        m_b.send(price);
+        m_b.send(size);
+        m_b.send(canAutoExecute);
+        end();
+    }
+
+    public void tickSize(int tickerId, int field, int size) throws IOException {
+        begin(EDecoder.TICK_SIZE, 6);
+        m_b.send(tickerId);
+        m_b.send(field);
+        m_b.send(size);
+        end();
+    }
+
+    public void tickSnapshotEnd(int reqId) throws IOException {
+        begin(EDecoder.TICK_SNAPSHOT_END, 1);
+        m_b.send(reqId);
+        end();
+    }
+
+    public void updateMktDepth(int tickerId, int position, int operation, int side, double price, int size) throws IOException {
+        begin(EDecoder.MARKET_DEPTH, 1);
+        m_b.send(tickerId);
+        m_b.send(position);
+        m_b.send(operation);
+        m_b.send(side);
+        m_b.send(price);
+        m_b.send(size);
+        end();
+    }
+
+    public void updateMktDepthL2(int tickerId, int position, String marketMaker, int operation, int side, double price, int size) throws IOException {
+        begin(EDecoder.MARKET_DEPTH_L2, 1);
+        m_b.send(tickerId);
+        m_b.send(position);
+        m_b.send(marketMaker);
+        m_b.send(operation);
+        m_b.send(side);
+        m_b.send(price);
+        m_b.send(size);
+        end();
+    }
+
+    public void realtimeBar(int reqId, long time, double open, double high, double low, double close, long volume, double wap, int count) throws IOException {
+        begin(EDecoder.REAL_TIME_BARS, 3);
+        m_b.send(reqId);
+        send(time);
+        m_b.send(open);
+        m_b.send(high);
+        m_b.send(low);
+        m_b.send(close);
+        send(volume);
+        m_b.send(wap);
+        m_b.send(count);
+        end();
+    }
+
+    /** Starts a HISTORICAL_DATA message; the frame is written after itemCount calls to historicalDataBar(). */
+    public void historicalData(int reqId, String startDate, String endDate, int itemCount) throws IOException {
+        begin(EDecoder.HISTORICAL_DATA, 3);
+        m_b.send(reqId);
+        m_b.send(startDate);
+        m_b.send(endDate);
+        m_b.send(itemCount);
+        m_barsToGo = itemCount;
+        if (itemCount == 0) {
+            end();
+        }
+    }
+
+    public void historicalDataBar(String date, double open, double high, double low, double close, int volume, double wap, boolean hasGaps, int barCount) throws IOException {
+        if (m_barsToGo <= 0) {
+            throw new IllegalStateException("historicalDataBar() without historicalData()");
+        }
+        m_b.send(date);
+        m_b.send(open);
+        m_b.send(high);
+        m_b.send(low);
+        m_b.send(close);
+        m_b.send(volume);
+        m_b.send(wap);
+        m_b.send(String.valueOf(hasGaps));
+        m_b.send(barCount);
+        if (--m_barsToGo == 0) {
+            end();
+        }
+    }
+
+    public void orderStatus(int orderId, String status, double filled, double remaining, double avgFillPrice,
+                            int permId, int parentId, double lastFillPrice, int clientId, String whyHeld) throws IOException {
+        begin(EDecoder.ORDER_STATUS, 6);
+        m_b.send(orderId);
+        m_b.send(status);
+        sendQuantity(filled);
+        sendQuantity(remaining);
+        m_b.send(avgFillPrice);
+        m_b.send(permId);
+        m_b.send(parentId);
+        m_b.send(lastFillPrice);
+        m_b.send(clientId);
+        m_b.send(whyHeld);
+        end();
+    }
+
+    /** Values not computed yet are sent as -1 (-2 for delta and the greeks), as TWS does. */
+    public void tickOptionComputation(int tickerId, int field, double impliedVol, double delta, double optPrice,
+                                      double pvDividend, double gamma, double vega, double theta, double undPrice) throws IOException {
+        begin(EDecoder.TICK_OPTION_COMPUTATION, 6);
+        m_b.send(tickerId);
+        m_b.send(field);
+        m_b.send(impliedVol);
+        m_b.send(delta);
+        m_b.send(optPrice);
+        m_b.send(pvDividend);
+        m_b.send(gamma);
+        m_b.send(vega);
+        m_b.send(theta);
+        m_b.send(undPrice);
+        end();
+    }
+
+    public void execDetails(int reqId, Contract contract, Execution exec) throws IOException {
+        begin(EDecoder.EXECUTION_DATA, 10);
+        m_b.send(reqId);
+        m_b.send(exec.orderId());
+        m_b.send(contract.conid());
+        m_b.send(contract.symbol());
+        m_b.send(contract.getSecType());
+        m_b.send(contract.lastTradeDateOrContractMonth());
+        m_b.send(contract.strike());
+        m_b.send(contract.getRight());
+        m_b.send(contract.multiplier());
+        m_b.send(contract.exchange());
+        m_b.send(contract.currency());
+        m_b.send(contract.localSymbol());
+        m_b.send(contract.tradingClass());
+        m_b.send(exec.execId());
+        m_b.send(exec.time());
+        m_b.send(exec.acctNumber());
+        m_b.send(exec.exchange());
+        m_b.send(exec.side());
+        sendQuantity(exec.shares());
+        m_b.send(exec.price());
+        m_b.send(exec.permId());
+        m_b.send(exec.clientId());
+        m_b.send(exec.liquidation());
+        m_b.send(exec.cumQty());
+        m_b.send(exec.avgPrice());
+        m_b.send(exec.orderRef());
+        m_b.send(exec.evRule());
+        m_b.send(exec.evMultiplier());
+        if (m_serverVersion >= EClient.MIN_SERVER_VER_MODELS_SUPPORT) {
+            m_b.send(exec.modelCode());
+        }
+        end();
+    }
+
+    /** OPEN_ORDER version 34, field for field in the order EDecoder reads them. */
+    public void openOrder(Contract contract, Order order, OrderState orderState) throws IOException {
+        begin(EDecoder.OPEN_ORDER, 34);
+        m_b.send(order.orderId());
+
+        m_b.send(contract.conid());
+        m_b.send(contract.symbol());
+        m_b.send(contract.getSecType());
+        m_b.send(contract.lastTradeDateOrContractMonth());
+        m_b.send(contract.strike());
+        m_b.send(contract.getRight());
+        m_b.send(contract.multiplier());
+        m_b.send(contract.exchange());
+        m_b.send(contract.currency());
+        m_b.send(contract.localSymbol());
+        m_b.send(contract.tradingClass());
+
+        sendOpenOrderFields(order);
+        sendOpenOrderExtendedFields(order);
+        sendOpenOrderComboLegs(contract, order);
+        sendOpenOrderAlgoFields(contract, order);
+
+        m_b.send(order.whatIf());
+        m_b.send(orderState.getStatus());
+        m_b.send(orderState.initMargin());
+        m_b.send(orderState.maintMargin());
+        m_b.send(orderState.equityWithLoan());
+        m_b.sendMax(orderState.commission());
+        m_b.sendMax(orderState.minCommission());
+        m_b.sendMax(orderState.maxCommission());
+        m_b.send(orderState.commissionCurrency());
+        m_b.send(orderState.warningText());
+
+        m_b.send(order.randomizeSize());
+        m_b.send(order.randomizePrice());
+
+        sendOpenOrderConditions(order);
+        end();
+    }
+
+    /** openOrder(): action, quantity, type, prices and the fields up to good till date */
+    private void sendOpenOrderFields(Order order) {
+        m_b.send(order.getAction());
+        sendQuantity(order.totalQuantity());
+        m_b.send(order.getOrderType());
+        m_b.sendMax(order.lmtPrice());
+        m_b.sendMax(order.auxPrice());
+        m_b.send(order.getTif());
+        m_b.send(order.ocaGroup());
+        m_b.send(order.account());
+        m_b.send(order.openClose());
+        m_b.send(order.origin());
+        m_b.send(order.orderRef());
+        m_b.send(order.clientId());
+        send(order.permId());
+        m_b.send(order.outsideRth());
+        m_b.send(order.hidden());
+        m_b.send(order.discretionaryAmt());
+        m_b.send(order.goodAfterTime());
+        m_b.send(""); // deprecated sharesAllocation
+        m_b.send(order.faGroup());
+        m_b.send(order.getFaMethod());
+        m_b.send(order.faPercentage());
+        m_b.send(order.faProfile());
+        if (m_serverVersion >= EClient.MIN_SERVER_VER_MODELS_SUPPORT) {
+            m_b.send(order.modelCode());
+        }
+        m_b.send(order.goodTillDate());
+    }
+
+    /** openOrder(): rule 80A through NBBO price cap, parent id, trigger method and volatility fields */
+    private void sendOpenOrderExtendedFields(Order order) {
+        m_b.send(order.getRule80A());
+        m_b.sendMax(order.percentOffset());
+        m_b.send(order.settlingFirm());
+        m_b.send(order.shortSaleSlot());
+        m_b.send(order.designatedLocation());
+        m_b.send(order.exemptCode());
+        m_b.send(order.auctionStrategy());
+        m_b.sendMax(order.startingPrice());
+        m_b.sendMax(order.stockRefPrice());
+        m_b.sendMax(order.delta());
+        m_b.sendMax(order.stockRangeLower());
+        m_b.sendMax(order.stockRangeUpper());
+        m_b.send(order.displaySize());
+        m_b.send(order.blockOrder());
+        m_b.send(order.sweepToFill());
+        m_b.send(order.allOrNone());
+        m_b.sendMax(order.minQty());
+        m_b.send(order.getOcaType());
+        m_b.send(order.eTradeOnly());
+        m_b.send(order.firmQuoteOnly());
+        m_b.sendMax(order.nbboPriceCap());
+
+        m_b.send(order.parentId());
+        m_b.send(order.getTriggerMethod());
+
+        m_b.sendMax(order.volatility());
+        m_b.send(order.getVolatilityType());
+        m_b.send(order.getDeltaNeutralOrderType());
+        m_b.sendMax(order.deltaNeutralAuxPrice());
+        if (!Util.StringIsEmpty(order.getDeltaNeutralOrderType())) {
+            m_b.send(order.deltaNeutralConId());
+            m_b.send(order.deltaNeutralSettlingFirm());
+            m_b.send(order.deltaNeutralClearingAccount());
+            m_b.send(order.deltaNeutralClearingIntent());
+            m_b.send(order.deltaNeutralOpenClose());
+            m_b.send(order.deltaNeutralShortSale());
+            m_b.send(order.deltaNeutralShortSaleSlot());
+            m_b.send(order.deltaNeutralDesignatedLocation());
+        }
+        m_b.send(order.continuousUpdate());
+        m_b.send(order.getReferencePriceType());
+    }
+
+    /** openOrder(): trailing and basis points fields, combo legs and scale fields */
+    private void sendOpenOrderComboLegs(Contract contract, Order order) {
+        m_b.sendMax(order.trailStopPrice());
+        m_b.sendMax(order.trailingPercent());
+        m_b.sendMax(order.basisPoints());
+        m_b.sendMax(order.basisPointsType());
+        m_b.send(contract.comboLegsDescrip());
+
+        m_b.send(contract.comboLegs().size());
+        for (ComboLeg leg : contract.comboLegs()) {
+            m_b.send(leg.conid());
+            m_b.send(leg.ratio());
+            m_b.send(leg.getAction());
+            m_b.send(leg.exchange());
+            m_b.send(leg.getOpenClose());
+            m_b.send(leg.shortSaleSlot());
+            m_b.send(leg.designatedLocation());
+            m_b.send(leg.exemptCode());
+        }
+        int orderComboLegs = order.orderComboLegs() == null ? 0 : order.orderComboLegs().size();
+        m_b.send(orderComboLegs);
+        for (int i = 0; i < orderComboLegs; i++) {
+            m_b.sendMax(order.orderComboLegs().get(i).price());
+        }
+
+        sendTagValues(order.smartComboRoutingParams());
+
+        m_b.sendMax(order.scaleInitLevelSize());
+        m_b.sendMax(order.scaleSubsLevelSize());
+        m_b.sendMax(order.scalePriceIncrement());
+        if (order.scalePriceIncrement() > 0.0 && order.scalePriceIncrement() != Double.MAX_VALUE) {
+            m_b.sendMax(order.scalePriceAdjustValue());
+            m_b.sendMax(order.scalePriceAdjustInterval());
+            m_b.sendMax(order.scaleProfitOffset());
+            m_b.send(order.scaleAutoReset());
+            m_b.sendMax(order.scaleInitPosition());
+            m_b.sendMax(order.scaleInitFillQty());
+            m_b.send(order.scaleRandomPercent());
+        }
+    }
+
+    /** openOrder(): hedge, clearing, delta neutral contract, algo and solicited fields */
+    private void sendOpenOrderAlgoFields(Contract contract, Order order) {
+        m_b.send(order.getHedgeType());
+        if (!Util.StringIsEmpty(order.getHedgeType())) {
+            m_b.send(order.hedgeParam());
+        }
+        m_b.send(order.optOutSmartRouting());
+        m_b.send(order.clearingAccount());
+        m_b.send(order.clearingIntent());
+        m_b.send(order.notHeld());
+
+        DeltaNeutralContract underComp = contract.underComp();
+        m_b.send(underComp != null);
+        if (underComp != null) {
+            m_b.send(underComp.conid());
+            m_b.send(underComp.delta());
+            m_b.send(underComp.price());
+        }
+
+        m_b.send(order.getAlgoStrategy());
+        if (!Util.StringIsEmpty(order.getAlgoStrategy())) {
+            sendTagValues(order.algoParams());
+        }
+        m_b.send(order.solicited());
+    }
+
+    /** openOrder(): pegged to benchmark, conditions, adjusted order and soft dollar tier fields */
+    private void sendOpenOrderConditions(Order order) throws IOException {
+        if (m_serverVersion >= EClient.MIN_SERVER_VER_PEGGED_TO_BENCHMARK) {
+            if (order.orderType() == OrderType.PEG_BENCH) {
+                m_b.send(order.referenceContractId());
+                m_b.send(order.isPeggedChangeAmountDecrease());
+                m_b.send(order.peggedChangeAmount());
+                m_b.send(order.referenceChangeAmount());
+                m_b.send(order.referenceExchangeId());
+            }
+
+            m_b.send(order.conditions().size());
+            if (order.conditions().size() > 0) {
+                for (OrderCondition condition : order.conditions()) {
+                    m_b.send(condition.type().val());
+                    condition.writeExternal(m_b);
+                }
+                m_b.send(order.conditionsIgnoreRth());
+                m_b.send(order.conditionsCancelOrder());
+            }
+
+            m_b.send(order.adjustedOrderType());
+            m_b.sendMax(order.triggerPrice());
+            m_b.sendMax(order.trailStopPrice());
+            m_b.sendMax(order.lmtPriceOffset());
+            m_b.sendMax(order.adjustedStopPrice());
+            m_b.sendMax(order.adjustedStopLimitPrice());
+            m_b.sendMax(order.adjustedTrailingAmount());
+            m_b.send(order.adjustableTrailingUnit());
+        }
+
+        if (m_serverVersion >= EClient.MIN_SERVER_VER_SOFT_DOLLAR_TIER) {
+            SoftDollarTier tier = order.softDollarTier();
+            m_b.send(tier == null ? null : tier.name());
+            m_b.send(tier == null ? null : tier.value());
+            m_b.send(tier == null ? null : tier.toString()); // display name
+        }
+    }
+
+    /** Writes an already encoded message, e.g. one read from a FrameJournal, with its length prefix. */
+    public void frame(byte[] buf, int off, int len) throws IOException {
+        m_out.writeInt(len);
+        m_out.write(buf, off, len);
+    }
+
+    public void flush() throws IOException {
+        m_out.flush();
+    }
+
+    private void begin(int msgId, int version) {
+        begin();
+        m_b.send(msgId);
+        m_b.send(version);
+    }
+
+    private void begin() {
+        if (m_barsToGo > 0) {
+            throw new IllegalStateException(m_barsToGo + " historical bars missing");
+        }
+        m_b.reset();
+        m_b.allocateLengthHeader();
+    }
+
+    private void end() throws IOException {
+        m_b.updateLength(0);
+        m_b.writeTo(m_out);
+    }
+
+    private void send(long a) {
+        m_b.send(String.valueOf(a));
+    }
+
+    private void sendQuantity(double quantity) {
+        if (m_serverVersion >= EClient.MIN_SERVER_VER_FRACTIONAL_POSITIONS) {
+            m_b.send(quantity);
+        } else {
+            m_b.send((int) quantity);
+        }
+    }
+
+    private void sendTagValues(List<TagValue> tagValues) {
+        int count = tagValues == null ? 0 : tagValues.size();
+        m_b.send(count);
+        for (int i = 0; i < count; i++) {
+            m_b.send(tagValues.get(i).m_tag);
+            m_b.send(tagValues.get(i).m_value);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+/**
+ * Optional extension of EWrapper. If the wrapper given to EClientSocket implements this
+ * interface, msgArrival() is called right before the callbacks decoded from each frame,
+ * so the callbacks can tell network delay apart from time spent queued in EReader.
+ */
+public interface ETimestampedWrapper extends EWrapper {
+    /**
+     * @brief Socket arrival time of the frame whose callbacks follow.
+     * @param arrivalNanos System.nanoTime() when the frame arrived; subtract from System.nanoTime() to get the queueing delay.
+     * @param arrivalMillis wall-clock time in ms when the frame arrived, comparable to exchange timestamps.
+     */
+    void msgArrival(long arrivalNanos, long arrivalMillis);
+}
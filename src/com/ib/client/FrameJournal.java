@@ -0,0 +1,157 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Append-only journal of raw frames in memory-mapped segment files.
+ * <p>
+ * Each segment starts with (int MAGIC, int VERSION) followed by records of
+ * (int length, byte direction, long nanoTime, long wall-clock ms, bytes). A zero length
+ * marks the end of a segment; when a record does not fit, the journal rolls over to the
+ * next segment file. Inbound records hold the frame payload as passed to EDecoder,
+ * outbound records the bytes written to the socket. See FrameJournalReader.
+ */
+public class FrameJournal implements Closeable {
+    public static final int MAGIC = 0x49424a4e; // "IBJN"
+    public static final int VERSION = 1;
+    public static final byte IN = 0;
+    public static final byte OUT = 1;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    static final int SEGMENT_HEADER = 4 + 4;
+    static final int RECORD_HEADER = 4 + 1 + 8 + 8;
+    static final String SUFFIX = ".journal";
+
+    private final File m_dir;
+    private final int m_segmentSize;
+    private int m_segmentNo;
+    private RandomAccessFile m_file;
+    private MappedByteBuffer m_buf;
+    private final OutputStream m_bufStream = new OutputStream() {
+        @Override public void write(int b) {
+            m_buf.put((byte) b);
+        }
+
+        @Override public void write(byte[] b, int off, int len) {
+            m_buf.put(b, off, len);
+        }
+    };
+
+    public FrameJournal(File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Segment numbering continues after any segments already in dir. */
+    public FrameJournal(File dir, int segmentSize) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create journal directory " + dir);
+        }
+        m_dir = dir;
+        m_segmentSize = segmentSize;
+        File[] existing = segments(dir);
+        m_segmentNo = existing.length == 0 ? 0 : segmentNo(existing[existing.length - 1]) + 1;
+        roll(0);
+    }
+
+    public synchronized void append(byte direction, EMessage msg) throws IOException {
+        int len = msg.size();
+
+        if (len == 0) {
+            return; // a zero length marks the end of a segment
+        }
+        reserve(len);
+        if (msg.arrivalNanos() != 0) {
+            putHeader(direction, len, msg.arrivalNanos(), msg.arrivalMillis());
+        } else {
+            putHeader(direction, len, System.nanoTime(), System.currentTimeMillis());
+        }
+        msg.writeTo(m_bufStream);
+    }
+
+    public synchronized void append(byte direction, byte[] buf, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        reserve(len);
+        putHeader(direction, len, System.nanoTime(), System.currentTimeMillis());
+        m_buf.put(buf, off, len);
+    }
+
+    /** Flushes the current segment to disk; records already written are visible to readers without this. */
+    public synchronized void force() {
+        if (m_buf != null) {
+            m_buf.force();
+        }
+    }
+
+    @Override public synchronized void close() throws IOException {
+        if (m_file != null) {
+            m_buf.force();
+            m_file.close();
+            m_file = null;
+            m_buf = null;
+        }
+    }
+
+    private void reserve(int len) throws IOException {
+        if (m_buf == null) {
+            throw new IOException("journal is closed");
+        }
+        if (m_buf.remaining() < RECORD_HEADER + len + 4) { // leave room for the zero end marker
+            roll(len);
+        }
+    }
+
+    private void putHeader(byte direction, int len, long nanos, long millis) {
+        m_buf.putInt(len);
+        m_buf.put(direction);
+        m_buf.putLong(nanos);
+        m_buf.putLong(millis);
+    }
+
+    private void roll(int recordLen) throws IOException {
+        close();
+
+        int size = Math.max(m_segmentSize, SEGMENT_HEADER + RECORD_HEADER + recordLen + 4);
+        File file = new File(m_dir, segmentName(m_segmentNo++));
+
+        m_file = new RandomAccessFile(file, "rw");
+        m_file.setLength(size);
+        m_buf = m_file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        m_buf.putInt(MAGIC);
+        m_buf.putInt(VERSION);
+    }
+
+    static String segmentName(int segmentNo) {
+        return String.format("frames-%06d%s", segmentNo, SUFFIX);
+    }
+
+    private static int segmentNo(File file) {
+        String name = file.getName();
+        return Integer.parseInt(name.substring("frames-".length(), name.length() - SUFFIX.length()));
+    }
+
+    /** @return the segment files in dir in journal order. */
+    static File[] segments(File dir) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override public boolean accept(File d, String name) {
+                return name.startsWith("frames-") && name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+}
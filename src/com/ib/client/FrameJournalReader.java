@@ -0,0 +1,115 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Cursor over the records of a FrameJournal.
+ * <p>
+ * open() maps all segments read-only once; duplicate() gives further independent cursors
+ * over the same mappings, so many threads can read one journal without copying it.
+ * A single cursor is not thread-safe.
+ */
+public class FrameJournalReader {
+    private final ByteBuffer[] m_segments;
+    private ByteBuffer m_cur;
+    private int m_segment;
+    private byte m_direction;
+    private long m_nanos;
+    private long m_millis;
+    private int m_length;
+    private int m_payloadPos;
+
+    public static FrameJournalReader open(File dir) throws IOException {
+        File[] files = FrameJournal.segments(dir);
+        if (files.length == 0) {
+            throw new IOException("no journal segments in " + dir);
+        }
+
+        ByteBuffer[] segments = new ByteBuffer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            try (RandomAccessFile file = new RandomAccessFile(files[i], "r")) {
+                segments[i] = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            }
+            if (segments[i].getInt(0) != FrameJournal.MAGIC) {
+                throw new IOException(files[i] + " is not a journal segment");
+            }
+            if (segments[i].getInt(4) != FrameJournal.VERSION) {
+                throw new IOException(files[i] + " has unsupported version " + segments[i].getInt(4));
+            }
+        }
+        return new FrameJournalReader(segments);
+    }
+
+    private FrameJournalReader(ByteBuffer[] segments) {
+        m_segments = segments;
+        rewind();
+    }
+
+    /** @return a new cursor, positioned at the start, sharing this reader's mappings. */
+    public FrameJournalReader duplicate() {
+        return new FrameJournalReader(m_segments);
+    }
+
+    public void rewind() {
+        m_segment = 0;
+        m_cur = m_segments[0].duplicate();
+        m_cur.position(FrameJournal.SEGMENT_HEADER);
+        m_length = 0;
+    }
+
+    /** Advances to the next record. @return false at the end of the journal. */
+    public boolean next() {
+        while (true) {
+            if (m_length > 0) {
+                m_cur.position(m_payloadPos + m_length); // skip the payload of the current record
+            }
+            if (m_cur.remaining() >= FrameJournal.RECORD_HEADER) {
+                int len = m_cur.getInt();
+                if (len > 0) {
+                    m_direction = m_cur.get();
+                    m_nanos = m_cur.getLong();
+                    m_millis = m_cur.getLong();
+                    m_length = len;
+                    m_payloadPos = m_cur.position();
+                    return true;
+                }
+            }
+            if (++m_segment == m_segments.length) {
+                m_segment--;
+                m_length = 0;
+                m_cur.position(m_cur.limit());
+                return false;
+            }
+            m_cur = m_segments[m_segment].duplicate();
+            m_cur.position(FrameJournal.SEGMENT_HEADER);
+            m_length = 0;
+        }
+    }
+
+    public byte direction() { return m_direction; }
+    public long nanos()     { return m_nanos; }
+    public long millis()    { return m_millis; }
+    public int length()     { return m_length; }
+
+    /** Copies the payload of the current record into dst, which must hold length() bytes. */
+    public void read(byte[] dst) {
+        m_cur.position(m_payloadPos);
+        m_cur.get(dst, 0, m_length);
+    }
+
+    /** @return the payload of the current record as a message, stamped with its recorded wall-clock time. */
+    public EMessage message(byte[] scratch) throws IOException {
+        byte[] buf = scratch.length >= m_length ? scratch : new byte[m_length];
+        read(buf);
+        EMessage msg = new EMessage(buf, m_length);
+        msg.arrivalTime(System.nanoTime(), m_millis);
+        return msg;
+    }
+}
@@ -0,0 +1,77 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds the inbound frames of a FrameJournal through EDecoder into an EWrapper, the same
+ * way EReader.processMsgs() does for a live connection.
+ * <p>
+ * The journal is expected to start at connect, so the first inbound frame is the server
+ * version handshake; use the serverVersion constructor argument otherwise. Replayed messages
+ * carry the recorded wall-clock time as arrivalMillis() and the replay time as arrivalNanos().
+ */
+public class FrameJournalReplayer {
+    /** Pass as speed to replay without pauses. */
+    public static final double MAX_SPEED = 0;
+
+    private final FrameJournalReader m_reader;
+    private final int m_serverVersion;
+
+    public FrameJournalReplayer(FrameJournalReader reader) {
+        this(reader, 0);
+    }
+
+    /** @param serverVersion version to decode with if the journal does not start with the handshake, otherwise 0 */
+    public FrameJournalReplayer(FrameJournalReader reader, int serverVersion) {
+        m_reader = reader;
+        m_serverVersion = serverVersion;
+    }
+
+    /** Replays as fast as possible. @return number of frames replayed */
+    public long replay(EWrapper wrapper) throws IOException {
+        return replay(wrapper, MAX_SPEED);
+    }
+
+    /**
+     * @param speed 1 for the recorded pace, 2 for twice as fast, etc.; MAX_SPEED for no pauses
+     * @return number of frames replayed
+     */
+    public long replay(EWrapper wrapper, double speed) throws IOException {
+        EDecoder decoder = new EDecoder(m_serverVersion, wrapper);
+        byte[] scratch = new byte[8192];
+        long frames = 0;
+        long firstNanos = 0;
+        long startNanos = System.nanoTime();
+
+        m_reader.rewind();
+
+        while (m_reader.next()) {
+            if (m_reader.direction() != FrameJournal.IN) {
+                continue;
+            }
+
+            if (speed > 0) {
+                if (frames == 0) {
+                    firstNanos = m_reader.nanos();
+                }
+                long due = startNanos + (long) ((m_reader.nanos() - firstNanos) / speed);
+                for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+
+            if (m_reader.length() > scratch.length) {
+                scratch = new byte[m_reader.length()];
+            }
+            if (decoder.processMsg(m_reader.message(scratch)) == 0 && decoder.lastMsgId() == EDecoder.END_CONN) {
+                break;
+            }
+            frames++;
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,363 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.util.Set;
+
+/** Wraps every callback of the delegate in a JFR dispatch event; installed by EDecoder when JfrEvents.ENABLED. */
+final class JfrEWrapper implements ETimestampedWrapper {
+    private final EWrapper m_delegate;
+
+    JfrEWrapper(EWrapper delegate) {
+        m_delegate = delegate;
+    }
+
+    @Override public void msgArrival(long arrivalNanos, long arrivalMillis) {
+        if (m_delegate instanceof ETimestampedWrapper) {
+            ((ETimestampedWrapper) m_delegate).msgArrival(arrivalNanos, arrivalMillis);
+        }
+    }
+
+    @Override public void tickPrice(int tickerId, int field, double price, int canAutoExecute) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.tickPrice(tickerId, field, price, canAutoExecute);
+        JfrEvents.commitDispatch(event, "tickPrice", tickerId);
+    }
+
+    @Override public void tickSize(int tickerId, int field, int size) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.tickSize(tickerId, field, size);
+        JfrEvents.commitDispatch(event, "tickSize", tickerId);
+    }
+
+    @Override public void tickOptionComputation(int tickerId, int field, double impliedVol, double delta, double optPrice, double pvDividend, double gamma, double vega, double theta, double undPrice) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.tickOptionComputation(tickerId, field, impliedVol, delta, optPrice, pvDividend, gamma, vega, theta, undPrice);
+        JfrEvents.commitDispatch(event, "tickOptionComputation", tickerId);
+    }
+
+    @Override public void tickGeneric(int tickerId, int tickType, double value) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.tickGeneric(tickerId, tickType, value);
+        JfrEvents.commitDispatch(event, "tickGeneric", tickerId);
+    }
+
+    @Override public void tickString(int tickerId, int tickType, String value) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.tickString(tickerId, tickType, value);
+        JfrEvents.commitDispatch(event, "tickString", tickerId);
+    }
+
+    @Override public void tickEFP(int tickerId, int tickType, double basisPoints, String formattedBasisPoints, double impliedFuture, int holdDays, String futureLastTradeDate, double dividendImpact, double dividendsToLastTradeDate) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.tickEFP(tickerId, tickType, basisPoints, formattedBasisPoints, impliedFuture, holdDays, futureLastTradeDate, dividendImpact, dividendsToLastTradeDate);
+        JfrEvents.commitDispatch(event, "tickEFP", tickerId);
+    }
+
+    @Override public void orderStatus(int orderId, String status, double filled, double remaining, double avgFillPrice, int permId, int parentId, double lastFillPrice, int clientId, String whyHeld) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.orderStatus(orderId, status, filled, remaining, avgFillPrice, permId, parentId, lastFillPrice, clientId, whyHeld);
+        JfrEvents.commitDispatch(event, "orderStatus", orderId);
+    }
+
+    @Override public void openOrder(int orderId, Contract contract, Order order, OrderState orderState) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.openOrder(orderId, contract, order, orderState);
+        JfrEvents.commitDispatch(event, "openOrder", orderId);
+    }
+
+    @Override public void openOrderEnd() {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.openOrderEnd();
+        JfrEvents.commitDispatch(event, "openOrderEnd", -1);
+    }
+
+    @Override public void updateAccountValue(String key, String value, String currency, String accountName) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.updateAccountValue(key, value, currency, accountName);
+        JfrEvents.commitDispatch(event, "updateAccountValue", -1);
+    }
+
+    @Override public void updatePortfolio(Contract contract, double position, double marketPrice, double marketValue, double averageCost, double unrealizedPNL, double realizedPNL, String accountName) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.updatePortfolio(contract, position, marketPrice, marketValue, averageCost, unrealizedPNL, realizedPNL, accountName);
+        JfrEvents.commitDispatch(event, "updatePortfolio", -1);
+    }
+
+    @Override public void updateAccountTime(String timeStamp) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.updateAccountTime(timeStamp);
+        JfrEvents.commitDispatch(event, "updateAccountTime", -1);
+    }
+
+    @Override public void accountDownloadEnd(String accountName) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.accountDownloadEnd(accountName);
+        JfrEvents.commitDispatch(event, "accountDownloadEnd", -1);
+    }
+
+    @Override public void nextValidId(int orderId) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.nextValidId(orderId);
+        JfrEvents.commitDispatch(event, "nextValidId", orderId);
+    }
+
+    @Override public void contractDetails(int reqId, ContractDetails contractDetails) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.contractDetails(reqId, contractDetails);
+        JfrEvents.commitDispatch(event, "contractDetails", reqId);
+    }
+
+    @Override public void bondContractDetails(int reqId, ContractDetails contractDetails) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.bondContractDetails(reqId, contractDetails);
+        JfrEvents.commitDispatch(event, "bondContractDetails", reqId);
+    }
+
+    @Override public void contractDetailsEnd(int reqId) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.contractDetailsEnd(reqId);
+        JfrEvents.commitDispatch(event, "contractDetailsEnd", reqId);
+    }
+
+    @Override public void execDetails(int reqId, Contract contract, Execution execution) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.execDetails(reqId, contract, execution);
+        JfrEvents.commitDispatch(event, "execDetails", reqId);
+    }
+
+    @Override public void execDetailsEnd(int reqId) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.execDetailsEnd(reqId);
+        JfrEvents.commitDispatch(event, "execDetailsEnd", reqId);
+    }
+
+    @Override public void updateMktDepth(int tickerId, int position, int operation, int side, double price, int size) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.updateMktDepth(tickerId, position, operation, side, price, size);
+        JfrEvents.commitDispatch(event, "updateMktDepth", tickerId);
+    }
+
+    @Override public void updateMktDepthL2(int tickerId, int position, String marketMaker, int operation, int side, double price, int size) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.updateMktDepthL2(tickerId, position, marketMaker, operation, side, price, size);
+        JfrEvents.commitDispatch(event, "updateMktDepthL2", tickerId);
+    }
+
+    @Override public void updateNewsBulletin(int msgId, int msgType, String message, String origExchange) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.updateNewsBulletin(msgId, msgType, message, origExchange);
+        JfrEvents.commitDispatch(event, "updateNewsBulletin", msgId);
+    }
+
+    @Override public void managedAccounts(String accountsList) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.managedAccounts(accountsList);
+        JfrEvents.commitDispatch(event, "managedAccounts", -1);
+    }
+
+    @Override public void receiveFA(int faDataType, String xml) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.receiveFA(faDataType, xml);
+        JfrEvents.commitDispatch(event, "receiveFA", faDataType);
+    }
+
+    @Override public void historicalData(int reqId, String date, double open, double high, double low, double close, int volume, int count, double WAP, boolean hasGaps) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.historicalData(reqId, date, open, high, low, close, volume, count, WAP, hasGaps);
+        JfrEvents.commitDispatch(event, "historicalData", reqId);
+    }
+
+    @Override public void scannerParameters(String xml) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.scannerParameters(xml);
+        JfrEvents.commitDispatch(event, "scannerParameters", -1);
+    }
+
+    @Override public void scannerData(int reqId, int rank, ContractDetails contractDetails, String distance, String benchmark, String projection, String legsStr) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.scannerData(reqId, rank, contractDetails, distance, benchmark, projection, legsStr);
+        JfrEvents.commitDispatch(event, "scannerData", reqId);
+    }
+
+    @Override public void scannerDataEnd(int reqId) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.scannerDataEnd(reqId);
+        JfrEvents.commitDispatch(event, "scannerDataEnd", reqId);
+    }
+
+    @Override public void realtimeBar(int reqId, long time, double open, double high, double low, double close, long volume, double wap, int count) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.realtimeBar(reqId, time, open, high, low, close, volume, wap, count);
+        JfrEvents.commitDispatch(event, "realtimeBar", reqId);
+    }
+
+    @Override public void currentTime(long time) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.currentTime(time);
+        JfrEvents.commitDispatch(event, "currentTime", -1);
+    }
+
+    @Override public void fundamentalData(int reqId, String data) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.fundamentalData(reqId, data);
+        JfrEvents.commitDispatch(event, "fundamentalData", reqId);
+    }
+
+    @Override public void deltaNeutralValidation(int reqId, DeltaNeutralContract underComp) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.deltaNeutralValidation(reqId, underComp);
+        JfrEvents.commitDispatch(event, "deltaNeutralValidation", reqId);
+    }
+
+    @Override public void tickSnapshotEnd(int reqId) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.tickSnapshotEnd(reqId);
+        JfrEvents.commitDispatch(event, "tickSnapshotEnd", reqId);
+    }
+
+    @Override public void marketDataType(int reqId, int marketDataType) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.marketDataType(reqId, marketDataType);
+        JfrEvents.commitDispatch(event, "marketDataType", reqId);
+    }
+
+    @Override public void commissionReport(CommissionReport commissionReport) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.commissionReport(commissionReport);
+        JfrEvents.commitDispatch(event, "commissionReport", -1);
+    }
+
+    @Override public void position(String account, Contract contract, double pos, double avgCost) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.position(account, contract, pos, avgCost);
+        JfrEvents.commitDispatch(event, "position", -1);
+    }
+
+    @Override public void positionEnd() {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.positionEnd();
+        JfrEvents.commitDispatch(event, "positionEnd", -1);
+    }
+
+    @Override public void accountSummary(int reqId, String account, String tag, String value, String currency) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.accountSummary(reqId, account, tag, value, currency);
+        JfrEvents.commitDispatch(event, "accountSummary", reqId);
+    }
+
+    @Override public void accountSummaryEnd(int reqId) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.accountSummaryEnd(reqId);
+        JfrEvents.commitDispatch(event, "accountSummaryEnd", reqId);
+    }
+
+    @Override public void verifyMessageAPI(String apiData) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.verifyMessageAPI(apiData);
+        JfrEvents.commitDispatch(event, "verifyMessageAPI", -1);
+    }
+
+    @Override public void verifyCompleted(boolean isSuccessful, String errorText) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.verifyCompleted(isSuccessful, errorText);
+        JfrEvents.commitDispatch(event, "verifyCompleted", -1);
+    }
+
+    @Override public void verifyAndAuthMessageAPI(String apiData, String xyzChallange) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.verifyAndAuthMessageAPI(apiData, xyzChallange);
+        JfrEvents.commitDispatch(event, "verifyAndAuthMessageAPI", -1);
+    }
+
+    @Override public void verifyAndAuthCompleted(boolean isSuccessful, String errorText) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.verifyAndAuthCompleted(isSuccessful, errorText);
+        JfrEvents.commitDispatch(event, "verifyAndAuthCompleted", -1);
+    }
+
+    @Override public void displayGroupList(int reqId, String groups) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.displayGroupList(reqId, groups);
+        JfrEvents.commitDispatch(event, "displayGroupList", reqId);
+    }
+
+    @Override public void displayGroupUpdated(int reqId, String contractInfo) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.displayGroupUpdated(reqId, contractInfo);
+        JfrEvents.commitDispatch(event, "displayGroupUpdated", reqId);
+    }
+
+    @Override public void error(Exception e) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.error(e);
+        JfrEvents.commitDispatch(event, "error", -1);
+    }
+
+    @Override public void error(String str) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.error(str);
+        JfrEvents.commitDispatch(event, "error", -1);
+    }
+
+    @Override public void error(int id, int errorCode, String errorMsg) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.error(id, errorCode, errorMsg);
+        JfrEvents.commitDispatch(event, "error", id);
+    }
+
+    @Override public void connectionClosed() {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.connectionClosed();
+        JfrEvents.commitDispatch(event, "connectionClosed", -1);
+    }
+
+    @Override public void connectAck() {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.connectAck();
+        JfrEvents.commitDispatch(event, "connectAck", -1);
+    }
+
+    @Override public void positionMulti(int reqId, String account, String modelCode, Contract contract, double pos, double avgCost) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.positionMulti(reqId, account, modelCode, contract, pos, avgCost);
+        JfrEvents.commitDispatch(event, "positionMulti", reqId);
+    }
+
+    @Override public void positionMultiEnd(int reqId) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.positionMultiEnd(reqId);
+        JfrEvents.commitDispatch(event, "positionMultiEnd", reqId);
+    }
+
+    @Override public void accountUpdateMulti(int reqId, String account, String modelCode, String key, String value, String currency) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.accountUpdateMulti(reqId, account, modelCode, key, value, currency);
+        JfrEvents.commitDispatch(event, "accountUpdateMulti", reqId);
+    }
+
+    @Override public void accountUpdateMultiEnd(int reqId) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.accountUpdateMultiEnd(reqId);
+        JfrEvents.commitDispatch(event, "accountUpdateMultiEnd", reqId);
+    }
+
+    @Override public void securityDefinitionOptionalParameter(int reqId, String exchange, int underlyingConId, String tradingClass, String multiplier, Set<String> expirations, Set<Double> strikes) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.securityDefinitionOptionalParameter(reqId, exchange, underlyingConId, tradingClass, multiplier, expirations, strikes);
+        JfrEvents.commitDispatch(event, "securityDefinitionOptionalParameter", reqId);
+    }
+
+    @Override public void securityDefinitionOptionalParameterEnd(int reqId) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.securityDefinitionOptionalParameterEnd(reqId);
+        JfrEvents.commitDispatch(event, "securityDefinitionOptionalParameterEnd", reqId);
+    }
+
+    @Override public void softDollarTiers(int reqId, SoftDollarTier[] tiers) {
+        Object event = JfrEvents.beginDispatch();
+        m_delegate.softDollarTiers(reqId, tiers);
+        JfrEvents.commitDispatch(event, "softDollarTiers", reqId);
+    }
+}
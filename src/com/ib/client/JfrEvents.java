@@ -0,0 +1,67 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+/**
+ * Java Flight Recorder events for the decode, dispatch and send paths.
+ * <p>
+ * Off by default: start the JVM with -Dcom.ib.client.jfr=true to emit them (JDK 8u262 or later).
+ * When off, ENABLED is a constant false and the JIT removes the instrumentation entirely.
+ * Waits for the EClient monitor are already covered by the built-in jdk.JavaMonitorEnter event.
+ * <p>
+ * The event classes import jdk.jfr, which is not part of the Java 8 platform API, so they live in
+ * the IBTest-jfr module (jfr/) as JfrRecorder and are loaded by name; without that module on the
+ * class path, or on a JVM without JFR, the events stay off. Events are passed around as Object.
+ */
+final class JfrEvents {
+    private static final Recorder RECORDER = Boolean.getBoolean("com.ib.client.jfr") ? load() : null;
+    static final boolean ENABLED = RECORDER != null;
+
+    private JfrEvents() {
+    }
+
+    private static Recorder load() {
+        try {
+            return (Recorder) Class.forName("com.ib.client.JfrRecorder").newInstance();
+        } catch (ReflectiveOperationException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;	// no jdk.jfr
+        }
+    }
+
+    /** Creates and commits the events; implemented by JfrRecorder. */
+    abstract static class Recorder {
+        abstract Object beginDecode();
+        abstract void commitDecode(Object handle, int msgId, int size);
+        abstract Object beginDispatch();
+        abstract void commitDispatch(Object handle, String callback, int reqId);
+        abstract Object beginSend();
+        abstract void commitSend(Object handle, int msgId, int size);
+    }
+
+    static Object beginDecode() {
+        return RECORDER.beginDecode();
+    }
+
+    static void commitDecode(Object handle, int msgId, int size) {
+        RECORDER.commitDecode(handle, msgId, size);
+    }
+
+    static Object beginDispatch() {
+        return RECORDER.beginDispatch();
+    }
+
+    static void commitDispatch(Object handle, String callback, int reqId) {
+        RECORDER.commitDispatch(handle, callback, reqId);
+    }
+
+    static Object beginSend() {
+        return RECORDER.beginSend();
+    }
+
+    static void commitSend(Object handle, int msgId, int size) {
+        RECORDER.commitSend(handle, msgId, size);
+    }
+}
@@ -0,0 +1,204 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+package com.ib.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * A corpus of inbound frames to decode before connecting, so that EDecoder and the EWrapper
+ * callbacks are compiled by the JIT before the first real messages arrive instead of running
+ * interpreted when the market opens. Use bundled() or a FrameJournal recording, then either call
+ * run() yourself or hand the corpus to EClientSocket.setJitWarmup() to have eConnect() run it.
+ * <p>
+ * Only market data, order, execution and historical data messages are in a corpus; connection,
+ * account and error messages are left out. Callbacks reach the wrapper just as they would from
+ * TWS: a wrapper that changes state or calls out from its callbacks should return early while
+ * isRunning() is true. The bundled corpus uses id -1 throughout so that it matches no request;
+ * TWS uses -1 for executions and orders that were not requested, though, so order, execution and
+ * commission callbacks must ignore a warm-up, as ApiController's do.
+ * Requests made through an EClient from the warm-up thread are dropped without the not
+ * connected error.
+ */
+public class JitWarmup {
+    public static final int DEFAULT_ROUNDS = 1000;
+
+    private static final int VARIANTS = 16; // frames per message type in the bundled corpus
+    private static final int ID = -1;
+    private static final ThreadLocal<Boolean> s_running = new ThreadLocal<Boolean>();
+
+    private final int m_serverVersion;
+    private final byte[][] m_frames;
+
+    private JitWarmup(int serverVersion, byte[][] frames) {
+        m_serverVersion = serverVersion;
+        m_frames = frames;
+    }
+
+    /** @return true on a thread that is running a warm-up */
+    public static boolean isRunning() {
+        return s_running.get() != null;
+    }
+
+    public int serverVersion() {
+        return m_serverVersion;
+    }
+
+    public int size() {
+        return m_frames.length;
+    }
+
+    /** @return a corpus of synthetic messages of the hot types at the highest supported server version */
+    public static JitWarmup bundled() {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            EServerEncoder encoder = new EServerEncoder(out, EClient.MAX_VERSION);
+            Contract contract = new Contract();
+            contract.conid(ID);
+            contract.symbol("WARMUP");
+            contract.secType(Types.SecType.STK);
+            contract.exchange("SMART");
+            contract.currency("USD");
+
+            for (int i = 0; i < VARIANTS; i++) {
+                double price = 100 + i * 0.25;
+                int size = 100 * (i + 1);
+                encoder.tickPrice(ID, i % 2 == 0 ? TickType.BID.index() : TickType.LAST.index(), price, size, 1);
+                encoder.tickSize(ID, TickType.VOLUME.index(), size);
+                encoder.tickOptionComputation(ID, TickType.MODEL_OPTION.index(), 0.2, 0.5, price / 20, 0, 0.01, 0.1, -0.02, price);
+                encoder.updateMktDepth(ID, i % 5, i == 0 ? 0 : 1, i % 2, price, size);
+                encoder.updateMktDepthL2(ID, i % 5, "MM", i == 0 ? 0 : 1, i % 2, price, size);
+                encoder.realtimeBar(ID, 1792400000L + i * 5, price, price + 0.1, price - 0.1, price, size, price, 10);
+
+                Order order = new Order();
+                order.orderId(ID);
+                order.action(Types.Action.BUY);
+                order.totalQuantity(size);
+                order.orderType(OrderType.LMT);
+                order.lmtPrice(price);
+                OrderState orderState = new OrderState();
+                orderState.status(OrderStatus.Submitted);
+                encoder.openOrder(contract, order, orderState);
+                encoder.orderStatus(ID, i % 4 == 3 ? "Filled" : "Submitted", i % 4 == 3 ? size : 0, i % 4 == 3 ? 0 : size, price, ID, 0, price, 0, "");
+
+                Execution execution = new Execution();
+                execution.orderId(ID);
+                execution.execId("warmup." + i);
+                execution.side("BOT");
+                execution.shares(size);
+                execution.price(price);
+                encoder.execDetails(ID, contract, execution);
+
+                encoder.historicalData(ID, "20261019  09:30:00", "20261019  09:40:00", 10);
+                for (int bar = 0; bar < 10; bar++) {
+                    encoder.historicalDataBar(String.valueOf(1792400000L + bar * 60), price, price + 0.5, price - 0.5, price, size, price, false, 10);
+                }
+            }
+            encoder.flush();
+
+            ArrayList<byte[]> frames = new ArrayList<byte[]>();
+            ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+            while (buf.hasRemaining()) {
+                byte[] frame = new byte[buf.getInt()];
+                buf.get(frame);
+                frames.add(frame);
+            }
+            return new JitWarmup(EClient.MAX_VERSION, frames.toArray(new byte[frames.size()][]));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // writes to memory only
+        }
+    }
+
+    /**
+     * @param maxFrames at most this many frames are kept, the first ones of the recording
+     * @return the hot type frames received in a recorded session
+     */
+    public static JitWarmup fromJournal(File journalDir, int maxFrames) throws IOException {
+        FrameJournalReader reader = FrameJournalReader.open(journalDir);
+        ArrayList<byte[]> frames = new ArrayList<byte[]>();
+        int serverVersion = 0;
+        byte[] buf = new byte[8192];
+
+        while (frames.size() < maxFrames && reader.next()) {
+            if (reader.direction() != FrameJournal.IN) {
+                continue;
+            }
+            int len = reader.length();
+            if (len > buf.length) {
+                buf = new byte[len];
+            }
+            reader.read(buf);
+
+            int msgId = leadingInt(buf, len);
+            if (serverVersion == 0) {
+                serverVersion = msgId; // the handshake reply starts with the server version
+            } else if (isHot(msgId)) {
+                byte[] frame = new byte[len];
+                System.arraycopy(buf, 0, frame, 0, len);
+                frames.add(frame);
+            }
+        }
+        if (serverVersion <= 0) {
+            throw new IOException("journal " + journalDir + " holds no connection handshake");
+        }
+        return new JitWarmup(serverVersion, frames.toArray(new byte[frames.size()][]));
+    }
+
+    private static boolean isHot(int msgId) {
+        switch (msgId) {
+            case EDecoder.TICK_PRICE:
+            case EDecoder.TICK_SIZE:
+            case EDecoder.TICK_OPTION_COMPUTATION:
+            case EDecoder.TICK_GENERIC:
+            case EDecoder.TICK_STRING:
+            case EDecoder.TICK_SNAPSHOT_END:
+            case EDecoder.MARKET_DEPTH:
+            case EDecoder.MARKET_DEPTH_L2:
+            case EDecoder.REAL_TIME_BARS:
+            case EDecoder.HISTORICAL_DATA:
+            case EDecoder.ORDER_STATUS:
+            case EDecoder.OPEN_ORDER:
+            case EDecoder.EXECUTION_DATA:
+            case EDecoder.COMMISSION_REPORT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int leadingInt(byte[] buf, int len) {
+        int val = 0;
+        for (int i = 0; i < len && buf[i] != 0; i++) {
+            if (buf[i] < '0' || buf[i] > '9') {
+                return -1;
+            }
+            val = val * 10 + buf[i] - '0';
+        }
+        return val;
+    }
+
+    /**
+     * Decodes the corpus rounds times into wrapper on the calling thread.
+     * @return the number of messages decoded
+     */
+    public long run(EWrapper wrapper, int rounds) throws IOException {
+        EDecoder decoder = new EDecoder(m_serverVersion, wrapper);
+        long count = 0;
+
+        s_running.set(Boolean.TRUE);
+        try {
+            for (int round = 0; round < rounds; round++) {
+                for (byte[] frame : m_frames) {
+                    decoder.processMsg(new EMessage(frame, frame.length));
+                    count++;
+                }
+            }
+        } finally {
+            s_running.remove();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,133 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear (HDR style) histogram of nanosecond latencies.
+ * <p>
+ * Values are kept with 32 linear sub-buckets per power of two, i.e. about 3% relative
+ * precision, from 1 ns up to MAX_VALUE (about 68 s); larger values are clamped.
+ * Recording never allocates and never locks. Any thread may read a snapshot at any time;
+ * snapshotAndReset() moves the counts into the snapshot, so no sample is lost or counted
+ * twice between two intervals.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    public static final long MAX_VALUE = (1L << 36) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray m_counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong m_max = new AtomicLong();
+
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /** @return the highest value that falls into bucket ndx. */
+    static long highestEquivalentValue(int ndx) {
+        if (ndx < 2 * SUB_BUCKETS) {
+            return ndx;
+        }
+        int shift = ndx / SUB_BUCKETS - 1;
+        long mantissa = ndx - shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        else if (nanos > MAX_VALUE) {
+            nanos = MAX_VALUE;
+        }
+        m_counts.incrementAndGet(index(nanos));
+
+        long max = m_max.get();
+        while (nanos > max && !m_max.compareAndSet(max, nanos)) {
+            max = m_max.get();
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = m_counts.get(i);
+        }
+        return new Snapshot(counts, m_max.get());
+    }
+
+    /** Returns the counts recorded since the previous reset and starts a new interval. */
+    public Snapshot snapshotAndReset() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = m_counts.getAndSet(i, 0);
+        }
+        return new Snapshot(counts, m_max.getAndSet(0));
+    }
+
+    /** Immutable copy of a histogram's counts. All values are in nanoseconds. */
+    public static class Snapshot {
+        private final long[] m_counts;
+        private final long m_max;
+        private final long m_count;
+
+        Snapshot(long[] counts, long max) {
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            m_counts = counts;
+            m_max = max;
+            m_count = count;
+        }
+
+        public long count() { return m_count; }
+        public long max()   { return m_max; }
+
+        /** @param percentile 0 to 100, e.g. 99.9 */
+        public long percentile(double percentile) {
+            if (m_count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100.0 * m_count);
+            if (rank < 1) {
+                rank = 1;
+            }
+            long seen = 0;
+            for (int i = 0; i < m_counts.length; i++) {
+                seen += m_counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestEquivalentValue(i), m_max);
+                }
+            }
+            return m_max;
+        }
+
+        public double mean() {
+            if (m_count == 0) {
+                return 0;
+            }
+            double total = 0;
+            for (int i = 0; i < m_counts.length; i++) {
+                if (m_counts[i] != 0) {
+                    total += (double) m_counts[i] * Math.min(highestEquivalentValue(i), m_max);
+                }
+            }
+            return total / m_count;
+        }
+
+        @Override public String toString() {
+            return String.format("count=%d p50=%d p99=%d p99.9=%d max=%d",
+                    m_count, percentile(50), percentile(99), percentile(99.9), m_max);
+        }
+    }
+}
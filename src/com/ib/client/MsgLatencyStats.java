@@ -0,0 +1,80 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.client;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per message type latency histograms for the inbound path, fed by EReader.processMsgs().
+ * <p>
+ * EDecoder reads the fields of a message and invokes its callback(s) in one pass, so decode
+ * time and callback time are measured together as the DISPATCH stage.
+ */
+public class MsgLatencyStats {
+    public enum Stage {
+        QUEUE,      // frame arrival on the socket until dequeued by processMsgs()
+        DISPATCH,   // dequeue until EDecoder returns, i.e. decode plus callbacks
+        END_TO_END  // frame arrival until the callbacks returned
+    }
+
+    static final int MAX_MSG_ID = 127;
+
+    private final AtomicReferenceArray<LatencyHistogram> m_histograms =
+            new AtomicReferenceArray<LatencyHistogram>(Stage.values().length * (MAX_MSG_ID + 1));
+
+    void record(int msgId, long arrivalNanos, long dequeueNanos, long returnNanos) {
+        if (msgId < 0 || msgId > MAX_MSG_ID) {
+            return;
+        }
+        histogram(Stage.QUEUE, msgId).record(dequeueNanos - arrivalNanos);
+        histogram(Stage.DISPATCH, msgId).record(returnNanos - dequeueNanos);
+        histogram(Stage.END_TO_END, msgId).record(returnNanos - arrivalNanos);
+    }
+
+    private LatencyHistogram histogram(Stage stage, int msgId) {
+        int ndx = stage.ordinal() * (MAX_MSG_ID + 1) + msgId;
+        LatencyHistogram histogram = m_histograms.get(ndx);
+        if (histogram == null) {
+            m_histograms.compareAndSet(ndx, null, new LatencyHistogram());
+            histogram = m_histograms.get(ndx);
+        }
+        return histogram;
+    }
+
+    /** @return the histogram for the given stage and incoming message id, or null if no such message was seen. */
+    public LatencyHistogram get(Stage stage, int msgId) {
+        return msgId < 0 || msgId > MAX_MSG_ID ? null : m_histograms.get(stage.ordinal() * (MAX_MSG_ID + 1) + msgId);
+    }
+
+    /** Clears all histograms; use between measurement intervals. */
+    public void reset() {
+        for (int i = 0; i < m_histograms.length(); i++) {
+            LatencyHistogram histogram = m_histograms.get(i);
+            if (histogram != null) {
+                histogram.snapshotAndReset();
+            }
+        }
+    }
+
+    /** @return one line per stage and message type seen so far; with reset the interval is restarted. */
+    public String report(boolean reset) {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            for (int msgId = 0; msgId <= MAX_MSG_ID; msgId++) {
+                LatencyHistogram histogram = get(stage, msgId);
+                if (histogram != null) {
+                    LatencyHistogram.Snapshot snapshot = reset ? histogram.snapshotAndReset() : histogram.snapshot();
+                    if (snapshot.count() > 0) {
+                        sb.append(String.format("%-10s %-40s %s%n", stage, EDecoder.msgName(msgId), snapshot));
+                    }
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override public String toString() {
+        return report(false);
+    }
+}
@@ -99,13 +99,27 @@ public enum TickType {
         m_field = field;
     }
     
-    public static TickType get(int ndx) {
-        for( TickType tt : values() ) {
-            if( tt.m_ndx == ndx) {
-                return tt;
+    /** Tick types by index, for get(); null where there is no tick type. */
+    private static final TickType[] BY_INDEX;
+
+    static {
+        int max = 0;
+        for (TickType tt : values()) {
+            if (tt != UNKNOWN) {
+                max = Math.max(max, tt.m_ndx);
+            }
+        }
+        BY_INDEX = new TickType[max + 1];
+        for (TickType tt : values()) {
+            if (tt != UNKNOWN) {
+                BY_INDEX[tt.m_ndx] = tt;
             }
         }
-        return UNKNOWN;
+    }
+
+    public static TickType get(int ndx) {
+        TickType tt = ndx >= 0 && ndx < BY_INDEX.length ? BY_INDEX[ndx] : null;
+        return tt != null ? tt : UNKNOWN;
     }
 
     public static String getField(int tickType) {
@@ -239,16 +239,20 @@ public class Types {
 	public static enum DeepType {
 	    INSERT, UPDATE, DELETE;
 
+	    private static final DeepType[] VALUES = values();
+
 	    public static DeepType get( int ordinal) {
-	    	return getEnum( ordinal, values() );
+	    	return getEnum( ordinal, VALUES);
 	    }
 	}
 
 	public static enum DeepSide {
 	    SELL, BUY;
 
+	    private static final DeepSide[] VALUES = values();
+
 	    public static DeepSide get( int ordinal) {
-	    	return getEnum( ordinal, values() );
+	    	return getEnum( ordinal, VALUES);
 	    }
 	}
 
@@ -295,8 +299,10 @@ public class Types {
 	public enum MktDataType {
 		Unknown, Realtime, Frozen, Delayed, DelayedFrozen;
 
+		private static final MktDataType[] VALUES = values();
+
 		public static MktDataType get( int ordinal) {
-			return getEnum( ordinal, values() );
+			return getEnum( ordinal, VALUES);
 		}
 	}
 
@@ -327,10 +333,9 @@ public class Types {
 			return null;
 		}
 
-		for (T val : values) {
-			if (val.ordinal() == ordinal) {
-				return val;
-			}
+		// values() lists the constants in ordinal order
+		if (ordinal >= 0 && ordinal < values.length) {
+			return values[ordinal];
 		}
 		String str = String.format( "Error: %s is not a valid value for enum %s", ordinal, values[0].getClass().getName() );
 		throw new IllegalArgumentException( str);
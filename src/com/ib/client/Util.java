@@ -4,9 +4,11 @@
 package com.ib.client;
 
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import com.ib.controller.ApiController;
-import com.ib.controller.ApiController.IContractDetailsHandler;
+import com.ib.controller.ApiException;
 
 public class Util {
 	public static boolean StringIsEmpty(String str) {
@@ -70,37 +72,24 @@ public class Util {
     
     
     
+	/**
+	 * Waits for the details of the contracts matching contract; the list is empty if none does or the
+	 * request failed, and a failure other than TWS finding no match is shown by the controller.
+	 */
 	public static ArrayList<ContractDetails> lookupContract(ApiController controller, Contract contract) {
-		final ArrayList<ContractDetails> rval = new ArrayList<ContractDetails>();
-		final boolean[] isReady = new boolean[1];
-		final Object sync = new Object();
+		ArrayList<ContractDetails> rval = new ArrayList<ContractDetails>();
 		
 		if (controller == null)
 			return rval;
 		
-		isReady[0] = false;
-				
-		controller.reqContractDetails(contract, new IContractDetailsHandler() {
-
-			@Override
-			public void contractDetails(ArrayList<ContractDetails> list) {
-				rval.addAll(list);
-				
-				synchronized (sync) {
-					isReady[0] = true;
-					sync.notify();
-				}
-			}
-		});
-		
-		synchronized (sync) {
-			try {
-				while (!isReady[0]) {
-					sync.wait();
-				}
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		try {
+			rval.addAll(controller.reqContractDetails(contract, 0, TimeUnit.SECONDS).get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (!(cause instanceof ApiException) || ((ApiException)cause).code() != 200) {	// 200 is "no security definition found"
+				controller.show( "Contract lookup failed: " + cause.getMessage() );
 			}
 		}
 		
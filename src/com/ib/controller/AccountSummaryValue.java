@@ -0,0 +1,28 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+/** One value of an account summary. */
+public class AccountSummaryValue {
+	private final String m_account;
+	private final AccountSummaryTag m_tag;
+	private final String m_value;
+	private final String m_currency;
+
+	public String account() 		{ return m_account; }
+	public AccountSummaryTag tag() 	{ return m_tag; }
+	public String value() 			{ return m_value; }
+	public String currency() 		{ return m_currency; }
+
+	public AccountSummaryValue( String account, AccountSummaryTag tag, String value, String currency) {
+		m_account = account;
+		m_tag = tag;
+		m_value = value;
+		m_currency = currency;
+	}
+
+	@Override public String toString() {
+		return m_account + " " + m_tag + " " + m_value + " " + m_currency;
+	}
+}
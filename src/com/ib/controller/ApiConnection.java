@@ -6,6 +6,7 @@ package com.ib.controller;
 
 import java.io.IOException;
 
+import com.ib.client.Builder;
 import com.ib.client.Contract;
 import com.ib.client.EClientErrors;
 import com.ib.client.EClientSocket;
@@ -27,6 +28,8 @@ public class ApiConnection extends EClientSocket {
 	private final ILogger m_inLogger;
 	private final ILogger m_outLogger;
 	private static final EJavaSignal m_signal = new EJavaSignal();
+	private volatile AsyncWireLogger m_wireLogger;
+	private final byte[] m_intBuf = new byte[4];
 
 	public ApiConnection(EWrapper wrapper, ILogger inLogger, ILogger outLogger) {
 		super( wrapper, m_signal);
@@ -34,11 +37,31 @@ public class ApiConnection extends EClientSocket {
 		m_outLogger = outLogger;
 	}
 
+	/** Logs raw traffic to wireLogger instead of the in/out ILoggers; pass null to go back to the ILoggers. */
+	public void setWireLogger(AsyncWireLogger wireLogger) {
+		m_wireLogger = wireLogger;
+	}
+
+	public AsyncWireLogger wireLogger() {
+		return m_wireLogger;
+	}
+
+	/** @return false if the connection calls its wrapper itself rather than through an EReader, as a backtest does */
+	public boolean usesReader() {
+		return true;
+	}
+
 	@Override
 	protected void sendMsg(EMessage msg) throws IOException {
 		// TODO Auto-generated method stub
 		super.sendMsg(msg);
 		
+		AsyncWireLogger wireLogger = m_wireLogger;
+		if (wireLogger != null) {
+			wireLogger.logOut( msg);
+			return;
+		}
+
 		byte[] buf = msg.getRawData();
 		
 		m_outLogger.log(new String(buf, 0, buf.length));
@@ -48,6 +71,13 @@ public class ApiConnection extends EClientSocket {
 	public int readInt() throws IOException {
 		int c = super.readInt();
 		
+		AsyncWireLogger wireLogger = m_wireLogger;
+		if (wireLogger != null) {
+			Builder.intToBytes( c, m_intBuf, 0);
+			wireLogger.logIn( m_intBuf, 0, m_intBuf.length);
+			return c;
+		}
+
 		m_inLogger.log( String.valueOf( (char)c) );
 		
 		return c;
@@ -57,6 +87,12 @@ public class ApiConnection extends EClientSocket {
 	public int read(byte[] buf, int off, int len) throws IOException {
 		int n = super.read(buf, off, len);
 		
+		AsyncWireLogger wireLogger = m_wireLogger;
+		if (wireLogger != null) {
+			wireLogger.logIn( buf, off, n);
+			return n;
+		}
+
 		m_inLogger.log(new String(buf, 0, n));
 		
 		return n;
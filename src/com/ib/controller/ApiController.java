@@ -7,10 +7,23 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
-import java.util.Map.Entry;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import com.ib.client.CommissionReport;
 import com.ib.client.Contract;
@@ -20,9 +33,11 @@ import com.ib.client.EClientErrors;
 import com.ib.client.EJavaSignal;
 import com.ib.client.EReader;
 import com.ib.client.EReaderSignal;
-import com.ib.client.EWrapper;
+import com.ib.client.ETimestampedWrapper;
 import com.ib.client.Execution;
 import com.ib.client.ExecutionFilter;
+import com.ib.client.JitWarmup;
+import com.ib.client.MsgLatencyStats;
 import com.ib.client.Order;
 import com.ib.client.OrderState;
 import com.ib.client.OrderStatus;
@@ -42,11 +57,11 @@ import com.ib.client.Types.NewsType;
 import com.ib.client.Types.WhatToShow;
 import com.ib.controller.ApiConnection.ILogger;
 
-public class ApiController implements EWrapper {
+public class ApiController implements ETimestampedWrapper {
 	private ApiConnection m_client;
 	private final ILogger m_outLogger;
 	private final ILogger m_inLogger;
-	private int m_reqId;	// used for all requests except orders; designed not to conflict with m_orderId
+	private final AtomicInteger m_reqId = new AtomicInteger();	// used for all requests except orders; designed not to conflict with m_orderId; atomic, as requests come from any thread
 	private int m_orderId;
 
 	private final IConnectionHandler m_connectionHandler;
@@ -55,29 +70,160 @@ public class ApiController implements EWrapper {
 	private IScannerHandler m_scannerHandler;
 	private ITimeHandler m_timeHandler;
 	private IBulletinHandler m_bulletinHandler;
-	private final HashMap<Integer,IInternalHandler> m_contractDetailsMap = new HashMap<Integer,IInternalHandler>();
-	private final HashMap<Integer,IOptHandler> m_optionCompMap = new HashMap<Integer,IOptHandler>();
-	private final HashMap<Integer,IEfpHandler> m_efpMap = new HashMap<Integer,IEfpHandler>();
-	private final HashMap<Integer,ITopMktDataHandler> m_topMktDataMap = new HashMap<Integer,ITopMktDataHandler>();
-	private final HashMap<Integer,IDeepMktDataHandler> m_deepMktDataMap = new HashMap<Integer,IDeepMktDataHandler>();
-	private final HashMap<Integer, IScannerHandler> m_scannerMap = new HashMap<Integer, IScannerHandler>();
-	private final HashMap<Integer, IRealTimeBarHandler> m_realTimeBarMap = new HashMap<Integer, IRealTimeBarHandler>();
-	private final HashMap<Integer, IHistoricalDataHandler> m_historicalDataMap = new HashMap<Integer, IHistoricalDataHandler>();
-	private final HashMap<Integer, IFundamentalsHandler> m_fundMap = new HashMap<Integer, IFundamentalsHandler>();
-	private final HashMap<Integer, IOrderHandler> m_orderHandlers = new HashMap<Integer, IOrderHandler>();
-	private final HashMap<Integer,IAccountSummaryHandler> m_acctSummaryHandlers = new HashMap<Integer,IAccountSummaryHandler>();
-	private final HashMap<Integer,IMarketValueSummaryHandler> m_mktValSummaryHandlers = new HashMap<Integer,IMarketValueSummaryHandler>();
+	private final ConcurrentIntMap<IInternalHandler> m_contractDetailsMap = new ConcurrentIntMap<IInternalHandler>();
+	private final ConcurrentIntMap<IOptHandler> m_optionCompMap = new ConcurrentIntMap<IOptHandler>();
+	private final ConcurrentIntMap<IEfpHandler> m_efpMap = new ConcurrentIntMap<IEfpHandler>();
+	private final ConcurrentIntMap<ITopMktDataHandler> m_topMktDataMap = new ConcurrentIntMap<ITopMktDataHandler>();
+	private final ConcurrentIntMap<boolean[]> m_tickFilters = new ConcurrentIntMap<boolean[]>();	// by reqId, for requests with tick types
+	private final ConcurrentIntMap<IDeepMktDataHandler> m_deepMktDataMap = new ConcurrentIntMap<IDeepMktDataHandler>();
+	private final ConcurrentIntMap<IScannerHandler> m_scannerMap = new ConcurrentIntMap<IScannerHandler>();
+	private final ConcurrentIntMap<IRealTimeBarHandler> m_realTimeBarMap = new ConcurrentIntMap<IRealTimeBarHandler>();
+	private final ConcurrentIntMap<IHistoricalDataHandler> m_historicalDataMap = new ConcurrentIntMap<IHistoricalDataHandler>();
+	private final ConcurrentIntMap<IFundamentalsHandler> m_fundMap = new ConcurrentIntMap<IFundamentalsHandler>();
+	private final ConcurrentIntMap<IOrderHandler> m_orderHandlers = new ConcurrentIntMap<IOrderHandler>();
+	private final ConcurrentIntMap<IAccountSummaryHandler> m_acctSummaryHandlers = new ConcurrentIntMap<IAccountSummaryHandler>();
+	private final ConcurrentIntMap<IMarketValueSummaryHandler> m_mktValSummaryHandlers = new ConcurrentIntMap<IMarketValueSummaryHandler>();
 	private final ConcurrentHashSet<IPositionHandler> m_positionHandlers = new ConcurrentHashSet<IPositionHandler>();
 	private final ConcurrentHashSet<IAccountHandler> m_accountHandlers = new ConcurrentHashSet<IAccountHandler>();
 	private final ConcurrentHashSet<ILiveOrderHandler> m_liveOrderHandlers = new ConcurrentHashSet<ILiveOrderHandler>();
-	private final HashMap<Integer, IPositionMultiHandler> m_positionMultiMap = new HashMap<Integer, IPositionMultiHandler>();
-	private final HashMap<Integer, IAccountUpdateMultiHandler> m_accountUpdateMultiMap = new HashMap<Integer, IAccountUpdateMultiHandler>();
-	private final HashMap<Integer, ISecDefOptParamsReqHandler> m_secDefOptParamsReqMap = new HashMap<Integer, ISecDefOptParamsReqHandler>();
-	private final HashMap<Integer, ISoftDollarTiersReqHandler> m_softDollarTiersReqMap = new HashMap<>();
+	private final ConcurrentIntMap<IPositionMultiHandler> m_positionMultiMap = new ConcurrentIntMap<IPositionMultiHandler>();
+	private final ConcurrentIntMap<IAccountUpdateMultiHandler> m_accountUpdateMultiMap = new ConcurrentIntMap<IAccountUpdateMultiHandler>();
+	private final ConcurrentIntMap<ISecDefOptParamsReqHandler> m_secDefOptParamsReqMap = new ConcurrentIntMap<ISecDefOptParamsReqHandler>();
+	private final ConcurrentIntMap<ISoftDollarTiersReqHandler> m_softDollarTiersReqMap = new ConcurrentIntMap<ISoftDollarTiersReqHandler>();
+	private final Map<Object,Executor> m_handlerExecutors = Collections.synchronizedMap( new WeakHashMap<Object,Executor>() );
+	private final ConcurrentIntMap<Object> m_dispatchers = new ConcurrentIntMap<Object>();	// by reqId, for requests whose handler has an executor
+	private final ConcurrentIntMap<ITradeReportHandler> m_tradeReportMap = new ConcurrentIntMap<ITradeReportHandler>();	// by reqId, for futures
+	private final ConcurrentIntMap<CompletableFuture<?>> m_futures = new ConcurrentIntMap<CompletableFuture<?>>();	// by reqId, failed by error()
+	private final ConcurrentLinkedQueue<CompletableFuture<Long>> m_timeFutures = new ConcurrentLinkedQueue<CompletableFuture<Long>>();
+	private final ConcurrentIntMap<FlowSubscription<?>> m_flowsByReqId = new ConcurrentIntMap<FlowSubscription<?>>();	// failed by error()
+	private final ConcurrentHashSet<FlowSubscription<?>> m_flows = new ConcurrentHashSet<FlowSubscription<?>>();	// failed when the connection closes
+	private final ConcurrentHashSet<ITradeReportHandler> m_liveTradeReportHandlers = new ConcurrentHashSet<ITradeReportHandler>();	// executions as they happen
 	private boolean m_connected = false;
+	private long m_arrivalNanos;
+	private long m_arrivalMillis;
+	private MsgLatencyStats m_latencyStats;
 
 	public ApiConnection client() { return m_client; }
 
+	/** System.nanoTime() at which the frame being dispatched arrived on the socket; valid inside handler callbacks. */
+	public long arrivalNanos() { return m_arrivalNanos; }
+
+	/** Wall-clock time in ms at which the frame being dispatched arrived on the socket; valid inside handler callbacks. */
+	public long arrivalMillis() { return m_arrivalMillis; }
+
+	/** Per message type latency histograms, or null if not enabled. */
+	public MsgLatencyStats latencyStats() { return m_latencyStats; }
+
+	/** Enables latency histograms for the next connection; call before connect(). Pass null to disable. */
+	public void setLatencyStats(MsgLatencyStats stats) { m_latencyStats = stats; }
+
+	/**
+	 * Calls handler on executor instead of the thread that reads the messages, for the requests
+	 * made with it from now on, so that a slow handler does not hold up the others. Pass null to
+	 * call it inline again, which is the default; requests made before keep their executor, so
+	 * a handler can have one per request. A StripedExecutor runs the callbacks of each request in
+	 * order; other executors must keep the order themselves, e.g. by having one thread.
+	 * <p>
+	 * Applies to the handlers of market data, market depth, option computations, real time bars,
+	 * historical data, scanner subscriptions, fundamentals and account summaries. The callbacks
+	 * of a request may still run after it was cancelled, and arrivalNanos() is not valid in them.
+	 * The controller holds handlers weakly here, comparing them with equals(), so a handler that
+	 * is no longer used does not need to be removed.
+	 */
+	public void setExecutor(Object handler, Executor executor) {
+		if (executor != null) {
+			m_handlerExecutors.put( handler, executor);
+		}
+		else {
+			m_handlerExecutors.remove( handler);
+		}
+	}
+
+	/** @return the executor set for handler, or null */
+	private Executor executor(Object handler) {
+		return m_handlerExecutors.isEmpty() ? null : m_handlerExecutors.get( handler);
+	}
+
+	/**
+	 * @return the dispatcher of reqId if its handler has an executor, otherwise handler; the
+	 * dispatcher implements the handler's interface, see the bind...() methods
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T dispatcher(int reqId, T handler) {
+		Object dispatcher = m_dispatchers.get( reqId);
+		return dispatcher == null ? handler : (T)dispatcher;
+	}
+
+	private void bindTopMktData(int reqId, ITopMktDataHandler handler) {
+		Executor executor = executor( handler);
+		if (executor != null) {
+			m_dispatchers.put( reqId, new Dispatchers.TopMktData( executor, reqId, handler) );
+		}
+	}
+
+	private void bindEfp(int reqId, IEfpHandler handler) {
+		Executor executor = executor( handler);
+		if (executor != null) {
+			m_dispatchers.put( reqId, new Dispatchers.Efp( executor, reqId, handler) );
+		}
+	}
+
+	private void bindOpt(int reqId, IOptHandler handler) {
+		Executor executor = executor( handler);
+		if (executor != null) {
+			m_dispatchers.put( reqId, new Dispatchers.Opt( executor, reqId, handler) );
+		}
+	}
+
+	private void bindDeepMktData(int reqId, IDeepMktDataHandler handler) {
+		Executor executor = executor( handler);
+		if (executor != null) {
+			m_dispatchers.put( reqId, new Dispatchers.DeepMktData( executor, reqId, handler) );
+		}
+	}
+
+	private void bindScanner(int reqId, IScannerHandler handler) {
+		Executor executor = executor( handler);
+		if (executor != null) {
+			m_dispatchers.put( reqId, new Dispatchers.Scanner( executor, reqId, handler) );
+		}
+	}
+
+	private void bindFundamentals(int reqId, IFundamentalsHandler handler) {
+		Executor executor = executor( handler);
+		if (executor != null) {
+			m_dispatchers.put( reqId, new Dispatchers.Fundamentals( executor, reqId, handler) );
+		}
+	}
+
+	private void bindHistoricalData(int reqId, IHistoricalDataHandler handler) {
+		Executor executor = executor( handler);
+		if (executor != null) {
+			m_dispatchers.put( reqId, new Dispatchers.HistoricalData( executor, reqId, handler) );
+		}
+	}
+
+	private void bindRealTimeBars(int reqId, IRealTimeBarHandler handler) {
+		Executor executor = executor( handler);
+		if (executor != null) {
+			m_dispatchers.put( reqId, new Dispatchers.RealTimeBars( executor, reqId, handler) );
+		}
+	}
+
+	private void bindAccountSummary(int reqId, IAccountSummaryHandler handler) {
+		Executor executor = executor( handler);
+		if (executor != null) {
+			m_dispatchers.put( reqId, new Dispatchers.AccountSummary( executor, reqId, handler) );
+		}
+	}
+
+	private void bindMarketValueSummary(int reqId, IMarketValueSummaryHandler handler) {
+		Executor executor = executor( handler);
+		if (executor != null) {
+			m_dispatchers.put( reqId, new Dispatchers.MarketValueSummary( executor, reqId, handler) );
+		}
+	}
+
 	// ---------------------------------------- Constructor and Connection handling ----------------------------------------
 	public interface IConnectionHandler {
 		void connected();
@@ -88,9 +234,19 @@ public class ApiController implements EWrapper {
 		void show(String string);
 	}
 
+	/** Creates the connection of a controller, for connections that do not talk to TWS over a socket. */
+	public interface IConnectionFactory {
+		ApiConnection create(ApiController controller, ILogger inLogger, ILogger outLogger);
+	}
+
 	public ApiController( IConnectionHandler handler, ILogger inLogger, ILogger outLogger) {
+		this( handler, inLogger, outLogger, null);
+	}
+
+	/** @param factory creates the connection instead of a socket connection, e.g. com.ib.backtest's; may be null */
+	public ApiController( IConnectionHandler handler, ILogger inLogger, ILogger outLogger, IConnectionFactory factory) {
 		m_connectionHandler = handler;
-		m_client = new ApiConnection( this, inLogger, outLogger);
+		m_client = factory != null ? factory.create( this, inLogger, outLogger) : new ApiConnection( this, inLogger, outLogger);
 		m_inLogger = inLogger;
 		m_outLogger = outLogger;
 	}
@@ -99,6 +255,7 @@ public class ApiController implements EWrapper {
 		final EReaderSignal signal = new EJavaSignal();		
 		final EReader reader = new EReader(client(), signal);
 		
+		reader.setLatencyStats(m_latencyStats);
 		reader.start();
 		
 		new Thread() {
@@ -118,7 +275,9 @@ public class ApiController implements EWrapper {
 
 	public void connect( String host, int port, int clientId, String connectionOpts ) {
 		m_client.eConnect(host, port, clientId);
-		startMsgProcessingThread();
+		if (m_client.usesReader() ) {
+			startMsgProcessingThread();
+		}
         sendEOM();
     }
 
@@ -143,7 +302,7 @@ public class ApiController implements EWrapper {
 
 	@Override public void nextValidId(int orderId) {
 		m_orderId = orderId;
-		m_reqId = m_orderId + 10000000; // let order id's not collide with other request id's
+		m_reqId.set( m_orderId + 10000000); // let order id's not collide with other request id's
 		m_connected  = true;
 		if (m_connectionHandler != null) {
 			m_connectionHandler.connected();
@@ -156,6 +315,16 @@ public class ApiController implements EWrapper {
 	}
 
 	@Override public void error(int id, int errorCode, String errorMsg) {
+		// before the handlers below, which would complete a contract details future with what it has
+		CompletableFuture<?> future = m_futures.get( id);
+		if (future != null && !isWarning( errorCode) ) {
+			future.completeExceptionally( new ApiException( id, errorCode, errorMsg) );
+		}
+		FlowSubscription<?> flow = m_flowsByReqId.get( id);
+		if (flow != null && !isWarning( errorCode) ) {
+			flow.error( new ApiException( id, errorCode, errorMsg) );
+		}
+
 		IOrderHandler handler = m_orderHandlers.get( id);
 		if (handler != null) {
 			handler.handle( errorCode, errorMsg);
@@ -177,9 +346,17 @@ public class ApiController implements EWrapper {
 		recEOM();
 	}
 
+	@Override public void msgArrival(long arrivalNanos, long arrivalMillis) {
+		m_arrivalNanos = arrivalNanos;
+		m_arrivalMillis = arrivalMillis;
+	}
+
 	@Override public void connectionClosed() {
 		m_connectionHandler.disconnected();
 		m_connected = false;
+		for (FlowSubscription<?> flow : m_flows) {
+			flow.error( new ApiException( EClientErrors.NO_VALID_ID, EClientErrors.NOT_CONNECTED.code(), EClientErrors.NOT_CONNECTED.msg() ) );
+		}
 	}
 
 
@@ -251,6 +428,10 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 		
+		internalReqAccountSummary( m_reqId.getAndIncrement(), group, tags, handler);
+	}
+
+	private void internalReqAccountSummary(int reqId, String group, AccountSummaryTag[] tags, IAccountSummaryHandler handler) {
 		StringBuilder sb = new StringBuilder();
 		for (AccountSummaryTag tag : tags) {
 			if (sb.length() > 0) {
@@ -259,7 +440,7 @@ public class ApiController implements EWrapper {
 			sb.append( tag);
 		}
 
-		int reqId = m_reqId++;
+		bindAccountSummary( reqId, handler);
 		m_acctSummaryHandlers.put( reqId, handler);
 		m_client.reqAccountSummary( reqId, group, sb.toString() );
 		sendEOM();
@@ -275,6 +456,7 @@ public class ApiController implements EWrapper {
 		
 		Integer reqId = getAndRemoveKey( m_acctSummaryHandlers, handler);
 		if (reqId != null) {
+			m_dispatchers.remove( reqId);
 			m_client.cancelAccountSummary( reqId);
 			sendEOM();
 		}
@@ -284,7 +466,8 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		int reqId = m_reqId++;
+		int reqId = m_reqId.getAndIncrement();
+		bindMarketValueSummary( reqId, handler);
 		m_mktValSummaryHandlers.put( reqId, handler);
 		m_client.reqAccountSummary( reqId, group, "$LEDGER");
 		sendEOM();
@@ -296,6 +479,7 @@ public class ApiController implements EWrapper {
 
 		Integer reqId = getAndRemoveKey( m_mktValSummaryHandlers, handler);
 		if (reqId != null) {
+			m_dispatchers.remove( reqId);
 			m_client.cancelAccountSummary( reqId);
 			sendEOM();
 		}
@@ -308,12 +492,12 @@ public class ApiController implements EWrapper {
 
 		IAccountSummaryHandler handler = m_acctSummaryHandlers.get( reqId);
 		if (handler != null) {
-			handler.accountSummary(account, AccountSummaryTag.valueOf( tag), value, currency);
+			dispatcher( reqId, handler).accountSummary(account, AccountSummaryTag.valueOf( tag), value, currency);
 		}
 
 		IMarketValueSummaryHandler handler2 = m_mktValSummaryHandlers.get( reqId);
 		if (handler2 != null) {
-			handler2.marketValueSummary(account, MarketValueTag.valueOf( tag), value, currency);
+			dispatcher( reqId, handler2).marketValueSummary(account, MarketValueTag.valueOf( tag), value, currency);
 		}
 
 		recEOM();
@@ -322,12 +506,12 @@ public class ApiController implements EWrapper {
 	@Override public void accountSummaryEnd( int reqId) {
 		IAccountSummaryHandler handler = m_acctSummaryHandlers.get( reqId);
 		if (handler != null) {
-			handler.accountSummaryEnd();
+			dispatcher( reqId, handler).accountSummaryEnd();
 		}
 
 		IMarketValueSummaryHandler handler2 = m_mktValSummaryHandlers.get( reqId);
 		if (handler2 != null) {
-			handler2.marketValueSummaryEnd();
+			dispatcher( reqId, handler2).marketValueSummaryEnd();
 		}
 
 		recEOM();
@@ -398,7 +582,7 @@ public class ApiController implements EWrapper {
 	}
 
 	private void internalReqContractDetails( Contract contract, final IInternalHandler processor) {
-		int reqId = m_reqId++;
+		int reqId = m_reqId.getAndIncrement();
 		m_contractDetailsMap.put( reqId, processor);
 		m_orderHandlers.put(reqId, new IOrderHandler() { public void handle(int errorCode, String errorMsg) { processor.contractDetailsEnd();}
 
@@ -487,17 +671,58 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-    	int reqId = m_reqId++;
+    	int reqId = m_reqId.getAndIncrement();
+    	bindTopMktData( reqId, handler);
+    	m_topMktDataMap.put( reqId, handler);
+    	m_client.reqMktData( reqId, contract, genericTickList, snapshot, Collections.<TagValue>emptyList() );
+		sendEOM();
+    }
+
+    /** Like reqTopMktData() but the handler gets only the ticks of tickTypes; tickSnapshotEnd() and marketDataType() are always passed. */
+    public void reqTopMktData(Contract contract, String genericTickList, boolean snapshot, Set<TickType> tickTypes, ITopMktDataHandler handler) {
+		if (!checkConnection())
+			return;
+
+    	internalReqTopMktData( m_reqId.getAndIncrement(), contract, genericTickList, snapshot, tickTypes, handler);
+    }
+
+    private void internalReqTopMktData(int reqId, Contract contract, String genericTickList, boolean snapshot, Set<TickType> tickTypes, ITopMktDataHandler handler) {
+    	m_tickFilters.put( reqId, tickFilter( tickTypes) );
+    	bindTopMktData( reqId, handler);
     	m_topMktDataMap.put( reqId, handler);
     	m_client.reqMktData( reqId, contract, genericTickList, snapshot, Collections.<TagValue>emptyList() );
 		sendEOM();
     }
 
+    /** @return the tick types as flags by tick index */
+    private static boolean[] tickFilter(Set<TickType> tickTypes) {
+    	int max = -1;
+    	for (TickType tickType : tickTypes) {
+    		if (tickType != TickType.UNKNOWN) {
+    			max = Math.max( max, tickType.index() );
+    		}
+    	}
+    	boolean[] filter = new boolean[max + 1];
+    	for (TickType tickType : tickTypes) {
+    		if (tickType != TickType.UNKNOWN) {
+    			filter[tickType.index()] = true;
+    		}
+    	}
+    	return filter;
+    }
+
+    /** @return false if the request was made with tick types that do not include tickType */
+    private boolean wantsTick(int reqId, int tickType) {
+    	boolean[] filter = m_tickFilters.get( reqId);
+    	return filter == null || tickType >= 0 && tickType < filter.length && filter[tickType];
+    }
+
     public void reqOptionMktData(Contract contract, String genericTickList, boolean snapshot, IOptHandler handler) {
 		if (!checkConnection())
 			return;
 
-    	int reqId = m_reqId++;
+    	int reqId = m_reqId.getAndIncrement();
+    	bindOpt( reqId, handler);
     	m_topMktDataMap.put( reqId, handler);
     	m_optionCompMap.put( reqId, handler);
     	m_client.reqMktData( reqId, contract, genericTickList, snapshot, Collections.<TagValue>emptyList() );
@@ -508,7 +733,8 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-    	int reqId = m_reqId++;
+    	int reqId = m_reqId.getAndIncrement();
+    	bindEfp( reqId, handler);
     	m_topMktDataMap.put( reqId, handler);
     	m_efpMap.put( reqId, handler);
     	m_client.reqMktData( reqId, contract, genericTickList, snapshot, Collections.<TagValue>emptyList() );
@@ -521,6 +747,8 @@ public class ApiController implements EWrapper {
 
 		Integer reqId = getAndRemoveKey( m_topMktDataMap, handler);
     	if (reqId != null) {
+    		m_tickFilters.remove( reqId);
+    		m_dispatchers.remove( reqId);
     		m_client.cancelMktData( reqId);
     	}
     	else {
@@ -549,32 +777,32 @@ public class ApiController implements EWrapper {
 
 	@Override public void tickPrice(int reqId, int tickType, double price, int canAutoExecute) {
 		ITopMktDataHandler handler = m_topMktDataMap.get( reqId);
-		if (handler != null) {
-			handler.tickPrice( TickType.get( tickType), price, canAutoExecute);
+		if (handler != null && wantsTick( reqId, tickType) ) {
+			dispatcher( reqId, handler).tickPrice( TickType.get( tickType), price, canAutoExecute);
 		}
 		recEOM();
 	}
 
 	@Override public void tickGeneric(int reqId, int tickType, double value) {
 		ITopMktDataHandler handler = m_topMktDataMap.get( reqId);
-		if (handler != null) {
-			handler.tickPrice( TickType.get( tickType), value, 0);
+		if (handler != null && wantsTick( reqId, tickType) ) {
+			dispatcher( reqId, handler).tickPrice( TickType.get( tickType), value, 0);
 		}
 		recEOM();
 	}
 
 	@Override public void tickSize(int reqId, int tickType, int size) {
 		ITopMktDataHandler handler = m_topMktDataMap.get( reqId);
-		if (handler != null) {
-			handler.tickSize( TickType.get( tickType), size);
+		if (handler != null && wantsTick( reqId, tickType) ) {
+			dispatcher( reqId, handler).tickSize( TickType.get( tickType), size);
 		}
 		recEOM();
 	}
 
 	@Override public void tickString(int reqId, int tickType, String value) {
 		ITopMktDataHandler handler = m_topMktDataMap.get( reqId);
-		if (handler != null) {
-			handler.tickString( TickType.get( tickType), value);
+		if (handler != null && wantsTick( reqId, tickType) ) {
+			dispatcher( reqId, handler).tickString( TickType.get( tickType), value);
 		}
 		recEOM();
 	}
@@ -582,7 +810,7 @@ public class ApiController implements EWrapper {
 	@Override public void tickEFP(int reqId, int tickType, double basisPoints, String formattedBasisPoints, double impliedFuture, int holdDays, String futureLastTradeDate, double dividendImpact, double dividendsToLastTradeDate) {
 		IEfpHandler handler = m_efpMap.get( reqId);
 		if (handler != null) {
-			handler.tickEFP( tickType, basisPoints, formattedBasisPoints, impliedFuture, holdDays, futureLastTradeDate, dividendImpact, dividendsToLastTradeDate);
+			dispatcher( reqId, handler).tickEFP( tickType, basisPoints, formattedBasisPoints, impliedFuture, holdDays, futureLastTradeDate, dividendImpact, dividendsToLastTradeDate);
 		}
 		recEOM();
 	}
@@ -590,7 +818,7 @@ public class ApiController implements EWrapper {
 	@Override public void tickSnapshotEnd(int reqId) {
 		ITopMktDataHandler handler = m_topMktDataMap.get( reqId);
 		if (handler != null) {
-			handler.tickSnapshotEnd();
+			dispatcher( reqId, handler).tickSnapshotEnd();
 		}
 		recEOM();
 	}
@@ -598,7 +826,7 @@ public class ApiController implements EWrapper {
 	@Override public void marketDataType(int reqId, int marketDataType) {
 		ITopMktDataHandler handler = m_topMktDataMap.get( reqId);
 		if (handler != null) {
-			handler.marketDataType( MktDataType.get( marketDataType) );
+			dispatcher( reqId, handler).marketDataType( MktDataType.get( marketDataType) );
 		}
 		recEOM();
 	}
@@ -613,7 +841,11 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-    	int reqId = m_reqId++;
+    	internalReqDeepMktData( m_reqId.getAndIncrement(), contract, numRows, handler);
+    }
+
+    private void internalReqDeepMktData( int reqId, Contract contract, int numRows, IDeepMktDataHandler handler) {
+    	bindDeepMktData( reqId, handler);
     	m_deepMktDataMap.put( reqId, handler);
     	ArrayList<TagValue> mktDepthOptions = new ArrayList<TagValue>();
     	m_client.reqMktDepth( reqId, contract, numRows, mktDepthOptions);
@@ -626,6 +858,7 @@ public class ApiController implements EWrapper {
 
     	Integer reqId = getAndRemoveKey( m_deepMktDataMap, handler);
     	if (reqId != null) {
+    		m_dispatchers.remove( reqId);
     		m_client.cancelMktDepth( reqId);
     		sendEOM();
     	}
@@ -634,7 +867,7 @@ public class ApiController implements EWrapper {
 	@Override public void updateMktDepth(int reqId, int position, int operation, int side, double price, int size) {
 		IDeepMktDataHandler handler = m_deepMktDataMap.get( reqId);
 		if (handler != null) {
-			handler.updateMktDepth( position, null, DeepType.get( operation), DeepSide.get( side), price, size);
+			dispatcher( reqId, handler).updateMktDepth( position, null, DeepType.get( operation), DeepSide.get( side), price, size);
 		}
 		recEOM();
 	}
@@ -642,7 +875,7 @@ public class ApiController implements EWrapper {
 	@Override public void updateMktDepthL2(int reqId, int position, String marketMaker, int operation, int side, double price, int size) {
 		IDeepMktDataHandler handler = m_deepMktDataMap.get( reqId);
 		if (handler != null) {
-			handler.updateMktDepth( position, marketMaker, DeepType.get( operation), DeepSide.get( side), price, size);
+			dispatcher( reqId, handler).updateMktDepth( position, marketMaker, DeepType.get( operation), DeepSide.get( side), price, size);
 		}
 		recEOM();
 	}
@@ -652,7 +885,8 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		int reqId = m_reqId++;
+		int reqId = m_reqId.getAndIncrement();
+		bindOpt( reqId, handler);
 		m_optionCompMap.put( reqId, handler);
 		m_client.calculateImpliedVolatility( reqId, c, optPrice, underPrice);
 		sendEOM();
@@ -662,7 +896,8 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		int reqId = m_reqId++;
+		int reqId = m_reqId.getAndIncrement();
+		bindOpt( reqId, handler);
 		m_optionCompMap.put( reqId, handler);
 		m_client.calculateOptionPrice(reqId, c, vol, underPrice);
 		sendEOM();
@@ -674,6 +909,7 @@ public class ApiController implements EWrapper {
 
 		Integer reqId = getAndRemoveKey( m_optionCompMap, handler);
 		if (reqId != null) {
+			m_dispatchers.remove( reqId);
 			m_client.cancelCalculateOptionPrice( reqId);
 			sendEOM();
 		}
@@ -682,9 +918,9 @@ public class ApiController implements EWrapper {
 	@Override public void tickOptionComputation(int reqId, int tickType, double impliedVol, double delta, double optPrice, double pvDividend, double gamma, double vega, double theta, double undPrice) {
 		IOptHandler handler = m_optionCompMap.get( reqId);
 		if (handler != null) {
-			handler.tickOptionComputation( TickType.get( tickType), impliedVol, delta, optPrice, pvDividend, gamma, vega, theta, undPrice);
+			dispatcher( reqId, handler).tickOptionComputation( TickType.get( tickType), impliedVol, delta, optPrice, pvDividend, gamma, vega, theta, undPrice);
 		}
-		else {
+		else if (!JitWarmup.isRunning() ) {
 			System.out.println( String.format( "not handled %s %s %s %s %s %s %s %s %s", tickType, impliedVol, delta, optPrice, pvDividend, gamma, vega, theta, undPrice) );
 		}
 		recEOM();
@@ -703,27 +939,55 @@ public class ApiController implements EWrapper {
 			return;
 
     	m_tradeReportHandler = handler;
-    	m_client.reqExecutions( m_reqId++, filter);
+    	m_client.reqExecutions( m_reqId.getAndIncrement(), filter);
 		sendEOM();
     }
 
 	@Override public void execDetails(int reqId, Contract contract, Execution execution) {
-		if (m_tradeReportHandler != null) {
+		if (JitWarmup.isRunning() ) {
+			recEOM();
+			return;	// a fill of the warm-up corpus, not a real one
+		}
+		ITradeReportHandler handler = m_tradeReportMap.get( reqId);
+		boolean live = reqId == -1 && !m_liveTradeReportHandlers.isEmpty();	// an execution as it happens
+		if (m_tradeReportHandler != null || handler != null || live) {
 			int i = execution.execId().lastIndexOf( '.');
 			String tradeKey = execution.execId().substring( 0, i);
-			m_tradeReportHandler.tradeReport( tradeKey, contract, execution);
+			if (m_tradeReportHandler != null) {
+				m_tradeReportHandler.tradeReport( tradeKey, contract, execution);
+			}
+			if (handler != null) {
+				handler.tradeReport( tradeKey, contract, execution);
+			}
+			if (live) {
+				for (ITradeReportHandler liveHandler : m_liveTradeReportHandlers) {
+					liveHandler.tradeReport( tradeKey, contract, execution);
+				}
+			}
 		}
 		recEOM();
 	}
 
 	@Override public void execDetailsEnd(int reqId) {
+		if (JitWarmup.isRunning() ) {
+			recEOM();
+			return;	// see execDetails()
+		}
 		if (m_tradeReportHandler != null) {
 			m_tradeReportHandler.tradeReportEnd();
 		}
+		ITradeReportHandler handler = m_tradeReportMap.get( reqId);
+		if (handler != null) {
+			handler.tradeReportEnd();
+		}
 		recEOM();
 	}
 
 	@Override public void commissionReport(CommissionReport commissionReport) {
+		if (JitWarmup.isRunning() ) {
+			recEOM();
+			return;	// see execDetails()
+		}
 		if (m_tradeReportHandler != null) {
 			int i = commissionReport.m_execId.lastIndexOf( '.');
 			String tradeKey = commissionReport.m_execId.substring( 0, i);
@@ -835,7 +1099,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		m_client.exerciseOptions( m_reqId++, contract, type.ordinal(), quantity, account, override ? 1 : 0);
+		m_client.exerciseOptions( m_reqId.getAndIncrement(), contract, type.ordinal(), quantity, account, override ? 1 : 0);
 		sendEOM();
 	}
 
@@ -886,6 +1150,10 @@ public class ApiController implements EWrapper {
 	}
 
 	@Override public void openOrder(int orderId, Contract contract, Order order, OrderState orderState) {
+		if (JitWarmup.isRunning() ) {
+			recEOM();
+			return;	// an order of the warm-up corpus, not a real one
+		}
 		IOrderHandler handler = m_orderHandlers.get( orderId);
 		if (handler != null) {
 			handler.orderState(orderState);
@@ -900,6 +1168,10 @@ public class ApiController implements EWrapper {
 	}
 
 	@Override public void openOrderEnd() {
+		if (JitWarmup.isRunning() ) {
+			recEOM();
+			return;	// see openOrder()
+		}
 		for (ILiveOrderHandler handler : m_liveOrderHandlers) {
 			handler.openOrderEnd();
 		}
@@ -907,6 +1179,10 @@ public class ApiController implements EWrapper {
 	}
 
 	@Override public void orderStatus(int orderId, String status, double filled, double remaining, double avgFillPrice, int permId, int parentId, double lastFillPrice, int clientId, String whyHeld) {
+		if (JitWarmup.isRunning() ) {
+			recEOM();
+			return;	// see openOrder()
+		}
 		IOrderHandler handler = m_orderHandlers.get( orderId);
 		if (handler != null) {
 			handler.orderStatus( OrderStatus.valueOf( status), filled, remaining, avgFillPrice, permId, parentId, lastFillPrice, clientId, whyHeld);
@@ -939,7 +1215,8 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		int reqId = m_reqId++;
+		int reqId = m_reqId.getAndIncrement();
+		bindScanner( reqId, handler);
 		m_scannerMap.put( reqId, handler);
 		ArrayList<TagValue> scannerSubscriptionOptions = new ArrayList<TagValue>();
 		m_client.reqScannerSubscription( reqId, sub, scannerSubscriptionOptions);
@@ -952,6 +1229,7 @@ public class ApiController implements EWrapper {
 
 		Integer reqId = getAndRemoveKey( m_scannerMap, handler);
 		if (reqId != null) {
+			m_dispatchers.remove( reqId);
 			m_client.cancelScannerSubscription( reqId);
 			sendEOM();
 		}
@@ -965,7 +1243,7 @@ public class ApiController implements EWrapper {
 	@Override public void scannerData(int reqId, int rank, ContractDetails contractDetails, String distance, String benchmark, String projection, String legsStr) {
 		IScannerHandler handler = m_scannerMap.get( reqId);
 		if (handler != null) {
-			handler.scannerData( rank, contractDetails, legsStr);
+			dispatcher( reqId, handler).scannerData( rank, contractDetails, legsStr);
 		}
 		recEOM();
 	}
@@ -973,7 +1251,7 @@ public class ApiController implements EWrapper {
 	@Override public void scannerDataEnd(int reqId) {
 		IScannerHandler handler = m_scannerMap.get( reqId);
 		if (handler != null) {
-			handler.scannerDataEnd();
+			dispatcher( reqId, handler).scannerDataEnd();
 		}
 		recEOM();
 	}
@@ -991,7 +1269,11 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-    	int reqId = m_reqId++;
+    	internalReqHistoricalData( m_reqId.getAndIncrement(), contract, endDateTime, duration, durationUnit, barSize, whatToShow, rthOnly, handler);
+    }
+
+    private void internalReqHistoricalData( int reqId, Contract contract, String endDateTime, int duration, DurationUnit durationUnit, BarSize barSize, WhatToShow whatToShow, boolean rthOnly, IHistoricalDataHandler handler) {
+    	bindHistoricalData( reqId, handler);
     	m_historicalDataMap.put( reqId, handler);
     	String durationStr = duration + " " + durationUnit.toString().charAt( 0);
     	m_client.reqHistoricalData(reqId, contract, endDateTime, durationStr, barSize.toString(), whatToShow.toString(), rthOnly ? 1 : 0, 2, Collections.<TagValue>emptyList() );
@@ -1004,6 +1286,7 @@ public class ApiController implements EWrapper {
 
 		Integer reqId = getAndRemoveKey( m_historicalDataMap, handler);
     	if (reqId != null) {
+    		m_dispatchers.remove( reqId);
     		m_client.cancelHistoricalData( reqId);
     		sendEOM();
     	}
@@ -1013,7 +1296,7 @@ public class ApiController implements EWrapper {
 		IHistoricalDataHandler handler = m_historicalDataMap.get( reqId);
 		if (handler != null) {
 			if (date.startsWith( "finished")) {
-				handler.historicalDataEnd();
+				dispatcher( reqId, handler).historicalDataEnd();
 			}
 			else {
 				long longDate;
@@ -1027,7 +1310,7 @@ public class ApiController implements EWrapper {
 					longDate = Long.parseLong( date);
 				}
 				Bar bar = new Bar( longDate, high, low, open, close, wap, volume, count);
-				handler.historicalData(bar, hasGaps);
+				dispatcher( reqId, handler).historicalData(bar, hasGaps);
 			}
 		}
 		recEOM();
@@ -1043,7 +1326,11 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-    	int reqId = m_reqId++;
+    	internalReqRealTimeBars( m_reqId.getAndIncrement(), contract, whatToShow, rthOnly, handler);
+    }
+
+    private void internalReqRealTimeBars(int reqId, Contract contract, WhatToShow whatToShow, boolean rthOnly, IRealTimeBarHandler handler) {
+    	bindRealTimeBars( reqId, handler);
     	m_realTimeBarMap.put( reqId, handler);
     	ArrayList<TagValue> realTimeBarsOptions = new ArrayList<TagValue>();
     	m_client.reqRealTimeBars(reqId, contract, 0, whatToShow.toString(), rthOnly, realTimeBarsOptions);
@@ -1056,6 +1343,7 @@ public class ApiController implements EWrapper {
 
     	Integer reqId = getAndRemoveKey( m_realTimeBarMap, handler);
     	if (reqId != null) {
+    		m_dispatchers.remove( reqId);
     		m_client.cancelRealTimeBars( reqId);
     		sendEOM();
     	}
@@ -1065,7 +1353,7 @@ public class ApiController implements EWrapper {
     	IRealTimeBarHandler handler = m_realTimeBarMap.get( reqId);
 		if (handler != null) {
 			Bar bar = new Bar( time, high, low, open, close, wap, volume, count);
-			handler.realtimeBar( bar);
+			dispatcher( reqId, handler).realtimeBar( bar);
 		}
 		recEOM();
 	}
@@ -1079,7 +1367,11 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-    	int reqId = m_reqId++;
+    	internalReqFundamentals( m_reqId.getAndIncrement(), contract, reportType, handler);
+    }
+
+    private void internalReqFundamentals( int reqId, Contract contract, FundamentalType reportType, IFundamentalsHandler handler) {
+    	bindFundamentals( reqId, handler);
     	m_fundMap.put( reqId, handler);
     	m_client.reqFundamentalData( reqId, contract, reportType.getApiString());
 		sendEOM();
@@ -1088,7 +1380,7 @@ public class ApiController implements EWrapper {
     @Override public void fundamentalData(int reqId, String data) {
 		IFundamentalsHandler handler = m_fundMap.get( reqId);
 		if (handler != null) {
-			handler.fundamentals( data);
+			dispatcher( reqId, handler).fundamentals( data);
 		}
 		recEOM();
 	}
@@ -1117,7 +1409,12 @@ public class ApiController implements EWrapper {
 	}
 
 	@Override public void currentTime(long time) {
-		m_timeHandler.currentTime(time);
+		if (m_timeHandler != null) {
+			m_timeHandler.currentTime(time);
+		}
+		for (CompletableFuture<Long> future; (future = m_timeFutures.poll() ) != null; ) {
+			future.complete( time);
+		}
 		recEOM();
 	}
 
@@ -1157,7 +1454,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		int reqId = m_reqId++;
+		int reqId = m_reqId.getAndIncrement();
 		m_positionMultiMap.put( reqId, handler);
 		m_client.reqPositionsMulti( reqId, account, modelCode);
 		sendEOM();
@@ -1200,7 +1497,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		int reqId = m_reqId++;
+		int reqId = m_reqId.getAndIncrement();
 		m_accountUpdateMultiMap.put( reqId, handler);
 		m_client.reqAccountUpdatesMulti( reqId, account, modelCode, ledgerAndNLV);
 		sendEOM();
@@ -1240,6 +1537,500 @@ public class ApiController implements EWrapper {
 	@Override public void displayGroupList(int reqId, String groups) {}
 	@Override public void displayGroupUpdated(int reqId, String contractInfo) {}
 
+	// ---------------------------------------- Futures ----------------------------------------
+	// Variants of the request/response methods that return a CompletableFuture instead of calling a handler.
+	// The future fails with an ApiException if TWS reports an error for the request, other than the notices of
+	// isWarning(), or the controller is not connected, and with a TimeoutException if the response is not complete within timeout; pass 0 to wait
+	// without a limit. Failing or cancelling a future cancels its request. The futures complete on the thread
+	// that reads the messages, so compose them with the ...Async methods to run slow stages elsewhere.
+
+	private static final ScheduledExecutorService TIMEOUTS = timeouts();
+
+	private static ScheduledExecutorService timeouts() {
+		ScheduledThreadPoolExecutor timeouts = new ScheduledThreadPoolExecutor( 1, new ThreadFactory() {
+			@Override public Thread newThread(Runnable r) {
+				Thread thread = new Thread( r, "ApiController-timeouts");
+				thread.setDaemon( true);
+				return thread;
+			}
+		});
+		timeouts.setRemoveOnCancelPolicy( true);
+		return timeouts;
+	}
+
+	/**
+	 * @return true for the codes of TWS notices that come with the data instead of ending the request, which
+	 * do not fail it: 2100-2199, such as a data farm connection coming up; 10090, part of the market data is
+	 * not subscribed; 10167, delayed market data is displayed instead; 10197, no market data during a
+	 * competing live session, which resumes when that session ends
+	 */
+	private static boolean isWarning(int errorCode) {
+		switch (errorCode) {
+			case 10090:
+			case 10167:
+			case 10197:
+				return true;
+			default:
+				return errorCode >= 2100 && errorCode < 2200;
+		}
+	}
+
+	private static <T> CompletableFuture<T> notConnected() {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		future.completeExceptionally( new ApiException( EClientErrors.NO_VALID_ID, EClientErrors.NOT_CONNECTED.code(), EClientErrors.NOT_CONNECTED.msg() ) );
+		return future;
+	}
+
+	/**
+	 * Lets error() fail future, fails it after timeout, and runs cleanup once it is done either way;
+	 * cleanup removes the handler of the request and cancels the request if it is still active.
+	 * Called before the request is sent, so that an error that comes back at once finds the future.
+	 */
+	private <T> void track(final CompletableFuture<T> future, final int reqId, final long timeout, final TimeUnit unit, final Runnable cleanup) {
+		m_futures.put( reqId, future);
+		final ScheduledFuture<?> timer = timeout > 0 ? TIMEOUTS.schedule( new Runnable() {
+			@Override public void run() {
+				future.completeExceptionally( new TimeoutException( "no response to request " + reqId + " within " + timeout + " " + unit) );
+			}
+		}, timeout, unit) : null;
+		future.whenComplete( new BiConsumer<T,Throwable>() {
+			@Override public void accept(T result, Throwable t) {
+				m_futures.remove( reqId);
+				if (timer != null) {
+					timer.cancel( false);
+				}
+				cleanup.run();
+			}
+		});
+	}
+
+	/** @return the details of the contracts matching contract; fails with error 200 if none does */
+	public CompletableFuture<List<ContractDetails>> reqContractDetails( Contract contract, long timeout, TimeUnit unit) {
+		if (!isConnected() ) {
+			return notConnected();
+		}
+
+		final CompletableFuture<List<ContractDetails>> future = new CompletableFuture<List<ContractDetails>>();
+		final ArrayList<ContractDetails> list = new ArrayList<ContractDetails>();
+		IInternalHandler handler = new IInternalHandler() {
+			@Override public void contractDetails(ContractDetails data) {
+				list.add( data);
+			}
+			@Override public void contractDetailsEnd() {
+				future.complete( list);
+			}
+		};
+		final int reqId = m_reqId.getAndIncrement();
+		m_contractDetailsMap.put( reqId, handler);
+		track( future, reqId, timeout, unit, new Runnable() {
+			@Override public void run() {
+				m_contractDetailsMap.remove( reqId);
+			}
+		});
+		m_client.reqContractDetails( reqId, contract);
+		sendEOM();
+		return future;
+	}
+
+	/** @return the bars, oldest first */
+	public CompletableFuture<List<Bar>> reqHistoricalData( Contract contract, String endDateTime, int duration, DurationUnit durationUnit, BarSize barSize, WhatToShow whatToShow, boolean rthOnly, long timeout, TimeUnit unit) {
+		if (!isConnected() ) {
+			return notConnected();
+		}
+
+		final CompletableFuture<List<Bar>> future = new CompletableFuture<List<Bar>>();
+		final ArrayList<Bar> list = new ArrayList<Bar>();
+		IHistoricalDataHandler handler = new IHistoricalDataHandler() {
+			@Override public void historicalData(Bar bar, boolean hasGaps) {
+				list.add( bar);
+			}
+			@Override public void historicalDataEnd() {
+				future.complete( list);
+			}
+		};
+		final int reqId = m_reqId.getAndIncrement();
+		track( future, reqId, timeout, unit, new Runnable() {
+			@Override public void run() {
+				if (m_historicalDataMap.remove( reqId) != null && future.isCompletedExceptionally() ) {
+					m_client.cancelHistoricalData( reqId);
+					sendEOM();
+				}
+			}
+		});
+		internalReqHistoricalData( reqId, contract, endDateTime, duration, durationUnit, barSize, whatToShow, rthOnly, handler);
+		return future;
+	}
+
+	/**
+	 * Takes one account summary; the subscription is cancelled when it is complete.
+	 * @param group pass "All" to get data for all accounts
+	 */
+	public CompletableFuture<List<AccountSummaryValue>> reqAccountSummary( String group, AccountSummaryTag[] tags, long timeout, TimeUnit unit) {
+		if (!isConnected() ) {
+			return notConnected();
+		}
+
+		final CompletableFuture<List<AccountSummaryValue>> future = new CompletableFuture<List<AccountSummaryValue>>();
+		final ArrayList<AccountSummaryValue> list = new ArrayList<AccountSummaryValue>();
+		IAccountSummaryHandler handler = new IAccountSummaryHandler() {
+			@Override public void accountSummary(String account, AccountSummaryTag tag, String value, String currency) {
+				list.add( new AccountSummaryValue( account, tag, value, currency) );
+			}
+			@Override public void accountSummaryEnd() {
+				future.complete( list);
+			}
+		};
+		final int reqId = m_reqId.getAndIncrement();
+		track( future, reqId, timeout, unit, new Runnable() {
+			@Override public void run() {
+				if (m_acctSummaryHandlers.remove( reqId) != null) {
+					m_client.cancelAccountSummary( reqId);
+					sendEOM();
+				}
+			}
+		});
+		internalReqAccountSummary( reqId, group, tags, handler);
+		return future;
+	}
+
+	/** @return the option chain parameters of the underlying, one per exchange and trading class */
+	public CompletableFuture<List<SecDefOptParams>> reqSecDefOptParams( String underlyingSymbol, String futFopExchange, String underlyingSecType, int underlyingConId, long timeout, TimeUnit unit) {
+		if (!isConnected() ) {
+			return notConnected();
+		}
+
+		final CompletableFuture<List<SecDefOptParams>> future = new CompletableFuture<List<SecDefOptParams>>();
+		final ArrayList<SecDefOptParams> list = new ArrayList<SecDefOptParams>();
+		ISecDefOptParamsReqHandler handler = new ISecDefOptParamsReqHandler() {
+			@Override public void securityDefinitionOptionalParameter(String exchange, int underlyingConId, String tradingClass, String multiplier, Set<String> expirations, Set<Double> strikes) {
+				list.add( new SecDefOptParams( exchange, underlyingConId, tradingClass, multiplier, expirations, strikes) );
+			}
+			@Override public void securityDefinitionOptionalParameterEnd(int reqId) {
+				future.complete( list);
+			}
+		};
+		final int reqId = m_reqId.getAndIncrement();
+		track( future, reqId, timeout, unit, new Runnable() {
+			@Override public void run() {
+				m_secDefOptParamsReqMap.remove( reqId);
+			}
+		});
+		internalReqSecDefOptParams( reqId, underlyingSymbol, futFopExchange, underlyingSecType, underlyingConId, handler);
+		return future;
+	}
+
+	/** @return the report as XML */
+	public CompletableFuture<String> reqFundamentals( Contract contract, FundamentalType reportType, long timeout, TimeUnit unit) {
+		if (!isConnected() ) {
+			return notConnected();
+		}
+
+		final CompletableFuture<String> future = new CompletableFuture<String>();
+		IFundamentalsHandler handler = new IFundamentalsHandler() {
+			@Override public void fundamentals(String str) {
+				future.complete( str);
+			}
+		};
+		final int reqId = m_reqId.getAndIncrement();
+		track( future, reqId, timeout, unit, new Runnable() {
+			@Override public void run() {
+				if (m_fundMap.remove( reqId) != null && future.isCompletedExceptionally() ) {
+					m_client.cancelFundamentalData( reqId);
+					sendEOM();
+				}
+			}
+		});
+		internalReqFundamentals( reqId, contract, reportType, handler);
+		return future;
+	}
+
+	/** @return the executions matching filter, without commission reports, which TWS sends after them */
+	public CompletableFuture<List<TradeReport>> reqExecutions( ExecutionFilter filter, long timeout, TimeUnit unit) {
+		if (!isConnected() ) {
+			return notConnected();
+		}
+
+		final CompletableFuture<List<TradeReport>> future = new CompletableFuture<List<TradeReport>>();
+		final ArrayList<TradeReport> list = new ArrayList<TradeReport>();
+		ITradeReportHandler handler = new ITradeReportHandler() {
+			@Override public void tradeReport(String tradeKey, Contract contract, Execution execution) {
+				list.add( new TradeReport( tradeKey, contract, execution) );
+			}
+			@Override public void tradeReportEnd() {
+				future.complete( list);
+			}
+			@Override public void commissionReport(String tradeKey, CommissionReport commissionReport) {
+			}
+		};
+		final int reqId = m_reqId.getAndIncrement();
+		m_tradeReportMap.put( reqId, handler);
+		track( future, reqId, timeout, unit, new Runnable() {
+			@Override public void run() {
+				m_tradeReportMap.remove( reqId);
+			}
+		});
+		m_client.reqExecutions( reqId, filter);
+		sendEOM();
+		return future;
+	}
+
+	/** @return the time of TWS in seconds since the epoch */
+	public CompletableFuture<Long> reqCurrentTime( final long timeout, final TimeUnit unit) {
+		if (!isConnected() ) {
+			return notConnected();
+		}
+
+		final CompletableFuture<Long> future = new CompletableFuture<Long>();
+		m_timeFutures.add( future);
+		m_client.reqCurrentTime();
+		sendEOM();
+		if (timeout > 0) {
+			final ScheduledFuture<?> timer = TIMEOUTS.schedule( new Runnable() {
+				@Override public void run() {
+					future.completeExceptionally( new TimeoutException( "no current time within " + timeout + " " + unit) );
+				}
+			}, timeout, unit);
+			future.whenComplete( new BiConsumer<Long,Throwable>() {
+				@Override public void accept(Long result, Throwable t) {
+					timer.cancel( false);
+					m_timeFutures.remove( future);
+				}
+			});
+		}
+		return future;
+	}
+
+	// ---------------------------------------- Publishers ----------------------------------------
+	// Market data and executions as Flow publishers. Each subscriber gets its own request, sent when it
+	// subscribes and cancelled when it cancels. Items the subscriber has not requested yet wait in a queue of
+	// capacity items; when it is full the oldest is dropped if conflate is set, and otherwise the stream fails,
+	// so nothing is buffered without limit. A stream fails with an ApiException if TWS reports an error for its
+	// request, other than the notices of isWarning(), or the connection closes.
+
+	public static final int DEFAULT_EXECUTIONS_CAPACITY = 1024;
+
+	/** Registers a subscription's request, so that error() and connectionClosed() fail its stream. */
+	private void track(int reqId, FlowSubscription<?> subscription) {
+		m_flowsByReqId.put( reqId, subscription);
+		m_flows.add( subscription);
+	}
+
+	private void untrack(int reqId, FlowSubscription<?> subscription) {
+		m_flowsByReqId.remove( reqId);
+		m_flows.remove( subscription);
+	}
+
+	/** Latest bid, ask and last, with capacity 1 and conflation. */
+	public Flow.Publisher<TopOfBookStore.Quote> topMktDataPublisher(Contract contract) {
+		return topMktDataPublisher( contract, 1, true);
+	}
+
+	/** A quote with the current bid, ask and last after each change of one of them. */
+	public Flow.Publisher<TopOfBookStore.Quote> topMktDataPublisher(final Contract contract, final int capacity, final boolean conflate) {
+		return new Flow.Publisher<TopOfBookStore.Quote>() {
+			@Override public void subscribe(Flow.Subscriber<? super TopOfBookStore.Quote> subscriber) {
+				new FlowSubscription<TopOfBookStore.Quote>( subscriber, capacity, conflate) {
+					private double m_bid;
+					private double m_ask;
+					private double m_last;
+					private int m_bidSize;
+					private int m_askSize;
+					private int m_lastSize;
+					private volatile int m_requestId;	// set by start(), read by stop() on the thread that ends the stream
+
+					private final ITopMktDataHandler m_handler = new TopMktDataAdapter() {
+						@Override public void tickPrice(TickType tickType, double price, int canAutoExecute) {
+							switch (tickType) {
+								case BID: case DELAYED_BID: m_bid = price; break;
+								case ASK: case DELAYED_ASK: m_ask = price; break;
+								case LAST: case DELAYED_LAST: m_last = price; break;
+								default: return;
+							}
+							quote();
+						}
+						@Override public void tickSize(TickType tickType, int size) {
+							switch (tickType) {
+								case BID_SIZE: case DELAYED_BID_SIZE: m_bidSize = size; break;
+								case ASK_SIZE: case DELAYED_ASK_SIZE: m_askSize = size; break;
+								case LAST_SIZE: case DELAYED_LAST_SIZE: m_lastSize = size; break;
+								default: return;
+							}
+							quote();
+						}
+					};
+
+					private void quote() {
+						next( new TopOfBookStore.Quote( contract.conid(), System.currentTimeMillis(), m_bid, m_bidSize, m_ask, m_askSize, m_last, m_lastSize) );
+					}
+
+					@Override protected void start() {
+						if (!isConnected() ) {
+							error( new ApiException( EClientErrors.NO_VALID_ID, EClientErrors.NOT_CONNECTED.code(), EClientErrors.NOT_CONNECTED.msg() ) );
+							return;
+						}
+						m_requestId = m_reqId.getAndIncrement();
+						track( m_requestId, this);	// before sending, so that an error that comes back at once fails the stream
+						internalReqTopMktData( m_requestId, contract, "", false, TopOfBookStore.TICK_TYPES, m_handler);
+					}
+
+					@Override protected void stop() {
+						// not through cancelTopMktData(), which leaves the handler registered once the connection is closed
+						untrack( m_requestId, this);
+						if (m_topMktDataMap.remove( m_requestId) != null) {
+							m_tickFilters.remove( m_requestId);
+							m_dispatchers.remove( m_requestId);
+							if (isConnected() ) {
+								m_client.cancelMktData( m_requestId);
+								sendEOM();
+							}
+						}
+					}
+				}.subscribe();
+			}
+		};
+	}
+
+	/** Latest book, with capacity 1 and conflation. */
+	public Flow.Publisher<OrderBook.Snapshot> deepMktDataPublisher(Contract contract, int numRows) {
+		return deepMktDataPublisher( contract, numRows, 1, true);
+	}
+
+	/** A snapshot of the book after each depth operation. */
+	public Flow.Publisher<OrderBook.Snapshot> deepMktDataPublisher(final Contract contract, final int numRows, final int capacity, final boolean conflate) {
+		return new Flow.Publisher<OrderBook.Snapshot>() {
+			@Override public void subscribe(Flow.Subscriber<? super OrderBook.Snapshot> subscriber) {
+				new FlowSubscription<OrderBook.Snapshot>( subscriber, capacity, conflate) {
+					private volatile int m_requestId;	// set by start(), read by stop() on the thread that ends the stream
+					private final OrderBook m_book = new OrderBook( new OrderBook.IBookListener() {
+						@Override public void bookFrame(OrderBook book, OrderBook.Frame frame) {
+							next( book.snapshot() );
+						}
+					});
+
+					@Override protected void start() {
+						if (!isConnected() ) {
+							error( new ApiException( EClientErrors.NO_VALID_ID, EClientErrors.NOT_CONNECTED.code(), EClientErrors.NOT_CONNECTED.msg() ) );
+							return;
+						}
+						m_requestId = m_reqId.getAndIncrement();
+						track( m_requestId, this);	// before sending, so that an error that comes back at once fails the stream
+						internalReqDeepMktData( m_requestId, contract, numRows, m_book);
+					}
+
+					@Override protected void stop() {
+						// not through cancelDeepMktData(), which leaves the handler registered once the connection is closed
+						untrack( m_requestId, this);
+						if (m_deepMktDataMap.remove( m_requestId) != null) {
+							m_dispatchers.remove( m_requestId);
+							if (isConnected() ) {
+								m_client.cancelMktDepth( m_requestId);
+								sendEOM();
+							}
+						}
+					}
+				}.subscribe();
+			}
+		};
+	}
+
+	/** Latest bar, with capacity 1 and conflation. */
+	public Flow.Publisher<Bar> realTimeBarsPublisher(Contract contract, WhatToShow whatToShow, boolean rthOnly) {
+		return realTimeBarsPublisher( contract, whatToShow, rthOnly, 1, true);
+	}
+
+	/** A five second bar every five seconds. */
+	public Flow.Publisher<Bar> realTimeBarsPublisher(final Contract contract, final WhatToShow whatToShow, final boolean rthOnly, final int capacity, final boolean conflate) {
+		return new Flow.Publisher<Bar>() {
+			@Override public void subscribe(Flow.Subscriber<? super Bar> subscriber) {
+				new FlowSubscription<Bar>( subscriber, capacity, conflate) {
+					private volatile int m_requestId;	// set by start(), read by stop() on the thread that ends the stream
+					private final IRealTimeBarHandler m_handler = new IRealTimeBarHandler() {
+						@Override public void realtimeBar(Bar bar) {
+							next( bar);
+						}
+					};
+
+					@Override protected void start() {
+						if (!isConnected() ) {
+							error( new ApiException( EClientErrors.NO_VALID_ID, EClientErrors.NOT_CONNECTED.code(), EClientErrors.NOT_CONNECTED.msg() ) );
+							return;
+						}
+						m_requestId = m_reqId.getAndIncrement();
+						track( m_requestId, this);	// before sending, so that an error that comes back at once fails the stream
+						internalReqRealTimeBars( m_requestId, contract, whatToShow, rthOnly, m_handler);
+					}
+
+					@Override protected void stop() {
+						// not through cancelRealtimeBars(), which leaves the handler registered once the connection is closed
+						untrack( m_requestId, this);
+						if (m_realTimeBarMap.remove( m_requestId) != null) {
+							m_dispatchers.remove( m_requestId);
+							if (isConnected() ) {
+								m_client.cancelRealTimeBars( m_requestId);
+								sendEOM();
+							}
+						}
+					}
+				}.subscribe();
+			}
+		};
+	}
+
+	/** Executions without conflation, failing the stream if DEFAULT_EXECUTIONS_CAPACITY wait for demand. */
+	public Flow.Publisher<TradeReport> executionsPublisher(ExecutionFilter filter) {
+		return executionsPublisher( filter, DEFAULT_EXECUTIONS_CAPACITY, false);
+	}
+
+	/**
+	 * The executions matching filter, then the executions of this client as they happen; an
+	 * execution that happens while the earlier ones are sent is passed once.
+	 */
+	public Flow.Publisher<TradeReport> executionsPublisher(final ExecutionFilter filter, final int capacity, final boolean conflate) {
+		return new Flow.Publisher<TradeReport>() {
+			@Override public void subscribe(Flow.Subscriber<? super TradeReport> subscriber) {
+				new FlowSubscription<TradeReport>( subscriber, capacity, conflate) {
+					private final HashSet<String> m_execIds = new HashSet<String>();	// passed before tradeReportEnd(), on the reader thread only
+					private boolean m_ended;	// on the reader thread only
+					private volatile int m_requestId;	// set by start(), read by stop() on the thread that ends the stream
+
+					private final ITradeReportHandler m_handler = new ITradeReportHandler() {
+						@Override public void tradeReport(String tradeKey, Contract contract, Execution execution) {
+							if (m_ended || m_execIds.add( execution.execId() ) ) {
+								next( new TradeReport( tradeKey, contract, execution) );
+							}
+						}
+						@Override public void tradeReportEnd() {
+							// an execution comes twice only while the earlier ones are sent
+							m_ended = true;
+							m_execIds.clear();
+						}
+						@Override public void commissionReport(String tradeKey, CommissionReport commissionReport) {
+						}
+					};
+
+					@Override protected void start() {
+						if (!isConnected() ) {
+							error( new ApiException( EClientErrors.NO_VALID_ID, EClientErrors.NOT_CONNECTED.code(), EClientErrors.NOT_CONNECTED.msg() ) );
+							return;
+						}
+						m_requestId = m_reqId.getAndIncrement();
+						m_tradeReportMap.put( m_requestId, m_handler);
+						m_liveTradeReportHandlers.add( m_handler);
+						track( m_requestId, this);
+						m_client.reqExecutions( m_requestId, filter);
+						sendEOM();
+					}
+
+					@Override protected void stop() {
+						m_liveTradeReportHandlers.remove( m_handler);
+						m_tradeReportMap.remove( m_requestId);
+						untrack( m_requestId, this);
+					}
+				}.subscribe();
+			}
+		};
+	}
+
 	// ---------------------------------------- other methods ----------------------------------------
 	/** Not supported in ApiController. */
 	@Override public void deltaNeutralValidation(int reqId, DeltaNeutralContract underComp) {
@@ -1259,14 +2050,8 @@ public class ApiController implements EWrapper {
 		m_connectionHandler.show( string);
 	}
 
-    private static <K,V> K getAndRemoveKey( HashMap<K,V> map, V value) {
-    	for (Entry<K,V> entry : map.entrySet() ) {
-    		if (entry.getValue() == value) {
-    			map.remove( entry.getKey() );
-    			return entry.getKey();
-    		}
-    	}
-		return null;
+    private static <V> Integer getAndRemoveKey( ConcurrentIntMap<V> map, V value) {
+    	return map.removeValue( value);
     }
 
 	/** Obsolete, never called. */
@@ -1284,11 +2069,14 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-		int reqId = m_reqId++;
+		internalReqSecDefOptParams( m_reqId.getAndIncrement(), underlyingSymbol, futFopExchange, underlyingSecType, underlyingConId, handler);
+	} 
+
+	private void internalReqSecDefOptParams( int reqId, String underlyingSymbol, String futFopExchange, String underlyingSecType, int underlyingConId, ISecDefOptParamsReqHandler handler) {
 		m_secDefOptParamsReqMap.put( reqId, handler);
 		m_client.reqSecDefOptParams(reqId, underlyingSymbol, futFopExchange, /*currency,*/ underlyingSecType, underlyingConId);
 		sendEOM();
-	} 
+	}
 	
 	public interface ISecDefOptParamsReqHandler {
 		void securityDefinitionOptionalParameter(String exchange, int underlyingConId, String tradingClass,
@@ -1323,7 +2111,7 @@ public class ApiController implements EWrapper {
 		if (!checkConnection())
 			return;
 
-    	int reqId = m_reqId++;
+    	int reqId = m_reqId.getAndIncrement();
     	
 		m_softDollarTiersReqMap.put(reqId, handler);		
 		m_client.reqSoftDollarTiers(reqId);
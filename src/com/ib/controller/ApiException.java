@@ -0,0 +1,21 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+/** An error TWS reported for a request, or the controller's own, such as not being connected. */
+public class ApiException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	private final int m_id;
+	private final int m_code;
+
+	public int id()			{ return m_id; }
+	public int code()		{ return m_code; }
+
+	public ApiException( int id, int code, String msg) {
+		super( code + ": " + msg);
+		m_id = id;
+		m_code = code;
+	}
+}
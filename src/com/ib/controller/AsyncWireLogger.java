@@ -0,0 +1,249 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.ib.client.EMessage;
+
+/**
+ * Binary wire logger for ApiConnection. The I/O threads only copy the raw bytes into a ring
+ * buffer; a background thread writes them out as records, see WireLogDump for rendering.
+ * <p>
+ * File layout: a header (int MAGIC, int VERSION, long wall-clock ms, long nanoTime taken at the
+ * same instant) followed by records of (long nanoTime, byte direction, int length, bytes).
+ * If the writer falls behind and the ring is full, records are dropped and counted rather
+ * than blocking the socket threads. If writing to the stream fails, the writer stops: the bytes
+ * still in the ring are discarded, later records are dropped and counted, and close() throws
+ * the error.
+ */
+public class AsyncWireLogger implements AutoCloseable {
+	public static final int MAGIC = 0x4942574c; // "IBWL"
+	public static final int VERSION = 1;
+	public static final byte IN = 0;
+	public static final byte OUT = 1;
+	static final int RECORD_HEADER = 8 + 1 + 4;
+
+	private final byte[] m_ring;
+	private long m_head;	// total bytes ever written into the ring, guarded by m_ring
+	private long m_tail;	// total bytes ever taken out of the ring, guarded by m_ring
+	private boolean m_writerWaiting;
+	private boolean m_closed;
+	private long m_dropped;
+	private IOException m_failure;	// the error that stopped the writer, guarded by m_ring
+	private final DataOutputStream m_out;
+	private final Thread m_writer;
+	private final RingOutputStream m_ringStream = new RingOutputStream();
+
+	public AsyncWireLogger(String fileName) throws IOException {
+		this( new FileOutputStream( fileName), 1 << 22);
+	}
+
+	/** @param capacity ring buffer size in bytes */
+	public AsyncWireLogger(OutputStream out, int capacity) throws IOException {
+		m_ring = new byte[capacity];
+		m_out = new DataOutputStream( new BufferedOutputStream( out, 1 << 16) );
+		m_out.writeInt( MAGIC);
+		m_out.writeInt( VERSION);
+		m_out.writeLong( System.currentTimeMillis() );
+		m_out.writeLong( System.nanoTime() );
+
+		m_writer = new Thread( "AsyncWireLogger") {
+			@Override public void run() {
+				drain();
+			}
+		};
+		m_writer.setDaemon( true);
+		m_writer.start();
+	}
+
+	/** Number of records lost because the ring buffer was full. */
+	public long dropped() {
+		synchronized( m_ring) {
+			return m_dropped;
+		}
+	}
+
+	/** The error that stopped the writer, or null while it is writing. */
+	public IOException failure() {
+		synchronized( m_ring) {
+			return m_failure;
+		}
+	}
+
+	public void logIn(byte[] buf, int off, int len) {
+		log( IN, buf, off, len);
+	}
+
+	public void logOut(byte[] buf, int off, int len) {
+		log( OUT, buf, off, len);
+	}
+
+	/** Logs an outgoing message without copying it out of the EMessage first. */
+	public void logOut(EMessage msg) {
+		long nanos = System.nanoTime();
+		int len = msg.size();
+
+		synchronized( m_ring) {
+			if (!reserve( len) ) {
+				return;
+			}
+			putHeader( nanos, OUT, len);
+			try {
+				msg.writeTo( m_ringStream);
+			}
+			catch (IOException e) {
+				// cannot happen, RingOutputStream does not throw
+			}
+			wakeWriter();
+		}
+	}
+
+	private void log(byte direction, byte[] buf, int off, int len) {
+		if (len <= 0) {
+			return;
+		}
+
+		long nanos = System.nanoTime();
+
+		synchronized( m_ring) {
+			if (!reserve( len) ) {
+				return;
+			}
+			putHeader( nanos, direction, len);
+			put( buf, off, len);
+			wakeWriter();
+		}
+	}
+
+	/**
+	 * Flushes what is buffered and stops the writer thread.
+	 * @throws IOException if writing failed, with the original error as its cause
+	 */
+	@Override public void close() throws IOException {
+		synchronized( m_ring) {
+			m_closed = true;
+			m_ring.notifyAll();
+		}
+		try {
+			m_writer.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		IOException failure = failure();
+		if (failure == null) {
+			m_out.close();
+			return;
+		}
+		try {
+			m_out.close();
+		}
+		catch (IOException e) {
+			failure.addSuppressed( e);
+		}
+		throw new IOException( "wire log writer stopped, " + dropped() + " records dropped", failure);
+	}
+
+	// ---------------------------------------- ring buffer, all called with m_ring locked ----------------------------------------
+	private boolean reserve(int len) {
+		if (m_closed || m_failure != null || m_head - m_tail + RECORD_HEADER + len > m_ring.length) {
+			m_dropped++;
+			return false;
+		}
+		return true;
+	}
+
+	private void putHeader(long nanos, byte direction, int len) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			putByte( (byte)(nanos >>> shift) );
+		}
+		putByte( direction);
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			putByte( (byte)(len >>> shift) );
+		}
+	}
+
+	private void putByte(byte b) {
+		m_ring[(int)(m_head++ % m_ring.length)] = b;
+	}
+
+	private void put(byte[] buf, int off, int len) {
+		int pos = (int)(m_head % m_ring.length);
+		int first = Math.min( len, m_ring.length - pos);
+		System.arraycopy( buf, off, m_ring, pos, first);
+		System.arraycopy( buf, off + first, m_ring, 0, len - first);
+		m_head += len;
+	}
+
+	private void wakeWriter() {
+		if (m_writerWaiting) {
+			m_writerWaiting = false;
+			m_ring.notify();
+		}
+	}
+
+	private void drain() {
+		byte[] chunk = new byte[Math.min( m_ring.length, 1 << 16)];
+
+		while (true) {
+			int len;
+			synchronized( m_ring) {
+				while (m_head == m_tail && !m_closed) {
+					m_writerWaiting = true;
+					try {
+						m_ring.wait();
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (m_head == m_tail) {
+					return; // closed and drained
+				}
+				len = (int)Math.min( chunk.length, m_head - m_tail);
+				int pos = (int)(m_tail % m_ring.length);
+				int first = Math.min( len, m_ring.length - pos);
+				System.arraycopy( m_ring, pos, chunk, 0, first);
+				System.arraycopy( m_ring, 0, chunk, first, len - first);
+				m_tail += len;
+			}
+			try {
+				m_out.write( chunk, 0, len);
+				if (isIdle() ) {
+					m_out.flush();
+				}
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+				synchronized( m_ring) {
+					m_failure = e;
+					m_tail = m_head;	// nothing will write what is left
+				}
+				return;
+			}
+		}
+	}
+
+	private boolean isIdle() {
+		synchronized( m_ring) {
+			return m_head == m_tail;
+		}
+	}
+
+	/** Adapter used to copy an EMessage straight into the ring. */
+	private class RingOutputStream extends OutputStream {
+		@Override public void write(int b) {
+			putByte( (byte)b);
+		}
+
+		@Override public void write(byte[] b, int off, int len) {
+			put( b, off, len);
+		}
+	}
+}
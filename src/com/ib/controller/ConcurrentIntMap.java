@@ -0,0 +1,267 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Map from primitive int keys, such as request and order ids, to non-null values. get() takes
+ * no lock and allocates nothing, so it suits the reader thread looking up the handler of every
+ * tick; put() and remove() lock the map.
+ * <p>
+ * Open addressing with linear probing: a key's first slot comes from Fibonacci hashing, which
+ * spreads the consecutive ids ApiController hands out evenly however far apart the live ones
+ * are, and the table is at most half full, so most lookups take one probe. Removed entries
+ * leave a marker with their key, which ends the lookup of that key, and which is dropped when
+ * the table is rebuilt.
+ * <p>
+ * A reverse index from each value, by identity, to its keys makes removeValue() O(1), so that
+ * cancelling a subscription by its handler does not scan the table.
+ */
+public class ConcurrentIntMap<V> {
+	private static final int MIN_CAPACITY = 16;
+	private static final Object REMOVED = new Object();
+
+	private volatile Table m_table = new Table( MIN_CAPACITY);
+	private int m_size;	// guarded by this
+	private int m_used;	// slots with an entry or a removed marker, guarded by this
+	private final IdentityHashMap<Object,Keys> m_keysByValue = new IdentityHashMap<Object,Keys>();	// guarded by this
+
+	/** @return the value for key or null */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		Table table = m_table;
+		int mask = table.m_mask;
+		int i = table.home( key);
+		for (int probes = 0; probes <= mask; probes++) {
+			Object value = table.m_values.get( i);
+			if (value == null) {
+				return null;
+			}
+			if (table.m_keys.get( i) == key) {
+				if (value == REMOVED) {
+					return null;	// a put of the key again would have taken this slot or an earlier one
+				}
+				if (table.m_values.get( i) == value) {
+					return (V)value;
+				}
+				continue;	// the slot was reused while reading it, read it again
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	public boolean containsKey(int key) {
+		return get( key) != null;
+	}
+
+	public synchronized int size() {
+		return m_size;
+	}
+
+	public synchronized boolean isEmpty() {
+		return m_size == 0;
+	}
+
+	/** @return the previous value for key or null */
+	@SuppressWarnings("unchecked")
+	public synchronized V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException( "null value for key " + key);
+		}
+		Table table = m_table;
+		int mask = table.m_mask;
+		int free = -1;
+		int i = table.home( key);
+		for (;; i = (i + 1) & mask) {
+			Object old = table.m_values.get( i);
+			if (old == null) {
+				break;
+			}
+			if (old == REMOVED) {
+				// reuse the home slot or the key's own marker only, so that keys stay where get() looks first
+				if (free < 0 && (i == table.home( key) || table.m_keys.get( i) == key) ) {
+					free = i;
+				}
+			}
+			else if (table.m_keys.get( i) == key) {
+				table.m_values.set( i, value);
+				unindex( old, key);
+				index( value, key);
+				return (V)old;
+			}
+		}
+
+		if (free < 0) {
+			if ((m_used + 1) * 2 > table.capacity() ) {
+				rebuild();
+				return put( key, value);
+			}
+			free = i;
+			m_used++;
+		}
+		// the key first: a reader takes the key of a slot only after seeing its value
+		table.m_keys.set( free, key);
+		table.m_values.set( free, value);
+		m_size++;
+		index( value, key);
+		return null;
+	}
+
+	/** @return the removed value or null */
+	@SuppressWarnings("unchecked")
+	public synchronized V remove(int key) {
+		Table table = m_table;
+		int i = table.indexOf( key);
+		if (i < 0) {
+			return null;
+		}
+		Object old = table.m_values.get( i);
+		table.m_values.set( i, REMOVED);
+		m_size--;
+		unindex( old, key);
+		return (V)old;
+	}
+
+	/**
+	 * Removes the oldest entry holding value, compared by identity.
+	 * @return its key or null
+	 */
+	public synchronized Integer removeValue(V value) {
+		Keys keys = m_keysByValue.get( value);
+		if (keys == null) {
+			return null;
+		}
+		int key = keys.first();
+		remove( key);
+		return key;
+	}
+
+	/** @return the oldest key of value, compared by identity, or null */
+	public synchronized Integer keyOf(V value) {
+		Keys keys = m_keysByValue.get( value);
+		return keys != null ? keys.first() : null;
+	}
+
+	public synchronized void clear() {
+		m_table = new Table( MIN_CAPACITY);
+		m_size = 0;
+		m_used = 0;
+		m_keysByValue.clear();
+	}
+
+	private void index(Object value, int key) {
+		Keys keys = m_keysByValue.get( value);
+		if (keys == null) {
+			m_keysByValue.put( value, new Keys( key) );
+		}
+		else {
+			keys.add( key);
+		}
+	}
+
+	private void unindex(Object value, int key) {
+		Keys keys = m_keysByValue.get( value);
+		if (keys != null && keys.remove( key) ) {
+			m_keysByValue.remove( value);
+		}
+	}
+
+	/** Copies the entries to a table that is at most a quarter full, without removed markers. */
+	private void rebuild() {
+		Table old = m_table;
+		int capacity = MIN_CAPACITY;
+		while (capacity < (m_size + 1) * 4) {
+			capacity <<= 1;
+		}
+		Table table = new Table( capacity);
+		for (int i = 0; i < old.capacity(); i++) {
+			Object value = old.m_values.get( i);
+			if (value != null && value != REMOVED) {
+				int key = old.m_keys.get( i);
+				int k = table.home( key);
+				while (table.m_values.get( k) != null) {
+					k = (k + 1) & table.m_mask;
+				}
+				table.m_keys.set( k, key);
+				table.m_values.set( k, value);
+			}
+		}
+		m_used = m_size;
+		m_table = table;
+	}
+
+	/** The keys of one value in insertion order; almost always a single one. */
+	private static class Keys {
+		private int[] m_keys = new int[1];
+		private int m_count;
+
+		Keys(int key) {
+			add( key);
+		}
+
+		int first() {
+			return m_keys[0];
+		}
+
+		void add(int key) {
+			if (m_count == m_keys.length) {
+				m_keys = Arrays.copyOf( m_keys, m_count * 2);
+			}
+			m_keys[m_count++] = key;
+		}
+
+		/** @return true if no key is left */
+		boolean remove(int key) {
+			for (int i = 0; i < m_count; i++) {
+				if (m_keys[i] == key) {
+					System.arraycopy( m_keys, i + 1, m_keys, i, m_count - i - 1);
+					m_count--;
+					break;
+				}
+			}
+			return m_count == 0;
+		}
+	}
+
+	private static class Table {
+		final int m_mask;
+		final int m_shift;
+		final AtomicIntegerArray m_keys;
+		final AtomicReferenceArray<Object> m_values;	// null for a slot that was never used
+
+		Table(int capacity) {
+			m_mask = capacity - 1;
+			m_shift = 32 - Integer.numberOfTrailingZeros( capacity);
+			m_keys = new AtomicIntegerArray( capacity);
+			m_values = new AtomicReferenceArray<Object>( capacity);
+		}
+
+		int capacity() {
+			return m_mask + 1;
+		}
+
+		/** @return the first slot to look at for key */
+		int home(int key) {
+			return (key * 0x9e3779b9 >>> m_shift);
+		}
+
+		/** @return the slot of key or -1; call with the map locked */
+		int indexOf(int key) {
+			for (int i = home( key);; i = (i + 1) & m_mask) {
+				Object value = m_values.get( i);
+				if (value == null) {
+					return -1;
+				}
+				if (value != REMOVED && m_keys.get( i) == key) {
+					return i;
+				}
+			}
+		}
+	}
+}
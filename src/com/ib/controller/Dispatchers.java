@@ -0,0 +1,294 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.util.concurrent.Executor;
+
+import com.ib.client.ContractDetails;
+import com.ib.client.TickType;
+import com.ib.client.Types.DeepSide;
+import com.ib.client.Types.DeepType;
+import com.ib.client.Types.MktDataType;
+import com.ib.controller.ApiController.IAccountSummaryHandler;
+import com.ib.controller.ApiController.IDeepMktDataHandler;
+import com.ib.controller.ApiController.IEfpHandler;
+import com.ib.controller.ApiController.IFundamentalsHandler;
+import com.ib.controller.ApiController.IHistoricalDataHandler;
+import com.ib.controller.ApiController.IMarketValueSummaryHandler;
+import com.ib.controller.ApiController.IOptHandler;
+import com.ib.controller.ApiController.IRealTimeBarHandler;
+import com.ib.controller.ApiController.IScannerHandler;
+import com.ib.controller.ApiController.ITopMktDataHandler;
+
+/**
+ * Handlers that pass each call on to the handler of one request on the executor it was given
+ * with ApiController.setExecutor(). The controller calls the dispatcher of such a request in
+ * place of its handler, so its callbacks are the same whether a handler has an executor or not.
+ * A StripedExecutor runs the calls of a request on the lane of its id, in order.
+ */
+class Dispatchers {
+	private Dispatchers() {
+	}
+
+	abstract static class Dispatcher {
+		private final Executor m_executor;
+		private final int m_reqId;
+
+		Dispatcher(Executor executor, int reqId) {
+			m_executor = executor;
+			m_reqId = reqId;
+		}
+
+		final void dispatch(Runnable task) {
+			if (m_executor instanceof StripedExecutor) {
+				((StripedExecutor)m_executor).execute( m_reqId, task);
+			}
+			else {
+				m_executor.execute( task);
+			}
+		}
+	}
+
+	static class TopMktData extends Dispatcher implements ITopMktDataHandler {
+		private final ITopMktDataHandler m_handler;
+
+		TopMktData(Executor executor, int reqId, ITopMktDataHandler handler) {
+			super( executor, reqId);
+			m_handler = handler;
+		}
+
+		@Override public void tickPrice(final TickType tickType, final double price, final int canAutoExecute) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.tickPrice( tickType, price, canAutoExecute);
+				}
+			});
+		}
+
+		@Override public void tickSize(final TickType tickType, final int size) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.tickSize( tickType, size);
+				}
+			});
+		}
+
+		@Override public void tickString(final TickType tickType, final String value) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.tickString( tickType, value);
+				}
+			});
+		}
+
+		@Override public void tickSnapshotEnd() {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.tickSnapshotEnd();
+				}
+			});
+		}
+
+		@Override public void marketDataType(final MktDataType marketDataType) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.marketDataType( marketDataType);
+				}
+			});
+		}
+	}
+
+	static class Efp extends TopMktData implements IEfpHandler {
+		private final IEfpHandler m_handler;
+
+		Efp(Executor executor, int reqId, IEfpHandler handler) {
+			super( executor, reqId, handler);
+			m_handler = handler;
+		}
+
+		@Override public void tickEFP(final int tickType, final double basisPoints, final String formattedBasisPoints, final double impliedFuture, final int holdDays, final String futureLastTradeDate, final double dividendImpact, final double dividendsToLastTradeDate) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.tickEFP( tickType, basisPoints, formattedBasisPoints, impliedFuture, holdDays, futureLastTradeDate, dividendImpact, dividendsToLastTradeDate);
+				}
+			});
+		}
+	}
+
+	static class Opt extends TopMktData implements IOptHandler {
+		private final IOptHandler m_handler;
+
+		Opt(Executor executor, int reqId, IOptHandler handler) {
+			super( executor, reqId, handler);
+			m_handler = handler;
+		}
+
+		@Override public void tickOptionComputation(final TickType tickType, final double impliedVol, final double delta, final double optPrice, final double pvDividend, final double gamma, final double vega, final double theta, final double undPrice) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.tickOptionComputation( tickType, impliedVol, delta, optPrice, pvDividend, gamma, vega, theta, undPrice);
+				}
+			});
+		}
+	}
+
+	static class DeepMktData extends Dispatcher implements IDeepMktDataHandler {
+		private final IDeepMktDataHandler m_handler;
+
+		DeepMktData(Executor executor, int reqId, IDeepMktDataHandler handler) {
+			super( executor, reqId);
+			m_handler = handler;
+		}
+
+		@Override public void updateMktDepth(final int position, final String marketMaker, final DeepType operation, final DeepSide side, final double price, final int size) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.updateMktDepth( position, marketMaker, operation, side, price, size);
+				}
+			});
+		}
+	}
+
+	static class Scanner extends Dispatcher implements IScannerHandler {
+		private final IScannerHandler m_handler;
+
+		Scanner(Executor executor, int reqId, IScannerHandler handler) {
+			super( executor, reqId);
+			m_handler = handler;
+		}
+
+		@Override public void scannerParameters(final String xml) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.scannerParameters( xml);
+				}
+			});
+		}
+
+		@Override public void scannerData(final int rank, final ContractDetails contractDetails, final String legsStr) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.scannerData( rank, contractDetails, legsStr);
+				}
+			});
+		}
+
+		@Override public void scannerDataEnd() {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.scannerDataEnd();
+				}
+			});
+		}
+	}
+
+	static class Fundamentals extends Dispatcher implements IFundamentalsHandler {
+		private final IFundamentalsHandler m_handler;
+
+		Fundamentals(Executor executor, int reqId, IFundamentalsHandler handler) {
+			super( executor, reqId);
+			m_handler = handler;
+		}
+
+		@Override public void fundamentals(final String str) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.fundamentals( str);
+				}
+			});
+		}
+	}
+
+	static class HistoricalData extends Dispatcher implements IHistoricalDataHandler {
+		private final IHistoricalDataHandler m_handler;
+
+		HistoricalData(Executor executor, int reqId, IHistoricalDataHandler handler) {
+			super( executor, reqId);
+			m_handler = handler;
+		}
+
+		@Override public void historicalData(final Bar bar, final boolean hasGaps) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.historicalData( bar, hasGaps);
+				}
+			});
+		}
+
+		@Override public void historicalDataEnd() {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.historicalDataEnd();
+				}
+			});
+		}
+	}
+
+	static class RealTimeBars extends Dispatcher implements IRealTimeBarHandler {
+		private final IRealTimeBarHandler m_handler;
+
+		RealTimeBars(Executor executor, int reqId, IRealTimeBarHandler handler) {
+			super( executor, reqId);
+			m_handler = handler;
+		}
+
+		@Override public void realtimeBar(final Bar bar) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.realtimeBar( bar);
+				}
+			});
+		}
+	}
+
+	static class AccountSummary extends Dispatcher implements IAccountSummaryHandler {
+		private final IAccountSummaryHandler m_handler;
+
+		AccountSummary(Executor executor, int reqId, IAccountSummaryHandler handler) {
+			super( executor, reqId);
+			m_handler = handler;
+		}
+
+		@Override public void accountSummary(final String account, final AccountSummaryTag tag, final String value, final String currency) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.accountSummary( account, tag, value, currency);
+				}
+			});
+		}
+
+		@Override public void accountSummaryEnd() {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.accountSummaryEnd();
+				}
+			});
+		}
+	}
+
+	static class MarketValueSummary extends Dispatcher implements IMarketValueSummaryHandler {
+		private final IMarketValueSummaryHandler m_handler;
+
+		MarketValueSummary(Executor executor, int reqId, IMarketValueSummaryHandler handler) {
+			super( executor, reqId);
+			m_handler = handler;
+		}
+
+		@Override public void marketValueSummary(final String account, final MarketValueTag tag, final String value, final String currency) {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.marketValueSummary( account, tag, value, currency);
+				}
+			});
+		}
+
+		@Override public void marketValueSummaryEnd() {
+			dispatch( new Runnable() {
+				@Override public void run() {
+					m_handler.marketValueSummaryEnd();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,29 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+/**
+ * The interfaces of java.util.concurrent.Flow (Java 9) and Reactive Streams, for Java 8. They have
+ * the same methods and contracts, so an adapter to either is a one line delegation per method.
+ */
+public final class Flow {
+	private Flow() {
+	}
+
+	public interface Publisher<T> {
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	public interface Subscriber<T> {
+		void onSubscribe(Subscription subscription);
+		void onNext(T item);
+		void onError(Throwable throwable);
+		void onComplete();
+	}
+
+	public interface Subscription {
+		void request(long n);
+		void cancel();
+	}
+}
@@ -0,0 +1,164 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.util.ArrayDeque;
+
+import com.ib.controller.Flow.Subscriber;
+
+/**
+ * The subscription of one subscriber to a publisher of ApiController, which owns one TWS request:
+ * start() sends it once the subscriber has its subscription, and stop() cancels it when the
+ * subscriber cancels or the stream fails.
+ * <p>
+ * Items arrive on the thread that reads the messages and are passed on as far as the subscriber
+ * requested them. Up to capacity items wait for more demand; when the queue is full the oldest
+ * item is dropped if the subscription conflates, so that with a capacity of 1 the subscriber
+ * always gets the latest one, and otherwise the stream fails. The streams are endless, so they
+ * end with cancel() or onError(). Signals are never concurrent; they run on the thread that made
+ * an item available, or on the one that requested it.
+ */
+abstract class FlowSubscription<T> implements Flow.Subscription {
+	private final Subscriber<? super T> m_subscriber;
+	private final int m_capacity;
+	private final boolean m_conflate;
+	private final ArrayDeque<T> m_queue = new ArrayDeque<T>();	// guarded by this
+	private long m_demand;	// guarded by this
+	private Throwable m_error;	// guarded by this
+	private boolean m_done;	// cancelled or terminated, guarded by this
+	private boolean m_draining;	// a thread is signalling the subscriber, guarded by this
+
+	FlowSubscription(Subscriber<? super T> subscriber, int capacity, boolean conflate) {
+		if (subscriber == null) {
+			throw new NullPointerException( "subscriber");
+		}
+		if (capacity <= 0) {
+			throw new IllegalArgumentException( "capacity must be positive: " + capacity);
+		}
+		m_subscriber = subscriber;
+		m_capacity = capacity;
+		m_conflate = conflate;
+	}
+
+	/** Sends the request; called once, after onSubscribe(). */
+	protected abstract void start();
+
+	/** Cancels the request; called at most once. */
+	protected abstract void stop();
+
+	void subscribe() {
+		m_subscriber.onSubscribe( this);
+		boolean done;
+		synchronized( this) {
+			done = m_done;
+		}
+		if (!done) {
+			start();
+		}
+	}
+
+	void next(T item) {
+		boolean overflow = false;
+		synchronized( this) {
+			if (m_done || m_error != null) {
+				return;
+			}
+			if (m_queue.size() == m_capacity) {
+				if (m_conflate) {
+					m_queue.poll();
+				}
+				else {
+					overflow = true;
+				}
+			}
+			if (!overflow) {
+				m_queue.add( item);
+			}
+		}
+		if (overflow) {
+			error( new IllegalStateException( "more than " + m_capacity + " items waiting for demand"));
+		}
+		else {
+			drain();
+		}
+	}
+
+	/** Fails the stream, dropping the items that wait for demand, and cancels the request. */
+	void error(Throwable t) {
+		synchronized( this) {
+			if (m_done || m_error != null) {
+				return;
+			}
+			m_error = t;
+			m_queue.clear();
+		}
+		stop();
+		drain();
+	}
+
+	@Override public void request(long n) {
+		if (n <= 0) {
+			error( new IllegalArgumentException( "non-positive request " + n) );
+			return;
+		}
+		synchronized( this) {
+			m_demand = m_demand + n < 0 ? Long.MAX_VALUE : m_demand + n;
+		}
+		drain();
+	}
+
+	@Override public void cancel() {
+		synchronized( this) {
+			if (m_done) {
+				return;
+			}
+			m_done = true;
+			m_queue.clear();
+			if (m_error != null) {
+				return;	// the request was cancelled already
+			}
+		}
+		stop();
+	}
+
+	/** Signals what the subscriber can take; only one thread at a time does, the others leave it their items. */
+	private void drain() {
+		synchronized( this) {
+			if (m_draining) {
+				return;
+			}
+			m_draining = true;
+		}
+		while (true) {
+			T item = null;
+			Throwable error = null;
+			synchronized( this) {
+				if (m_done) {
+					m_draining = false;
+					return;
+				}
+				if (m_demand > 0 && !m_queue.isEmpty() ) {
+					item = m_queue.poll();
+					if (m_demand != Long.MAX_VALUE) {
+						m_demand--;
+					}
+				}
+				else if (m_error != null) {
+					error = m_error;
+					m_done = true;
+				}
+				else {
+					m_draining = false;
+					return;
+				}
+			}
+			if (item != null) {
+				m_subscriber.onNext( item);
+			}
+			else {
+				m_subscriber.onError( error);
+			}
+		}
+	}
+}
@@ -0,0 +1,337 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.util.Arrays;
+
+import com.ib.client.Types.DeepSide;
+import com.ib.client.Types.DeepType;
+import com.ib.controller.ApiController.IDeepMktDataHandler;
+
+/**
+ * The market depth of one contract, maintained from the row operations of reqDeepMktData().
+ * Pass the book as the handler, or use an OrderBookEngine.
+ * <p>
+ * Each side keeps the rows as TWS numbers them, with their market makers for L2 depth, and
+ * consolidates them into price levels: the total size at each price and the number of rows,
+ * i.e. market makers or exchanges, that make it up. Everything is kept in primitive arrays
+ * that grow to the deepest book seen, so applying an operation does not allocate.
+ * <p>
+ * Operations are applied on the thread that dispatches the controller's messages; snapshot()
+ * copies both sides, consistently, for any other thread. A listener gets a frame after each
+ * operation on the dispatching thread. After TWS reports that depth was reset (error 317),
+ * clear() the book; TWS then sends it again.
+ */
+public class OrderBook implements IDeepMktDataHandler {
+	private static final int INITIAL_ROWS = 16;
+
+	/** Receives a frame per applied operation; the frame is reused, copy what is kept. */
+	public interface IBookListener {
+		void bookFrame(OrderBook book, Frame frame);
+	}
+
+	private final Ladder m_bids = new Ladder( true);
+	private final Ladder m_asks = new Ladder( false);
+	private final Frame m_frame = new Frame();
+	private final IBookListener m_listener;
+	private long m_seq;	// operations applied, guarded by this
+	private long m_time;	// of the last operation, guarded by this
+
+	public OrderBook() {
+		this( null);
+	}
+
+	public OrderBook(IBookListener listener) {
+		m_listener = listener;
+	}
+
+	@Override public void updateMktDepth(int position, String marketMaker, DeepType operation, DeepSide side, double price, int size) {
+		if (operation == null || side == null || position < 0) {
+			return;
+		}
+		Frame frame = m_frame;
+		synchronized( this) {
+			Ladder ladder = side == DeepSide.BUY ? m_bids : m_asks;
+			switch (operation) {
+				case INSERT:
+					ladder.insert( position, price, size, marketMaker);
+					break;
+				case UPDATE:
+					ladder.update( position, price, size, marketMaker);
+					break;
+				case DELETE:
+					ladder.delete( position);
+					break;
+			}
+			m_seq++;
+			m_time = System.currentTimeMillis();
+			if (m_listener == null) {
+				return;
+			}
+			frame.m_seq = m_seq;
+			frame.m_time = m_time;
+			frame.m_operation = operation;
+			frame.m_side = side;
+			frame.m_position = position;
+			frame.m_price = price;
+			frame.m_size = size;
+			frame.m_marketMaker = marketMaker;
+			frame.m_levelSize = ladder.sizeAt( price);
+			frame.m_bid = m_bids.levelPrice( 0);
+			frame.m_bidSize = m_bids.levelSize( 0);
+			frame.m_ask = m_asks.levelPrice( 0);
+			frame.m_askSize = m_asks.levelSize( 0);
+		}
+		m_listener.bookFrame( this, frame);
+	}
+
+	/** Empties both sides, e.g. after TWS reset the depth. */
+	public synchronized void clear() {
+		m_bids.clear();
+		m_asks.clear();
+		m_seq++;
+		m_time = System.currentTimeMillis();
+	}
+
+	public synchronized long seq()		{ return m_seq; }
+	public synchronized double bid()	{ return m_bids.levelPrice( 0); }
+	public synchronized double ask()	{ return m_asks.levelPrice( 0); }
+	public synchronized int bidSize()	{ return m_bids.levelSize( 0); }
+	public synchronized int askSize()	{ return m_asks.levelSize( 0); }
+
+	/** Copies the book to snapshot, which allocates only when it has to grow; reuse it. */
+	public synchronized void snapshot(Snapshot snapshot) {
+		snapshot.m_seq = m_seq;
+		snapshot.m_time = m_time;
+		m_bids.copyTo( snapshot.m_bids);
+		m_asks.copyTo( snapshot.m_asks);
+	}
+
+	/** @return a new snapshot of the book */
+	public Snapshot snapshot() {
+		Snapshot snapshot = new Snapshot();
+		snapshot( snapshot);
+		return snapshot;
+	}
+
+	@Override public synchronized String toString() {
+		return m_bids.levels() + " bids " + m_bids.levelSize( 0) + " x " + m_bids.levelPrice( 0) + " - "
+				+ m_asks.levelPrice( 0) + " x " + m_asks.levelSize( 0) + " " + m_asks.levels() + " asks";
+	}
+
+	/** Both sides of a book at one point. */
+	public static class Snapshot {
+		private final Ladder m_bids = new Ladder( true);
+		private final Ladder m_asks = new Ladder( false);
+		private long m_seq;
+		private long m_time;
+
+		/** @return the number of operations applied to the book when the snapshot was taken */
+		public long seq()		{ return m_seq; }
+		public long time()		{ return m_time; }
+		public Ladder bids()	{ return m_bids; }
+		public Ladder asks()	{ return m_asks; }
+	}
+
+	/** One applied operation and the top of the book after it. */
+	public static class Frame {
+		private long m_seq;
+		private long m_time;
+		private DeepType m_operation;
+		private DeepSide m_side;
+		private int m_position;
+		private double m_price;
+		private int m_size;
+		private String m_marketMaker;
+		private int m_levelSize;
+		private double m_bid;
+		private int m_bidSize;
+		private double m_ask;
+		private int m_askSize;
+
+		public long seq()				{ return m_seq; }
+		public long time()				{ return m_time; }
+		public DeepType operation()		{ return m_operation; }
+		public DeepSide side()			{ return m_side; }
+		public int position()			{ return m_position; }
+		public double price()			{ return m_price; }
+		public int size()				{ return m_size; }
+		public String marketMaker()		{ return m_marketMaker; }
+		/** @return the total size at price on side after the operation */
+		public int levelSize()			{ return m_levelSize; }
+		public double bid()				{ return m_bid; }
+		public int bidSize()			{ return m_bidSize; }
+		public double ask()				{ return m_ask; }
+		public int askSize()			{ return m_askSize; }
+
+		@Override public String toString() {
+			return m_seq + " " + m_operation + " " + m_side + " " + m_position + " " + m_size + " @ " + m_price
+					+ (m_marketMaker != null ? " " + m_marketMaker : "") + ", level " + m_levelSize
+					+ ", top " + m_bidSize + " x " + m_bid + " - " + m_ask + " x " + m_askSize;
+		}
+	}
+
+	/**
+	 * One side of a book: the rows by position and the price levels, best first. The price of a
+	 * missing row or level is 0.
+	 */
+	public static class Ladder {
+		private final boolean m_bid;	// levels in descending price order
+		private double[] m_rowPrice = new double[INITIAL_ROWS];
+		private int[] m_rowSize = new int[INITIAL_ROWS];
+		private String[] m_rowMarketMaker = new String[INITIAL_ROWS];
+		private int m_rows;
+		private double[] m_levelPrice = new double[INITIAL_ROWS];
+		private int[] m_levelSize = new int[INITIAL_ROWS];
+		private int[] m_levelRows = new int[INITIAL_ROWS];
+		private int m_levels;
+
+		Ladder(boolean bid) {
+			m_bid = bid;
+		}
+
+		public boolean isBid()							{ return m_bid; }
+		public int rows()								{ return m_rows; }
+		public double rowPrice(int row)					{ return row < m_rows ? m_rowPrice[row] : 0; }
+		public int rowSize(int row)						{ return row < m_rows ? m_rowSize[row] : 0; }
+		public String rowMarketMaker(int row)			{ return row < m_rows ? m_rowMarketMaker[row] : null; }
+		public int levels()								{ return m_levels; }
+		public double levelPrice(int level)				{ return level < m_levels ? m_levelPrice[level] : 0; }
+		public int levelSize(int level)					{ return level < m_levels ? m_levelSize[level] : 0; }
+		/** @return the number of rows, i.e. market makers or exchanges, at the level */
+		public int levelRows(int level)					{ return level < m_levels ? m_levelRows[level] : 0; }
+
+		/** @return the total size at price */
+		public int sizeAt(double price) {
+			for (int i = 0; i < m_levels; i++) {
+				if (m_levelPrice[i] == price) {
+					return m_levelSize[i];
+				}
+			}
+			return 0;
+		}
+
+		/** Inserts a row at position, or after the last row if position is past it. */
+		void insert(int position, double price, int size, String marketMaker) {
+			if (m_rows == m_rowPrice.length) {
+				growRows();
+			}
+			if (position > m_rows) {
+				position = m_rows;
+			}
+			int moved = m_rows - position;
+			System.arraycopy( m_rowPrice, position, m_rowPrice, position + 1, moved);
+			System.arraycopy( m_rowSize, position, m_rowSize, position + 1, moved);
+			System.arraycopy( m_rowMarketMaker, position, m_rowMarketMaker, position + 1, moved);
+			m_rowPrice[position] = price;
+			m_rowSize[position] = size;
+			m_rowMarketMaker[position] = marketMaker;
+			m_rows++;
+			addToLevel( price, size, 1);
+		}
+
+		/** Replaces the row at position; a position past the last row is inserted. */
+		void update(int position, double price, int size, String marketMaker) {
+			if (position >= m_rows) {
+				insert( position, price, size, marketMaker);
+				return;
+			}
+			addToLevel( m_rowPrice[position], -m_rowSize[position], -1);
+			m_rowPrice[position] = price;
+			m_rowSize[position] = size;
+			m_rowMarketMaker[position] = marketMaker;
+			addToLevel( price, size, 1);
+		}
+
+		/** Removes the row at position, if there is one. */
+		void delete(int position) {
+			if (position >= m_rows) {
+				return;
+			}
+			addToLevel( m_rowPrice[position], -m_rowSize[position], -1);
+			int moved = m_rows - position - 1;
+			System.arraycopy( m_rowPrice, position + 1, m_rowPrice, position, moved);
+			System.arraycopy( m_rowSize, position + 1, m_rowSize, position, moved);
+			System.arraycopy( m_rowMarketMaker, position + 1, m_rowMarketMaker, position, moved);
+			m_rows--;
+			m_rowMarketMaker[m_rows] = null;
+		}
+
+		void clear() {
+			Arrays.fill( m_rowMarketMaker, 0, m_rows, null);
+			m_rows = 0;
+			m_levels = 0;
+		}
+
+		/** Adds size and rows to the level at price, creating it or removing it when it has no rows left. */
+		private void addToLevel(double price, int size, int rows) {
+			// books are a few dozen levels deep at most and most changes are near the top, so scan from the best
+			int i = 0;
+			while (i < m_levels && (m_bid ? m_levelPrice[i] > price : m_levelPrice[i] < price) ) {
+				i++;
+			}
+			if (i < m_levels && m_levelPrice[i] == price) {
+				m_levelRows[i] += rows;
+				if (m_levelRows[i] > 0) {
+					m_levelSize[i] += size;
+					return;
+				}
+				int moved = m_levels - i - 1;
+				System.arraycopy( m_levelPrice, i + 1, m_levelPrice, i, moved);
+				System.arraycopy( m_levelSize, i + 1, m_levelSize, i, moved);
+				System.arraycopy( m_levelRows, i + 1, m_levelRows, i, moved);
+				m_levels--;
+				return;
+			}
+			if (rows <= 0) {
+				return;	// not reached while rows and levels agree
+			}
+			if (m_levels == m_levelPrice.length) {
+				growLevels();
+			}
+			int moved = m_levels - i;
+			System.arraycopy( m_levelPrice, i, m_levelPrice, i + 1, moved);
+			System.arraycopy( m_levelSize, i, m_levelSize, i + 1, moved);
+			System.arraycopy( m_levelRows, i, m_levelRows, i + 1, moved);
+			m_levelPrice[i] = price;
+			m_levelSize[i] = size;
+			m_levelRows[i] = rows;
+			m_levels++;
+		}
+
+		private void growRows() {
+			int capacity = m_rowPrice.length * 2;
+			m_rowPrice = Arrays.copyOf( m_rowPrice, capacity);
+			m_rowSize = Arrays.copyOf( m_rowSize, capacity);
+			m_rowMarketMaker = Arrays.copyOf( m_rowMarketMaker, capacity);
+		}
+
+		private void growLevels() {
+			int capacity = m_levelPrice.length * 2;
+			m_levelPrice = Arrays.copyOf( m_levelPrice, capacity);
+			m_levelSize = Arrays.copyOf( m_levelSize, capacity);
+			m_levelRows = Arrays.copyOf( m_levelRows, capacity);
+		}
+
+		void copyTo(Ladder to) {
+			while (to.m_rowPrice.length < m_rows) {
+				to.growRows();
+			}
+			while (to.m_levelPrice.length < m_levels) {
+				to.growLevels();
+			}
+			System.arraycopy( m_rowPrice, 0, to.m_rowPrice, 0, m_rows);
+			System.arraycopy( m_rowSize, 0, to.m_rowSize, 0, m_rows);
+			System.arraycopy( m_rowMarketMaker, 0, to.m_rowMarketMaker, 0, m_rows);
+			if (to.m_rows > m_rows) {
+				Arrays.fill( to.m_rowMarketMaker, m_rows, to.m_rows, null);
+			}
+			to.m_rows = m_rows;
+			System.arraycopy( m_levelPrice, 0, to.m_levelPrice, 0, m_levels);
+			System.arraycopy( m_levelSize, 0, to.m_levelSize, 0, m_levels);
+			System.arraycopy( m_levelRows, 0, to.m_levelRows, 0, m_levels);
+			to.m_levels = m_levels;
+		}
+	}
+}
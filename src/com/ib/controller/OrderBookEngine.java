@@ -0,0 +1,66 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import com.ib.client.Contract;
+import com.ib.controller.OrderBook.IBookListener;
+
+/**
+ * Maintains an OrderBook per contract, by conid, from market depth requested through an
+ * ApiController. Any thread can look up a book and take snapshots of it; a listener gets the
+ * frames of all books on the thread that dispatches the controller's messages.
+ */
+public class OrderBookEngine {
+	private final ApiController m_controller;
+	private final IBookListener m_listener;
+	private final ConcurrentIntMap<OrderBook> m_books = new ConcurrentIntMap<OrderBook>();	// by conid
+
+	public OrderBookEngine(ApiController controller) {
+		this( controller, null);
+	}
+
+	public OrderBookEngine(ApiController controller, IBookListener listener) {
+		m_controller = controller;
+		m_listener = listener;
+	}
+
+	/**
+	 * Requests numRows rows of depth for the contract, which must have its conid; a conid is
+	 * subscribed once. Route the contract to an exchange for its depth, or to SMART for L2 depth
+	 * by exchange where the account has it.
+	 * @return the book of the contract
+	 */
+	public synchronized OrderBook subscribe(Contract contract, int numRows) {
+		if (contract.conid() == 0) {
+			throw new IllegalArgumentException( "contract without conid: " + contract.symbol() );
+		}
+		OrderBook book = m_books.get( contract.conid() );
+		if (book == null) {
+			book = new OrderBook( m_listener);
+			m_books.put( contract.conid(), book);
+			m_controller.reqDeepMktData( contract, numRows, book);
+		}
+		return book;
+	}
+
+	public synchronized void unsubscribe(int conid) {
+		OrderBook book = m_books.remove( conid);
+		if (book != null) {
+			m_controller.cancelDeepMktData( book);
+		}
+	}
+
+	/** @return the book of conid or null if it is not subscribed */
+	public OrderBook book(int conid) {
+		return m_books.get( conid);
+	}
+
+	/** Empties the book of conid, after TWS reported that its depth was reset (error 317). */
+	public void reset(int conid) {
+		OrderBook book = m_books.get( conid);
+		if (book != null) {
+			book.clear();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a fixed number of single threaded lanes. Tasks with the same stripe run on the
+ * same lane, one after the other in the order they were submitted, so that the callbacks of one
+ * request stay in order while different requests run in parallel. ApiController stripes the
+ * callbacks it dispatches to a StripedExecutor by request id.
+ */
+public class StripedExecutor implements Executor {
+	private final ExecutorService[] m_lanes;
+	private final AtomicInteger m_next = new AtomicInteger();
+
+	/** @param name prefix of the lanes' daemon thread names */
+	public StripedExecutor(final String name, int lanes) {
+		if (lanes <= 0) {
+			throw new IllegalArgumentException( "lanes must be positive: " + lanes);
+		}
+		m_lanes = new ExecutorService[lanes];
+		for (int i = 0; i < lanes; i++) {
+			final String threadName = name + "-" + i;
+			m_lanes[i] = Executors.newSingleThreadExecutor( new ThreadFactory() {
+				@Override public Thread newThread(Runnable r) {
+					Thread thread = new Thread( r, threadName);
+					thread.setDaemon( true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	public int lanes() {
+		return m_lanes.length;
+	}
+
+	/** Runs task after the tasks submitted before with the same stripe. */
+	public void execute(int stripe, Runnable task) {
+		m_lanes[(stripe & Integer.MAX_VALUE) % m_lanes.length].execute( task);
+	}
+
+	/** Runs task on the next lane, in no order with other tasks. */
+	@Override public void execute(Runnable task) {
+		execute( m_next.getAndIncrement(), task);
+	}
+
+	/** Runs the tasks already submitted, then stops the lanes. */
+	public void shutdown() {
+		for (ExecutorService lane : m_lanes) {
+			lane.shutdown();
+		}
+	}
+
+	/** @return true if all lanes stopped within timeout */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos( timeout);
+		for (ExecutorService lane : m_lanes) {
+			if (!lane.awaitTermination( deadline - System.nanoTime(), TimeUnit.NANOSECONDS) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,202 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.ib.client.Contract;
+import com.ib.client.TickType;
+import com.ib.controller.ApiController.TopMktDataAdapter;
+
+/**
+ * Keeps the current bid, ask and last of the contracts it subscribes to through an ApiController,
+ * so that any thread can read them when it needs them instead of handling the ticks itself.
+ * <p>
+ * Each contract has a row of primitive slots written only by the thread that dispatches the
+ * controller's messages. A row carries a sequence that is odd while a tick is being applied;
+ * snapshot() reads the row between two reads of the sequence and reads it again if it changed,
+ * so it returns values that were current together, without locking or allocating. Delayed data
+ * is kept the same way; values are 0 until they are received.
+ */
+public class TopOfBookStore {
+	static final Set<TickType> TICK_TYPES = EnumSet.of(
+			TickType.BID, TickType.ASK, TickType.LAST, TickType.BID_SIZE, TickType.ASK_SIZE, TickType.LAST_SIZE,
+			TickType.DELAYED_BID, TickType.DELAYED_ASK, TickType.DELAYED_LAST, TickType.DELAYED_BID_SIZE, TickType.DELAYED_ASK_SIZE, TickType.DELAYED_LAST_SIZE);
+
+	// slots of a row; prices are stored as their raw long bits
+	private static final int SEQ = 0;
+	private static final int TIME = 1;
+	private static final int BID = 2;
+	private static final int ASK = 3;
+	private static final int LAST = 4;
+	private static final int BID_SIZE = 5;
+	private static final int ASK_SIZE = 6;
+	private static final int LAST_SIZE = 7;
+	private static final int ROW_SIZE = 8;	// one cache line
+
+	private final ApiController m_controller;
+	private final ConcurrentIntMap<RowHandler> m_rows = new ConcurrentIntMap<RowHandler>();	// by conid
+
+	public TopOfBookStore(ApiController controller) {
+		m_controller = controller;
+	}
+
+	/** Subscribes to the contract, which must have its conid; a conid is subscribed once. */
+	public synchronized void subscribe(Contract contract) {
+		if (contract.conid() == 0) {
+			throw new IllegalArgumentException( "contract without conid: " + contract.symbol() );
+		}
+		if (m_rows.containsKey( contract.conid() ) ) {
+			return;
+		}
+		RowHandler handler = new RowHandler();
+		m_rows.put( contract.conid(), handler);
+		m_controller.reqTopMktData( contract, "", false, TICK_TYPES, handler);
+	}
+
+	public synchronized void unsubscribe(int conid) {
+		RowHandler handler = m_rows.remove( conid);
+		if (handler != null) {
+			m_controller.cancelTopMktData( handler);
+		}
+	}
+
+	public boolean isSubscribed(int conid) {
+		return m_rows.containsKey( conid);
+	}
+
+	/**
+	 * Copies the current values of conid to quote.
+	 * @return false, leaving quote as it is, if conid is not subscribed or nothing was received yet
+	 */
+	public boolean snapshot(int conid, Quote quote) {
+		RowHandler handler = m_rows.get( conid);
+		if (handler == null) {
+			return false;
+		}
+		AtomicLongArray row = handler.m_row;
+		while (true) {
+			long seq = row.get( SEQ);
+			if ((seq & 1) != 0) {
+				Thread.yield();	// a tick is being applied, which takes nanoseconds unless the writer was descheduled
+				continue;
+			}
+			long time = row.get( TIME);
+			long bid = row.get( BID);
+			long ask = row.get( ASK);
+			long last = row.get( LAST);
+			long bidSize = row.get( BID_SIZE);
+			long askSize = row.get( ASK_SIZE);
+			long lastSize = row.get( LAST_SIZE);
+			if (row.get( SEQ) != seq) {
+				continue;
+			}
+			if (time == 0) {
+				return false;
+			}
+			quote.m_conid = conid;
+			quote.m_time = time;
+			quote.m_bid = Double.longBitsToDouble( bid);
+			quote.m_ask = Double.longBitsToDouble( ask);
+			quote.m_last = Double.longBitsToDouble( last);
+			quote.m_bidSize = (int)bidSize;
+			quote.m_askSize = (int)askSize;
+			quote.m_lastSize = (int)lastSize;
+			return true;
+		}
+	}
+
+	/** Values of one contract; reuse one instance per reading thread to read without allocating. */
+	public static class Quote {
+		private int m_conid;
+		private long m_time;
+		private double m_bid;
+		private double m_ask;
+		private double m_last;
+		private int m_bidSize;
+		private int m_askSize;
+		private int m_lastSize;
+
+		public Quote() {
+		}
+
+		Quote(int conid, long time, double bid, int bidSize, double ask, int askSize, double last, int lastSize) {
+			m_conid = conid;
+			m_time = time;
+			m_bid = bid;
+			m_bidSize = bidSize;
+			m_ask = ask;
+			m_askSize = askSize;
+			m_last = last;
+			m_lastSize = lastSize;
+		}
+
+		public int conid()			{ return m_conid; }
+		public long time()			{ return m_time; }
+		public double bid()			{ return m_bid; }
+		public double ask()			{ return m_ask; }
+		public double last()		{ return m_last; }
+		public int bidSize()		{ return m_bidSize; }
+		public int askSize()		{ return m_askSize; }
+		public int lastSize()		{ return m_lastSize; }
+
+		@Override public String toString() {
+			return String.format( "%d: %d x %s - %s x %d, last %d @ %s", m_conid, m_bidSize, m_bid, m_ask, m_askSize, m_lastSize, m_last);
+		}
+	}
+
+	/** Applies the ticks of one contract to its row; called on the thread that dispatches the controller's messages. */
+	private static class RowHandler extends TopMktDataAdapter {
+		final AtomicLongArray m_row = new AtomicLongArray( ROW_SIZE);
+
+		@Override public void tickPrice(TickType tickType, double price, int canAutoExecute) {
+			switch (tickType) {
+				case BID:
+				case DELAYED_BID:
+					set( BID, Double.doubleToRawLongBits( price) );
+					break;
+				case ASK:
+				case DELAYED_ASK:
+					set( ASK, Double.doubleToRawLongBits( price) );
+					break;
+				case LAST:
+				case DELAYED_LAST:
+					set( LAST, Double.doubleToRawLongBits( price) );
+					break;
+				default:
+					break;
+			}
+		}
+
+		@Override public void tickSize(TickType tickType, int size) {
+			switch (tickType) {
+				case BID_SIZE:
+				case DELAYED_BID_SIZE:
+					set( BID_SIZE, size);
+					break;
+				case ASK_SIZE:
+				case DELAYED_ASK_SIZE:
+					set( ASK_SIZE, size);
+					break;
+				case LAST_SIZE:
+				case DELAYED_LAST_SIZE:
+					set( LAST_SIZE, size);
+					break;
+				default:
+					break;
+			}
+		}
+
+		/** The odd sequence is a volatile write, so the lazySets that follow cannot be seen before it. */
+		private void set(int slot, long value) {
+			long seq = m_row.get( SEQ);
+			m_row.set( SEQ, seq + 1);
+			m_row.lazySet( slot, value);
+			m_row.lazySet( TIME, System.currentTimeMillis() );
+			m_row.lazySet( SEQ, seq + 2);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import com.ib.client.Contract;
+import com.ib.client.Execution;
+
+/** An execution and its contract, with the key of the trade it belongs to. */
+public class TradeReport {
+	private final String m_tradeKey;
+	private final Contract m_contract;
+	private final Execution m_execution;
+
+	public String tradeKey() 		{ return m_tradeKey; }
+	public Contract contract() 		{ return m_contract; }
+	public Execution execution() 	{ return m_execution; }
+
+	public TradeReport( String tradeKey, Contract contract, Execution execution) {
+		m_tradeKey = tradeKey;
+		m_contract = contract;
+		m_execution = execution;
+	}
+
+	@Override public String toString() {
+		return m_tradeKey + " " + m_contract.symbol() + " " + m_execution.side() + " " + m_execution.shares() + " @ " + m_execution.price();
+	}
+}
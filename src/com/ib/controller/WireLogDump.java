@@ -0,0 +1,92 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.controller;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Renders a file written by AsyncWireLogger as text, one record per line:
+ * time, direction, length and the bytes with field separators shown as '_'.
+ * <p>
+ * Usage: java com.ib.controller.WireLogDump &lt;file&gt;
+ */
+public class WireLogDump {
+	private final SimpleDateFormat m_format = new SimpleDateFormat( "yyyyMMdd HH:mm:ss.SSS");
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println( "usage: WireLogDump <file>");
+			System.exit( 1);
+		}
+
+		try (InputStream in = new FileInputStream( args[0]) ) {
+			new WireLogDump().dump( in, System.out);
+		}
+	}
+
+	public void dump(InputStream in, PrintStream out) throws IOException {
+		DataInputStream dis = new DataInputStream( new BufferedInputStream( in, 1 << 16) );
+
+		if (dis.readInt() != AsyncWireLogger.MAGIC) {
+			throw new IOException( "not a wire log");
+		}
+		int version = dis.readInt();
+		if (version != AsyncWireLogger.VERSION) {
+			throw new IOException( "unsupported wire log version " + version);
+		}
+		long baseMillis = dis.readLong();
+		long baseNanos = dis.readLong();
+
+		byte[] buf = new byte[1024];
+		StringBuilder sb = new StringBuilder();
+
+		while (true) {
+			long nanos;
+			try {
+				nanos = dis.readLong();
+			}
+			catch (EOFException e) {
+				break;
+			}
+			byte direction = dis.readByte();
+			int len = dis.readInt();
+			if (len > buf.length) {
+				buf = new byte[Math.max( len, buf.length * 2)];
+			}
+			dis.readFully( buf, 0, len);
+
+			long sinceBase = nanos - baseNanos;
+			sb.setLength( 0);
+			sb.append( m_format.format( new Date( baseMillis + sinceBase / 1000000) ) );
+			sb.append( String.format( "%03d", sinceBase / 1000 % 1000) ); // microseconds
+			sb.append( direction == AsyncWireLogger.IN ? " IN  " : " OUT ");
+			sb.append( String.format( "%6d ", len) );
+			appendText( sb, buf, len);
+			out.println( sb);
+		}
+	}
+
+	private static void appendText(StringBuilder sb, byte[] buf, int len) {
+		for (int i = 0; i < len; i++) {
+			int b = buf[i] & 0xff;
+			if (b == ApiConnection.EOL) {
+				sb.append( ApiConnection.LOG_EOL);
+			}
+			else if (b < 0x20 || b >= 0x7f) {
+				sb.append( String.format( "\\x%02x", b) );
+			}
+			else {
+				sb.append( (char)b);
+			}
+		}
+	}
+}
@@ -0,0 +1,645 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.ib.client.EClient;
+
+/**
+ * Shares one upstream TWS or gateway connection among any number of API clients: applications
+ * connect to the proxy with an unmodified EClientSocket as they would to TWS, and their requests
+ * go out over the single upstream connection.
+ * <p>
+ * The ids chosen by each client are replaced by upstream ids, which are unique across clients,
+ * and the responses are sent to the clients that made the request with their own ids. Identical
+ * market data and real time bar subscriptions share one upstream subscription, which is cancelled
+ * when its last subscriber cancels or disconnects; a client that joins a shared market data
+ * subscription is sent the last tick of each type first. Messages without an id, such as account
+ * updates, positions and bulletins, go to all clients; open orders, order status and executions
+ * only to the client that placed the order, and reqGlobalCancel cancels only the client's own
+ * orders. Each client gets its own order id sequence starting at 1.
+ * <p>
+ * Frames are forwarded without decoding them, so clients must support the server version of the
+ * upstream connection. One thread reads the upstream connection and writes to all clients; a
+ * client that stops reading delays the others once its socket buffer is full.
+ * <p>
+ * Usage: java com.ib.server.FanOutProxy &lt;tws host&gt; &lt;tws port&gt; [port [client id]]
+ */
+public class FanOutProxy implements Closeable {
+	public static final int DEFAULT_PORT = 7490;
+	public static final int ORDER_NOT_FOUND = 10147;
+
+	// msg ids sent by the server
+	private static final int TICK_PRICE = 1;
+	private static final int TICK_SIZE = 2;
+	private static final int NEXT_VALID_ID = 9;
+	private static final int EXECUTION_DATA = 11;
+	private static final int MANAGED_ACCTS = 15;
+	private static final int HISTORICAL_DATA = 17;
+	private static final int TICK_OPTION_COMPUTATION = 21;
+	private static final int TICK_GENERIC = 45;
+	private static final int TICK_STRING = 46;
+	private static final int TICK_EFP = 47;
+	private static final int FUNDAMENTAL_DATA = 51;
+	private static final int CONTRACT_DATA_END = 52;
+	private static final int EXECUTION_DATA_END = 55;
+	private static final int TICK_SNAPSHOT_END = 57;
+	private static final int MARKET_DATA_TYPE = 58;
+	private static final int COMMISSION_REPORT = 59;
+	private static final int SECURITY_DEFINITION_OPTION_PARAMETER_END = 76;
+	private static final int SOFT_DOLLAR_TIERS = 77;
+
+	// msg ids sent by the proxy, see EClient
+	private static final int REQ_GLOBAL_CANCEL = 58;
+	private static final int MIN_SERVER_VER_OPTIONAL_CAPABILITIES = 72;
+
+	private static final byte[] API_HEADER = "API\0".getBytes();
+	private static final int MAX_MSG_LENGTH = 0xffffff;
+	private static final int EXEC_ID_FIELD = 15;	// after req id, order id and 11 contract fields
+
+	private final String m_host;
+	private final int m_upstreamPort;
+	private final int m_clientId;
+	private final ServerSocket m_serverSocket;
+	private final CopyOnWriteArrayList<ProxySession> m_sessions = new CopyOnWriteArrayList<ProxySession>();
+	private Socket m_upstream;
+	private DataInputStream m_upIn;
+	private DataOutputStream m_upOut;
+	private int m_serverVersion;
+	private byte[] m_frame = new byte[8192];	// read by the upstream thread
+	private Thread m_acceptor;
+	private volatile boolean m_closed;
+
+	// guarded by this
+	private int m_nextId;	// the next upstream request or order id, both use the same range
+	private String m_accounts = "";
+	private final HashMap<Integer,Route> m_routes = new HashMap<Integer,Route>();	// by upstream id
+	private final HashMap<String,Route> m_shared = new HashMap<String,Route>();	// shared subscriptions by request without id
+	private final HashMap<String,ProxySession> m_execIds = new HashMap<String,ProxySession>();	// for commission reports
+	private long m_upstreamRequests;
+	private long m_sharedRequests;
+	private byte[] m_out = new byte[8192];
+	private byte[] m_tmp = new byte[8192];
+
+	/** Listens on port once started; upstream is TWS or the gateway at host:upstreamPort, connected to with clientId. */
+	public FanOutProxy(int port, String host, int upstreamPort, int clientId) throws IOException {
+		m_host = host;
+		m_upstreamPort = upstreamPort;
+		m_clientId = clientId;
+		m_serverSocket = new ServerSocket( port);
+	}
+
+	public int port()				{ return m_serverSocket.getLocalPort(); }
+	public int serverVersion()		{ return m_serverVersion; }
+	public int sessionCount()		{ return m_sessions.size(); }
+
+	/** @return the number of requests sent upstream, including cancels */
+	public synchronized long upstreamRequests()	{ return m_upstreamRequests; }
+
+	/** @return the number of subscriptions that were served by an existing upstream subscription */
+	public synchronized long sharedRequests()	{ return m_sharedRequests; }
+
+	/** @return the number of open upstream market data and real time bar subscriptions */
+	public synchronized int subscriptions()		{ return m_shared.size(); }
+
+	/** Connects upstream, then starts accepting connections on a background thread. */
+	public synchronized void start() throws IOException {
+		if (m_acceptor != null) {
+			return;
+		}
+		connectUpstream();
+
+		new Thread( "FanOutProxy-" + port() + "-upstream") {
+			@Override public void run() {
+				read();
+			}
+		}.start();
+
+		m_acceptor = new Thread( "FanOutProxy-" + port() ) {
+			@Override public void run() {
+				accept();
+			}
+		};
+		m_acceptor.start();
+	}
+
+	/** Performs the client side of the V100 handshake and waits for the first nextValidId. */
+	private void connectUpstream() throws IOException {
+		m_upstream = new Socket( m_host, m_upstreamPort);
+		m_upstream.setTcpNoDelay( true);
+		m_upIn = new DataInputStream( new BufferedInputStream( m_upstream.getInputStream(), 1 << 16) );
+		m_upOut = new DataOutputStream( new BufferedOutputStream( m_upstream.getOutputStream(), 1 << 16) );
+
+		m_upOut.write( API_HEADER);
+		byte[] versions = ("v" + EClient.MIN_VERSION + ".." + EClient.MAX_VERSION).getBytes();
+		m_upOut.writeInt( versions.length);
+		m_upOut.write( versions);
+		m_upOut.flush();
+
+		// server version and connection time
+		int len = readUpstream();
+		Integer version = IdFields.parseInt( m_frame, len, 0);
+		if (version == null) {
+			throw new IOException( "upstream does not use the V100 protocol");
+		}
+		m_serverVersion = version;
+
+		String startApi = ServerSession.START_API + "\0" + 2 + "\0" + m_clientId + "\0"
+				+ (m_serverVersion >= MIN_SERVER_VER_OPTIONAL_CAPABILITIES ? "\0" : "");
+		byte[] frame = startApi.getBytes();
+		synchronized( this) {
+			sendUpstream( frame, frame.length);
+		}
+
+		// nextValidId and managedAccounts follow
+		while (nextId() == 0) {
+			route( m_frame, readUpstream() );
+		}
+	}
+
+	private synchronized int nextId() {
+		return m_nextId;
+	}
+
+	private int readUpstream() throws IOException {
+		int len = m_upIn.readInt();
+		if (len < 0 || len > MAX_MSG_LENGTH) {
+			throw new IOException( "invalid message length " + len);
+		}
+		if (len > m_frame.length) {
+			m_frame = new byte[Math.max( len, 2 * m_frame.length)];
+		}
+		m_upIn.readFully( m_frame, 0, len);
+		return len;
+	}
+
+	/** Routes upstream frames until the connection is closed, flushing the clients whenever no more input is buffered. */
+	private void read() {
+		try {
+			while (!m_closed) {
+				route( m_frame, readUpstream() );
+				if (m_upIn.available() == 0) {
+					for (ProxySession session : m_sessions) {
+						session.flushFrames();
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			// upstream disconnected or close() was called
+		}
+		finally {
+			closeQuietly();
+		}
+	}
+
+	private void accept() {
+		int count = 0;
+		while (!m_serverSocket.isClosed() ) {
+			try {
+				Socket socket = m_serverSocket.accept();
+				ProxySession session = new ProxySession( this, socket);
+				m_sessions.add( session);
+				session.start( "FanOutProxy-" + port() + "-" + ++count);
+			}
+			catch (SocketException e) {
+				// server socket closed
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	synchronized void startApi(ProxySession session) throws IOException {
+		session.m_started = true;
+		session.welcome( m_accounts);
+	}
+
+	/** Forwards a client request upstream with the client's ids replaced. */
+	synchronized void request(ProxySession session, RequestFields fields, byte[] frame) throws IOException {
+		int msgId = fields.msgId();
+		switch (msgId) {
+			case ServerSession.REQ_IDS:
+				session.nextValidId();
+				return;
+			case ServerSession.PLACE_ORDER:
+				placeOrder( session, fields.intAt( 2), frame);
+				return;
+			case ServerSession.CANCEL_ORDER:
+				cancelOrder( session, fields.intAt( 2), frame);
+				return;
+			case REQ_GLOBAL_CANCEL:
+				for (Integer orderId : new ArrayList<Integer>( session.m_orderIds.keySet() ) ) {
+					cancelOrder( session, orderId, null);
+				}
+				return;
+		}
+
+		int field = IdFields.request( msgId);
+		if (field > 0) {
+			int id = fields.intAt( field);
+			release( session, id);	// the client reuses an id
+
+			boolean shareable = msgId == ServerSession.REQ_REAL_TIME_BARS
+					|| msgId == ServerSession.REQ_MKT_DATA && !IdFields.snapshot( fields);
+			if (shareable) {
+				subscribe( session, id, msgId, field, frame);
+			}
+			else {
+				Route route = new Route( m_nextId++, IdFields.cancelledBy( msgId), null);
+				route.add( session, id);
+				m_routes.put( route.m_id, route);
+				session.m_requestIds.put( id, route.m_id);
+				sendUpstream( frame, field, route.m_id);
+			}
+			return;
+		}
+
+		if (IdFields.cancel( msgId) > 0) {
+			release( session, fields.intAt( IdFields.cancel( msgId) ) );
+			return;
+		}
+
+		sendUpstream( frame, frame.length);
+	}
+
+	/** Adds the client to the upstream subscription for the same request, creating it if there is none. */
+	private void subscribe(ProxySession session, int id, int msgId, int field, byte[] frame) throws IOException {
+		int pos = IdFields.fieldStart( frame, frame.length, field);
+		int end = pos;
+		while (end < frame.length && frame[end] != 0) {
+			end++;
+		}
+		String key = new String( frame, 0, pos, StandardCharsets.ISO_8859_1) + new String( frame, end, frame.length - end, StandardCharsets.ISO_8859_1);
+
+		Route route = m_shared.get( key);
+		if (route == null) {
+			route = new Route( m_nextId++, IdFields.cancelledBy( msgId), key);
+			m_routes.put( route.m_id, route);
+			m_shared.put( key, route);
+			sendUpstream( frame, field, route.m_id);
+		}
+		else {
+			m_sharedRequests++;
+			for (Frame last : route.m_last.values() ) {
+				session.send( m_out, IdFields.replace( last.m_buf, last.m_len, last.m_idPos, id, out( last.m_len) ) );
+			}
+			session.flushFrames();
+		}
+		route.add( session, id);
+		session.m_requestIds.put( id, route.m_id);
+	}
+
+	/** Removes the client from the route of its request id; the upstream request is cancelled once no client is left. */
+	private void release(ProxySession session, int id) throws IOException {
+		Integer upstreamId = session.m_requestIds.remove( id);
+		Route route = upstreamId != null ? m_routes.get( upstreamId) : null;
+		if (route == null) {
+			return;	// unknown or already complete
+		}
+		route.remove( session, id);
+		if (!route.isEmpty() ) {
+			return;
+		}
+		m_routes.remove( route.m_id);
+		if (route.m_key != null) {
+			m_shared.remove( route.m_key);
+		}
+		if (route.m_cancelMsgId != 0) {
+			byte[] cancel = (route.m_cancelMsgId + "\0" + 1 + "\0" + route.m_id + "\0").getBytes();
+			sendUpstream( cancel, cancel.length);
+		}
+	}
+
+	private void placeOrder(ProxySession session, int orderId, byte[] frame) throws IOException {
+		Integer upstreamId = session.m_orderIds.get( orderId);
+		if (upstreamId == null) {
+			Route route = new Route( m_nextId++, 0, null);
+			route.add( session, orderId);
+			m_routes.put( route.m_id, route);
+			session.m_orderIds.put( orderId, route.m_id);
+			upstreamId = route.m_id;
+		}
+		session.m_nextOrderId = Math.max( session.m_nextOrderId, orderId + 1);
+		sendUpstream( frame, 2, upstreamId);
+	}
+
+	/** @param frame the client's cancel, or null to send a version 1 cancel */
+	private void cancelOrder(ProxySession session, int orderId, byte[] frame) throws IOException {
+		Integer upstreamId = session.m_orderIds.get( orderId);
+		if (upstreamId == null) {
+			session.error( orderId, ORDER_NOT_FOUND, "OrderId " + orderId + " that needs to be cancelled is not found.");
+			return;
+		}
+		if (frame == null) {
+			frame = (ServerSession.CANCEL_ORDER + "\0" + 1 + "\0" + upstreamId + "\0").getBytes();
+			sendUpstream( frame, frame.length);
+		}
+		else {
+			sendUpstream( frame, 2, upstreamId);
+		}
+	}
+
+	/** Ends the client's requests; subscriptions no other client shares are cancelled, orders stay working. */
+	synchronized void sessionClosed(ProxySession session) {
+		m_sessions.remove( session);
+		try {
+			for (Integer id : new ArrayList<Integer>( session.m_requestIds.keySet() ) ) {
+				release( session, id);
+			}
+		}
+		catch (IOException e) {
+			// upstream disconnected, the upstream thread closes the proxy
+		}
+		for (Integer upstreamId : session.m_orderIds.values() ) {
+			m_routes.remove( upstreamId);
+		}
+		m_execIds.values().removeAll( Collections.singleton( session) );
+	}
+
+	/** Sends an upstream frame to the clients it is for. */
+	private synchronized void route(byte[] buf, int len) {
+		Integer msgId = IdFields.parseInt( buf, len, 0);
+		if (msgId == null) {
+			return;
+		}
+		switch (msgId) {
+			case NEXT_VALID_ID: {
+				Integer id = intField( buf, len, 2);
+				if (id != null) {
+					m_nextId = Math.max( m_nextId, id);
+				}
+				return;	// each client has its own order ids
+			}
+			case MANAGED_ACCTS:
+				m_accounts = field( buf, len, 2);
+				broadcast( buf, len);
+				return;
+			case EXECUTION_DATA:
+				execution( buf, len);
+				return;
+			case COMMISSION_REPORT: {
+				ProxySession session = m_execIds.get( field( buf, len, 2) );
+				if (session != null) {
+					session.send( buf, len);
+				}
+				return;
+			}
+		}
+
+		int field = IdFields.response( msgId);
+		int pos = field > 0 ? IdFields.fieldStart( buf, len, field) : -1;
+		Integer id = pos >= 0 ? IdFields.parseInt( buf, len, pos) : null;
+		if (id == null || id == -1) {
+			broadcast( buf, len);
+			return;
+		}
+
+		Route route = m_routes.get( id);
+		if (route == null) {
+			return;	// cancelled, or an order of another API client
+		}
+		if (route.m_key != null && isTick( msgId) ) {
+			route.last( msgId, buf, len, pos);
+		}
+		for (int i = 0; i < route.size(); i++) {
+			route.session( i).send( m_out, IdFields.replace( buf, len, pos, route.id( i), out( len) ) );
+		}
+		if (isEnd( msgId) ) {
+			m_routes.remove( id);
+			for (int i = 0; i < route.size(); i++) {
+				route.session( i).m_requestIds.remove( route.id( i) );
+			}
+		}
+	}
+
+	/** Sends execDetails for reqExecutions to the requester and live ones (req id -1) to the client that placed the order. */
+	private void execution(byte[] buf, int len) {
+		int reqPos = IdFields.fieldStart( buf, len, 2);
+		int orderPos = IdFields.fieldStart( buf, len, 3);
+		Integer reqId = intField( buf, len, 2);
+		Integer orderId = intField( buf, len, 3);
+		if (reqId == null || orderId == null) {
+			return;
+		}
+		Route order = m_routes.get( orderId);
+		Route route = reqId == -1 ? order : m_routes.get( reqId);
+		if (route == null) {
+			return;
+		}
+		String execId = field( buf, len, EXEC_ID_FIELD);
+
+		for (int i = 0; i < route.size(); i++) {
+			ProxySession session = route.session( i);
+			byte[] src = buf;
+			int n = len;
+			int orderIndex = order != null ? order.indexOf( session) : -1;
+			if (orderIndex >= 0) {
+				// the order id comes after the req id, replace it first
+				n = IdFields.replace( buf, len, orderPos, order.id( orderIndex), tmp( len) );
+				src = m_tmp;
+			}
+			if (reqId != -1) {
+				n = IdFields.replace( src, n, reqPos, route.id( i), out( n) );
+				src = m_out;
+			}
+			session.send( src, n);
+			m_execIds.put( execId, session);
+		}
+	}
+
+	private void broadcast(byte[] buf, int len) {
+		for (ProxySession session : m_sessions) {
+			if (session.m_started) {
+				session.send( buf, len);
+			}
+		}
+	}
+
+	private void sendUpstream(byte[] frame, int field, int id) throws IOException {
+		int pos = IdFields.fieldStart( frame, frame.length, field);
+		if (pos < 0) {
+			throw new IOException( "message " + new RequestFields( frame) + " has no field " + field);
+		}
+		sendUpstream( m_out, IdFields.replace( frame, frame.length, pos, id, out( frame.length) ) );
+	}
+
+	private void sendUpstream(byte[] buf, int len) throws IOException {
+		m_upOut.writeInt( len);
+		m_upOut.write( buf, 0, len);
+		m_upOut.flush();
+		m_upstreamRequests++;
+	}
+
+	/** @return m_out with room for a frame of len bytes with an id replaced */
+	private byte[] out(int len) {
+		if (m_out.length < len + 11) {
+			m_out = new byte[len + 11 + len / 2];
+		}
+		return m_out;
+	}
+
+	private byte[] tmp(int len) {
+		if (m_tmp.length < len + 11) {
+			m_tmp = new byte[len + 11 + len / 2];
+		}
+		return m_tmp;
+	}
+
+	private static String field(byte[] buf, int len, int index) {
+		int pos = IdFields.fieldStart( buf, len, index);
+		if (pos < 0) {
+			return "";
+		}
+		int end = pos;
+		while (end < len && buf[end] != 0) {
+			end++;
+		}
+		return new String( buf, pos, end - pos, StandardCharsets.ISO_8859_1);
+	}
+
+	/** @return the int field at index, or null if there is none */
+	private static Integer intField(byte[] buf, int len, int index) {
+		int pos = IdFields.fieldStart( buf, len, index);
+		return pos >= 0 ? IdFields.parseInt( buf, len, pos) : null;
+	}
+
+	private static boolean isTick(int msgId) {
+		switch (msgId) {
+			case TICK_PRICE: case TICK_SIZE: case TICK_OPTION_COMPUTATION: case TICK_GENERIC: case TICK_STRING: case TICK_EFP: case MARKET_DATA_TYPE:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/** @return true for the last message of a request that is not a subscription */
+	private static boolean isEnd(int msgId) {
+		switch (msgId) {
+			case HISTORICAL_DATA: case FUNDAMENTAL_DATA: case CONTRACT_DATA_END: case EXECUTION_DATA_END:
+			case TICK_SNAPSHOT_END: case SECURITY_DEFINITION_OPTION_PARAMETER_END: case SOFT_DOLLAR_TIERS:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/** Stops accepting connections, disconnects all clients and closes the upstream connection. */
+	@Override public void close() throws IOException {
+		m_closed = true;
+		m_serverSocket.close();
+		for (ProxySession session : m_sessions) {
+			session.close();
+		}
+		if (m_upstream != null) {
+			m_upstream.close();
+		}
+	}
+
+	private void closeQuietly() {
+		try {
+			close();
+		}
+		catch (IOException e) {
+			// ignore, closing anyway
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println( "usage: FanOutProxy <tws host> <tws port> [port [client id]]");
+			System.exit( 1);
+		}
+		FanOutProxy proxy = new FanOutProxy(
+				args.length > 2 ? Integer.parseInt( args[2]) : DEFAULT_PORT,
+				args[0],
+				Integer.parseInt( args[1]),
+				args.length > 3 ? Integer.parseInt( args[3]) : 0);
+		proxy.start();
+		System.out.println( "FanOutProxy listening on port " + proxy.port() + ", upstream " + args[0] + ":" + args[1] + " server version " + proxy.serverVersion() );
+	}
+
+	/** The clients and their ids for one upstream id. */
+	private static class Route {
+		final int m_id;
+		final int m_cancelMsgId;	// 0 if there is nothing to cancel upstream
+		final String m_key;			// shared subscriptions only
+		final ArrayList<ProxySession> m_sessions = new ArrayList<ProxySession>( 1);
+		final ArrayList<Integer> m_ids = new ArrayList<Integer>( 1);
+		final HashMap<Integer,Frame> m_last = new HashMap<Integer,Frame>();	// last tick by msg id and tick type
+
+		Route(int id, int cancelMsgId, String key) {
+			m_id = id;
+			m_cancelMsgId = cancelMsgId;
+			m_key = key;
+		}
+
+		int size()						{ return m_sessions.size(); }
+		boolean isEmpty()				{ return m_sessions.isEmpty(); }
+		ProxySession session(int i)		{ return m_sessions.get( i); }
+		int id(int i)					{ return m_ids.get( i); }
+		int indexOf(ProxySession s)		{ return m_sessions.indexOf( s); }
+
+		void add(ProxySession session, int id) {
+			m_sessions.add( session);
+			m_ids.add( id);
+		}
+
+		void remove(ProxySession session, int id) {
+			for (int i = 0; i < m_sessions.size(); i++) {
+				if (m_sessions.get( i) == session && m_ids.get( i) == id) {
+					m_sessions.remove( i);
+					m_ids.remove( i);
+					return;
+				}
+			}
+		}
+
+		/** Keeps a copy of a tick for clients that join later; the tick type, if any, follows the id. */
+		void last(int msgId, byte[] buf, int len, int idPos) {
+			Integer tickType = msgId == MARKET_DATA_TYPE ? Integer.valueOf( 0) : intField( buf, len, 3);
+			if (tickType == null) {
+				return;
+			}
+			Integer key = msgId << 16 | tickType;
+			Frame frame = m_last.get( key);
+			if (frame == null) {
+				frame = new Frame();
+				m_last.put( key, frame);
+			}
+			frame.set( buf, len, idPos);
+		}
+	}
+
+	/** A copy of a frame, reusing its buffer. */
+	private static class Frame {
+		byte[] m_buf = new byte[64];
+		int m_len;
+		int m_idPos;
+
+		void set(byte[] buf, int len, int idPos) {
+			if (m_buf.length < len) {
+				m_buf = new byte[len];
+			}
+			System.arraycopy( buf, 0, m_buf, 0, len);
+			m_len = len;
+			m_idPos = idPos;
+		}
+	}
+}
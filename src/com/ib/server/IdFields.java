@@ -0,0 +1,143 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.server;
+
+/**
+ * Where the request, ticker or order id sits in each message, as a field index counting the
+ * msg id as field 0, for current server versions; 0 means the message carries no such id.
+ * Used to rewrite ids when one side of a connection chose different ids than the other.
+ */
+class IdFields {
+	private static final int MAX_MSG_ID = 127;
+
+	private static final int[] REQUEST = new int[MAX_MSG_ID + 1];	// client requests that introduce an id
+	private static final int[] CANCEL = new int[MAX_MSG_ID + 1];	// client requests that end one
+	private static final int[] RESPONSE = new int[MAX_MSG_ID + 1];	// server messages that refer to one
+	private static final int[] CANCELLED_BY = new int[MAX_MSG_ID + 1];	// the cancel msg id of each subscription request
+	private static final boolean[] CONTRACT = new boolean[MAX_MSG_ID + 1];	// requests with conId, symbol as fields 3, 4
+
+	static {
+		request( 1, 2, true);	// REQ_MKT_DATA
+		request( 3, 2, true);	// PLACE_ORDER
+		request( 7, 2, false);	// REQ_EXECUTIONS
+		request( 9, 2, true);	// REQ_CONTRACT_DATA
+		request( 10, 2, true);	// REQ_MKT_DEPTH
+		request( 20, 2, true);	// REQ_HISTORICAL_DATA
+		request( 22, 2, false);	// REQ_SCANNER_SUBSCRIPTION
+		request( 50, 2, true);	// REQ_REAL_TIME_BARS
+		request( 52, 2, true);	// REQ_FUNDAMENTAL_DATA
+		request( 54, 2, true);	// REQ_CALC_IMPLIED_VOLAT
+		request( 55, 2, true);	// REQ_CALC_OPTION_PRICE
+		request( 62, 2, false);	// REQ_ACCOUNT_SUMMARY
+		request( 74, 2, false);	// REQ_POSITIONS_MULTI
+		request( 76, 2, false);	// REQ_ACCOUNT_UPDATES_MULTI
+		request( 78, 1, false);	// REQ_SEC_DEF_OPT_PARAMS
+		request( 79, 1, false);	// REQ_SOFT_DOLLAR_TIERS
+
+		for (int msgId : new int[] { 2, 11, 23, 25, 51, 53, 56, 57, 63, 75, 77 }) {
+			CANCEL[msgId] = 2;	// CANCEL_MKT_DATA ... CANCEL_ACCOUNT_UPDATES_MULTI
+		}
+
+		// REQ_MKT_DATA, REQ_MKT_DEPTH, REQ_SCANNER_SUBSCRIPTION, REQ_HISTORICAL_DATA, REQ_REAL_TIME_BARS,
+		// REQ_FUNDAMENTAL_DATA, REQ_CALC_IMPLIED_VOLAT, REQ_CALC_OPTION_PRICE, REQ_ACCOUNT_SUMMARY,
+		// REQ_POSITIONS_MULTI, REQ_ACCOUNT_UPDATES_MULTI and their cancels, all of them version 1
+		int[] requests = { 1, 10, 22, 20, 50, 52, 54, 55, 62, 74, 76 };
+		int[] cancels = { 2, 11, 23, 25, 51, 53, 56, 57, 63, 75, 77 };
+		for (int i = 0; i < requests.length; i++) {
+			CANCELLED_BY[requests[i]] = cancels[i];
+		}
+
+		// TICK_PRICE, TICK_SIZE, ORDER_STATUS, ERR_MSG, OPEN_ORDER, CONTRACT_DATA, EXECUTION_DATA,
+		// MARKET_DEPTH, MARKET_DEPTH_L2, HISTORICAL_DATA, BOND_CONTRACT_DATA, SCANNER_DATA,
+		// TICK_OPTION_COMPUTATION, TICK_GENERIC, TICK_STRING, TICK_EFP, REAL_TIME_BARS,
+		// FUNDAMENTAL_DATA, CONTRACT_DATA_END, EXECUTION_DATA_END, DELTA_NEUTRAL_VALIDATION,
+		// TICK_SNAPSHOT_END, MARKET_DATA_TYPE, ACCOUNT_SUMMARY, ACCOUNT_SUMMARY_END,
+		// POSITION_MULTI, POSITION_MULTI_END, ACCOUNT_UPDATE_MULTI, ACCOUNT_UPDATE_MULTI_END
+		for (int msgId : new int[] { 1, 2, 3, 4, 5, 10, 11, 12, 13, 17, 18, 20, 21, 45, 46, 47, 50, 51, 52, 55, 56, 57, 58, 63, 64, 71, 72, 73, 74 }) {
+			RESPONSE[msgId] = 2;
+		}
+		// SECURITY_DEFINITION_OPTION_PARAMETER, SECURITY_DEFINITION_OPTION_PARAMETER_END, SOFT_DOLLAR_TIERS
+		for (int msgId : new int[] { 75, 76, 77 }) {
+			RESPONSE[msgId] = 1;
+		}
+	}
+
+	private static void request(int msgId, int field, boolean contract) {
+		REQUEST[msgId] = field;
+		CONTRACT[msgId] = contract;
+	}
+
+	private static int lookup(int[] table, int msgId) {
+		return msgId >= 0 && msgId <= MAX_MSG_ID ? table[msgId] : 0;
+	}
+
+	static int request(int msgId)		{ return lookup( REQUEST, msgId); }
+	static int cancel(int msgId)		{ return lookup( CANCEL, msgId); }
+	static int response(int msgId)		{ return lookup( RESPONSE, msgId); }
+	static int cancelledBy(int msgId)	{ return lookup( CANCELLED_BY, msgId); }
+
+	/** @return the symbol of a request for a contract or "" so that requests can be matched by instrument. */
+	static String symbol(RequestFields fields) {
+		int msgId = fields.msgId();
+		return msgId >= 0 && msgId <= MAX_MSG_ID && CONTRACT[msgId] ? fields.str( 4) : "";
+	}
+
+	/** @return true if a REQ_MKT_DATA request is for a snapshot rather than a subscription */
+	static boolean snapshot(RequestFields fields) {
+		// conId and 11 contract fields, combo legs for BAG, delta neutral contract, generic ticks, snapshot
+		int i = 15;
+		if ("BAG".equals( fields.str( 5) ) ) {
+			i += 1 + 4 * fields.intAt( i);
+		}
+		i += fields.boolAt( i) ? 4 : 1;
+		return fields.boolAt( i + 1);
+	}
+
+	/** @return the offset of field index in buf, or -1 if there are fewer fields */
+	static int fieldStart(byte[] buf, int len, int index) {
+		int pos = 0;
+		for (int i = 0; i < index; i++) {
+			while (pos < len && buf[pos] != 0) {
+				pos++;
+			}
+			if (++pos >= len) {
+				return -1;
+			}
+		}
+		return pos;
+	}
+
+	/** @return the int field starting at pos, or null if it is not a number, e.g. ERR_MSG version 1 */
+	static Integer parseInt(byte[] buf, int len, int pos) {
+		boolean negative = pos < len && buf[pos] == '-';
+		int i = negative ? pos + 1 : pos;
+		if (i >= len || buf[i] == 0) {
+			return null;
+		}
+		int val = 0;
+		for (; i < len && buf[i] != 0; i++) {
+			if (buf[i] < '0' || buf[i] > '9') {
+				return null;
+			}
+			val = val * 10 + buf[i] - '0';
+		}
+		return negative ? -val : val;
+	}
+
+	/**
+	 * Writes buf with the int field at pos replaced by id into out.
+	 * @return the new length
+	 */
+	static int replace(byte[] buf, int len, int pos, int id, byte[] out) {
+		int end = pos;
+		while (end < len && buf[end] != 0) {
+			end++;
+		}
+		byte[] digits = String.valueOf( id).getBytes();
+		System.arraycopy( buf, 0, out, 0, pos);
+		System.arraycopy( digits, 0, out, pos, digits.length);
+		System.arraycopy( buf, end, out, pos + digits.length, len - end);
+		return len - (end - pos) + digits.length;
+	}
+}
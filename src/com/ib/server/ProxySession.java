@@ -0,0 +1,122 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+
+import com.ib.client.EClientErrors;
+
+/**
+ * One downstream client of a FanOutProxy. Requests are passed to the proxy, which rewrites their
+ * ids and forwards them upstream; the proxy writes the responses through send() and flushes
+ * them with flushFrames(). The id maps are guarded by the proxy lock.
+ */
+class ProxySession extends ServerSession {
+	private final FanOutProxy m_proxy;
+	final HashMap<Integer,Integer> m_requestIds = new HashMap<Integer,Integer>();	// downstream request id to upstream id
+	final HashMap<Integer,Integer> m_orderIds = new HashMap<Integer,Integer>();		// downstream order id to upstream id
+	int m_nextOrderId = 1;	// the next valid id reported to this client
+	boolean m_started;		// the client sent START_API
+	boolean m_dirty;		// frames were written since the last flush
+
+	ProxySession(FanOutProxy proxy, Socket socket) throws IOException {
+		super( socket, proxy.serverVersion() );
+		m_proxy = proxy;
+	}
+
+	void start(String name) {
+		new Thread( this, name).start();
+	}
+
+	@Override protected void onStartApi() throws IOException {
+		if (m_encoder.serverVersion() != m_proxy.serverVersion() ) {
+			// frames are forwarded as they are, so both ends must use the upstream version
+			synchronized( this) {
+				m_encoder.error( -1, EClientErrors.NOT_CONNECTED.code(), "API client must support server version " + m_proxy.serverVersion() );
+				flush();
+			}
+			close();
+			return;
+		}
+		m_proxy.startApi( this);
+	}
+
+	@Override protected void onRequest(RequestFields fields, byte[] frame) throws IOException {
+		m_proxy.request( this, fields, frame);
+	}
+
+	@Override protected void onClose() {
+		m_proxy.sessionClosed( this);
+	}
+
+	/** Answers START_API as TWS does. */
+	void welcome(String accounts) throws IOException {
+		synchronized( this) {
+			m_encoder.nextValidId( m_nextOrderId);
+			if (!accounts.isEmpty() ) {
+				m_encoder.managedAccounts( accounts);
+			}
+			flush();
+		}
+	}
+
+	void error(int id, int errorCode, String errorMsg) throws IOException {
+		synchronized( this) {
+			m_encoder.error( id, errorCode, errorMsg);
+			flush();
+		}
+	}
+
+	void nextValidId() throws IOException {
+		synchronized( this) {
+			m_encoder.nextValidId( m_nextOrderId);
+			flush();
+		}
+	}
+
+	/**
+	 * Writes a response frame, to be flushed by flushFrames(). A client that cannot be written to
+	 * is disconnected; its own thread then ends the session.
+	 */
+	void send(byte[] buf, int len) {
+		synchronized( this) {
+			if (isClosed() ) {
+				return;
+			}
+			try {
+				m_encoder.frame( buf, 0, len);
+				m_dirty = true;
+			}
+			catch (IOException e) {
+				closeSocket();
+			}
+		}
+	}
+
+	void flushFrames() {
+		synchronized( this) {
+			if (!m_dirty || isClosed() ) {
+				return;
+			}
+			m_dirty = false;
+			try {
+				flush();
+			}
+			catch (IOException e) {
+				closeSocket();
+			}
+		}
+	}
+
+	private void closeSocket() {
+		try {
+			m_socket.close();
+		}
+		catch (IOException e) {
+			// ignore, closing anyway
+		}
+	}
+}
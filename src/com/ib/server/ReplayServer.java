@@ -0,0 +1,213 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.ib.client.FrameJournal;
+import com.ib.client.FrameJournalReader;
+import com.ib.client.FrameJournalReplayer;
+
+/**
+ * Serves a session recorded with EClientSocket.setFrameJournal() to unmodified applications
+ * over the TWS protocol. Every connection gets its own replay of the recorded inbound frames,
+ * starting when the client sends startAPI, at the recorded pace or N times faster.
+ * <p>
+ * If the journal also holds the outbound frames, ids are remapped: each request of the client
+ * is matched to the first unmatched recorded request of the same type, preferably for the same
+ * symbol, and recorded messages for that request are sent with the client's id. When the replay
+ * reaches a recorded request the client has not made yet, it waits for it up to the request
+ * timeout, and the recorded pace resumes from there; messages for recorded requests the client
+ * did not make or has cancelled are dropped. Without outbound frames the recorded ids are sent
+ * unchanged.
+ * <p>
+ * Usage: java com.ib.server.ReplayServer &lt;journal dir&gt; [port [speed]]
+ */
+public class ReplayServer implements Closeable {
+	public static final double MAX_SPEED = FrameJournalReplayer.MAX_SPEED;
+
+	private final ServerSocket m_serverSocket;
+	private final FrameJournalReader m_reader;
+	private final CopyOnWriteArrayList<ReplaySession> m_sessions = new CopyOnWriteArrayList<ReplaySession>();
+	private volatile double m_speed = 1;
+	private volatile long m_requestTimeoutMillis = 5000;
+	private Thread m_acceptor;
+
+	// what the journal holds, set by scan()
+	private int m_serverVersion;
+	private long m_originNanos;
+	private final ArrayList<RecordedRequest> m_requests = new ArrayList<RecordedRequest>();
+	private final HashSet<Integer> m_recordedIds = new HashSet<Integer>();
+
+	public ReplayServer(int port, File journalDir) throws IOException {
+		m_reader = FrameJournalReader.open( journalDir);
+		scan();
+		m_serverSocket = new ServerSocket( port);
+	}
+
+	public int port()					{ return m_serverSocket.getLocalPort(); }
+	public int serverVersion()			{ return m_serverVersion; }
+	public double speed()				{ return m_speed; }
+	public long requestTimeoutMillis()	{ return m_requestTimeoutMillis; }
+	public int sessionCount()			{ return m_sessions.size(); }
+
+	/** @param speed 1 for the recorded pace, 2 for twice as fast, etc.; MAX_SPEED for no pauses. Applies to new connections. */
+	public void speed(double speed)		{ m_speed = speed; }
+
+	/** How long the replay waits for the client to make the next recorded request. */
+	public void requestTimeoutMillis(long v) { m_requestTimeoutMillis = v; }
+
+	/** @return the number of recorded requests whose ids are remapped */
+	public int recordedRequests() {
+		return m_requests.size();
+	}
+
+	FrameJournalReader newReader() {
+		return m_reader.duplicate();
+	}
+
+	long originNanos() {
+		return m_originNanos;
+	}
+
+	ArrayList<RecordedRequest> requests() {
+		return m_requests;
+	}
+
+	boolean isRecordedId(int id) {
+		return m_recordedIds.contains( id);
+	}
+
+	void sessionClosed(ReplaySession session) {
+		m_sessions.remove( session);
+	}
+
+	/** Finds the server version, the start of the replay and the recorded requests. */
+	private void scan() throws IOException {
+		FrameJournalReader reader = m_reader.duplicate();
+		byte[] buf = new byte[8192];
+		boolean v100 = false;
+
+		for (int record = 0; reader.next(); record++) {
+			int len = reader.length();
+			if (len > buf.length) {
+				buf = new byte[len];
+			}
+			reader.read( buf);
+
+			if (reader.direction() == FrameJournal.IN) {
+				if (m_serverVersion == 0) {
+					Integer version = IdFields.parseInt( buf, len, 0);
+					if (version == null) {
+						throw new IOException( "journal does not start with the connection handshake");
+					}
+					m_serverVersion = version;
+				}
+				else if (m_originNanos == 0) {
+					m_originNanos = reader.nanos();
+				}
+				continue;
+			}
+
+			// outbound frames carry the length prefix, the first one is the API header
+			if (len >= 4 && buf[0] == 'A' && buf[1] == 'P' && buf[2] == 'I' && buf[3] == 0) {
+				v100 = true;
+				continue;
+			}
+			int off = v100 ? 4 : 0;
+			RequestFields fields = new RequestFields( Arrays.copyOfRange( buf, off, len) );
+
+			if (fields.msgId() == ServerSession.START_API) {
+				if (m_originNanos == 0) {
+					m_originNanos = reader.nanos();
+				}
+			}
+			else if (IdFields.request( fields.msgId() ) > 0) {
+				int id = fields.intAt( IdFields.request( fields.msgId() ) );
+				m_requests.add( new RecordedRequest( record, fields.msgId(), IdFields.symbol( fields), id) );
+				m_recordedIds.add( id);
+			}
+		}
+
+		if (m_serverVersion == 0) {
+			throw new IOException( "journal holds no inbound frames");
+		}
+	}
+
+	/** Starts accepting connections on a background thread. */
+	public synchronized void start() {
+		if (m_acceptor != null) {
+			return;
+		}
+		m_acceptor = new Thread( "ReplayServer-" + port() ) {
+			@Override public void run() {
+				accept();
+			}
+		};
+		m_acceptor.start();
+	}
+
+	private void accept() {
+		int count = 0;
+		while (!m_serverSocket.isClosed() ) {
+			try {
+				Socket socket = m_serverSocket.accept();
+				ReplaySession session = new ReplaySession( this, socket, m_speed, m_requestTimeoutMillis);
+				m_sessions.add( session);
+				session.start( "ReplayServer-" + port() + "-" + ++count);
+			}
+			catch (SocketException e) {
+				// server socket closed
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/** Stops accepting connections and disconnects all clients. */
+	@Override public void close() throws IOException {
+		m_serverSocket.close();
+		for (ReplaySession session : m_sessions) {
+			session.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println( "usage: ReplayServer <journal dir> [port [speed]]");
+			System.exit( 1);
+		}
+		ReplayServer server = new ReplayServer( args.length > 1 ? Integer.parseInt( args[1]) : TwsSimulator.DEFAULT_PORT, new File( args[0]) );
+		if (args.length > 2) {
+			server.speed( Double.parseDouble( args[2]) );
+		}
+		server.start();
+		System.out.println( "ReplayServer listening on port " + server.port() + ", " + server.recordedRequests() + " recorded requests");
+	}
+
+	/** A request found in the journal, matched to at most one request per connection. */
+	static class RecordedRequest {
+		final int m_record;	// position in the journal
+		final int m_msgId;
+		final String m_symbol;
+		final int m_id;
+
+		RecordedRequest(int record, int msgId, String symbol, int id) {
+			m_record = record;
+			m_msgId = msgId;
+			m_symbol = symbol;
+			m_id = id;
+		}
+	}
+}
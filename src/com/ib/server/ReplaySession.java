@@ -0,0 +1,205 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ib.client.FrameJournal;
+import com.ib.client.FrameJournalReader;
+import com.ib.server.ReplayServer.RecordedRequest;
+
+/**
+ * One ReplayServer connection. The session thread matches the client's requests to recorded
+ * ones; a replay thread started by startAPI sends the recorded inbound frames when due and
+ * waits at each recorded request until the client made it.
+ */
+class ReplaySession extends ServerSession {
+	private static final int ID_DIGITS = 11;	// room for a rewritten id
+
+	private final ReplayServer m_server;
+	private final double m_speed;
+	private final long m_requestTimeoutNanos;
+
+	// guarded by this
+	private final boolean[] m_matched;
+	private final HashMap<Integer,Integer> m_idMap = new HashMap<Integer,Integer>();	// recorded id to client id
+
+	private Thread m_replay;
+
+	ReplaySession(ReplayServer server, Socket socket, double speed, long requestTimeoutMillis) throws IOException {
+		super( socket, server.serverVersion() );
+		m_server = server;
+		m_speed = speed;
+		m_requestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos( requestTimeoutMillis);
+		m_matched = new boolean[server.requests().size()];
+	}
+
+	void start(String name) {
+		m_replay = new Thread( name + "-replay") {
+			@Override public void run() {
+				replay();
+			}
+		};
+		m_replay.setDaemon( true);
+		new Thread( this, name).start();
+	}
+
+	@Override protected void onClose() {
+		m_server.sessionClosed( this);
+		synchronized( this) {
+			notifyAll();	// release a replay waiting for a request
+		}
+	}
+
+	@Override protected void onStartApi() {
+		m_replay.start();
+	}
+
+	@Override protected synchronized void onRequest(RequestFields fields, byte[] frame) {
+		int msgId = fields.msgId();
+
+		if (IdFields.request( msgId) > 0) {
+			int clientId = fields.intAt( IdFields.request( msgId) );
+			int match = match( msgId, IdFields.symbol( fields) );
+			if (match >= 0) {
+				m_matched[match] = true;
+				m_idMap.put( m_server.requests().get( match).m_id, clientId);
+				notifyAll();
+			}
+		}
+		else if (IdFields.cancel( msgId) > 0) {
+			Integer clientId = fields.intAt( IdFields.cancel( msgId) );
+			for (Iterator<Map.Entry<Integer,Integer>> iter = m_idMap.entrySet().iterator(); iter.hasNext(); ) {
+				if (iter.next().getValue().equals( clientId) ) {
+					iter.remove();
+				}
+			}
+		}
+	}
+
+	/** @return index of the first unmatched recorded request of this type, for the same symbol if there is one, or -1 */
+	private int match(int msgId, String symbol) {
+		int sameType = -1;
+		for (int i = 0; i < m_matched.length; i++) {
+			RecordedRequest request = m_server.requests().get( i);
+			if (!m_matched[i] && request.m_msgId == msgId) {
+				if (request.m_symbol.equals( symbol) ) {
+					return i;
+				}
+				if (sameType < 0) {
+					sameType = i;
+				}
+			}
+		}
+		return sameType;
+	}
+
+	/** @return the client's id for a recorded id, the recorded id itself if it is not remapped, or null to drop the message */
+	private synchronized Integer clientId(int recordedId) {
+		return m_server.isRecordedId( recordedId) ? m_idMap.get( recordedId) : Integer.valueOf( recordedId);
+	}
+
+	/**
+	 * Waits until the client made the recorded request or the timeout elapsed.
+	 * @return true if the replay had to wait
+	 */
+	private synchronized boolean awaitRequest(int request) throws IOException {
+		if (m_matched[request]) {
+			return false;
+		}
+		flush();
+
+		long deadline = System.nanoTime() + m_requestTimeoutNanos;
+		for (long wait = m_requestTimeoutNanos; !m_matched[request] && !isClosed() && wait > 0; wait = deadline - System.nanoTime() ) {
+			try {
+				TimeUnit.NANOSECONDS.timedWait( this, wait);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+			}
+		}
+		return true;
+	}
+
+	private void replay() {
+		FrameJournalReader reader = m_server.newReader();
+		List<RecordedRequest> requests = m_server.requests();
+		byte[] buf = new byte[8192];
+		byte[] out = new byte[8192 + ID_DIGITS];
+		long originNanos = m_server.originNanos();
+		long startNanos = System.nanoTime();
+		int nextRequest = 0;
+
+		try {
+			for (int record = 0; !isClosed() && reader.next(); record++) {
+				if (nextRequest < requests.size() && requests.get( nextRequest).m_record == record) {
+					if (awaitRequest( nextRequest++) && m_speed > 0) {
+						// continue at the recorded pace from the client's request
+						startNanos = Math.max( startNanos, System.nanoTime() - (long)((reader.nanos() - originNanos) / m_speed) );
+					}
+					continue;
+				}
+
+				// the handshake was done live, skip its recording
+				if (reader.direction() != FrameJournal.IN || reader.nanos() < originNanos) {
+					continue;
+				}
+
+				int len = reader.length();
+				if (len > buf.length) {
+					buf = new byte[len];
+					out = new byte[len + ID_DIGITS];
+				}
+				reader.read( buf);
+
+				if (m_speed > 0) {
+					long due = startNanos + (long)((reader.nanos() - originNanos) / m_speed);
+					if (due > System.nanoTime() ) {
+						synchronized( this) {
+							flush();
+						}
+						for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime() ) {
+							LockSupport.parkNanos( wait);
+						}
+					}
+				}
+
+				byte[] frame = buf;
+				Integer msgId = IdFields.parseInt( buf, len, 0);
+				int field = msgId == null ? 0 : IdFields.response( msgId);
+				int pos = field > 0 ? IdFields.fieldStart( buf, len, field) : -1;
+				Integer recordedId = pos >= 0 ? IdFields.parseInt( buf, len, pos) : null;
+
+				if (recordedId != null) {
+					Integer clientId = clientId( recordedId);
+					if (clientId == null) {
+						continue;
+					}
+					if (!clientId.equals( recordedId) ) {
+						len = IdFields.replace( buf, len, pos, clientId, out);
+						frame = out;
+					}
+				}
+
+				synchronized( this) {
+					m_encoder.frame( frame, 0, len);
+				}
+			}
+			synchronized( this) {
+				flush();
+			}
+		}
+		catch (IOException e) {
+			close();
+		}
+	}
+}
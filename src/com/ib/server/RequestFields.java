@@ -0,0 +1,59 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.server;
+
+import java.util.ArrayList;
+
+/** The null-terminated fields of a message sent by EClient, e.g. field 0 is the msg id. */
+class RequestFields {
+	private final String[] m_fields;
+
+	RequestFields(byte[] frame) {
+		ArrayList<String> fields = new ArrayList<String>();
+		int start = 0;
+		for (int i = 0; i < frame.length; i++) {
+			if (frame[i] == 0) {
+				fields.add( new String( frame, start, i - start) );
+				start = i + 1;
+			}
+		}
+		m_fields = fields.toArray( new String[fields.size()]);
+	}
+
+	int count() {
+		return m_fields.length;
+	}
+
+	int msgId() {
+		return intAt( 0);
+	}
+
+	/** @return the field at index or "" if there is no such field. */
+	String str(int index) {
+		return index < m_fields.length ? m_fields[index] : "";
+	}
+
+	int intAt(int index) {
+		String str = str( index);
+		return str.isEmpty() ? 0 : Integer.parseInt( str);
+	}
+
+	/** @return the field at index, or defaultValue for an empty field as sent by Builder.sendMax() */
+	double doubleAt(int index, double defaultValue) {
+		String str = str( index);
+		return str.isEmpty() ? defaultValue : Double.parseDouble( str);
+	}
+
+	boolean boolAt(int index) {
+		return intAt( index) != 0;
+	}
+
+	@Override public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (String field : m_fields) {
+			sb.append( field).append( '_');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,158 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+import com.ib.client.EServerEncoder;
+
+/**
+ * Server end of one EClientSocket connection: performs the V100 handshake (API\0 header,
+ * version range, server version and time) and then passes each request frame to onRequest().
+ * Responses are written through m_encoder while holding the session lock.
+ */
+abstract class ServerSession implements Runnable {
+	// msg ids sent by EClient
+	static final int REQ_MKT_DATA = 1;
+	static final int CANCEL_MKT_DATA = 2;
+	static final int PLACE_ORDER = 3;
+	static final int CANCEL_ORDER = 4;
+	static final int REQ_IDS = 8;
+	static final int REQ_MKT_DEPTH = 10;
+	static final int CANCEL_MKT_DEPTH = 11;
+	static final int REQ_HISTORICAL_DATA = 20;
+	static final int CANCEL_HISTORICAL_DATA = 25;
+	static final int REQ_CURRENT_TIME = 49;
+	static final int REQ_REAL_TIME_BARS = 50;
+	static final int CANCEL_REAL_TIME_BARS = 51;
+	static final int START_API = 71;
+
+	private static final byte[] API_HEADER = "API\0".getBytes();
+	private static final int MAX_MSG_LENGTH = 0xffffff;
+
+	protected final Socket m_socket;
+	private final DataInputStream m_in;
+	private final BufferedOutputStream m_out;
+	private final int m_maxServerVersion;
+	protected EServerEncoder m_encoder;	// set by the handshake
+	protected int m_clientId;
+	private volatile boolean m_closed;
+
+	ServerSession(Socket socket, int maxServerVersion) throws IOException {
+		m_socket = socket;
+		m_socket.setTcpNoDelay( true);
+		m_in = new DataInputStream( new BufferedInputStream( socket.getInputStream(), 1 << 16) );
+		m_out = new BufferedOutputStream( socket.getOutputStream(), 1 << 16);
+		m_maxServerVersion = maxServerVersion;
+	}
+
+	/** Called once the client sent START_API; m_clientId is set. */
+	protected abstract void onStartApi() throws IOException;
+
+	protected abstract void onRequest(RequestFields fields, byte[] frame) throws IOException;
+
+	/** Called once when the connection is closed by either side. */
+	protected void onClose() {
+	}
+
+	boolean isClosed() {
+		return m_closed;
+	}
+
+	@Override public void run() {
+		try {
+			handshake();
+
+			while (!m_closed) {
+				byte[] frame = readFrame();
+				RequestFields fields = new RequestFields( frame);
+
+				if (fields.msgId() == START_API) {
+					m_clientId = fields.intAt( 2);
+					onStartApi();
+				}
+				else {
+					onRequest( fields, frame);
+				}
+			}
+		}
+		catch (EOFException e) {
+			// client disconnected
+		}
+		catch (SocketException e) {
+			// client disconnected or close() was called
+		}
+		catch (IOException e) {
+			if (!m_closed) {
+				e.printStackTrace();
+			}
+		}
+		finally {
+			close();
+		}
+	}
+
+	public void close() {
+		synchronized( this) {
+			if (m_closed) {
+				return;
+			}
+			m_closed = true;
+		}
+		try {
+			m_socket.close();
+		}
+		catch (IOException e) {
+			// ignore, closing anyway
+		}
+		onClose();
+	}
+
+	/** Writes buffered responses to the socket; call with the session lock held. */
+	protected void flush() throws IOException {
+		m_out.flush();
+	}
+
+	private void handshake() throws IOException {
+		byte[] header = new byte[API_HEADER.length];
+		m_in.readFully( header);
+		if (!Arrays.equals( header, API_HEADER) ) {
+			throw new IOException( "client does not use the V100 protocol");
+		}
+
+		// "v<min>..<max>" or "v<version>" optionally followed by connect options
+		String versions = new String( readFrame() ).trim().split( " ")[0].substring( 1);
+		int sep = versions.indexOf( "..");
+		int clientMin = Integer.parseInt( sep < 0 ? versions : versions.substring( 0, sep) );
+		int clientMax = sep < 0 ? clientMin : Integer.parseInt( versions.substring( sep + 2) );
+		if (clientMin > m_maxServerVersion) {
+			throw new IOException( "client requires server version " + clientMin);
+		}
+
+		synchronized( this) {
+			m_encoder = new EServerEncoder( m_out, Math.min( clientMax, m_maxServerVersion) );
+			m_encoder.serverVersion( new SimpleDateFormat( "yyyyMMdd HH:mm:ss z").format( new Date() ) );
+			flush();
+		}
+	}
+
+	private byte[] readFrame() throws IOException {
+		int len = m_in.readInt();
+		if (len < 0 || len > MAX_MSG_LENGTH) {
+			throw new IOException( "invalid message length " + len);
+		}
+		byte[] frame = new byte[len];
+		m_in.readFully( frame);
+		return frame;
+	}
+}
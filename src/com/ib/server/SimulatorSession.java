@@ -0,0 +1,377 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ib.client.TickType;
+
+/**
+ * One TwsSimulator connection. Requests are answered on the session thread; a second
+ * thread emits the subscribed data once per millisecond, as many messages per subscription
+ * as its rate calls for since it was started, and fills orders when their delay has passed.
+ */
+class SimulatorSession extends ServerSession {
+	private static final long PUMP_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos( 1);
+	private static final double TICK = 0.01;
+	private static final int ASK = 0;
+	private static final int BID = 1;
+	private static final int INSERT = 0;
+	private static final int UPDATE = 1;
+
+	private final TwsSimulator m_simulator;
+	private final Random m_random;
+	private final double m_tickRate;
+	private final double m_depthRate;
+	private final long m_barIntervalNanos;
+	private final int m_historicalBars;
+	private final long m_fillDelayNanos;
+
+	// all guarded by this
+	private final HashMap<Integer,Feed> m_feeds = new HashMap<Integer,Feed>();
+	private final HashMap<Integer,WorkingOrder> m_orders = new HashMap<Integer,WorkingOrder>();
+	private int m_nextOrderId;
+	private int m_nextPermId = 1;
+
+	private Thread m_pump;
+
+	SimulatorSession(TwsSimulator simulator, Socket socket) throws IOException {
+		super( socket, simulator.serverVersion() );
+		m_simulator = simulator;
+		m_random = new Random( simulator.seed() );
+		m_tickRate = simulator.tickRate();
+		m_depthRate = simulator.depthRate();
+		m_barIntervalNanos = TimeUnit.MILLISECONDS.toNanos( simulator.barIntervalMillis() );
+		m_historicalBars = simulator.historicalBars();
+		m_fillDelayNanos = simulator.fillDelayMillis() < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos( simulator.fillDelayMillis() );
+		m_nextOrderId = simulator.nextValidId();
+	}
+
+	void start(String name) {
+		new Thread( this, name).start();
+		m_pump = new Thread( name + "-pump") {
+			@Override public void run() {
+				pump();
+			}
+		};
+		m_pump.setDaemon( true);
+		m_pump.start();
+	}
+
+	@Override protected void onClose() {
+		m_simulator.sessionClosed( this);
+	}
+
+	@Override protected synchronized void onStartApi() throws IOException {
+		m_encoder.nextValidId( m_nextOrderId);
+		m_encoder.managedAccounts( m_simulator.accounts() );
+		sent( 2);
+		flush();
+	}
+
+	@Override protected synchronized void onRequest(RequestFields fields, byte[] frame) throws IOException {
+		int reqId = fields.intAt( 2);
+
+		switch (fields.msgId() ) {
+			case REQ_MKT_DATA:
+				reqMktData( reqId, fields);
+				break;
+			case REQ_MKT_DEPTH:
+				// numRows follows conId and the 10 contract fields
+				startFeed( new DepthFeed( reqId, fields.str( 4), Math.max( 1, fields.intAt( 14) ) ) );
+				break;
+			case REQ_REAL_TIME_BARS:
+				startFeed( new BarFeed( reqId, fields.str( 4) ) );
+				break;
+			case CANCEL_MKT_DATA:
+			case CANCEL_MKT_DEPTH:
+			case CANCEL_REAL_TIME_BARS:
+				m_feeds.remove( reqId);
+				break;
+			case REQ_HISTORICAL_DATA:
+				historicalData( reqId, fields.str( 4), fields.intAt( 21) );
+				break;
+			case PLACE_ORDER:
+				placeOrder( reqId, fields);
+				break;
+			case CANCEL_ORDER:
+				cancelOrder( reqId);
+				break;
+			case REQ_IDS:
+				m_encoder.nextValidId( m_nextOrderId);
+				sent( 1);
+				break;
+			case REQ_CURRENT_TIME:
+				m_encoder.currentTime( System.currentTimeMillis() / 1000);
+				sent( 1);
+				break;
+			default:
+				// not simulated
+				break;
+		}
+		flush();
+	}
+
+	private void reqMktData(int reqId, RequestFields fields) throws IOException {
+		boolean snapshot = IdFields.snapshot( fields);
+
+		MktDataFeed feed = new MktDataFeed( reqId, fields.str( 4) );
+		if (snapshot) {
+			for (int k = 0; k < 4; k++) {
+				feed.emit();
+			}
+			m_encoder.tickSnapshotEnd( reqId);
+			sent( 1);
+		}
+		else {
+			startFeed( feed);
+		}
+	}
+
+	private void startFeed(Feed feed) throws IOException {
+		feed.started();
+		m_feeds.put( feed.m_reqId, feed);
+	}
+
+	private void historicalData(int reqId, String symbol, int formatDate) throws IOException {
+		SimpleDateFormat format = new SimpleDateFormat( "yyyyMMdd  HH:mm:ss");
+		long barMillis = 60000;
+		long end = System.currentTimeMillis() / barMillis * barMillis;
+		long start = end - m_historicalBars * barMillis;
+		double price = basePrice( symbol);
+
+		m_encoder.historicalData( reqId, format.format( new Date( start) ), format.format( new Date( end) ), m_historicalBars);
+		for (int i = 0; i < m_historicalBars; i++) {
+			long time = start + i * barMillis;
+			double open = price;
+			double high = open;
+			double low = open;
+			for (int k = 0; k < 10; k++) {
+				price = walk( price);
+				high = Math.max( high, price);
+				low = Math.min( low, price);
+			}
+			String date = formatDate == 2 ? String.valueOf( time / 1000) : format.format( new Date( time) );
+			m_encoder.historicalDataBar( date, open, high, low, price, 100 + m_random.nextInt( 1000), (high + low) / 2, false, 1 + m_random.nextInt( 50) );
+		}
+		sent( 1);
+	}
+
+	private void placeOrder(int orderId, RequestFields fields) throws IOException {
+		// after conId, 11 contract fields, secIdType and secId: action, quantity, type, limit price
+		double quantity = fields.doubleAt( 18, 0);
+		double price = fields.doubleAt( 20, 0);
+		if (price == 0) {
+			price = basePrice( fields.str( 4) );
+		}
+
+		WorkingOrder order = m_orders.get( orderId);
+		if (order == null) {
+			order = new WorkingOrder( orderId, m_nextPermId++);
+			m_orders.put( orderId, order);
+		}
+		order.m_quantity = quantity;
+		order.m_price = price;
+		order.m_fillNanos = m_fillDelayNanos < 0 ? Long.MAX_VALUE : System.nanoTime() + m_fillDelayNanos;
+		m_nextOrderId = Math.max( m_nextOrderId, orderId + 1);
+
+		orderStatus( order, "Submitted", 0);
+	}
+
+	private void cancelOrder(int orderId) throws IOException {
+		WorkingOrder order = m_orders.remove( orderId);
+		if (order != null) {
+			orderStatus( order, "Cancelled", 0);
+		}
+	}
+
+	private void orderStatus(WorkingOrder order, String status, double filled) throws IOException {
+		m_encoder.orderStatus( order.m_orderId, status, filled, order.m_quantity - filled, filled == 0 ? 0 : order.m_price,
+				order.m_permId, 0, filled == 0 ? 0 : order.m_price, m_clientId, "");
+		sent( 1);
+	}
+
+	private void pump() {
+		while (!isClosed() ) {
+			try {
+				synchronized( this) {
+					long now = System.nanoTime();
+					int sent = 0;
+
+					for (Feed feed : m_feeds.values() ) {
+						sent += feed.pump( now);
+					}
+
+					for (Iterator<WorkingOrder> iter = m_orders.values().iterator(); iter.hasNext(); ) {
+						WorkingOrder order = iter.next();
+						if (order.m_fillNanos <= now) {
+							orderStatus( order, "Filled", order.m_quantity);
+							iter.remove();
+							sent++;
+						}
+					}
+
+					if (sent > 0) {
+						flush();
+					}
+				}
+			}
+			catch (IOException e) {
+				close();
+				return;
+			}
+			LockSupport.parkNanos( PUMP_INTERVAL_NANOS);
+		}
+	}
+
+	private void sent(int count) {
+		m_simulator.addMessagesSent( count);
+	}
+
+	private double walk(double price) {
+		int step = m_random.nextInt( 3) - 1;
+		return Math.max( TICK, Math.round( (price + step * TICK) * 100) / 100.0);
+	}
+
+	/** A stable starting price per symbol between 10 and 500. */
+	private static double basePrice(String symbol) {
+		return 10 + Math.abs( symbol.hashCode() % 49000) / 100.0;
+	}
+
+	/** Subscription emitting messages at a fixed rate. */
+	private abstract class Feed {
+		final int m_reqId;
+		final double m_rate;	// per second
+		double m_price;
+		long m_startNanos;
+		long m_emitted;
+
+		Feed(int reqId, String symbol, double rate) {
+			m_reqId = reqId;
+			m_rate = rate;
+			m_price = basePrice( symbol);
+		}
+
+		/** Sends whatever a new subscriber receives right away. */
+		void started() throws IOException {
+			m_startNanos = System.nanoTime();
+		}
+
+		/** @return the number of messages sent to catch up with the rate */
+		int pump(long now) throws IOException {
+			long due = (long)((now - m_startNanos) * m_rate / 1e9);
+			int sent = 0;
+			while (m_emitted < due) {
+				emit();
+				m_emitted++;
+				sent++;
+			}
+			return sent;
+		}
+
+		abstract void emit() throws IOException;
+	}
+
+	/** Cycles through bid, ask, last and volume ticks. */
+	private class MktDataFeed extends Feed {
+		private int m_next;
+		private int m_volume;
+
+		MktDataFeed(int reqId, String symbol) {
+			super( reqId, symbol, m_tickRate);
+		}
+
+		@Override void emit() throws IOException {
+			switch (m_next++ & 3) {
+				case 0:
+					m_price = walk( m_price);
+					m_encoder.tickPrice( m_reqId, TickType.BID.index(), m_price - TICK, 1 + m_random.nextInt( 20) * 100, 1);
+					break;
+				case 1:
+					m_encoder.tickPrice( m_reqId, TickType.ASK.index(), m_price + TICK, 1 + m_random.nextInt( 20) * 100, 1);
+					break;
+				case 2:
+					int size = 1 + m_random.nextInt( 5) * 100;
+					m_volume += size;
+					m_encoder.tickPrice( m_reqId, TickType.LAST.index(), m_price, size, 0);
+					break;
+				default:
+					m_encoder.tickSize( m_reqId, TickType.VOLUME.index(), m_volume);
+					break;
+			}
+			sent( 1);
+		}
+	}
+
+	/** Inserts numRows levels per side, then updates random levels. */
+	private class DepthFeed extends Feed {
+		private final int m_rows;
+
+		DepthFeed(int reqId, String symbol, int rows) {
+			super( reqId, symbol, m_depthRate);
+			m_rows = rows;
+		}
+
+		@Override void started() throws IOException {
+			super.started();
+			for (int position = 0; position < m_rows; position++) {
+				level( position, INSERT, ASK);
+				level( position, INSERT, BID);
+			}
+		}
+
+		@Override void emit() throws IOException {
+			level( m_random.nextInt( m_rows), UPDATE, m_random.nextBoolean() ? ASK : BID);
+		}
+
+		private void level(int position, int operation, int side) throws IOException {
+			double offset = (position + 1) * TICK;
+			double price = side == ASK ? m_price + offset : m_price - offset;
+			m_encoder.updateMktDepth( m_reqId, position, operation, side, price, 100 * (1 + m_random.nextInt( 50) ) );
+			sent( 1);
+		}
+	}
+
+	/** One bar per bar interval. */
+	private class BarFeed extends Feed {
+		BarFeed(int reqId, String symbol) {
+			super( reqId, symbol, 1e9 / m_barIntervalNanos);
+		}
+
+		@Override void emit() throws IOException {
+			double open = m_price;
+			double high = open;
+			double low = open;
+			for (int k = 0; k < 5; k++) {
+				m_price = walk( m_price);
+				high = Math.max( high, m_price);
+				low = Math.min( low, m_price);
+			}
+			long volume = 100 + m_random.nextInt( 1000);
+			m_encoder.realtimeBar( m_reqId, System.currentTimeMillis() / 1000, open, high, low, m_price, volume, (high + low) / 2, 1 + m_random.nextInt( 20) );
+			sent( 1);
+		}
+	}
+
+	private static class WorkingOrder {
+		final int m_orderId;
+		final int m_permId;
+		double m_quantity;
+		double m_price;
+		long m_fillNanos;
+
+		WorkingOrder(int orderId, int permId) {
+			m_orderId = orderId;
+			m_permId = permId;
+		}
+	}
+}
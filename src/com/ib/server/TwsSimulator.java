@@ -0,0 +1,138 @@
+/* Copyright (C) 2013 Interactive Brokers LLC. All rights reserved.  This code is subject to the terms
+ * and conditions of the IB API Non-Commercial License or the IB API Commercial License, as applicable. */
+
+package com.ib.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ib.client.EClient;
+
+/**
+ * Local stand-in for TWS for load tests and benchmarks. Accepts EClientSocket connections,
+ * performs the V100 handshake, sends nextValidId and managedAccounts after startAPI and
+ * answers reqMktData, reqMktDepth, reqRealTimeBars, reqHistoricalData and placeOrder with
+ * synthetic data at the configured rates. Other requests are ignored.
+ * <p>
+ * Prices follow a seeded random walk per subscription, so runs with the same settings
+ * produce the same message mix. Settings apply to connections accepted after they are set.
+ * <p>
+ * Usage: java com.ib.server.TwsSimulator [port [ticksPerSecond [depthUpdatesPerSecond]]]
+ */
+public class TwsSimulator implements Closeable {
+	public static final int DEFAULT_PORT = 7497;
+
+	private final ServerSocket m_serverSocket;
+	private final CopyOnWriteArrayList<SimulatorSession> m_sessions = new CopyOnWriteArrayList<SimulatorSession>();
+	private final AtomicLong m_messagesSent = new AtomicLong();
+	private Thread m_acceptor;
+
+	private volatile int m_serverVersion = EClient.MAX_VERSION;
+	private volatile String m_accounts = "DU000001";
+	private volatile int m_nextValidId = 1;
+	private volatile double m_tickRate = 10;			// market data messages per second per reqMktData
+	private volatile double m_depthRate = 10;			// depth updates per second per reqMktDepth
+	private volatile long m_barIntervalMillis = 5000;	// real time bar interval, 5 s in TWS
+	private volatile int m_historicalBars = 100;		// bars per reqHistoricalData
+	private volatile long m_fillDelayMillis = 0;		// < 0 means orders are never filled
+	private volatile long m_seed = 1;
+
+	/** @param port 0 picks a free port, see port() */
+	public TwsSimulator(int port) throws IOException {
+		m_serverSocket = new ServerSocket( port);
+	}
+
+	public int port()								{ return m_serverSocket.getLocalPort(); }
+	public int serverVersion()						{ return m_serverVersion; }
+	public String accounts()						{ return m_accounts; }
+	public int nextValidId()						{ return m_nextValidId; }
+	public double tickRate()						{ return m_tickRate; }
+	public double depthRate()						{ return m_depthRate; }
+	public long barIntervalMillis()					{ return m_barIntervalMillis; }
+	public int historicalBars()						{ return m_historicalBars; }
+	public long fillDelayMillis()					{ return m_fillDelayMillis; }
+	public long seed()								{ return m_seed; }
+
+	public void serverVersion(int v)				{ m_serverVersion = v; }
+	public void accounts(String v)					{ m_accounts = v; }
+	public void nextValidId(int v)					{ m_nextValidId = v; }
+	public void tickRate(double v)					{ m_tickRate = v; }
+	public void depthRate(double v)					{ m_depthRate = v; }
+	public void barIntervalMillis(long v)			{ m_barIntervalMillis = v; }
+	public void historicalBars(int v)				{ m_historicalBars = v; }
+	public void fillDelayMillis(long v)				{ m_fillDelayMillis = v; }
+	public void seed(long v)						{ m_seed = v; }
+
+	/** Total number of messages sent to all clients so far. */
+	public long messagesSent() {
+		return m_messagesSent.get();
+	}
+
+	public int sessionCount() {
+		return m_sessions.size();
+	}
+
+	void addMessagesSent(int count) {
+		m_messagesSent.addAndGet( count);
+	}
+
+	void sessionClosed(SimulatorSession session) {
+		m_sessions.remove( session);
+	}
+
+	/** Starts accepting connections on a background thread. */
+	public synchronized void start() {
+		if (m_acceptor != null) {
+			return;
+		}
+		m_acceptor = new Thread( "TwsSimulator-" + port() ) {
+			@Override public void run() {
+				accept();
+			}
+		};
+		m_acceptor.start();
+	}
+
+	private void accept() {
+		int count = 0;
+		while (!m_serverSocket.isClosed() ) {
+			try {
+				Socket socket = m_serverSocket.accept();
+				SimulatorSession session = new SimulatorSession( this, socket);
+				m_sessions.add( session);
+				session.start( "TwsSimulator-" + port() + "-" + ++count);
+			}
+			catch (SocketException e) {
+				// server socket closed
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/** Stops accepting connections and disconnects all clients. */
+	@Override public void close() throws IOException {
+		m_serverSocket.close();
+		for (SimulatorSession session : m_sessions) {
+			session.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		TwsSimulator simulator = new TwsSimulator( args.length > 0 ? Integer.parseInt( args[0]) : DEFAULT_PORT);
+		if (args.length > 1) {
+			simulator.tickRate( Double.parseDouble( args[1]) );
+		}
+		if (args.length > 2) {
+			simulator.depthRate( Double.parseDouble( args[2]) );
+		}
+		simulator.start();
+		System.out.println( "TwsSimulator listening on port " + simulator.port() );
+	}
+}